@@ -0,0 +1,262 @@
+package benchmark;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import client.AttachmentDownload;
+import client.FileSender;
+import client.FragmentReassembler;
+import protocol.DataPackage;
+import protocol.Header;
+import protocol.KeyWrap;
+
+/**
+ * One encrypted file given to several receivers through local server, in two ways. Relay:
+ * sender writes every chunk to every receiver as FILE_CHUNK, so server deserializes and
+ * serializes every copy through ObjectOutputStream. Store: sender uploads file once with
+ * ATTACHMENT_PUT, gives it to all receivers with one ATTACHMENT, and receivers download it
+ * at the same time from attachment port, where server writes it by transferTo. Times are
+ * from the first sent chunk to the last byte read by the last receiver.
+ * Start ChatServer first and run with optional arguments - length of file in MiB (default
+ * 256), number of receivers (default 4) and server host (default localhost).
+ */
+public class AttachmentBenchmark
+{
+	private static final int PORT = 6664;
+	private static final int TIMEOUT = 60_000;
+
+	public static void main(String[] args) throws Exception
+	{
+		long length = (args.length > 0 ? Long.parseLong(args[0]) : 256) << 20;
+		int receivers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		String host = args.length > 2 ? args[2] : "localhost";
+		/** Bytes stand for ciphertext, they are not decrypted by receivers */
+		byte[] chunk = new byte[FileSender.CHUNK_LENGTH];
+		ThreadLocalRandom.current().nextBytes(chunk);
+
+		Connection sender = new Connection("attachmentSender", new InetSocketAddress(host, PORT));
+		List<Connection> connections = new ArrayList<>();
+		for (int i = 0; i < receivers; i++)
+			connections.add(new Connection("attachmentReceiver" + i, new InetSocketAddress(host, PORT)));
+
+		double relay = relay(sender, connections, chunk, length);
+		System.out.printf("relay through ObjectOutputStream: %.1f MiB/s delivered to %d receivers%n", relay, receivers);
+		double store = store(sender, connections, chunk, length, host);
+		System.out.printf("attachment store with transferTo: %.1f MiB/s delivered to %d receivers (%.1fx relay)%n", store,
+				receivers, store / relay);
+
+		sender.close();
+		for (Connection connection : connections)
+			connection.close();
+	}
+
+	/** @return MiB delivered to all receivers per second when sender writes every copy */
+	private static double relay(Connection sender, List<Connection> receivers, byte[] chunk, long length)
+			throws InterruptedException
+	{
+		CountDownLatch done = new CountDownLatch(receivers.size());
+		for (Connection receiver : receivers)
+			read(receiver, done, dp -> dp.getHeader() == Header.FILE_CHUNK ? dp.getEncryptedMsg().length : 0, length);
+		long start = System.nanoTime();
+		for (long position = 0; position < length; position += chunk.length)
+			for (Connection receiver : receivers)
+			{
+				DataPackage dp = new DataPackage();
+				dp.setFromUserName(sender.name);
+				dp.setToUserName(receiver.name);
+				dp.setHeader(Header.FILE_CHUNK);
+				dp.setAdministrationMsg("<1><" + position + ">");
+				dp.setEncryptedMsg(chunk);
+				sender.send(dp);
+			}
+		if (!done.await(TIMEOUT, TimeUnit.MILLISECONDS))
+			throw new IllegalStateException("Relayed chunks did not come");
+		return mibPerSecond(length * receivers.size(), start);
+	}
+
+	/** @return MiB delivered to all receivers per second when file is uploaded once and downloaded from store */
+	private static double store(Connection sender, List<Connection> receivers, byte[] chunk, long length, String host)
+			throws IOException, InterruptedException
+	{
+		CountDownLatch answered = new CountDownLatch(1);
+		String[] hash = new String[1];
+		read(sender, answered, dp -> {
+			if (dp.getHeader() != Header.ATTACHMENT_PUT)
+				return 0;
+			String[] splitted = dp.getAdministrationMsg().split("[<>]+");
+			hash[0] = splitted.length == 3 ? splitted[2] : null;
+			return 1;
+		}, 1);
+		CountDownLatch downloaded = new CountDownLatch(receivers.size());
+		for (Connection receiver : receivers)
+			read(receiver, new CountDownLatch(1), dp -> {
+				if (dp.getHeader() != Header.ATTACHMENT)
+					return 0;
+				String stored = dp.getAdministrationMsg().split("[<>]+")[1];
+				Thread download = new Thread(() -> download(host, receiver.name, stored, length, downloaded));
+				download.start();
+				return 1;
+			}, 1);
+
+		long start = System.nanoTime();
+		for (long position = 0; position < length; position += chunk.length)
+		{
+			DataPackage dp = new DataPackage();
+			dp.setFromUserName(sender.name);
+			dp.setHeader(Header.ATTACHMENT_PUT);
+			dp.setAdministrationMsg("<1><" + position + "><" + length + ">");
+			dp.setEncryptedMsg(chunk);
+			sender.send(dp);
+		}
+		if (!answered.await(TIMEOUT, TimeUnit.MILLISECONDS) || hash[0] == null)
+			throw new IllegalStateException("Upload was not stored");
+		System.out.printf("upload: %.1f MiB/s%n", mibPerSecond(length, start));
+
+		List<KeyWrap> wraps = new ArrayList<>();
+		for (Connection receiver : receivers)
+			wraps.add(new KeyWrap(receiver.name, 0, new byte[32]));
+		DataPackage attachment = new DataPackage();
+		attachment.setFromUserName(sender.name);
+		attachment.setHeader(Header.ATTACHMENT);
+		attachment.setAdministrationMsg("<" + hash[0] + "><" + length + "><benchmark.bin>");
+		attachment.setRecipientKeys(wraps);
+		long shared = System.nanoTime();
+		sender.send(attachment);
+		if (!downloaded.await(TIMEOUT, TimeUnit.MILLISECONDS))
+			throw new IllegalStateException("Downloads did not end");
+		System.out.printf("downloads: %.1f MiB/s delivered%n", mibPerSecond(length * receivers.size(), shared));
+		return mibPerSecond(length * receivers.size(), start);
+	}
+
+	/** Reading raw download from attachment port and dropping its bytes */
+	private static void download(String host, String user, String hash, long length, CountDownLatch downloaded)
+	{
+		try (Socket socket = new Socket())
+		{
+			socket.connect(new InetSocketAddress(host, AttachmentDownload.PORT), TIMEOUT);
+			DataPackage request = new DataPackage();
+			request.setFromUserName(user);
+			request.setHeader(Header.ATTACHMENT_GET);
+			request.setAdministrationMsg("<" + hash + ">");
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.writeObject(request);
+			out.flush();
+			InputStream in = socket.getInputStream();
+			if (new DataInputStream(in).readLong() != length)
+				throw new IOException("Server does not have " + hash);
+			byte[] buffer = new byte[FileSender.CHUNK_LENGTH];
+			long read = 0;
+			for (int n; (n = in.read(buffer)) >= 0;)
+				read += n;
+			if (read != length)
+				throw new IOException("Download ended after " + read + " bytes");
+			downloaded.countDown();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/** Counting of received packages */
+	private interface Counter
+	{
+		/** @return number of units of package counted to expected total */
+		long count(DataPackage dp);
+	}
+
+	/** Reading packages of connection on daemon thread until counted units reach total, long ones are joined */
+	private static void read(Connection connection, CountDownLatch done, Counter counter, long total)
+	{
+		Thread reading = new Thread(() -> {
+			FragmentReassembler fragments = new FragmentReassembler();
+			long counted = 0;
+			try
+			{
+				while (counted < total)
+				{
+					DataPackage dp = connection.read();
+					if (dp.getHeader() == Header.FRAGMENT)
+						dp = fragments.add(dp);
+					if (dp != null)
+						counted += counter.count(dp);
+				}
+				done.countDown();
+			}
+			catch (IOException | ClassNotFoundException e)
+			{
+				/** Connection closed at the end */
+			}
+		});
+		reading.setDaemon(true);
+		reading.start();
+	}
+
+	private static double mibPerSecond(long bytes, long start)
+	{
+		return bytes / ((System.nanoTime() - start) / 1e9) / (1 << 20);
+	}
+
+	/** Registered connection to server, packages are written like by ClientThread */
+	private static final class Connection
+	{
+		private final String name;
+		private final Socket socket = new Socket();
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+
+		Connection(String name, InetSocketAddress server) throws IOException
+		{
+			this.name = name;
+			socket.connect(server, TIMEOUT);
+			out = new ObjectOutputStream(socket.getOutputStream());
+			DataPackage id = new DataPackage();
+			id.setHeader(Header.ID_SENDING);
+			id.setFromUserName(name);
+			id.setAdministrationMsg("<-1><0>");
+			send(id);
+			in = new ObjectInputStream(socket.getInputStream());
+		}
+
+		synchronized void send(DataPackage dp)
+		{
+			try
+			{
+				out.writeObject(dp);
+				out.reset();
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+
+		DataPackage read() throws IOException, ClassNotFoundException
+		{
+			return (DataPackage) in.readObject();
+		}
+
+		void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				/** Benchmark has ended */
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package benchmark;
+
+import cipher.DiffieHellman;
+import cipher.ElGamalBatch;
+import cipher.ElGamalSignature;
+
+/**
+ * Time of checking burst of ElGamal handshake signatures from different known users (prepared
+ * keys) - one by one compared with one batch with randomized linear combination.
+ * Run with optional arguments - signatures in burst (default 32) and iterations (default 10).
+ */
+public class BatchVerifyBenchmark
+{
+	public static void main(String[] args)
+	{
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		ElGamalSignature.SubgroupKey[] keys = new ElGamalSignature.SubgroupKey[size];
+		byte[][] messages = new byte[size][];
+		byte[][] signatures = new byte[size][];
+		DiffieHellman checker = new DiffieHellman();
+		checker.generatePublicVars();
+		checker.setSignatureScheme(ElGamalSignature.NAME);
+		for (int i = 0; i < size; i++)
+		{
+			DiffieHellman signer = new DiffieHellman();
+			signer.generatePublicVars();
+			signer.setSignatureScheme(ElGamalSignature.NAME);
+			keys[i] = (ElGamalSignature.SubgroupKey) checker.getSignatureScheme()
+					.prepare(signer.getSignatureScheme().getPublicKey());
+			messages[i] = ("handshake " + i).getBytes();
+			signatures[i] = signer.getSignatureScheme().sign(messages[i]);
+		}
+
+		/** Warm up */
+		for (int i = 0; i < 3; i++)
+		{
+			alone(keys, messages, signatures);
+			batch(keys, messages, signatures);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			alone(keys, messages, signatures);
+		long aloneTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			batch(keys, messages, signatures);
+		long batchTime = System.nanoTime() - start;
+
+		System.out.printf("one by one: %8.3f ms per signature%n", aloneTime / 1e6 / iterations / size);
+		System.out.printf("batch of %d: %8.3f ms per signature (%.1fx faster)%n", size,
+				batchTime / 1e6 / iterations / size, (double) aloneTime / batchTime);
+	}
+
+	private static void alone(ElGamalSignature.SubgroupKey[] keys, byte[][] messages, byte[][] signatures)
+	{
+		for (int i = 0; i < keys.length; i++)
+			if (!keys[i].verify(messages[i], signatures[i]))
+				throw new IllegalStateException("Signature not verified");
+	}
+
+	private static void batch(ElGamalSignature.SubgroupKey[] keys, byte[][] messages, byte[][] signatures)
+	{
+		for (boolean result : ElGamalBatch.verify(keys, messages, signatures))
+			if (!result)
+				throw new IllegalStateException("Signature not verified");
+	}
+}
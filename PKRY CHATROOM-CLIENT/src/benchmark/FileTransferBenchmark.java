@@ -0,0 +1,302 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cipher.ContentKey;
+import client.CryptoExecutor;
+import client.FileReceiver;
+import client.FileSender;
+import client.FragmentReassembler;
+import protocol.DataPackage;
+import protocol.Header;
+import protocol.KeyWrap;
+
+/**
+ * File transfer through local server. Sender and receiver connect like ClientThread, file is
+ * sent by FileSender and written by FileReceiver with the same workers, window and
+ * acknowledgments as in client - only key of conversation is known to both at start instead
+ * of handshake. Throughput is compared with plain TCP copy of the same number of bytes over
+ * loopback, and peak of used heap shows that memory does not grow with file.
+ * Start ChatServer first and run with optional arguments - length of file in MiB (default
+ * 1024) and server host (default localhost).
+ */
+public class FileTransferBenchmark
+{
+	private static final int PORT = 6664;
+	private static final int TIMEOUT = 10_000;
+
+	public static void main(String[] args) throws Exception
+	{
+		long length = (args.length > 0 ? Long.parseLong(args[0]) : 1024) << 20;
+		String host = args.length > 1 ? args[1] : "localhost";
+		File source = File.createTempFile("transfer", ".bin");
+		File directory = Files.createTempDirectory("received").toFile();
+		source.deleteOnExit();
+		try (RandomAccessFile file = new RandomAccessFile(source, "rw"))
+		{
+			byte[] block = new byte[1 << 20];
+			for (long written = 0; written < length; written += block.length)
+			{
+				ThreadLocalRandom.current().nextBytes(block);
+				file.write(block, 0, (int) Math.min(block.length, length - written));
+			}
+		}
+
+		double plain = plainCopy(length);
+		System.out.printf("plain TCP loopback: %.1f MiB/s%n", plain);
+
+		AtomicLong peakHeap = new AtomicLong();
+		Thread sampler = new Thread(() -> {
+			Runtime runtime = Runtime.getRuntime();
+			while (!Thread.currentThread().isInterrupted())
+			{
+				peakHeap.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+				try
+				{
+					Thread.sleep(10);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+		});
+		sampler.setDaemon(true);
+		sampler.start();
+
+		byte[] sessionKey = ContentKey.generate();
+		CryptoExecutor workers = new CryptoExecutor(Runtime.getRuntime().availableProcessors());
+		Connection senderConnection = new Connection("fileSender", new InetSocketAddress(host, PORT));
+		Connection receiverConnection = new Connection("fileReceiver", new InetSocketAddress(host, PORT));
+		CountDownLatch received = new CountDownLatch(1);
+		FileReceiver[] receiver = new FileReceiver[1];
+		Thread reading = new Thread(() -> receive(receiverConnection, sessionKey, directory, workers, receiver, received));
+		reading.setDaemon(true);
+		reading.start();
+
+		CountDownLatch sent = new CountDownLatch(1);
+		byte[] contentKey = ContentKey.generate();
+		long start = System.nanoTime();
+		FileSender sender = new FileSender(1, "fileSender", "fileReceiver", source, contentKey, FileSender.DEFAULT_WINDOW,
+				workers, "fileReceiver\u0000file", senderConnection::send, (s, failure) -> {
+					if (failure != null)
+						failure.printStackTrace();
+					sent.countDown();
+				});
+		Thread acknowledgments = new Thread(() -> {
+			try
+			{
+				while (true)
+				{
+					DataPackage dp = senderConnection.read();
+					if (dp != null && dp.getHeader() == Header.FILE_ACK)
+					{
+						String[] splitted = dp.getAdministrationMsg().split("[<>]+");
+						sender.acknowledge(Long.parseLong(splitted[2]), splitted.length == 4);
+					}
+				}
+			}
+			catch (IOException | ClassNotFoundException e)
+			{
+				/** Connection closed at the end */
+			}
+		});
+		acknowledgments.setDaemon(true);
+		acknowledgments.start();
+		sender.start();
+		senderConnection.send(sender.offer(new KeyWrap("fileReceiver", 0, ContentKey.wrap(contentKey, sessionKey))));
+		received.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		sent.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		sampler.interrupt();
+
+		System.out.printf("encrypted transfer through server: %.1f MiB/s (%.0f%% of plain TCP), peak heap %d MiB%n",
+				length / seconds / (1 << 20), 100 * length / seconds / (1 << 20) / plain, peakHeap.get() >> 20);
+		System.out.println("received file equal to sent: " + sameContent(source, receiver[0].getTarget()));
+		receiver[0].getTarget().delete();
+		directory.delete();
+		senderConnection.close();
+		receiverConnection.close();
+		workers.shutdown();
+	}
+
+	/** Reading thread of receiver, works like ClientThread for offer and chunks */
+	private static void receive(Connection connection, byte[] sessionKey, File directory, CryptoExecutor workers,
+			FileReceiver[] receiver, CountDownLatch received)
+	{
+		FragmentReassembler fragments = new FragmentReassembler();
+		try
+		{
+			while (true)
+			{
+				DataPackage dp = connection.read();
+				if (dp.getHeader() == Header.FRAGMENT)
+					dp = fragments.add(dp);
+				if (dp == null)
+					continue;
+				if (dp.getHeader() == Header.FILE_OFFER)
+				{
+					String[] splitted = dp.getAdministrationMsg().split("[<>]+");
+					byte[] contentKey = ContentKey.unwrap(dp.getRecipientKeys().get(0).getWrappedKey(), sessionKey);
+					receiver[0] = new FileReceiver(Long.parseLong(splitted[1]), dp.getFromUserName(), splitted[3],
+							Long.parseLong(splitted[2]), contentKey, FileSender.DEFAULT_WINDOW, directory);
+					connection.send(acknowledgment(dp.getFromUserName(), 0, true));
+				}
+				else if (dp.getHeader() == Header.FILE_CHUNK)
+				{
+					long position = Long.parseLong(dp.getAdministrationMsg().split("[<>]+")[2]);
+					byte[] encrypted = dp.getEncryptedMsg();
+					FileReceiver file = receiver[0];
+					if (!file.take(position, encrypted.length))
+						continue;
+					String from = dp.getFromUserName();
+					workers.execute("chunk" + position / FileSender.CHUNK_LENGTH % Runtime.getRuntime().availableProcessors(), () -> {
+						try
+						{
+							long written = file.write(position, encrypted);
+							if (written < 0)
+								return;
+							connection.send(acknowledgment(from, written, false));
+							if (written == file.getLength())
+								received.countDown();
+						}
+						catch (IOException e)
+						{
+							e.printStackTrace();
+						}
+					});
+				}
+			}
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			/** Connection closed at the end */
+		}
+	}
+
+	private static DataPackage acknowledgment(String to, long position, boolean resume)
+	{
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("fileReceiver");
+		dp.setToUserName(to);
+		dp.setHeader(Header.FILE_ACK);
+		dp.setAdministrationMsg("<1><" + position + ">" + (resume ? "<resume>" : ""));
+		return dp;
+	}
+
+	/** @return throughput of plain socket copy over loopback in MiB per second */
+	private static double plainCopy(long length) throws IOException, InterruptedException
+	{
+		try (ServerSocket server = new ServerSocket(0))
+		{
+			Thread reader = new Thread(() -> {
+				try (Socket socket = server.accept(); InputStream in = socket.getInputStream())
+				{
+					byte[] buffer = new byte[FileSender.CHUNK_LENGTH];
+					while (in.read(buffer) >= 0)
+						;
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			});
+			reader.start();
+			long start = System.nanoTime();
+			try (Socket socket = new Socket("localhost", server.getLocalPort()); OutputStream out = socket.getOutputStream())
+			{
+				byte[] buffer = new byte[FileSender.CHUNK_LENGTH];
+				for (long written = 0; written < length; written += buffer.length)
+					out.write(buffer);
+			}
+			reader.join();
+			return length / ((System.nanoTime() - start) / 1e9) / (1 << 20);
+		}
+	}
+
+	private static boolean sameContent(File a, File b) throws IOException
+	{
+		if (a.length() != b.length())
+			return false;
+		try (RandomAccessFile first = new RandomAccessFile(a, "r"); RandomAccessFile second = new RandomAccessFile(b, "r"))
+		{
+			byte[] x = new byte[1 << 20];
+			byte[] y = new byte[1 << 20];
+			for (long read = 0; read < a.length(); read += x.length)
+			{
+				int n = (int) Math.min(x.length, a.length() - read);
+				first.readFully(x, 0, n);
+				second.readFully(y, 0, n);
+				if (!Arrays.equals(x, y))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/** Registered connection to server, packages are written like by ClientThread */
+	private static final class Connection
+	{
+		private final Socket socket = new Socket();
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+
+		Connection(String name, InetSocketAddress server) throws IOException, ClassNotFoundException
+		{
+			socket.connect(server, TIMEOUT);
+			out = new ObjectOutputStream(socket.getOutputStream());
+			DataPackage id = new DataPackage();
+			id.setHeader(Header.ID_SENDING);
+			id.setFromUserName(name);
+			id.setAdministrationMsg("<-1><0>");
+			send(id);
+			in = new ObjectInputStream(socket.getInputStream());
+		}
+
+		synchronized void send(DataPackage dp)
+		{
+			try
+			{
+				out.writeObject(dp);
+				out.reset();
+				out.flush();
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+
+		DataPackage read() throws IOException, ClassNotFoundException
+		{
+			return (DataPackage) in.readObject();
+		}
+
+		void close()
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+				/** Benchmark has ended */
+			}
+		}
+	}
+}
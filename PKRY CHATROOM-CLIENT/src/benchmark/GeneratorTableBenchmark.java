@@ -0,0 +1,72 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Random;
+
+import cipher.DHGroup;
+import cipher.FixedBaseTable;
+import cipher.GeneratorTables;
+
+/**
+ * Cost of getting generator table at start of process - counting it on heap compared with
+ * mapping file written earlier - and time of g^x with modPow, heap table and mapped table.
+ * Run with optional argument - number of powers (default 200).
+ */
+public class GeneratorTableBenchmark
+{
+	public static void main(String[] args) throws IOException
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		DHGroup group = DHGroup.RFC5114_2048_256;
+		int bits = group.getOrder().bitLength();
+		File directory = Files.createTempDirectory("tables").toFile();
+		GeneratorTables tables = new GeneratorTables(directory);
+		try
+		{
+			long start = System.nanoTime();
+			FixedBaseTable heap = new FixedBaseTable(group.getGenerator(), group.getPrime(), bits, GeneratorTables.WINDOW);
+			long countTime = System.nanoTime() - start;
+			tables.build(group);
+			start = System.nanoTime();
+			FixedBaseTable mapped = tables.load(group);
+			long mapTime = System.nanoTime() - start;
+			System.out.printf("count table: %8.2f ms, map file (%d KiB, with CRC check): %6.2f ms%n", countTime / 1e6,
+					tables.fileOf(group).length() >> 10, mapTime / 1e6);
+
+			Random random = new Random(1);
+			BigInteger[] exponents = new BigInteger[iterations];
+			for (int i = 0; i < iterations; i++)
+				exponents[i] = new BigInteger(bits, random).mod(group.getOrder());
+			for (int round = 0; round < 2; round++)
+			{
+				long modPow = 0, heapTime = 0, mappedTime = 0;
+				for (BigInteger exponent : exponents)
+				{
+					start = System.nanoTime();
+					BigInteger expected = group.getGenerator().modPow(exponent, group.getPrime());
+					modPow += System.nanoTime() - start;
+					start = System.nanoTime();
+					boolean ok = heap.pow(exponent).equals(expected);
+					heapTime += System.nanoTime() - start;
+					start = System.nanoTime();
+					ok &= mapped.pow(exponent).equals(expected);
+					mappedTime += System.nanoTime() - start;
+					if (!ok)
+						throw new IllegalStateException("Wrong power");
+				}
+				if (round == 1)
+					System.out.printf("g^x modPow: %8.3f ms, heap table: %8.3f ms, mapped table: %8.3f ms%n",
+							modPow / 1e6 / iterations, heapTime / 1e6 / iterations, mappedTime / 1e6 / iterations);
+			}
+		}
+		finally
+		{
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+}
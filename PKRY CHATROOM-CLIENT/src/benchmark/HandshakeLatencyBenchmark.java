@@ -0,0 +1,198 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import cipher.AES;
+import cipher.DiffieHellman;
+import client.Handshake;
+import protocol.DataPackage;
+import protocol.HandshakeMessage;
+import protocol.Header;
+
+/**
+ * Time-to-first-message of two message key agreement measured on loopback TCP relay that
+ * delays every forwarded package by given one-way latency (like the chat server in between).
+ * For comparison the same exchange is run with an extra confirmation leg, as the earlier
+ * INIT / BACKWARD_INIT / SIGNATURE_ENDING agreement needed before receiver trusted initiator.
+ * Arguments: one-way latency in ms (default 25), iterations (default 10).
+ */
+public class HandshakeLatencyBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int latency = args.length > 0 ? Integer.parseInt(args[0]) : 25;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		try (ServerSocket relaySocket = new ServerSocket(0, 2, InetAddress.getLoopbackAddress()))
+		{
+			Socket initiatorSocket = new Socket(InetAddress.getLoopbackAddress(), relaySocket.getLocalPort());
+			Socket relayToInitiator = relaySocket.accept();
+			Socket receiverSocket = new Socket(InetAddress.getLoopbackAddress(), relaySocket.getLocalPort());
+			Socket relayToReceiver = relaySocket.accept();
+			startRelay(relayToInitiator, relayToReceiver, latency);
+
+			Peer initiator = new Peer(initiatorSocket);
+			Peer receiver = new Peer(receiverSocket);
+
+			/** Warm up of crypto and streams */
+			for (int i = 0; i < 3; i++)
+				runExchange(initiator, receiver, false);
+
+			long[] twoMessage = new long[2];
+			long[] threeMessage = new long[2];
+			for (int i = 0; i < iterations; i++)
+			{
+				long[] times = runExchange(initiator, receiver, false);
+				twoMessage[0] += times[0];
+				twoMessage[1] += times[1];
+				times = runExchange(initiator, receiver, true);
+				threeMessage[0] += times[0];
+				threeMessage[1] += times[1];
+			}
+
+			System.out.printf("one-way latency %d ms, %d iterations%n", latency, iterations);
+			System.out.printf("two messages:   receiver -> initiator first message %7.1f ms, "
+					+ "initiator -> receiver first message %7.1f ms%n",
+					twoMessage[0] / 1e6 / iterations, twoMessage[1] / 1e6 / iterations);
+			System.out.printf("three messages: receiver -> initiator first message %7.1f ms, "
+					+ "initiator -> receiver first message %7.1f ms%n",
+					threeMessage[0] / 1e6 / iterations, threeMessage[1] / 1e6 / iterations);
+			initiatorSocket.close();
+			receiverSocket.close();
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * One key agreement and first message in both directions
+	 * @param confirmation true to wait for extra confirmation leg like three message agreement
+	 * @return time from start to first message at initiator and at receiver in nanoseconds
+	 */
+	private static long[] runExchange(Peer initiator, Peer receiver, boolean confirmation) throws Exception
+	{
+		AES aes = new AES();
+		long start = System.nanoTime();
+
+		DiffieHellman initiatorAgreement = Handshake.initiate();
+		initiator.send(Header.INIT, Handshake.initMessage(initiatorAgreement).encode(), null);
+
+		DataPackage init = receiver.receive();
+		DiffieHellman receiverAgreement = Handshake.respond(HandshakeMessage.decode(init.getHandshakeMsg()));
+		byte[] piggyback = confirmation ? null : aes.encrypt("hello".getBytes(), receiverAgreement.getKeyBytes());
+		receiver.send(Header.BACKWARD_INIT, Handshake.responseMessage(receiverAgreement).encode(), piggyback);
+
+		DataPackage backward = initiator.receive();
+		Handshake.finish(initiatorAgreement, HandshakeMessage.decode(backward.getHandshakeMsg()));
+		long atInitiator = 0;
+		if (!confirmation)
+		{
+			check(aes.decrypt(backward.getEncryptedMsg(), initiatorAgreement.getKeyBytes()), "hello");
+			atInitiator = System.nanoTime() - start;
+		}
+		else
+			initiator.send(Header.MSG, null, null);
+		initiator.send(Header.MSG, null, aes.encrypt("hi".getBytes(), initiatorAgreement.getKeyBytes()));
+
+		if (confirmation)
+		{
+			/** Receiver sends only after confirmation of initiator */
+			receiver.receive();
+			receiver.send(Header.MSG, null, aes.encrypt("hello".getBytes(), receiverAgreement.getKeyBytes()));
+		}
+		DataPackage second = receiver.receive();
+		check(aes.decrypt(second.getEncryptedMsg(), receiverAgreement.getKeyBytes()), "hi");
+		long atReceiver = System.nanoTime() - start;
+
+		if (confirmation)
+		{
+			check(aes.decrypt(initiator.receive().getEncryptedMsg(), initiatorAgreement.getKeyBytes()), "hello");
+			atInitiator = System.nanoTime() - start;
+		}
+
+		if (!initiatorAgreement.isAuthorized() || !receiverAgreement.isAuthorized())
+			throw new IllegalStateException("Key agreement not authorized");
+		return new long[] { atInitiator, atReceiver };
+	}
+
+	private static void check(byte[] decrypted, String expected)
+	{
+		/** Decrypted block is padded with zeros */
+		if (!new String(decrypted).trim().equals(expected))
+			throw new IllegalStateException("Wrong decrypted message");
+	}
+
+	/** Forwards packages between two sockets delaying each by latency, keeping order */
+	private static void startRelay(Socket first, Socket second, int latency) throws IOException
+	{
+		ObjectOutputStream toFirst = new ObjectOutputStream(first.getOutputStream());
+		ObjectOutputStream toSecond = new ObjectOutputStream(second.getOutputStream());
+		toFirst.flush();
+		toSecond.flush();
+		forward(first, toSecond, latency);
+		forward(second, toFirst, latency);
+	}
+
+	private static void forward(Socket from, ObjectOutputStream out, int latency)
+	{
+		ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+		Thread reader = new Thread(() -> {
+			try
+			{
+				/** Stream header comes only when peer is created, so it is read on this thread */
+				ObjectInputStream in = new ObjectInputStream(from.getInputStream());
+				while (true)
+				{
+					Object message = in.readObject();
+					delayer.schedule(() -> {
+						out.writeObject(message);
+						out.flush();
+						return null;
+					}, latency, TimeUnit.MILLISECONDS);
+				}
+			}
+			catch (IOException | ClassNotFoundException e)
+			{
+				delayer.shutdown();
+			}
+		});
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/** One side of conversation connected to relay */
+	private static class Peer
+	{
+		private final ObjectOutputStream out;
+		private final ObjectInputStream in;
+
+		Peer(Socket socket) throws IOException
+		{
+			out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			in = new ObjectInputStream(socket.getInputStream());
+		}
+
+		void send(Header header, byte[] handshake, byte[] encrypted) throws IOException
+		{
+			DataPackage dp = new DataPackage();
+			dp.setHeader(header);
+			dp.setHandshakeMsg(handshake);
+			dp.setEncryptedMsg(encrypted);
+			out.writeObject(dp);
+			out.flush();
+		}
+
+		DataPackage receive() throws IOException, ClassNotFoundException
+		{
+			return (DataPackage) in.readObject();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package benchmark;
+
+import java.util.Arrays;
+
+import cipher.AES;
+import cipher.ContentKey;
+
+/**
+ * Cost of encrypting one message for many users - AES pass over message with key of every
+ * receiver compared with one pass with content key and wrapping that key for every receiver.
+ * Run with optional arguments - message length in bytes (default 65536) and list of numbers
+ * of receivers (default 1 10 50).
+ */
+public class MulticastBenchmark
+{
+	public static void main(String[] args)
+	{
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 65536;
+		int[] receivers = args.length > 1
+				? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+				: new int[] { 1, 10, 50 };
+		byte[] message = new byte[length];
+		Arrays.fill(message, (byte) 'a');
+		AES aes = new AES();
+
+		for (int round = 0; round < 2; round++)
+			for (int count : receivers)
+			{
+				byte[][] sessionKeys = new byte[count][];
+				for (int i = 0; i < count; i++)
+					sessionKeys[i] = ContentKey.generate();
+
+				long start = System.nanoTime();
+				long perUserBytes = 0;
+				for (byte[] sessionKey : sessionKeys)
+					perUserBytes += aes.encrypt(message, sessionKey).length;
+				long perUser = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				byte[] contentKey = ContentKey.generate();
+				long multicastBytes = aes.encrypt(message, contentKey).length;
+				for (byte[] sessionKey : sessionKeys)
+					multicastBytes += ContentKey.wrap(contentKey, sessionKey).length;
+				long multicast = System.nanoTime() - start;
+
+				/** First round only warms up */
+				if (round == 1)
+					System.out.printf("%d B to %3d users: per user %9.2f ms %9d B, multicast %7.2f ms %8d B%n",
+							length, count, perUser / 1e6, perUserBytes, multicast / 1e6, multicastBytes);
+			}
+	}
+}
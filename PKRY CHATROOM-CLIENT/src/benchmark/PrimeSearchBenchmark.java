@@ -0,0 +1,63 @@
+package benchmark;
+
+import java.math.BigInteger;
+
+import cipher.CTRDRBG;
+import cipher.DHGroup;
+import cipher.PrimeSearch;
+import metrics.ClientMetrics;
+import metrics.LatencyHistogram;
+
+/**
+ * Time of finding ElGamal k - loop of BigInteger.probablePrime on calling thread compared
+ * with sieve and parallel Miller-Rabin of PrimeSearch, p50 and p99 of both.
+ * Run with optional arguments - bit length of k (default 256) and iterations (default 200).
+ */
+public class PrimeSearchBenchmark
+{
+	public static void main(String[] args)
+	{
+		int bits = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		BigInteger pMinusOne = DHGroup.RFC5114_2048_256.getPrime().subtract(BigInteger.ONE);
+		PrimeSearch search = PrimeSearch.getDefault();
+
+		/** Warm up */
+		for (int i = 0; i < 20; i++)
+		{
+			sequential(bits, pMinusOne);
+			search.find(bits, pMinusOne);
+		}
+
+		LatencyHistogram sequential = new LatencyHistogram();
+		for (int i = 0; i < iterations; i++)
+		{
+			long start = System.nanoTime();
+			sequential(bits, pMinusOne);
+			sequential.record(System.nanoTime() - start);
+		}
+		LatencyHistogram parallel = new LatencyHistogram();
+		for (int i = 0; i < iterations; i++)
+		{
+			long start = System.nanoTime();
+			search.find(bits, pMinusOne);
+			parallel.record(System.nanoTime() - start);
+		}
+
+		System.out.printf("%d-bit k, %d processors%n", bits, Runtime.getRuntime().availableProcessors());
+		System.out.println("probablePrime loop: " + sequential);
+		System.out.println("PrimeSearch:        " + parallel);
+		System.out.print(ClientMetrics.report("elgamal."));
+	}
+
+	/** Search used before - probablePrime until gcd(k, p-1) = 1 */
+	private static BigInteger sequential(int bits, BigInteger pMinusOne)
+	{
+		BigInteger k;
+		do
+		{
+			k = BigInteger.probablePrime(bits, CTRDRBG.current());
+		} while (!k.gcd(pMinusOne).equals(BigInteger.ONE));
+		return k;
+	}
+}
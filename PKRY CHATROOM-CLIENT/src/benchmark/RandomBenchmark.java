@@ -0,0 +1,58 @@
+package benchmark;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import cipher.CTRDRBG;
+
+/**
+ * Random bytes per second of CTR_DRBG on project AES compared with SecureRandom and
+ * java.util.Random, for small requests (32 bytes, like seeds and nonces) and for 2048 bit
+ * private values drawn through BigInteger.
+ * Run with optional argument - megabytes generated by every generator (default 4).
+ */
+public class RandomBenchmark
+{
+	public static void main(String[] args)
+	{
+		int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		long total = megabytes << 20;
+		Random[] generators = { CTRDRBG.current(), new SecureRandom(), new Random() };
+
+		/** Warm up */
+		for (Random random : generators)
+			bytes(random, 1 << 20);
+
+		System.out.printf("%-14s %14s %18s%n", "generator", "32 B requests", "2048 bit values");
+		for (Random random : generators)
+		{
+			double bytesRate = total / (bytes(random, total) / 1e9) / (1 << 20);
+			long values = total / 256;
+			double valueRate = values / (bigIntegers(random, values) / 1e9);
+			System.out.printf("%-14s %10.2f MB/s %12.0f /s%n", random.getClass().getSimpleName(), bytesRate, valueRate);
+		}
+	}
+
+	/** @return time of generating given number of bytes in 32 byte requests, in nanoseconds */
+	private static long bytes(Random random, long total)
+	{
+		byte[] request = new byte[32];
+		long start = System.nanoTime();
+		for (long done = 0; done < total; done += request.length)
+			random.nextBytes(request);
+		return System.nanoTime() - start;
+	}
+
+	/** @return time of drawing given number of 2048 bit values, in nanoseconds */
+	private static long bigIntegers(Random random, long values)
+	{
+		long start = System.nanoTime();
+		int bits = 0;
+		for (long i = 0; i < values; i++)
+			bits += new BigInteger(2048, random).bitLength();
+		if (bits == 0)
+			throw new IllegalStateException();
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,146 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import client.Backoff;
+import metrics.LatencyHistogram;
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Reconnect storm against local server. Simulated clients register with ID_SENDING like
+ * ClientThread and wait for RESYNC, then all connections are closed at once, like after
+ * server restart, and clients connect again after delays of Backoff - first without jitter,
+ * then with it. Shows time until all clients are registered again, failed attempts and p50
+ * and p99 of time without connection.
+ * Start ChatServer first and run with optional arguments - number of clients (default 10000),
+ * number of connecting threads (default 512) and server host (default localhost).
+ */
+public class ReconnectStormBenchmark
+{
+	private static final int PORT = 6664;
+	private static final int TIMEOUT = 10_000;
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+		String host = args.length > 2 ? args[2] : "localhost";
+		ScheduledExecutorService pool = Executors.newScheduledThreadPool(threads);
+		List<SimulatedClient> simulated = new ArrayList<>();
+		for (int i = 0; i < clients; i++)
+			simulated.add(new SimulatedClient("storm" + i, new InetSocketAddress(host, PORT)));
+
+		storm("first connection", simulated, pool, true);
+		storm("restart, backoff without jitter", simulated, pool, false);
+		storm("restart, backoff with jitter", simulated, pool, true);
+		for (SimulatedClient client : simulated)
+			client.close();
+		pool.shutdownNow();
+	}
+
+	/** Closing all connections at once and waiting until every client is registered again */
+	private static void storm(String name, List<SimulatedClient> simulated, ScheduledExecutorService pool,
+			boolean jitter) throws InterruptedException
+	{
+		CountDownLatch registered = new CountDownLatch(simulated.size());
+		LatencyHistogram outage = new LatencyHistogram();
+		AtomicLong failed = new AtomicLong();
+		for (SimulatedClient client : simulated)
+			client.close();
+		long start = System.nanoTime();
+		for (SimulatedClient client : simulated)
+		{
+			client.backoff = new Backoff(Backoff.DEFAULT_BASE_MILLIS, Backoff.DEFAULT_MAX_MILLIS, jitter);
+			pool.execute(() -> attempt(client, pool, start, registered, outage, failed));
+		}
+		registered.await();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		System.out.printf("%s: %d clients registered in %d ms, %d failed attempts%n", name, simulated.size(), millis,
+				failed.get());
+		System.out.println("  time without connection: " + outage);
+	}
+
+	private static void attempt(SimulatedClient client, ScheduledExecutorService pool, long start,
+			CountDownLatch registered, LatencyHistogram outage, AtomicLong failed)
+	{
+		try
+		{
+			client.register();
+			outage.record(System.nanoTime() - start);
+			registered.countDown();
+		}
+		catch (IOException | ClassNotFoundException e)
+		{
+			client.close();
+			failed.incrementAndGet();
+			pool.schedule(() -> attempt(client, pool, start, registered, outage, failed), client.backoff.nextDelay(),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Client that only registers and keeps its connection, counts nothing relayed to it */
+	private static final class SimulatedClient
+	{
+		private final String name;
+		private final InetSocketAddress server;
+		private Backoff backoff;
+		private Socket socket;
+		private long generation = -1;
+		private long sequence;
+
+		SimulatedClient(String name, InetSocketAddress server)
+		{
+			this.name = name;
+			this.server = server;
+		}
+
+		void register() throws IOException, ClassNotFoundException
+		{
+			socket = new Socket();
+			socket.connect(server, TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			DataPackage id = new DataPackage();
+			id.setHeader(Header.ID_SENDING);
+			id.setFromUserName(name);
+			id.setAdministrationMsg("<" + generation + "><" + sequence + ">");
+			out.writeObject(id);
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			DataPackage received;
+			do
+			{
+				received = (DataPackage) in.readObject();
+			} while (received.getHeader() != Header.RESYNC);
+			String[] position = received.getAdministrationMsg().split("[<>]+");
+			generation = Long.parseLong(position[1]);
+			sequence = Long.parseLong(position[2]);
+		}
+
+		void close()
+		{
+			try
+			{
+				if (socket != null)
+					socket.close();
+			}
+			catch (IOException e)
+			{
+				/** Closed already */
+			}
+			socket = null;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import cipher.DiffieHellman;
+import cipher.Resumption;
+import client.Handshake;
+import protocol.HandshakeMessage;
+import protocol.ResumeMessage;
+
+/**
+ * CPU cost of opening conversation again with known user: full two message key agreement
+ * (both sides, with encoding of handshake fields) compared with one message session
+ * resumption (HKDF ratchet on both sides).
+ * Run with optional argument - number of iterations (default 50).
+ */
+public class ResumptionBenchmark
+{
+	public static void main(String[] args)
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+		/** Warm up */
+		Resumption[] sessions = fullHandshake();
+		for (int i = 0; i < 5; i++)
+		{
+			fullHandshake();
+			sessions = resume(sessions);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			sessions = fullHandshake();
+		long fullTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < iterations; i++)
+			sessions = resume(sessions);
+		long resumeTime = System.nanoTime() - start;
+
+		System.out.printf("full key agreement: %10.3f ms per conversation%n", fullTime / 1e6 / iterations);
+		System.out.printf("session resumption: %10.3f ms per conversation (%.0fx faster)%n",
+				resumeTime / 1e6 / iterations, (double) fullTime / resumeTime);
+	}
+
+	/** @return resumption secrets of initiator and receiver after full key agreement */
+	private static Resumption[] fullHandshake()
+	{
+		DiffieHellman initiator = Handshake.initiate();
+		DiffieHellman receiver = Handshake.respond(HandshakeMessage.decode(Handshake.initMessage(initiator).encode()));
+		Handshake.finish(initiator, HandshakeMessage.decode(Handshake.responseMessage(receiver).encode()));
+		if (!initiator.isAuthorized() || !receiver.isAuthorized())
+			throw new IllegalStateException("Key agreement not authorized");
+		return new Resumption[] { Resumption.fromAgreement(initiator), Resumption.fromAgreement(receiver) };
+	}
+
+	/**
+	 * @param sessions secrets of initiator and receiver
+	 * @return next secrets of both users after resumption
+	 */
+	private static Resumption[] resume(Resumption[] sessions)
+	{
+		byte[] nonce = Resumption.randomNonce();
+		Resumption.Step sent = sessions[0].ratchet(nonce);
+		ResumeMessage resume = new ResumeMessage();
+		resume.setSessionId(sessions[0].getSessionId());
+		resume.setNonce(nonce);
+		resume.setBinder(sent.getInitiatorBinder());
+
+		ResumeMessage received = ResumeMessage.decode(resume.encode());
+		Resumption.Step step = sessions[1].ratchet(received.getNonce());
+		if (!Resumption.binderEquals(step.getInitiatorBinder(), received.getBinder()))
+			throw new IllegalStateException("Resumption not accepted");
+		return new Resumption[] { sent.getNext(), step.getNext() };
+	}
+}
@@ -0,0 +1,87 @@
+package benchmark;
+
+import cipher.DiffieHellman;
+import cipher.SignatureScheme;
+import cipher.SignatureSchemes;
+import protocol.HandshakeMessage;
+
+/**
+ * Compares negotiated signature schemes: sign and verify throughput on signed
+ * Diffie-Hellman values, verify throughput with public key prepared once for known user,
+ * key generation time that identity keys save and size of binary handshake fields sent
+ * in INIT / BACKWARD_INIT.
+ * Run with optional argument - number of iterations (default 50).
+ */
+public class SignatureBenchmark
+{
+	public static void main(String[] args)
+	{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+		for (String name : SignatureSchemes.SUPPORTED)
+		{
+			DiffieHellman dh = new DiffieHellman();
+			dh.generatePublicVars();
+			dh.randomizePrivateValue();
+			dh.setReceivedBytes(dh.getSendingBytes());
+			/** Own B|A signature is checked like initiator checks answer of receiver */
+			dh.setInitiator(true);
+			dh.setSignatureScheme(name);
+			SignatureScheme scheme = dh.getSignatureScheme();
+
+			/** Warm up */
+			for (int i = 0; i < 5; i++)
+			{
+				dh.makeSignature();
+				dh.checkSignature(scheme.getPublicKey(), dh.getSignature());
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				dh.makeSignature();
+			long signTime = System.nanoTime() - start;
+
+			byte[] publicKey = scheme.getPublicKey();
+			byte[] signature = dh.getSignature();
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				dh.checkSignature(publicKey, signature);
+			long verifyTime = System.nanoTime() - start;
+			if (!dh.isAuthorized())
+				throw new IllegalStateException(name + " signature not verified");
+
+			SignatureScheme.PreparedKey prepared = scheme.prepare(publicKey);
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				dh.checkSignature(prepared, signature);
+			long preparedTime = System.nanoTime() - start;
+			if (!dh.isAuthorized())
+				throw new IllegalStateException(name + " signature not verified with prepared key");
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				scheme.prepare(publicKey);
+			long prepareTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++)
+				scheme.generateKeys();
+			long keysTime = System.nanoTime() - start;
+
+			HandshakeMessage init = new HandshakeMessage();
+			init.setGroupId(dh.getGroup().getId());
+			init.setSchemeIds(SignatureSchemes.SUPPORTED.stream().mapToInt(SignatureSchemes::idOf).toArray());
+			init.setShare(dh.getSendingBytes());
+			init.setSignature(signature);
+			init.setPublicKey(publicKey);
+			HandshakeMessage backward = HandshakeMessage.decode(init.encode());
+			backward.setSchemeIds(SignatureSchemes.idOf(name));
+			System.out.printf("%-8s sign: %8.1f ops/s  verify: %8.1f ops/s  prepared verify: %8.1f ops/s"
+					+ "  prepare: %6.2f ms  key generation: %6.2f ms%n", name, iterations * 1e9 / signTime,
+					iterations * 1e9 / verifyTime, iterations * 1e9 / preparedTime, prepareTime / 1e6 / iterations,
+					keysTime / 1e6 / iterations);
+			System.out.printf("%-8s signature: %4d B  public key: %4d B  INIT: %5d B  BACKWARD_INIT: %5d B%n", name,
+					signature.length, publicKey.length, init.encode().length, backward.encode().length);
+		}
+	}
+}
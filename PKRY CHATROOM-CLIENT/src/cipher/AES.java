@@ -73,6 +73,20 @@ public class AES
 			0x4D, 0xAE, 0x2A, 0xF5, 0xB0, 0xC8, 0xEB, 0xBB, 0x3C, 0x83, 0x53, 0x99, 0x61, 0x17, 0x2B, 0x04, 0x7E, 0xBA,
 			0x77, 0xD6, 0x26, 0xE1, 0x69, 0x14, 0x63, 0x55, 0x21, 0x0C, 0x7D };
 
+	/** Multiplication by 2 and by 3 in Galois Field used by mixColumns, counted once */
+	private static final byte[]	MUL2					= new byte[256];
+	private static final byte[]	MUL3					= new byte[256];
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			int twice = (i << 1) ^ ((i & 0x80) != 0 ? 0x11b : 0);
+			MUL2[i] = (byte) twice;
+			MUL3[i] = (byte) (twice ^ i);
+		}
+	}
+
 	/**
 	 * AES constructor.
 	 */
@@ -184,30 +198,92 @@ public class AES
 	 */
 	private byte[] encryptBlock(byte[] input, byte[] key)
 	{
+		return encryptBlock(input, rijndaelKeySchedule(key));
+	}
 
-		byte[] temp = new byte[input.length];
-		byte[][] state = new byte[4][Nb];
-		byte[][][] rounKey = rijndaelKeySchedule(key);
+	/**
+	 * Generate round keys once, for encrypting many single blocks with the
+	 * same key by {@link #encryptBlock(byte[], byte[][][])}
+	 * 
+	 * @param key
+	 *            key given in bytes. Possible bit lengths are: 128, 192, 256
+	 * @return matrix of round keys
+	 */
+	public byte[][][] roundKeys(byte[] key)
+	{
+		Nb = 4;
+		Nk = key.length / 4;
+		Nr = NumberOfRounds[Nk / 2 - 2][Nb / 2 - 2];
+		return rijndaelKeySchedule(key);
+	}
 
-		for (int i = 0; i < input.length; i++)
-			state[i / 4][i % 4] = input[i % 4 * 4 + i / 4];
+	/**
+	 * Encrypt one 16 byte block without padding
+	 * 
+	 * @param input
+	 *            block to be encrypted
+	 * @param rounKey
+	 *            round keys from {@link #roundKeys(byte[])}
+	 * @return encrypted block
+	 */
+	public byte[] encryptBlock(byte[] input, byte[][][] rounKey)
+	{
 
-		state = addRoundKey(state, rounKey[0]);
-		for (int round = 1; round < Nr; round++)
+		int rounds = rounKey.length - 1;
+		/** State kept as column after column, like bytes of block */
+		byte[] state = input.clone();
+		byte[] shifted = new byte[16];
+
+		addRoundKey(state, rounKey[0]);
+		for (int round = 1; round <= rounds; round++)
 		{
-			state = sub(state);
-			state = shiftRow(state);
-			state = mixColumns(state);
-			state = addRoundKey(state, rounKey[round]);
+			/** Substitution and row shifting in one step */
+			for (int c = 0; c < 4; c++)
+				for (int r = 0; r < 4; r++)
+					shifted[c * 4 + r] = (byte) RijndaelSBox[state[((c + r) & 3) * 4 + r] & 0xff];
+			if (round < rounds)
+				mixColumns(shifted, state);
+			else
+				System.arraycopy(shifted, 0, state, 0, 16);
+			addRoundKey(state, rounKey[round]);
 		}
-		state = sub(state);
-		state = shiftRow(state);
-		state = addRoundKey(state, rounKey[Nr]);
+		return state;
+	}
 
-		for (int i = 0; i < temp.length; i++)
-			temp[i % 4 * 4 + i / 4] = state[i / 4][i % 4];
+	/**
+	 * Xor of state with round key, in place
+	 * 
+	 * @param state
+	 *            16 bytes of state, column after column
+	 * @param roundKey
+	 *            round key as columns
+	 */
+	private void addRoundKey(byte[] state, byte[][] roundKey)
+	{
+		for (int c = 0; c < 4; c++)
+			for (int r = 0; r < 4; r++)
+				state[c * 4 + r] ^= roundKey[c][r];
+	}
 
-		return temp;
+	/**
+	 * Mixing operation which operates on the columns of the state, combining
+	 * the four bytes in each column.
+	 * 
+	 * @param in
+	 *            16 bytes of state, column after column
+	 * @param out
+	 *            array for mixed state
+	 */
+	private void mixColumns(byte[] in, byte[] out)
+	{
+		for (int c = 0; c < 16; c += 4)
+		{
+			int a0 = in[c] & 0xff, a1 = in[c + 1] & 0xff, a2 = in[c + 2] & 0xff, a3 = in[c + 3] & 0xff;
+			out[c] = (byte) (MUL2[a0] ^ MUL3[a1] ^ a2 ^ a3);
+			out[c + 1] = (byte) (a0 ^ MUL2[a1] ^ MUL3[a2] ^ a3);
+			out[c + 2] = (byte) (a0 ^ a1 ^ MUL2[a2] ^ MUL3[a3]);
+			out[c + 3] = (byte) (MUL3[a0] ^ a1 ^ a2 ^ MUL2[a3]);
+		}
 	}
 
 	/**
@@ -249,8 +325,8 @@ public class AES
 
 		while (progress < target)
 		{
-			colId = (int) (Math.floor((double) progress / 4) % numberOfColumns);
-			roundId = (int) Math.floor((double) progress / 16);
+			colId = progress / 4 % numberOfColumns;
+			roundId = progress / 16;
 
 			for (int k = 0; k < temp.length; k++)
 			{
@@ -369,78 +445,6 @@ public class AES
 		return out;
 	}
 
-	/**
-	 * Non-linear substitution step where each byte in message block is replaced
-	 * with another according to RijndaelSBox
-	 * 
-	 * @param state
-	 *            message block for substitution
-	 * @return result of substitution
-	 */
-	private byte[][] sub(byte[][] state)
-	{
-
-		byte[][] out = new byte[state.length][state[0].length];
-
-		for (int row = 0; row < 4; row++)
-			for (int col = 0; col < Nb; col++)
-				out[row][col] = (byte) (RijndaelSBox[(state[row][col] & 0x000000ff)] & 0xff);
-
-		return out;
-
-	}
-
-	/**
-	 * Transposition step where the last three rows of the state are shifted
-	 * cyclically a certain number of steps.
-	 * 
-	 * @param state
-	 *            state block for shift
-	 * @return result of row shifting
-	 */
-	private byte[][] shiftRow(byte[][] state)
-	{
-
-		byte[] t = new byte[4];
-		for (int r = 1; r < 4; r++)
-		{
-			for (int c = 0; c < Nb; c++)
-				t[c] = state[r][(c + r) % Nb];
-			for (int c = 0; c < Nb; c++)
-				state[r][c] = t[c];
-		}
-
-		return state;
-	}
-
-	/**
-	 * Mixing operation which operates on the columns of the state, combining
-	 * the four bytes in each column.
-	 * 
-	 * @param state
-	 *            message block for mixing
-	 * @return result of mixing
-	 */
-	private byte[][] mixColumns(byte[][] state)
-	{
-
-		int[] sp = new int[4];
-		byte b02 = (byte) 0x02;
-		byte b03 = (byte) 0x03;
-		byte[][] out = new byte[4][4];
-
-		for (int c = 0; c < 4; c++)
-		{
-			sp[0] = gMul(b02, state[0][c]) ^ gMul(b03, state[1][c]) ^ state[2][c] ^ state[3][c];
-			sp[1] = state[0][c] ^ gMul(b02, state[1][c]) ^ gMul(b03, state[2][c]) ^ state[3][c];
-			sp[2] = state[0][c] ^ state[1][c] ^ gMul(b02, state[2][c]) ^ gMul(b03, state[3][c]);
-			sp[3] = gMul(b03, state[0][c]) ^ state[1][c] ^ state[2][c] ^ gMul(b02, state[3][c]);
-			for (int i = 0; i < 4; i++)
-				out[i][c] = (byte) (sp[i]);
-		}
-		return out;
-	}
-
 	/**
 	 * Multiplication of two bytes conducted in Galois Field(up to 256)
 	 * 
@@ -0,0 +1,61 @@
+package cipher;
+
+import java.math.BigInteger;
+
+/**
+ * Helper methods converting big numbers to fixed length byte arrays
+ * and back, used when numbers are signed or sent as binary fields.
+ */
+public final class BigIntegers
+{
+	private BigIntegers()
+	{
+	}
+
+	/**
+	 * Writes non-negative number as big-endian array of exactly given length
+	 * @param value number to convert
+	 * @param length needed length in bytes
+	 * @return big-endian representation padded with leading zeros
+	 */
+	public static byte[] toFixedLength(BigInteger value, int length)
+	{
+		byte[] raw = value.toByteArray();
+		if (raw.length == length)
+			return raw;
+		byte[] out = new byte[length];
+		if (raw.length > length)
+		{
+			/** Only sign byte can be cut off */
+			if (raw.length != length + 1 || raw[0] != 0)
+				throw new IllegalArgumentException("Number does not fit in " + length + " bytes");
+			System.arraycopy(raw, 1, out, 0, length);
+		}
+		else
+			System.arraycopy(raw, 0, out, length - raw.length, raw.length);
+		return out;
+	}
+
+	/**
+	 * Reads non-negative number from big-endian array part
+	 * @param bytes source array
+	 * @param offset first byte of number
+	 * @param length number of bytes
+	 * @return read number
+	 */
+	public static BigInteger fromBytes(byte[] bytes, int offset, int length)
+	{
+		byte[] raw = new byte[length];
+		System.arraycopy(bytes, offset, raw, 0, length);
+		return new BigInteger(1, raw);
+	}
+
+	/**
+	 * @param modulus modulus of group
+	 * @return number of bytes needed to write any number less than modulus
+	 */
+	public static int byteLength(BigInteger modulus)
+	{
+		return (modulus.bitLength() + 7) / 8;
+	}
+}
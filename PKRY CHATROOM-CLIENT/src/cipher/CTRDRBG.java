@@ -0,0 +1,198 @@
+package cipher;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random bit generator CTR_DRBG from NIST SP 800-90A (AES-256, without derivation function)
+ * built on {@link AES}. It is seeded from SecureRandom and reseeded after RESEED_INTERVAL
+ * generate calls. Output is generated in blocks of BUFFER_LENGTH bytes and given from buffer.
+ * Extends java.util.Random, so it can be given to BigInteger. One instance is not thread safe,
+ * key generation takes instance of its thread by {@link #current()}.
+ */
+public class CTRDRBG extends Random
+{
+	private static final long serialVersionUID = 1L;
+
+	/** Length of AES-256 key in bytes */
+	private static final int KEY_LENGTH = 32;
+	/** Length of AES block and of counter V in bytes */
+	private static final int BLOCK_LENGTH = 16;
+	/** Length of seed - key and V - in bytes */
+	public static final int SEED_LENGTH = KEY_LENGTH + BLOCK_LENGTH;
+	/** Generate calls between reseeds */
+	public static final int RESEED_INTERVAL = 1 << 16;
+	/** Bytes generated by one generate call */
+	private static final int BUFFER_LENGTH = 512;
+
+	/** Source of entropy of seeds */
+	private static final SecureRandom ENTROPY = new SecureRandom();
+	/** Generators of threads */
+	private static final ThreadLocal<CTRDRBG> CURRENT = ThreadLocal.withInitial(CTRDRBG::new);
+
+	private final AES aes = new AES();
+	/** Round keys of current key */
+	private byte[][][] roundKeys;
+	/** Counter V */
+	private byte[] counter;
+	/** Generate calls since last reseed */
+	private int reseedCounter;
+	/** Generated bytes not given yet */
+	private final byte[] buffer = new byte[BUFFER_LENGTH];
+	/** Index of first not given byte of buffer */
+	private int position = BUFFER_LENGTH;
+
+	/** Constructor - seeding from SecureRandom */
+	public CTRDRBG()
+	{
+		this(entropy(), null);
+	}
+
+	/**
+	 * Constructor with given seed, used for known answer tests
+	 * @param entropy 48 bytes of entropy
+	 * @param personalization up to 48 bytes mixed into seed, may be null
+	 */
+	public CTRDRBG(byte[] entropy, byte[] personalization)
+	{
+		roundKeys = aes.roundKeys(new byte[KEY_LENGTH]);
+		counter = new byte[BLOCK_LENGTH];
+		update(xor(entropy, personalization));
+		reseedCounter = 1;
+	}
+
+	/** @return generator of current thread */
+	public static CTRDRBG current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Reseeding with new entropy, buffered output is dropped
+	 * @param entropy 48 bytes of entropy
+	 * @param additional up to 48 bytes mixed into seed, may be null
+	 */
+	public void reseed(byte[] entropy, byte[] additional)
+	{
+		update(xor(entropy, additional));
+		reseedCounter = 1;
+		position = BUFFER_LENGTH;
+	}
+
+	/**
+	 * Generating bytes without buffering (generate function of SP 800-90A)
+	 * @param output array filled with random bytes, up to 64 KiB
+	 * @param additional up to 48 bytes of additional input, may be null
+	 */
+	public void generate(byte[] output, byte[] additional)
+	{
+		if (reseedCounter > RESEED_INTERVAL)
+		{
+			reseed(entropy(), additional);
+			additional = null;
+		}
+		else if (additional != null)
+			update(xor(new byte[SEED_LENGTH], additional));
+		for (int i = 0; i < output.length; i += BLOCK_LENGTH)
+		{
+			increment(counter);
+			byte[] block = aes.encryptBlock(counter, roundKeys);
+			System.arraycopy(block, 0, output, i, Math.min(BLOCK_LENGTH, output.length - i));
+		}
+		update(xor(new byte[SEED_LENGTH], additional));
+		reseedCounter++;
+	}
+
+	/** Filling bytes from buffer, buffer is generated again when it is used up */
+	@Override
+	public void nextBytes(byte[] bytes)
+	{
+		int filled = 0;
+		while (filled < bytes.length)
+		{
+			if (position == BUFFER_LENGTH)
+			{
+				generate(buffer, null);
+				position = 0;
+			}
+			int length = Math.min(bytes.length - filled, BUFFER_LENGTH - position);
+			System.arraycopy(buffer, position, bytes, filled, length);
+			/** Given bytes are not kept */
+			Arrays.fill(buffer, position, position + length, (byte) 0);
+			position += length;
+			filled += length;
+		}
+	}
+
+	@Override
+	protected int next(int bits)
+	{
+		byte[] bytes = new byte[4];
+		nextBytes(bytes);
+		int value = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+		return value >>> (32 - bits);
+	}
+
+	/** Seed is mixed into state with new entropy, generator is never seeded by long alone */
+	@Override
+	public void setSeed(long seed)
+	{
+		/** Called by constructor of Random before fields are set */
+		if (roundKeys == null)
+			return;
+		byte[] additional = new byte[8];
+		for (int i = 0; i < 8; i++)
+			additional[i] = (byte) (seed >>> (56 - 8 * i));
+		reseed(entropy(), additional);
+	}
+
+	/**
+	 * Update function of SP 800-90A - new key and V from encrypted counters xored with data
+	 * @param data 48 bytes
+	 */
+	private void update(byte[] data)
+	{
+		byte[] temp = new byte[SEED_LENGTH];
+		for (int i = 0; i < SEED_LENGTH; i += BLOCK_LENGTH)
+		{
+			increment(counter);
+			System.arraycopy(aes.encryptBlock(counter, roundKeys), 0, temp, i, BLOCK_LENGTH);
+		}
+		for (int i = 0; i < SEED_LENGTH; i++)
+			temp[i] ^= data[i];
+		roundKeys = aes.roundKeys(Arrays.copyOf(temp, KEY_LENGTH));
+		counter = Arrays.copyOfRange(temp, KEY_LENGTH, SEED_LENGTH);
+	}
+
+	/** Adding 1 to big endian counter modulo 2^128 */
+	private static void increment(byte[] value)
+	{
+		for (int i = value.length - 1; i >= 0; i--)
+			if (++value[i] != 0)
+				break;
+	}
+
+	/** @return seed material, data is padded with zeros to 48 bytes */
+	private static byte[] xor(byte[] seed, byte[] data)
+	{
+		if (seed.length != SEED_LENGTH)
+			throw new IllegalArgumentException("Seed has to be " + SEED_LENGTH + " bytes long");
+		byte[] out = seed.clone();
+		if (data != null)
+		{
+			if (data.length > SEED_LENGTH)
+				throw new IllegalArgumentException("Additional input longer than " + SEED_LENGTH + " bytes");
+			for (int i = 0; i < data.length; i++)
+				out[i] ^= data[i];
+		}
+		return out;
+	}
+
+	private static byte[] entropy()
+	{
+		byte[] entropy = new byte[SEED_LENGTH];
+		ENTROPY.nextBytes(entropy);
+		return entropy;
+	}
+}
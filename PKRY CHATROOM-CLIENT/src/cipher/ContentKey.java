@@ -0,0 +1,53 @@
+package cipher;
+
+import java.util.Arrays;
+
+/**
+ * Random AES key of one message sent to many users. Message is encrypted once with content
+ * key and only content key is encrypted (wrapped) with session key of every receiver, so
+ * sending to N users costs one AES pass over message and N passes over 48 bytes.
+ * Wrapped key is content key and one full block of PKCS7 padding, so AES.decrypt always
+ * removes exactly that block, whatever the last byte of content key is.
+ */
+public class ContentKey
+{
+	/** Length of content key in bytes */
+	public static final int KEY_LENGTH = 32;
+	/** Length of padding block added before wrapping */
+	private static final int BLOCK_LENGTH = 16;
+
+	/** @return new random content key */
+	public static byte[] generate()
+	{
+		byte[] key = new byte[KEY_LENGTH];
+		CTRDRBG.current().nextBytes(key);
+		return key;
+	}
+
+	/**
+	 * Encrypting content key with session key of one receiver
+	 * @param contentKey key of message
+	 * @param sessionKey key of conversation with receiver
+	 * @return wrapped key
+	 */
+	public static byte[] wrap(byte[] contentKey, byte[] sessionKey)
+	{
+		byte[] padded = Arrays.copyOf(contentKey, KEY_LENGTH + BLOCK_LENGTH);
+		Arrays.fill(padded, KEY_LENGTH, padded.length, (byte) BLOCK_LENGTH);
+		return new AES().encrypt(padded, sessionKey);
+	}
+
+	/**
+	 * Decrypting content key with session key of conversation with sender
+	 * @param wrapped wrapped key
+	 * @param sessionKey key of conversation with sender
+	 * @return content key or null if wrapped key has wrong length
+	 */
+	public static byte[] unwrap(byte[] wrapped, byte[] sessionKey)
+	{
+		if (wrapped == null || wrapped.length != KEY_LENGTH + BLOCK_LENGTH)
+			return null;
+		byte[] key = new AES().decrypt(wrapped, sessionKey);
+		return key != null && key.length == KEY_LENGTH ? key : null;
+	}
+}
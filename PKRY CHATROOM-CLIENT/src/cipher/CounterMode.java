@@ -0,0 +1,123 @@
+package cipher;
+
+/**
+ * AES in counter mode (CTR, NIST SP 800-38A) for chunks of long data, used by file transfer.
+ * Key stream block number n is encryption of 16 byte counter holding n big-endian, so any
+ * chunk starting at block boundary is encrypted or decrypted alone, in any order and on any
+ * thread, and encrypted chunk has the same length as plain one. Key has to be used for one
+ * data only - file transfer takes new random content key for every file. Encryption and
+ * decryption are the same operation. One instance is used by many threads.
+ * Counter mode needs only encryption of blocks, it is done on 32-bit words with four tables
+ * joining substitution, row shifting and column mixing of one round, counted once from
+ * S-box of {@link AES} - several times faster than byte by byte rounds of AES class.
+ */
+public class CounterMode
+{
+	/** Length of AES block in bytes, chunks start at multiples of it */
+	public static final int BLOCK_LENGTH = 16;
+
+	/** Round tables - S-box value multiplied by column of MixColumns, rotated for each row */
+	private static final int[] T0 = new int[256];
+	private static final int[] T1 = new int[256];
+	private static final int[] T2 = new int[256];
+	private static final int[] T3 = new int[256];
+	private static final int[] SBOX = new AES().RijndaelSBox;
+
+	static
+	{
+		for (int i = 0; i < 256; i++)
+		{
+			int s = SBOX[i];
+			int twice = (s << 1) ^ ((s & 0x80) != 0 ? 0x11b : 0);
+			int word = (twice << 24) | (s << 16) | (s << 8) | (twice ^ s);
+			T0[i] = word;
+			T1[i] = Integer.rotateRight(word, 8);
+			T2[i] = Integer.rotateRight(word, 16);
+			T3[i] = Integer.rotateRight(word, 24);
+		}
+	}
+
+	/** Round keys as big-endian words, four per round */
+	private final int[] roundKeys;
+	private final int rounds;
+
+	/**
+	 * Constructor
+	 * @param key AES key of 128, 192 or 256 bits
+	 */
+	public CounterMode(byte[] key)
+	{
+		byte[][][] schedule = new AES().roundKeys(key);
+		rounds = schedule.length - 1;
+		roundKeys = new int[schedule.length * 4];
+		for (int round = 0; round < schedule.length; round++)
+			for (int c = 0; c < 4; c++)
+				roundKeys[round * 4 + c] = (schedule[round][c][0] & 0xff) << 24 | (schedule[round][c][1] & 0xff) << 16
+						| (schedule[round][c][2] & 0xff) << 8 | (schedule[round][c][3] & 0xff);
+	}
+
+	/**
+	 * Xor of bytes with key stream, in place
+	 * @param position position of first byte in whole data, multiple of block length
+	 * @param data array with bytes
+	 * @param offset index of first byte in array
+	 * @param length number of bytes
+	 */
+	public void apply(long position, byte[] data, int offset, int length)
+	{
+		if (position % BLOCK_LENGTH != 0)
+			throw new IllegalArgumentException("Position " + position + " is not at block boundary");
+		long block = position / BLOCK_LENGTH;
+		int[] stream = new int[4];
+		for (int done = 0; done < length; done += BLOCK_LENGTH, block++)
+		{
+			encryptCounter(block, stream);
+			int n = Math.min(BLOCK_LENGTH, length - done);
+			int p = offset + done;
+			if (n == BLOCK_LENGTH)
+				for (int w = 0; w < 4; w++, p += 4)
+				{
+					int word = stream[w];
+					data[p] ^= word >>> 24;
+					data[p + 1] ^= word >>> 16;
+					data[p + 2] ^= word >>> 8;
+					data[p + 3] ^= word;
+				}
+			else
+				for (int i = 0; i < n; i++)
+					data[p + i] ^= stream[i >> 2] >>> (24 - 8 * (i & 3));
+		}
+	}
+
+	/** Encrypting counter block - eight zero bytes and block number - into four words */
+	private void encryptCounter(long block, int[] out)
+	{
+		int[] k = roundKeys;
+		int s0 = k[0];
+		int s1 = k[1];
+		int s2 = k[2] ^ (int) (block >>> 32);
+		int s3 = k[3] ^ (int) block;
+		int i = 4;
+		for (int round = 1; round < rounds; round++, i += 4)
+		{
+			int t0 = T0[s0 >>> 24] ^ T1[(s1 >>> 16) & 0xff] ^ T2[(s2 >>> 8) & 0xff] ^ T3[s3 & 0xff] ^ k[i];
+			int t1 = T0[s1 >>> 24] ^ T1[(s2 >>> 16) & 0xff] ^ T2[(s3 >>> 8) & 0xff] ^ T3[s0 & 0xff] ^ k[i + 1];
+			int t2 = T0[s2 >>> 24] ^ T1[(s3 >>> 16) & 0xff] ^ T2[(s0 >>> 8) & 0xff] ^ T3[s1 & 0xff] ^ k[i + 2];
+			int t3 = T0[s3 >>> 24] ^ T1[(s0 >>> 16) & 0xff] ^ T2[(s1 >>> 8) & 0xff] ^ T3[s2 & 0xff] ^ k[i + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+		}
+		/** The last round has no column mixing */
+		out[0] = lastRound(s0, s1, s2, s3) ^ k[i];
+		out[1] = lastRound(s1, s2, s3, s0) ^ k[i + 1];
+		out[2] = lastRound(s2, s3, s0, s1) ^ k[i + 2];
+		out[3] = lastRound(s3, s0, s1, s2) ^ k[i + 3];
+	}
+
+	private static int lastRound(int a, int b, int c, int d)
+	{
+		return SBOX[a >>> 24] << 24 | SBOX[(b >>> 16) & 0xff] << 16 | SBOX[(c >>> 8) & 0xff] << 8 | SBOX[d & 0xff];
+	}
+}
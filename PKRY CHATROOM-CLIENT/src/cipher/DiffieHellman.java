@@ -4,8 +4,8 @@ import java.math.BigInteger;
 import java.util.Random;
 
 /**
- * Represents securely key exchange over a public channel, includes Elgamal 
- * signature algorithm thats ensure protection from attack Man-In-The-Middle.
+ * Represents securely key exchange over a public channel, includes negotiated
+ * signature algorithm (Elgamal or EdDSA) thats ensure protection from attack Man-In-The-Middle.
  */
 public class DiffieHellman 
 {	
@@ -13,27 +13,33 @@ public class DiffieHellman
 	private BigInteger key;
 	/** Byte representation of key */
 	private byte[] keyBytes;
+	/** (B^a)modp written on length of p, source of secrets exported after agreement */
+	private byte[] sharedSecret;
 	
 	/** p - public big prime number, the same for both key exchangers*/
 	private BigInteger primePublic;
 	/** g - public number - generator of multiplicative group, the same for both key exchangers*/
 	private BigInteger generatorPublic;
+	/** Named group of p and g, null when p and g were given directly */
+	private DHGroup group;
 	/** a - private  number, only first users know it*/
 	private BigInteger privateValue;
 	/** A - calculated number from private a (A = (g^a)mod(p))*/
 	private BigInteger sendingValue;
 	/** B - received calculated number by second user*/
 	private BigInteger receivedValue;
-	/** y1 - received signature of B (part1)*/
-	private BigInteger receivedSignature1;
-	/** y2 - received signature of B (part2) */
-	private BigInteger receivedSignature2;
 	
-	/** Elgamal signature inner instance */
+	/** Elgamal signature inner instance (uses p and g of this key agreement) */
 	private ElGamalSignature elgamal;
+	/** Signature scheme negotiated with second user */
+	private SignatureScheme signatureScheme;
+	/** Own signature of received B */
+	private byte[] signature;
 
 	/** Authorization - checking that signature via Elgamal of received B via Diffie-Hellman value is correct */
 	private boolean authorized;
+	/** True for user that has started key agreement */
+	private boolean initiator;
 	private boolean keyFromREC = true;
 	/** Constructor */
 	public DiffieHellman()
@@ -45,78 +51,134 @@ public class DiffieHellman
 	/** Generating p and g values, setting Elgamal p=p and d=g values */
 	public void generatePublicVars() 
 	{
-		primePublic = new BigInteger("87A8E61DB4B6663CFFBBD19C651959998CEEF608660DD0F2" +
-				"5D2CEED4435E3B00E00DF8F1D61957D4FAF7DF4561B2AA30" +
-				"16C3D91134096FAA3BF4296D830E9A7C209E0C6497517ABD" +
-				"5A8A9D306BCF67ED91F9E6725B4758C022E0B1EF4275BF7B" +
-				"6C5BFC11D45F9088B941F54EB1E59BB8BC39A0BF12307F5C" +
-				"4FDB70C581B23F76B63ACAE1CAA6B7902D52526735488A0E" +
-				"F13C6D9A51BFA4AB3AD8347796524D8EF6A167B5A41825D9" +
-				"67E144E5140564251CCACB83E6B486F6B3CA3F7971506026" +
-				"C0B857F689962856DED4010ABD0BE621C3A3960A54E710C3" +
-				"75F26375D7014103A4B54330C198AF126116D2276E11715F" +
-				"693877FAD7EF09CADB094AE91E1A1597",16);
-		generatorPublic = new BigInteger("3FB32C9B73134D0B2E77506660EDBD484CA7B18F21EF2054" +
-				"07F4793A1A0BA12510DBC15077BE463FFF4FED4AAC0BB555" +
-				"BE3A6C1B0C6B47B1BC3773BF7E8C6F62901228F8C28CBB18" +
-				"A55AE31341000A650196F931C77A57F2DDF463E5E9EC144B" +
-				"777DE62AAAB8A8628AC376D282D6ED3864E67982428EBC83" +
-				"1D14348F6F2F9193B5045AF2767164E1DFC967C1FB3F2E55" +
-				"A4BD1BFFE83B9C80D052B985D182EA0ADB2A3B7313D3FE14" +
-				"C8484B1E052588B9B7D2BBD2DF016199ECD06E1557CD0915" +
-				"B3353BBB64E0EC377FD028370DF92B52C7891428CDC67EB6" +
-				"184B523D1DB246C32F63078490F00EF8D647D148D4795451" +
-				"5E2327CFEF98C582664B4C0F6CC41659",16);
-		
-		elgamal.setPublicBigPrime(primePublic);
-		elgamal.setPublicGenerator(generatorPublic);
-	}
-
-	/** Generating Diffie-Hellman :  a value, calculating A value and 
-	 * setting Elgamal :  generating t, counting b=d^t(modp), generating k, counting k' */
+		setGroup(DHGroup.RFC5114_2048_256);
+	}
+
+	/** 
+	 * Setting p and g values of named group, setting Elgamal p=p and d=g values 
+	 * @param group group chosen by initiator
+	 */
+	public void setGroup(DHGroup group)
+	{
+		setPublicVars(group.getPrime(), group.getGenerator());
+		this.group = group;
+		elgamal.setSubgroupOrder(group.getOrder());
+	}
+
+	/** Generating Diffie-Hellman :  a value, calculating A value */
 	public void randomizePrivateValue() 
 	{
-		Random randomizer = new Random();
+		Random randomizer = CTRDRBG.current();
 		do 
 		{
 			privateValue = new BigInteger(primePublic.bitLength(), randomizer);
 		} while (privateValue.compareTo(primePublic.subtract(new BigInteger("1"))) > 0);
 
 		calculateSendingValue();
-		elgamal.generatePrivateValue();
-		elgamal.countPublicValue();
-		elgamal.randomPrivateValue();
+	}
+
+	/** 
+	 * Setting negotiated signature scheme and generating its keys
+	 * @param name name of scheme chosen by {@link SignatureSchemes#negotiate(String)}
+	 */
+	public void setSignatureScheme(String name)
+	{
+		if (ElGamalSignature.NAME.equals(name))
+			signatureScheme = elgamal;
+		else if (EdDSASignature.NAME.equals(name))
+			signatureScheme = new EdDSASignature();
+		else
+			throw new IllegalArgumentException("Unknown signature scheme: " + name);
+		signatureScheme.generateKeys();
+	}
+
+	/** 
+	 * Setting negotiated signature scheme with already generated keys, e.g. long-term identity keys
+	 * @param scheme scheme with own keys
+	 */
+	public void setSignatureScheme(SignatureScheme scheme)
+	{
+		signatureScheme = scheme;
 	}
 	
 	/** Calculating A=(g^a)modp value */
 	public void calculateSendingValue()
 	{
-		sendingValue = generatorPublic.modPow(privateValue, primePublic);
+		sendingValue = group != null ? GeneratorTables.generatorPower(group, privateValue)
+				: generatorPublic.modPow(privateValue, primePublic);
 	}
 	
 	/** Calculating key=(B^a)modp value , getting bytes of result and initializing keyBytes value*/
 	public void generateKey() 
 	{
 		key = receivedValue.modPow(privateValue, primePublic);
+		sharedSecret = BigIntegers.toFixedLength(key, BigIntegers.byteLength(primePublic));
 		if(keyFromREC)
 			key = new BigInteger(key.toString(16).substring(1,32),16).setBit(248);
 		keyBytes = key.toByteArray();
 	}
 	
-	/** Uses elgamal methods to check equation d^M = (b^y1 * y1^y2) (modp) */
-	public void checkSignature() {
-		/** d^M (modp) = g^B (modp) */
-		BigInteger left = elgamal.checkSignatureLeft(receivedValue);
-		/** b^y1 * y1^y2 (modp) */
-		BigInteger right = elgamal.checkSignatureRight(receivedSignature1, receivedSignature2);
-		if(left.equals(right))
-			authorized = true;
+	/**
+	 * Deriving secret bound to given label from whole shared value with HKDF, both users
+	 * get the same secret after key agreement
+	 * @param label name of secret
+	 * @param length needed length in bytes
+	 * @return derived secret
+	 */
+	public byte[] exportSecret(String label, int length)
+	{
+		if (sharedSecret == null)
+			throw new IllegalStateException("Key was not generated");
+		return HKDF.expand(HKDF.extract(null, sharedSecret), label, length);
 	}
 
-	/** Signing sending value calculating y1,y2 from A via Elgamal methods */
+	/** 
+	 * Checks signature of second user with negotiated scheme. Initiator checks that receiver 
+	 * signed B|A, receiver checks that initiator signed A.
+	 * @param publicKey public key of second user
+	 * @param receivedSignature signature made by second user
+	 */
+	public void checkSignature(byte[] publicKey, byte[] receivedSignature) 
+	{
+		byte[] signed = initiator ? transcript(receivedValue, sendingValue) : transcript(receivedValue, null);
+		authorized = signatureScheme.verify(publicKey, signed, receivedSignature);
+	}
+
+	/** 
+	 * Checks signature of second user like {@link #checkSignature(byte[], byte[])} with public key
+	 * prepared earlier for known user
+	 * @param publicKey prepared public key of second user
+	 * @param receivedSignature signature made by second user
+	 */
+	public void checkSignature(SignatureScheme.PreparedKey publicKey, byte[] receivedSignature) 
+	{
+		byte[] signed = initiator ? transcript(receivedValue, sendingValue) : transcript(receivedValue, null);
+		authorized = publicKey.verify(signed, receivedSignature);
+	}
+
+	/** 
+	 * Signing with negotiated scheme own A value and received B value if it is already known,
+	 * so initiator signs A in first message and receiver signs B|A in answer
+	 */
 	public void makeSignature()
 	{
-		elgamal.countSendingValues(sendingValue);
+		signature = signatureScheme.sign(transcript(sendingValue, receivedValue));
+	}
+
+	/** 
+	 * @param first value of signer
+	 * @param second value received by signer or null
+	 * @return values written on length of p - message that is signed 
+	 */
+	private byte[] transcript(BigInteger first, BigInteger second)
+	{
+		int length = BigIntegers.byteLength(primePublic);
+		if (second == null)
+			return BigIntegers.toFixedLength(first, length);
+		byte[] out = new byte[2 * length];
+		System.arraycopy(BigIntegers.toFixedLength(first, length), 0, out, 0, length);
+		System.arraycopy(BigIntegers.toFixedLength(second, length), 0, out, length, length);
+		return out;
 	}
 
 	/** Setting p and g and Elgamal p and d values from given arguments 
@@ -127,8 +189,10 @@ public class DiffieHellman
 	{
 		this.primePublic = p;
 		this.generatorPublic = g;
+		this.group = null;
 		elgamal.setPublicBigPrime(this.primePublic);
 		elgamal.setPublicGenerator(this.generatorPublic);
+		elgamal.setSubgroupOrder(null);
 	}
 	
 	// GETTERS AND SETTERS
@@ -156,6 +220,11 @@ public class DiffieHellman
 	{
 		return sendingValue.toString();
 	}
+
+	public DHGroup getGroup()
+	{
+		return group;
+	}
 	
 	public void setA(BigInteger A)
 	{
@@ -167,19 +236,28 @@ public class DiffieHellman
 		return keyBytes;
 	}
 
-	public void setReceivedSignature1(BigInteger receivedSignature1) 
+	/** 
+	 * Setting key that was not agreed by this agreement, e.g. derived from resumed session
+	 * @param keyBytes AES key
+	 */
+	public void setKeyBytes(byte[] keyBytes) 
 	{
-		this.receivedSignature1 = receivedSignature1;
+		this.keyBytes = keyBytes;
 	}
 
-	public void setReceivedSignature2(BigInteger receivedSignature2) 
+	public ElGamalSignature getElgamal() 
 	{
-		this.receivedSignature2 = receivedSignature2;
+		return elgamal;
 	}
 
-	public ElGamalSignature getElgamal() 
+	public SignatureScheme getSignatureScheme()
 	{
-		return elgamal;
+		return signatureScheme;
+	}
+
+	public byte[] getSignature()
+	{
+		return signature;
 	}
 
 	public boolean isAuthorized() 
@@ -198,11 +276,41 @@ public class DiffieHellman
 		return sendingValue;
 	}
 
+	/** @return A written on fixed length of p, as sent in handshake */
+	public byte[] getSendingBytes()
+	{
+		return BigIntegers.toFixedLength(sendingValue, BigIntegers.byteLength(primePublic));
+	}
+
+	/** 
+	 * Setting B from handshake field
+	 * @param B value written on fixed length of p
+	 * @throws IllegalArgumentException when B has wrong length or is not in range 1 < B < p-1
+	 */
+	public void setReceivedBytes(byte[] B)
+	{
+		BigInteger value = new BigInteger(1, B);
+		if (B.length != BigIntegers.byteLength(primePublic) || value.compareTo(BigInteger.ONE) <= 0
+				|| value.compareTo(primePublic.subtract(BigInteger.ONE)) >= 0)
+			throw new IllegalArgumentException("Received value is not valid for this group");
+		this.receivedValue = value;
+	}
+
 	public BigInteger getKey() 
 	{
 		return key;
 	}
 
+	public boolean isInitiator()
+	{
+		return initiator;
+	}
+
+	public void setInitiator(boolean initiator)
+	{
+		this.initiator = initiator;
+	}
+
 	public void setAuthorized(boolean authorized) {
 		this.authorized = authorized;
 	}
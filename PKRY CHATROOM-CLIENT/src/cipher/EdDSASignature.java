@@ -0,0 +1,336 @@
+package cipher;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Function;
+
+/**
+ * Represents Ed25519 digital signature algorithm (EdDSA over twisted Edwards curve
+ * birationally equivalent to Curve25519) as described in RFC 8032. Signing needs one
+ * point multiplication with 253-bit scalar and signature is always 64 bytes long,
+ * public key 32 bytes long.
+ * @see <a href="https://tools.ietf.org/html/rfc8032">RFC 8032</a>
+ */
+public class EdDSASignature implements SignatureScheme
+{
+	/** Name used in handshake negotiation */
+	public static final String NAME = "EdDSA";
+
+	/** p - prime of field 2^255 - 19 */
+	private static final BigInteger P = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+	/** L - order of base point 2^252 + 27742317777372353535851937790883648493 */
+	private static final BigInteger L = BigInteger.ONE.shiftLeft(252)
+			.add(new BigInteger("27742317777372353535851937790883648493"));
+	/** d - curve constant -121665/121666 */
+	private static final BigInteger D = BigInteger.valueOf(-121665)
+			.multiply(BigInteger.valueOf(121666).modInverse(P)).mod(P);
+	/** 2*d used by point addition */
+	private static final BigInteger D2 = D.shiftLeft(1).mod(P);
+	/** Square root of -1 in field */
+	private static final BigInteger SQRT_M1 = BigInteger.valueOf(2)
+			.modPow(P.subtract(BigInteger.ONE).shiftRight(2), P);
+	/** B - base point with y = 4/5 and positive x */
+	private static final BigInteger[] BASE;
+	/** Neutral element in extended coordinates */
+	private static final BigInteger[] IDENTITY = { BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO };
+	/** 2^i * B for i = 0..255 - multiplying base point needs only additions */
+	private static final BigInteger[][] BASE_POWERS;
+
+	static
+	{
+		BigInteger y = BigInteger.valueOf(4).multiply(BigInteger.valueOf(5).modInverse(P)).mod(P);
+		BigInteger x = recoverX(y, 0);
+		BASE = new BigInteger[] { x, y, BigInteger.ONE, x.multiply(y).mod(P) };
+		BASE_POWERS = powersOfTwo(BASE, 256);
+	}
+
+	/** Secret 32 bytes seed - PRIVATE KEY */
+	private byte[] privateSeed;
+	/** s - secret scalar expanded from seed */
+	private BigInteger secretScalar;
+	/** prefix - second half of seed hash used to derive r deterministically */
+	private byte[] prefix;
+	/** A - compressed public point */
+	private byte[] publicKey;
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	/** Random private seed and count public key A = s*B */
+	@Override
+	public void generateKeys()
+	{
+		byte[] seed = new byte[32];
+		CTRDRBG.current().nextBytes(seed);
+		setPrivateKey(seed);
+	}
+
+	/**
+	 * Setting private seed and expanding it to secret scalar, prefix and public key
+	 * @param seed 32 bytes long private key
+	 */
+	public void setPrivateKey(byte[] seed)
+	{
+		if (seed.length != 32)
+			throw new IllegalArgumentException("Ed25519 private key must have 32 bytes");
+		privateSeed = seed.clone();
+		byte[] h = sha512(seed);
+		byte[] lower = new byte[32];
+		System.arraycopy(h, 0, lower, 0, 32);
+		lower[0] &= (byte) 248;
+		lower[31] &= (byte) 127;
+		lower[31] |= (byte) 64;
+		secretScalar = fromLittleEndian(lower);
+		prefix = new byte[32];
+		System.arraycopy(h, 32, prefix, 0, 32);
+		publicKey = compress(multiplyBase(secretScalar));
+	}
+
+	@Override
+	public byte[] getPublicKey()
+	{
+		return publicKey.clone();
+	}
+
+	public byte[] getPrivateKey()
+	{
+		return privateSeed.clone();
+	}
+
+	/** Counts R = r*B and S = (r + H(R,A,M)*s) mod L, where r = H(prefix,M) */
+	@Override
+	public byte[] sign(byte[] message)
+	{
+		BigInteger r = sha512ModL(prefix, message);
+		byte[] encodedR = compress(multiplyBase(r));
+		BigInteger h = sha512ModL(encodedR, publicKey, message);
+		BigInteger s = r.add(h.multiply(secretScalar)).mod(L);
+
+		byte[] signature = new byte[64];
+		System.arraycopy(encodedR, 0, signature, 0, 32);
+		System.arraycopy(toLittleEndian(s), 0, signature, 32, 32);
+		return signature;
+	}
+
+	/** Checks equation S*B = R + H(R,A,M)*A */
+	@Override
+	public boolean verify(byte[] publicKey, byte[] message, byte[] signature)
+	{
+		if (publicKey == null || publicKey.length != 32)
+			return false;
+		BigInteger[] pointA = decompress(publicKey);
+		if (pointA == null)
+			return false;
+		return verify(publicKey, message, signature, h -> multiply(h, pointA));
+	}
+
+	/** Decompresses A once and counts 2^i * A, so H(R,A,M)*A needs only additions */
+	@Override
+	public PreparedKey prepare(byte[] publicKey)
+	{
+		BigInteger[] pointA = publicKey != null && publicKey.length == 32 ? decompress(publicKey) : null;
+		if (pointA == null)
+			return (message, signature) -> false;
+		byte[] key = publicKey.clone();
+		BigInteger[][] powers = powersOfTwo(pointA, L.bitLength());
+		return (message, signature) -> verify(key, message, signature, h -> multiplyPowers(h, powers));
+	}
+
+	/**
+	 * Checks equation S*B = R + H(R,A,M)*A
+	 * @param publicKey compressed A
+	 * @param publicKeyMultiple function counting h*A for given h less than L
+	 * @return true if signature is correct
+	 */
+	private static boolean verify(byte[] publicKey, byte[] message, byte[] signature,
+			Function<BigInteger, BigInteger[]> publicKeyMultiple)
+	{
+		if (signature == null || signature.length != 64)
+			return false;
+		byte[] encodedR = new byte[32];
+		System.arraycopy(signature, 0, encodedR, 0, 32);
+		BigInteger[] pointR = decompress(encodedR);
+		if (pointR == null)
+			return false;
+		byte[] encodedS = new byte[32];
+		System.arraycopy(signature, 32, encodedS, 0, 32);
+		BigInteger s = fromLittleEndian(encodedS);
+		if (s.compareTo(L) >= 0)
+			return false;
+
+		BigInteger h = sha512ModL(encodedR, publicKey, message);
+		BigInteger[] left = multiplyBase(s);
+		BigInteger[] right = add(pointR, publicKeyMultiple.apply(h));
+		return pointsEqual(left, right);
+	}
+
+	/**
+	 * Adds two points given in extended homogeneous coordinates (X, Y, Z, T)
+	 * @param p1 first point
+	 * @param p2 second point
+	 * @return p1 + p2
+	 */
+	private static BigInteger[] add(BigInteger[] p1, BigInteger[] p2)
+	{
+		BigInteger a = p1[1].subtract(p1[0]).multiply(p2[1].subtract(p2[0])).mod(P);
+		BigInteger b = p1[1].add(p1[0]).multiply(p2[1].add(p2[0])).mod(P);
+		BigInteger c = p1[3].multiply(D2).multiply(p2[3]).mod(P);
+		BigInteger d = p1[2].shiftLeft(1).multiply(p2[2]).mod(P);
+		BigInteger e = b.subtract(a);
+		BigInteger f = d.subtract(c);
+		BigInteger g = d.add(c);
+		BigInteger h = b.add(a);
+		return new BigInteger[] { e.multiply(f).mod(P), g.multiply(h).mod(P), f.multiply(g).mod(P),
+				e.multiply(h).mod(P) };
+	}
+
+	/**
+	 * Double-and-add scalar multiplication
+	 * @param scalar multiplier
+	 * @param point point to multiply
+	 * @return scalar*point
+	 */
+	private static BigInteger[] multiply(BigInteger scalar, BigInteger[] point)
+	{
+		BigInteger[] result = IDENTITY;
+		for (int i = scalar.bitLength() - 1; i >= 0; i--)
+		{
+			result = add(result, result);
+			if (scalar.testBit(i))
+				result = add(result, point);
+		}
+		return result;
+	}
+
+	/**
+	 * Base point multiplication with precomputed powers of two
+	 * @param scalar multiplier less than 2^256
+	 * @return scalar*B
+	 */
+	private static BigInteger[] multiplyBase(BigInteger scalar)
+	{
+		return multiplyPowers(scalar, BASE_POWERS);
+	}
+
+	/**
+	 * Scalar multiplication with precomputed powers of two of point
+	 * @param scalar multiplier shorter than table
+	 * @param powers 2^i * point
+	 * @return scalar*point
+	 */
+	private static BigInteger[] multiplyPowers(BigInteger scalar, BigInteger[][] powers)
+	{
+		BigInteger[] result = IDENTITY;
+		for (int i = 0; i < scalar.bitLength(); i++)
+			if (scalar.testBit(i))
+				result = add(result, powers[i]);
+		return result;
+	}
+
+	/**
+	 * @param point point to double
+	 * @param count number of powers
+	 * @return 2^i * point for i = 0..count-1
+	 */
+	private static BigInteger[][] powersOfTwo(BigInteger[] point, int count)
+	{
+		BigInteger[][] powers = new BigInteger[count][];
+		powers[0] = point;
+		for (int i = 1; i < count; i++)
+			powers[i] = add(powers[i - 1], powers[i - 1]);
+		return powers;
+	}
+
+	private static boolean pointsEqual(BigInteger[] p1, BigInteger[] p2)
+	{
+		return p1[0].multiply(p2[2]).subtract(p2[0].multiply(p1[2])).mod(P).signum() == 0
+				&& p1[1].multiply(p2[2]).subtract(p2[1].multiply(p1[2])).mod(P).signum() == 0;
+	}
+
+	/**
+	 * Recovering x coordinate from y and sign bit
+	 * @return x or null if y is not on curve
+	 */
+	private static BigInteger recoverX(BigInteger y, int sign)
+	{
+		if (y.compareTo(P) >= 0)
+			return null;
+		BigInteger y2 = y.multiply(y);
+		BigInteger x2 = y2.subtract(BigInteger.ONE).multiply(D.multiply(y2).add(BigInteger.ONE).modInverse(P)).mod(P);
+		if (x2.signum() == 0)
+			return sign == 0 ? BigInteger.ZERO : null;
+
+		BigInteger x = x2.modPow(P.add(BigInteger.valueOf(3)).shiftRight(3), P);
+		if (x.multiply(x).subtract(x2).mod(P).signum() != 0)
+			x = x.multiply(SQRT_M1).mod(P);
+		if (x.multiply(x).subtract(x2).mod(P).signum() != 0)
+			return null;
+		if ((x.testBit(0) ? 1 : 0) != sign)
+			x = P.subtract(x);
+		return x;
+	}
+
+	/** Encoding y with sign of x at the highest bit */
+	private static byte[] compress(BigInteger[] point)
+	{
+		BigInteger zInv = point[2].modInverse(P);
+		BigInteger x = point[0].multiply(zInv).mod(P);
+		BigInteger y = point[1].multiply(zInv).mod(P);
+		if (x.testBit(0))
+			y = y.setBit(255);
+		return toLittleEndian(y);
+	}
+
+	/** @return point in extended coordinates or null if encoding is not valid */
+	private static BigInteger[] decompress(byte[] encoded)
+	{
+		BigInteger value = fromLittleEndian(encoded);
+		int sign = value.testBit(255) ? 1 : 0;
+		BigInteger y = value.clearBit(255);
+		BigInteger x = recoverX(y, sign);
+		if (x == null)
+			return null;
+		return new BigInteger[] { x, y, BigInteger.ONE, x.multiply(y).mod(P) };
+	}
+
+	private static BigInteger sha512ModL(byte[]... parts)
+	{
+		return fromLittleEndian(sha512(parts)).mod(L);
+	}
+
+	private static byte[] sha512(byte[]... parts)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-512");
+			for (byte[] part : parts)
+				digest.update(part);
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-512 not available", e);
+		}
+	}
+
+	private static BigInteger fromLittleEndian(byte[] bytes)
+	{
+		byte[] reversed = new byte[bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			reversed[i] = bytes[bytes.length - 1 - i];
+		return new BigInteger(1, reversed);
+	}
+
+	private static byte[] toLittleEndian(BigInteger value)
+	{
+		byte[] bigEndian = BigIntegers.toFixedLength(value, 32);
+		byte[] out = new byte[32];
+		for (int i = 0; i < 32; i++)
+			out[i] = bigEndian[31 - i];
+		return out;
+	}
+}
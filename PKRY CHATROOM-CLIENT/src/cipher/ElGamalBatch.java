@@ -0,0 +1,151 @@
+package cipher;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checking many ElGamal signatures together with randomized linear combination. For random
+ * 64-bit r_i signatures are correct when
+ * d^(sum r_i*M_i) = prod b_i^(r_i*y1_i) * prod y1_i^(r_i*y2_i) (modp)
+ * so instead of three exponentiations for every signature there is one exponentiation of d,
+ * table lookups for prepared keys b_i and one multi-exponentiation with common squarings for
+ * all y1_i. Every y1 is checked to be in subgroup of order q first, so all exponents are
+ * counted mod q and wrong batch passes with probability at most 2^-64. When batch fails every
+ * signature is checked alone to find wrong ones.
+ */
+public final class ElGamalBatch
+{
+	/** Bits of random multipliers */
+	private static final int MULTIPLIER_BITS = 64;
+	/** Bits of exponent in one window of multi-exponentiation */
+	private static final int WINDOW = 4;
+
+	private ElGamalBatch()
+	{
+	}
+
+	/**
+	 * Checking signatures, keys may be from different groups
+	 * @param keys prepared public keys of signers
+	 * @param messages signed messages
+	 * @param signatures encoded signatures
+	 * @return result for every signature, the same as of checking it alone
+	 */
+	public static boolean[] verify(ElGamalSignature.SubgroupKey[] keys, byte[][] messages, byte[][] signatures)
+	{
+		boolean[] results = new boolean[keys.length];
+		Map<List<BigInteger>, List<Integer>> groups = new LinkedHashMap<>();
+		for (int i = 0; i < keys.length; i++)
+			groups.computeIfAbsent(Arrays.asList(keys[i].getPrime(), keys[i].getGenerator(), keys[i].getOrder()), 
+					k -> new ArrayList<>()).add(i);
+		for (List<Integer> group : groups.values())
+			verifyGroup(keys, messages, signatures, group, results);
+		return results;
+	}
+
+	/**
+	 * Checking signatures of keys with the same p, d and q
+	 * @param indexes indexes of checked signatures
+	 * @param results array for results
+	 */
+	private static void verifyGroup(ElGamalSignature.SubgroupKey[] keys, byte[][] messages, byte[][] signatures,
+			List<Integer> indexes, boolean[] results)
+	{
+		ElGamalSignature.SubgroupKey first = keys[indexes.get(0)];
+		BigInteger p = first.getPrime();
+		BigInteger d = first.getGenerator();
+		BigInteger q = first.getOrder();
+		int length = BigIntegers.byteLength(p);
+
+		List<Integer> candidates = new ArrayList<>();
+		List<BigInteger[]> values = new ArrayList<>();
+		for (int i : indexes)
+		{
+			BigInteger y1 = signatures[i] != null && signatures[i].length == 2 * length
+					? BigIntegers.fromBytes(signatures[i], 0, length) : null;
+			/** Signature made with d of order q always has y1 in subgroup, other ones are checked alone */
+			if (y1 == null || y1.signum() <= 0 || y1.compareTo(p) >= 0 || !y1.modPow(q, p).equals(BigInteger.ONE))
+			{
+				results[i] = keys[i].verify(messages[i], signatures[i]);
+				continue;
+			}
+			BigInteger y2 = BigIntegers.fromBytes(signatures[i], length, length);
+			candidates.add(i);
+			values.add(new BigInteger[] { y1, y2, ElGamalSignature.digest(messages[i]) });
+		}
+		if (candidates.size() <= 1)
+		{
+			for (int i : candidates)
+				results[i] = keys[i].verify(messages[i], signatures[i]);
+			return;
+		}
+
+		Random random = CTRDRBG.current();
+		BigInteger left = BigInteger.ZERO;
+		BigInteger right = BigInteger.ONE;
+		BigInteger[] bases = new BigInteger[candidates.size()];
+		BigInteger[] exponents = new BigInteger[candidates.size()];
+		for (int j = 0; j < candidates.size(); j++)
+		{
+			BigInteger[] value = values.get(j);
+			BigInteger r = new BigInteger(MULTIPLIER_BITS, random).setBit(0);
+			left = left.add(r.multiply(value[2]));
+			right = right.multiply(keys[candidates.get(j)].publicKeyPower(r.multiply(value[0]).mod(q))).mod(p);
+			bases[j] = value[0];
+			exponents[j] = r.multiply(value[1]).mod(q);
+		}
+		right = right.multiply(multiExp(bases, exponents, p)).mod(p);
+		if (ElGamalSignature.generatorPower(p, d, left.mod(q)).equals(right))
+		{
+			for (int i : candidates)
+				results[i] = true;
+			return;
+		}
+		for (int i : candidates)
+			results[i] = keys[i].verify(messages[i], signatures[i]);
+	}
+
+	/**
+	 * Counting prod bases[i]^exponents[i] (modp) with one common chain of squarings, exponents
+	 * are read in 4-bit windows from the highest one
+	 * @param bases bases of powers
+	 * @param exponents non negative exponents
+	 * @param p modulus
+	 * @return product of powers
+	 */
+	static BigInteger multiExp(BigInteger[] bases, BigInteger[] exponents, BigInteger p)
+	{
+		int bits = 0;
+		for (BigInteger exponent : exponents)
+			bits = Math.max(bits, exponent.bitLength());
+		BigInteger[][] tables = new BigInteger[bases.length][1 << WINDOW];
+		for (int i = 0; i < bases.length; i++)
+		{
+			tables[i][1] = bases[i].mod(p);
+			for (int j = 2; j < tables[i].length; j++)
+				tables[i][j] = tables[i][j - 1].multiply(tables[i][1]).mod(p);
+		}
+
+		BigInteger result = BigInteger.ONE;
+		for (int window = (bits + WINDOW - 1) / WINDOW - 1; window >= 0; window--)
+		{
+			if (!result.equals(BigInteger.ONE))
+				for (int s = 0; s < WINDOW; s++)
+					result = result.multiply(result).mod(p);
+			for (int i = 0; i < bases.length; i++)
+			{
+				int digit = 0;
+				for (int bit = WINDOW - 1; bit >= 0; bit--)
+					digit = (digit << 1) | (exponents[i].testBit(window * WINDOW + bit) ? 1 : 0);
+				if (digit != 0)
+					result = result.multiply(tables[i][digit]).mod(p);
+			}
+		}
+		return result;
+	}
+}
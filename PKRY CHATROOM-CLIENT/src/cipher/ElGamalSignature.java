@@ -1,12 +1,18 @@
 package cipher;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
+import java.util.function.Function;
 
 /**
  * Represents Elgamal digital signature algorithm 
  */
-public class ElGamalSignature {
+public class ElGamalSignature implements SignatureScheme {
+	/** Name used in handshake negotiation */
+	public static final String NAME = "ElGamal";
+
 	/** big length for p and d */
 	private int bitLength = 256;
 
@@ -14,11 +20,13 @@ public class ElGamalSignature {
 	private BigInteger publicBigPrime;
 	/** d  - PUBLIC KEY  (number - which got from Diffie-Hellman)*/
 	private BigInteger publicGenerator;
+	/** q - order of subgroup generated by d, null when not known */
+	private BigInteger subgroupOrder;
 	/** b  - PUBLIC KEY (calculated number b=d^t(modp)*/
 	private BigInteger publicComputedNumber;
-	/** k - private generated relative prime to (p-1) number*/
+	/** k - private generated relative prime to (p-1) number, random 1..q-1 when q is known*/
 	private BigInteger secretRandomNumber;
-	/** k' - inverse of k value that  k * k’ = 1mod(p-1)*/
+	/** k' - inverse of k value that  k * k’ = 1mod(p-1), 1mod(q) when q is known*/
 	private BigInteger inverseOfSecretRandomNumber;
 	
 	/** t - PRIVATE KEY  (random number less than p-1 - which got from Diffie-Hellman)*/
@@ -33,46 +41,72 @@ public class ElGamalSignature {
 	public void countPublicValue()
 	{
 		if(publicComputedNumber == null)
-			publicComputedNumber = publicGenerator.modPow(privateRandomNumber,publicBigPrime);
+			publicComputedNumber = generatorPower(publicBigPrime, publicGenerator, privateRandomNumber);
 	}
 
-	/** Random private t value */
+	/** Random private t value, in range 1..q-1 when q is known */
 	public void generatePrivateValue()
 	{
-		Random randomizer = new Random();
+		Random randomizer = CTRDRBG.current();
+		if (subgroupOrder != null) {
+			privateRandomNumber = randomBelowOrder(randomizer);
+			return;
+		}
 		do {
 			privateRandomNumber =new BigInteger(bitLength, randomizer);
 		} while (privateRandomNumber.compareTo(publicBigPrime.subtract(new BigInteger("1"))) > 0);
 	}
-	/** Random private value k and calculate k' */
+	/**
+	 * Random private value k and calculate k'. When q is known k is uniform in 1..q-1, otherwise
+	 * it is prime value relatively prime to p-1, found by {@link PrimeSearch}
+	 */
 	public void randomPrivateValue()
 	{
-		Random randomizer = new Random();
-		do {
-			secretRandomNumber =BigInteger.probablePrime(bitLength, randomizer);
-		} while (!((publicBigPrime.subtract(BigInteger.ONE)).gcd(secretRandomNumber)).equals(BigInteger.ONE));
+		if (subgroupOrder != null)
+			secretRandomNumber = randomBelowOrder(CTRDRBG.current());
+		else
+			secretRandomNumber = PrimeSearch.getDefault().find(bitLength, publicBigPrime.subtract(BigInteger.ONE));
 		
 		calculateInverseSecretNumber();
 	}
 	
+	/** @return random value in range 1..q-1 */
+	private BigInteger randomBelowOrder(Random randomizer)
+	{
+		BigInteger value;
+		do {
+			value = new BigInteger(subgroupOrder.bitLength(), randomizer);
+		} while (value.signum() == 0 || value.compareTo(subgroupOrder) >= 0);
+		return value;
+	}
+	
 	/** Calculate k' value (inverse of k value)
-	 * (k*k')%(p-1) =(k'*k)%(p-1) = 1 */
+	 * (k*k')%(p-1) =(k'*k)%(p-1) = 1, modulus is q instead of p-1 when q is known */
 	public void calculateInverseSecretNumber()
 	{
-		inverseOfSecretRandomNumber = secretRandomNumber.modInverse(publicBigPrime.subtract(new BigInteger("1")));
+		inverseOfSecretRandomNumber = secretRandomNumber.modInverse(exponentModulus());
+	}
+	
+	/** 
+	 * @return modulus of exponents in signing - q when it is known, as d, b and y1 are in subgroup
+	 * of order q, otherwise p-1. Short t and k with y2 reduced mod p-1 would let lattice
+	 * reduction find t from one signature, so with q the signing is done like in DSA.
+	 */
+	private BigInteger exponentModulus()
+	{
+		return subgroupOrder != null ? subgroupOrder : publicBigPrime.subtract(BigInteger.ONE);
 	}
 
 	/** Counts y1 and y2 values where   y1 = d^k(modp)  
-	 * and  y2 = (M - t*y1)*k’ mod(p-1) 
+	 * and  y2 = (M - t*y1)*k’ mod(p-1), mod(q) when q is known
 	 * @param M message that need to be signed
 	 */
 	public void countSendingValues(BigInteger M)
 	{
-		sendingFirstValue = publicGenerator.modPow(secretRandomNumber, publicBigPrime);
+		sendingFirstValue = generatorPower(publicBigPrime, publicGenerator, secretRandomNumber);
 		BigInteger tmpMultiplier = M.subtract(privateRandomNumber.multiply(sendingFirstValue));
 		tmpMultiplier = tmpMultiplier.multiply(inverseOfSecretRandomNumber);
-		BigInteger publicMinusOne = publicBigPrime.subtract(new BigInteger("1"));
-		sendingSecondValue = tmpMultiplier.mod(publicMinusOne);
+		sendingSecondValue = tmpMultiplier.mod(exponentModulus());
 	}
 	
 	/** Calculates left side of equation for checking signature 
@@ -91,11 +125,181 @@ public class ElGamalSignature {
 	 */
 	public BigInteger checkSignatureRight(BigInteger receivedSignature1,BigInteger receivedSignature2) 
 	{
-		BigInteger by1 = publicComputedNumber.modPow(receivedSignature1, publicBigPrime);
+		return checkSignatureRight(publicComputedNumber, receivedSignature1, receivedSignature2);
+	}
+
+	/** Calculates right side of equation for checking signature with given public key
+	 * @param  b public key of signer
+	 * @param  receivedSignature1 first value of signature
+	 * @param  receivedSignature2 second value of signature
+	 * @return  (b^y1 * y1^y2)modp
+	 */
+	private BigInteger checkSignatureRight(BigInteger b, BigInteger receivedSignature1, BigInteger receivedSignature2) 
+	{
+		BigInteger by1 = b.modPow(receivedSignature1, publicBigPrime);
 		BigInteger y1y2 = receivedSignature1.modPow(receivedSignature2, publicBigPrime);
 		BigInteger multiply = by1.multiply(y1y2);
 		return  multiply.mod(publicBigPrime);
 	}
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	/** Random private t value and count b = d^t(modp) */
+	@Override
+	public void generateKeys()
+	{
+		generatePrivateValue();
+		publicComputedNumber = null;
+		countPublicValue();
+	}
+
+	/** @return b written on length of p */
+	@Override
+	public byte[] getPublicKey()
+	{
+		return BigIntegers.toFixedLength(publicComputedNumber, BigIntegers.byteLength(publicBigPrime));
+	}
+
+	/** Random new k for each signature and count y1,y2 of M = SHA-256(message) - both written on length of p */
+	@Override
+	public byte[] sign(byte[] message)
+	{
+		randomPrivateValue();
+		countSendingValues(digest(message));
+		int length = BigIntegers.byteLength(publicBigPrime);
+		byte[] signature = new byte[2 * length];
+		System.arraycopy(BigIntegers.toFixedLength(sendingFirstValue, length), 0, signature, 0, length);
+		System.arraycopy(BigIntegers.toFixedLength(sendingSecondValue, length), 0, signature, length, length);
+		return signature;
+	}
+
+	/** Checks equation d^M = (b^y1 * y1^y2) (modp) where M = SHA-256(message) */
+	@Override
+	public boolean verify(byte[] publicKey, byte[] message, byte[] signature)
+	{
+		if (publicKey == null)
+			return false;
+		BigInteger b = new BigInteger(1, publicKey);
+		BigInteger p = publicBigPrime;
+		return verify(p, publicGenerator, message, signature, y1 -> b.modPow(y1, p));
+	}
+
+	/** 
+	 * Checks once that b is in subgroup of order q, then b^y1 = b^(y1 mod q) is counted
+	 * from precomputed table of b powers with exponents only as long as q
+	 */
+	@Override
+	public PreparedKey prepare(byte[] publicKey)
+	{
+		BigInteger b = new BigInteger(1, publicKey);
+		BigInteger p = publicBigPrime;
+		BigInteger d = publicGenerator;
+		BigInteger q = subgroupOrder;
+		if (q == null || b.signum() <= 0 || b.compareTo(p) >= 0 || !b.modPow(q, p).equals(BigInteger.ONE))
+			return SignatureScheme.super.prepare(publicKey);
+		return new SubgroupKey(p, d, q, new FixedBaseTable(b, p, q.bitLength()));
+	}
+
+	/** 
+	 * Public key checked to be in subgroup of order q with table of its powers, signatures
+	 * made with such keys can also be checked together by {@link ElGamalBatch}
+	 */
+	public static final class SubgroupKey implements PreparedKey
+	{
+		private final BigInteger p;
+		private final BigInteger d;
+		private final BigInteger q;
+		/** Powers of public key b */
+		private final FixedBaseTable table;
+
+		private SubgroupKey(BigInteger p, BigInteger d, BigInteger q, FixedBaseTable table)
+		{
+			this.p = p;
+			this.d = d;
+			this.q = q;
+			this.table = table;
+		}
+
+		@Override
+		public boolean verify(byte[] message, byte[] signature)
+		{
+			return ElGamalSignature.verify(p, d, message, signature, y1 -> table.pow(y1.mod(q)));
+		}
+
+		/** @return b^exponent (modp) for exponent shorter than q */
+		BigInteger publicKeyPower(BigInteger exponent)
+		{
+			return table.pow(exponent);
+		}
+
+		BigInteger getPrime()
+		{
+			return p;
+		}
+
+		BigInteger getGenerator()
+		{
+			return d;
+		}
+
+		BigInteger getOrder()
+		{
+			return q;
+		}
+	}
+
+	/**
+	 * Checks equation d^M = (b^y1 * y1^y2) (modp) where M = SHA-256(message)
+	 * @param p public big prime number
+	 * @param d public generator
+	 * @param publicKeyPower function counting b^y1 (modp) for given y1
+	 * @return true if signature is correct
+	 */
+	private static boolean verify(BigInteger p, BigInteger d, byte[] message, byte[] signature,
+			Function<BigInteger, BigInteger> publicKeyPower)
+	{
+		int length = BigIntegers.byteLength(p);
+		if (signature == null || signature.length != 2 * length)
+			return false;
+		BigInteger y1 = BigIntegers.fromBytes(signature, 0, length);
+		BigInteger y2 = BigIntegers.fromBytes(signature, length, length);
+		if (y1.signum() <= 0 || y1.compareTo(p) >= 0)
+			return false;
+		BigInteger right = publicKeyPower.apply(y1).multiply(y1.modPow(y2, p)).mod(p);
+		return generatorPower(p, d, digest(message)).equals(right);
+	}
+
+	/**
+	 * Counting d^exponent (modp) from shared table when d is generator of named group
+	 * @param p public big prime number
+	 * @param d public generator
+	 * @param exponent non-negative exponent
+	 * @return d^exponent (modp)
+	 */
+	static BigInteger generatorPower(BigInteger p, BigInteger d, BigInteger exponent)
+	{
+		for (DHGroup group : DHGroup.values())
+			if (group.getPrime().equals(p) && group.getGenerator().equals(d))
+				return GeneratorTables.generatorPower(group, exponent);
+		return d.modPow(exponent, p);
+	}
+
+	/** @return M - hash of signed bytes, transcript of key agreement can be longer than p */
+	static BigInteger digest(byte[] message)
+	{
+		try
+		{
+			return new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(message));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
 	
 	// GETTERS AND SETTERS
 	public int getBitLength() 
@@ -128,6 +332,16 @@ public class ElGamalSignature {
 		this.publicGenerator = publicGenerator;
 	}
 	
+	public BigInteger getSubgroupOrder()
+	{
+		return subgroupOrder;
+	}
+	
+	public void setSubgroupOrder(BigInteger subgroupOrder)
+	{
+		this.subgroupOrder = subgroupOrder;
+	}
+	
 	public BigInteger getPublicComputedNumber() 
 	{
 		return publicComputedNumber;
@@ -0,0 +1,178 @@
+package cipher;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Precomputed powers of one base modulo p for exponents of limited length. Exponent is
+ * split into w-bit windows and table keeps base^(j*2^(w*i)) for every window i and digit j,
+ * so counting power needs only one multiplication per window and no squaring.
+ * Table is kept on heap or read from buffer (e.g. memory-mapped file) where every entry is
+ * written big-endian on length of p, row after row.
+ */
+public class FixedBaseTable
+{
+	/** Default bits of exponent covered by one table row */
+	public static final int DEFAULT_WINDOW = 4;
+
+	/** Base of powers */
+	private final BigInteger base;
+	/** p - modulus */
+	private final BigInteger modulus;
+	/** Max length of exponent in bits */
+	private final int exponentBits;
+	/** Bits of exponent covered by one table row */
+	private final int window;
+	/** table[i][j-1] = base^(j*2^(w*i)) mod p, null when table is read from buffer */
+	private final BigInteger[][] table;
+	/** Entries written in buffer, null when table is on heap */
+	private final ByteBuffer entries;
+
+	/**
+	 * Counting table with 4-bit windows
+	 * @param base base of powers
+	 * @param modulus p
+	 * @param exponentBits max length of exponents in bits
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int exponentBits)
+	{
+		this(base, modulus, exponentBits, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Counting table
+	 * @param base base of powers
+	 * @param modulus p
+	 * @param exponentBits max length of exponents in bits
+	 * @param window bits of exponent covered by one row, bigger window means fewer
+	 *            multiplications and 2^w/w times bigger table
+	 */
+	public FixedBaseTable(BigInteger base, BigInteger modulus, int exponentBits, int window)
+	{
+		this.base = base;
+		this.modulus = modulus;
+		this.exponentBits = exponentBits;
+		this.window = window;
+		this.entries = null;
+		int windows = rows(exponentBits, window);
+		table = new BigInteger[windows][(1 << window) - 1];
+		BigInteger rowBase = base.mod(modulus);
+		for (int i = 0; i < windows; i++)
+		{
+			table[i][0] = rowBase;
+			for (int j = 1; j < table[i].length; j++)
+				table[i][j] = table[i][j - 1].multiply(rowBase).mod(modulus);
+			rowBase = table[i][table[i].length - 1].multiply(rowBase).mod(modulus);
+		}
+	}
+
+	private FixedBaseTable(BigInteger base, BigInteger modulus, int exponentBits, int window, ByteBuffer entries)
+	{
+		this.base = base;
+		this.modulus = modulus;
+		this.exponentBits = exponentBits;
+		this.window = window;
+		this.table = null;
+		this.entries = entries;
+	}
+
+	/**
+	 * Using table written earlier by {@link #writeEntries(ByteBuffer)}, entries are read
+	 * from buffer when they are needed
+	 * @param entries buffer with entries from its position, it is not changed
+	 * @return table reading given buffer
+	 */
+	public static FixedBaseTable fromEntries(ByteBuffer entries, BigInteger base, BigInteger modulus, int exponentBits,
+			int window)
+	{
+		int length = entriesLength(modulus, exponentBits, window);
+		if (entries.remaining() < length)
+			throw new IllegalArgumentException("Table needs " + length + " bytes");
+		ByteBuffer slice = entries.slice();
+		slice.limit(length);
+		return new FixedBaseTable(base, modulus, exponentBits, window, slice.asReadOnlyBuffer());
+	}
+
+	/**
+	 * @return number of bytes of all entries of table
+	 */
+	public static int entriesLength(BigInteger modulus, int exponentBits, int window)
+	{
+		return rows(exponentBits, window) * ((1 << window) - 1) * BigIntegers.byteLength(modulus);
+	}
+
+	/**
+	 * Writing all entries, each on length of p
+	 * @param out buffer with at least {@link #entriesLength(BigInteger, int, int)} bytes left
+	 */
+	public void writeEntries(ByteBuffer out)
+	{
+		int length = BigIntegers.byteLength(modulus);
+		int digits = (1 << window) - 1;
+		ByteBuffer view = entries != null ? entries.duplicate() : null;
+		for (int i = 0; i < rows(exponentBits, window); i++)
+			for (int j = 1; j <= digits; j++)
+				out.put(BigIntegers.toFixedLength(entry(view, i, j), length));
+	}
+
+	/**
+	 * @param exponent non-negative exponent, longer ones are counted without table
+	 * @return base^exponent mod p
+	 */
+	public BigInteger pow(BigInteger exponent)
+	{
+		if (exponent.signum() < 0 || exponent.bitLength() > exponentBits)
+			return base.modPow(exponent, modulus);
+		ByteBuffer view = entries != null ? entries.duplicate() : null;
+		BigInteger result = BigInteger.ONE;
+		for (int i = 0; i * window < exponent.bitLength(); i++)
+		{
+			int digit = 0;
+			for (int bit = window - 1; bit >= 0; bit--)
+				digit = (digit << 1) | (exponent.testBit(i * window + bit) ? 1 : 0);
+			if (digit != 0)
+				result = result.multiply(entry(view, i, digit)).mod(modulus);
+		}
+		return result;
+	}
+
+	/**
+	 * @param view own view of entries buffer or null for heap table
+	 * @return base^(digit*2^(w*row)) mod p
+	 */
+	private BigInteger entry(ByteBuffer view, int row, int digit)
+	{
+		if (table != null)
+			return table[row][digit - 1];
+		int length = BigIntegers.byteLength(modulus);
+		byte[] bytes = new byte[length];
+		view.position((row * ((1 << window) - 1) + digit - 1) * length);
+		view.get(bytes);
+		return new BigInteger(1, bytes);
+	}
+
+	private static int rows(int exponentBits, int window)
+	{
+		return (exponentBits + window - 1) / window;
+	}
+
+	public BigInteger getBase()
+	{
+		return base;
+	}
+
+	public BigInteger getModulus()
+	{
+		return modulus;
+	}
+
+	public int getExponentBits()
+	{
+		return exponentBits;
+	}
+
+	public int getWindow()
+	{
+		return window;
+	}
+}
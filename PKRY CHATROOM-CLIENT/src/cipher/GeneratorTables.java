@@ -0,0 +1,244 @@
+package cipher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import metrics.ClientMetrics;
+
+/**
+ * Fixed-base tables of generators of named groups kept in files and read by
+ * FileChannel.map, so every client and bot process on host shares the same pages and
+ * starting costs one mmap instead of counting table. Table of group is counted in background
+ * when its file is missing or stale, until then powers of generator are counted by modPow.
+ * File: magic "PKRYGTBL" | version | window | exponent bits | entry length | SHA-256 of p|g |
+ * CRC32 of entries | entries written by {@link FixedBaseTable#writeEntries(ByteBuffer)}.
+ */
+public class GeneratorTables
+{
+	/** Version of file format, file of other version is built again */
+	public static final int VERSION = 1;
+	/** Bits of exponent covered by one table row - 8 bits, 2 MiB for 2048-bit group */
+	public static final int WINDOW = 8;
+
+	private static final byte[] MAGIC = "PKRYGTBL".getBytes();
+	/** Length of header: magic, 4 ints, fingerprint and CRC */
+	private static final int HEADER_LENGTH = MAGIC.length + 4 * 4 + 32 + 8;
+
+	/** Tables in directory given by property pkry.tables.dir, default temporary directory */
+	private static final GeneratorTables DEFAULT = new GeneratorTables(new File(
+			System.getProperty("pkry.tables.dir", System.getProperty("java.io.tmpdir")), "pkry-chatroom"));
+
+	/** Directory of table files */
+	private final File directory;
+	/** Loaded or counted tables */
+	private final Map<DHGroup, FixedBaseTable> tables = new ConcurrentHashMap<>();
+	/** Groups which tables are counted in background */
+	private final Set<DHGroup> building = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructor
+	 * @param directory directory of table files
+	 */
+	public GeneratorTables(File directory)
+	{
+		this.directory = directory;
+	}
+
+	/** @return tables shared by whole process */
+	public static GeneratorTables getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * Giving table of generator of group - mapped from file on first use, or null when file
+	 * is missing or stale and table is counted in background
+	 * @param group named group
+	 * @return table for exponents shorter than q or null
+	 */
+	public FixedBaseTable get(DHGroup group)
+	{
+		FixedBaseTable table = tables.get(group);
+		if (table != null || building.contains(group))
+			return table;
+		synchronized (this)
+		{
+			table = tables.get(group);
+			if (table != null || building.contains(group))
+				return table;
+			table = load(group);
+			if (table != null)
+				tables.put(group, table);
+			else
+				buildInBackground(group);
+			return table;
+		}
+	}
+
+	/**
+	 * Mapping table file of group
+	 * @param group named group
+	 * @return table or null if file is missing, of other version, of other group or damaged
+	 */
+	public FixedBaseTable load(DHGroup group)
+	{
+		File file = fileOf(group);
+		if (!file.isFile())
+			return null;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel())
+		{
+			int length = FixedBaseTable.entriesLength(group.getPrime(), group.getOrder().bitLength(), WINDOW);
+			if (channel.size() != HEADER_LENGTH + length)
+				return null;
+			/** Mapping stays valid after channel is closed */
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			byte[] magic = new byte[MAGIC.length];
+			mapped.get(magic);
+			byte[] fingerprint = new byte[32];
+			if (!MessageDigest.isEqual(magic, MAGIC) || mapped.getInt() != VERSION || mapped.getInt() != WINDOW
+					|| mapped.getInt() != group.getOrder().bitLength() || mapped.getInt() != group.getByteLength())
+				return null;
+			mapped.get(fingerprint);
+			long crc = mapped.getLong();
+			if (!MessageDigest.isEqual(fingerprint, fingerprint(group)) || crc != crc(mapped.duplicate()))
+				return null;
+			return FixedBaseTable.fromEntries(mapped, group.getGenerator(), group.getPrime(),
+					group.getOrder().bitLength(), WINDOW);
+		}
+		catch (IOException e)
+		{
+			/** Unreadable file is built again like a missing one */
+			ClientMetrics.increment("generatorTables.unreadable");
+			return null;
+		}
+	}
+
+	/**
+	 * Counting table and writing it to file, file is replaced at once so other processes
+	 * never map half written file
+	 * @param group named group
+	 * @return table mapped from written file
+	 * @throws IOException when file can not be written
+	 */
+	public FixedBaseTable build(DHGroup group) throws IOException
+	{
+		FixedBaseTable counted = new FixedBaseTable(group.getGenerator(), group.getPrime(),
+				group.getOrder().bitLength(), WINDOW);
+		ByteBuffer entries = ByteBuffer.allocate(
+				FixedBaseTable.entriesLength(group.getPrime(), group.getOrder().bitLength(), WINDOW));
+		counted.writeEntries(entries);
+		entries.flip();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+		header.put(MAGIC).putInt(VERSION).putInt(WINDOW).putInt(group.getOrder().bitLength())
+				.putInt(group.getByteLength()).put(fingerprint(group)).putLong(crc(entries.duplicate()));
+		header.flip();
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can not create " + directory);
+		File temp = File.createTempFile(fileOf(group).getName(), ".tmp", directory);
+		try
+		{
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel())
+			{
+				while (header.hasRemaining())
+					channel.write(header);
+				while (entries.hasRemaining())
+					channel.write(entries);
+				channel.force(true);
+			}
+			Files.move(temp.toPath(), fileOf(group).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temp.delete();
+		}
+		FixedBaseTable table = load(group);
+		return table != null ? table : counted;
+	}
+
+	/**
+	 * @param group named group
+	 * @return file of table of group
+	 */
+	public File fileOf(DHGroup group)
+	{
+		return new File(directory, "generator-" + group.name() + ".tbl");
+	}
+
+	private void buildInBackground(DHGroup group)
+	{
+		building.add(group);
+		Thread builder = new Thread(() -> {
+			try
+			{
+				tables.put(group, build(group));
+			}
+			catch (IOException e)
+			{
+				/** Directory is not writable - table is kept only in this process */
+				ClientMetrics.increment("generatorTables.notSaved");
+				tables.put(group, new FixedBaseTable(group.getGenerator(), group.getPrime(),
+						group.getOrder().bitLength(), WINDOW));
+			}
+			finally
+			{
+				building.remove(group);
+			}
+		}, "generator-table-" + group.name());
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+
+	/** @return SHA-256 of p and g, file of group with other values is stale */
+	private static byte[] fingerprint(DHGroup group)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(group.getPrime().toByteArray());
+			digest.update(group.getGenerator().toByteArray());
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	private static long crc(ByteBuffer entries)
+	{
+		CRC32 crc = new CRC32();
+		crc.update(entries);
+		return crc.getValue();
+	}
+
+	/**
+	 * Power of generator for exponents of any length, value of g^x = g^(x mod q) because g
+	 * has order q
+	 * @param group named group
+	 * @param exponent non-negative exponent
+	 * @return g^exponent mod p
+	 */
+	public static BigInteger generatorPower(DHGroup group, BigInteger exponent)
+	{
+		BigInteger reduced = exponent.mod(group.getOrder());
+		FixedBaseTable table = DEFAULT.get(group);
+		return table != null ? table.pow(reduced) : group.getGenerator().modPow(reduced, group.getPrime());
+	}
+}
@@ -0,0 +1,90 @@
+package cipher;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC-based key derivation function with SHA-256 as described in RFC 5869. Extract step
+ * makes pseudorandom key from secret and salt, expand step derives any number of keys
+ * from it, each one bound to its own label.
+ * @see <a href="https://tools.ietf.org/html/rfc5869">RFC 5869</a>
+ */
+public final class HKDF
+{
+	/** Length of SHA-256 output in bytes */
+	public static final int HASH_LENGTH = 32;
+
+	private HKDF()
+	{
+	}
+
+	/**
+	 * @param salt non-secret random value, null means HASH_LENGTH zeros
+	 * @param secret input keying material
+	 * @return pseudorandom key - HMAC(salt, secret)
+	 */
+	public static byte[] extract(byte[] salt, byte[] secret)
+	{
+		return hmac(salt == null || salt.length == 0 ? new byte[HASH_LENGTH] : salt, secret);
+	}
+
+	/**
+	 * @param prk pseudorandom key made by {@link #extract(byte[], byte[])}
+	 * @param info context and application specific information
+	 * @param length needed length, at most 255 * HASH_LENGTH
+	 * @return output keying material
+	 */
+	public static byte[] expand(byte[] prk, byte[] info, int length)
+	{
+		if (length < 0 || length > 255 * HASH_LENGTH)
+			throw new IllegalArgumentException("Wrong HKDF output length " + length);
+		byte[] out = new byte[length];
+		byte[] block = new byte[0];
+		for (int i = 0, done = 0; done < length; i++)
+		{
+			byte[] input = new byte[block.length + info.length + 1];
+			System.arraycopy(block, 0, input, 0, block.length);
+			System.arraycopy(info, 0, input, block.length, info.length);
+			input[input.length - 1] = (byte) (i + 1);
+			block = hmac(prk, input);
+			int n = Math.min(block.length, length - done);
+			System.arraycopy(block, 0, out, done, n);
+			done += n;
+		}
+		return out;
+	}
+
+	/**
+	 * Expanding with text label
+	 * @param prk pseudorandom key
+	 * @param label name of derived key
+	 * @param length needed length
+	 * @return derived key
+	 */
+	public static byte[] expand(byte[] prk, String label, int length)
+	{
+		return expand(prk, label.getBytes(StandardCharsets.US_ASCII), length);
+	}
+
+	/**
+	 * @param key HMAC key
+	 * @param message authenticated bytes
+	 * @return HMAC-SHA256 of message
+	 */
+	public static byte[] hmac(byte[] key, byte[] message)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(message);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IllegalStateException("HmacSHA256 not available", e);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package cipher;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+import metrics.ClientMetrics;
+
+/**
+ * Parallel search of random prime k of given length relatively prime to given number (p-1
+ * for ElGamal). Random range of odd numbers is sieved with small primes, numbers left are
+ * tested with Miller-Rabin by ForkJoinPool tasks and first one that passes is taken. Search
+ * can be cancelled and tries at most maxRanges ranges. Time of every search is recorded in
+ * client metrics as "elgamal.kSearch" (p50/p99 by {@link ClientMetrics#report(String)}).
+ */
+public class PrimeSearch
+{
+	/** Certainty of Miller-Rabin test, the same as of BigInteger.probablePrime */
+	private static final int CERTAINTY = 100;
+	/** Numbers shorter than this are tested without sieve */
+	private static final int SIEVE_MIN_BITS = 32;
+	/** Candidates tested by one task */
+	private static final int CHUNK = 8;
+	/** Odd primes used by sieve */
+	private static final int[] SMALL_PRIMES = smallPrimes(2000);
+
+	/** Search using all processors */
+	private static final PrimeSearch DEFAULT = new PrimeSearch(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), 64);
+
+	/** Pool testing candidates */
+	private final ForkJoinPool pool;
+	/** Max number of sieved ranges of one search */
+	private final int maxRanges;
+
+	/**
+	 * Constructor
+	 * @param pool pool testing candidates
+	 * @param maxRanges max number of sieved ranges of one search
+	 */
+	public PrimeSearch(ForkJoinPool pool, int maxRanges)
+	{
+		this.pool = pool;
+		this.maxRanges = maxRanges;
+	}
+
+	/** @return search shared by process */
+	public static PrimeSearch getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * Finding prime and waiting for it
+	 * @param bitLength length of prime in bits, at least 2
+	 * @param coprimeTo number that has no common divisor with prime
+	 * @return found prime
+	 * @throws IllegalStateException when no prime is found in maxRanges ranges
+	 */
+	public BigInteger find(int bitLength, BigInteger coprimeTo)
+	{
+		return submit(bitLength, coprimeTo).join();
+	}
+
+	/**
+	 * Starting search, it can be stopped by cancel of returned task
+	 * @param bitLength length of prime in bits, at least 2
+	 * @param coprimeTo number that has no common divisor with prime
+	 * @return running search
+	 */
+	public ForkJoinTask<BigInteger> submit(int bitLength, BigInteger coprimeTo)
+	{
+		if (bitLength < 2)
+			throw new IllegalArgumentException("Prime needs at least 2 bits");
+		return pool.submit(new Search(bitLength, coprimeTo));
+	}
+
+	/** Search of one prime - ranges one after other, candidates of range in parallel */
+	private class Search extends RecursiveTask<BigInteger>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int bitLength;
+		private final BigInteger coprimeTo;
+		/** Odd numbers in one range */
+		private final int rangeLength;
+
+		Search(int bitLength, BigInteger coprimeTo)
+		{
+			this.bitLength = bitLength;
+			this.coprimeTo = coprimeTo;
+			this.rangeLength = Math.max(64, 4 * bitLength);
+		}
+
+		@Override
+		protected BigInteger compute()
+		{
+			long start = System.nanoTime();
+			AtomicReference<BigInteger> found = new AtomicReference<>();
+			try
+			{
+				for (int range = 0; range < maxRanges; range++)
+				{
+					List<BigInteger> candidates = sieve(CTRDRBG.current());
+					List<Test> tests = new ArrayList<>();
+					for (int i = 0; i < candidates.size(); i += CHUNK)
+						tests.add(new Test(this, candidates.subList(i, Math.min(i + CHUNK, candidates.size())), found));
+					invokeAll(tests);
+					if (isCancelled())
+						throw new CancellationException();
+					if (found.get() != null)
+						return found.get();
+				}
+				ClientMetrics.increment("elgamal.kSearch.exhausted");
+				throw new IllegalStateException("No " + bitLength + "-bit prime found in " + maxRanges + " ranges");
+			}
+			catch (CancellationException e)
+			{
+				ClientMetrics.increment("elgamal.kSearch.cancelled");
+				throw e;
+			}
+			finally
+			{
+				ClientMetrics.latency("elgamal.kSearch").record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * @param random source of start of range
+		 * @return odd numbers of exactly bitLength bits from random range without small divisors
+		 */
+		private List<BigInteger> sieve(java.util.Random random)
+		{
+			BigInteger start = new BigInteger(bitLength, random).setBit(bitLength - 1).setBit(0);
+			boolean[] composite = new boolean[rangeLength];
+			if (bitLength >= SIEVE_MIN_BITS)
+				for (int prime : SMALL_PRIMES)
+				{
+					/** start + 2i = 0 (mod prime) for i = -start/2 (mod prime) */
+					int rest = start.mod(BigInteger.valueOf(prime)).intValue();
+					int first = (int) ((long) (prime - rest) * ((prime + 1) / 2) % prime);
+					for (int i = first; i < rangeLength; i += prime)
+						composite[i] = true;
+				}
+			List<BigInteger> candidates = new ArrayList<>();
+			for (int i = 0; i < rangeLength; i++)
+			{
+				if (composite[i])
+					continue;
+				BigInteger candidate = start.add(BigInteger.valueOf(2L * i));
+				if (candidate.bitLength() != bitLength)
+					break;
+				candidates.add(candidate);
+			}
+			if (bitLength == 2)
+				candidates.add(0, BigInteger.valueOf(2));
+			return candidates;
+		}
+	}
+
+	/** Miller-Rabin tests of part of candidates */
+	private static class Test extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Search search;
+		private final List<BigInteger> candidates;
+		private final AtomicReference<BigInteger> found;
+
+		Test(Search search, List<BigInteger> candidates, AtomicReference<BigInteger> found)
+		{
+			this.search = search;
+			this.candidates = candidates;
+			this.found = found;
+		}
+
+		@Override
+		protected void compute()
+		{
+			for (BigInteger candidate : candidates)
+			{
+				if (found.get() != null || search.isCancelled())
+					return;
+				if (candidate.gcd(search.coprimeTo).equals(BigInteger.ONE) && candidate.isProbablePrime(CERTAINTY))
+				{
+					found.compareAndSet(null, candidate);
+					return;
+				}
+			}
+		}
+	}
+
+	/** @return odd primes less than limit */
+	private static int[] smallPrimes(int limit)
+	{
+		boolean[] composite = new boolean[limit];
+		List<Integer> primes = new ArrayList<>();
+		for (int i = 3; i < limit; i += 2)
+		{
+			if (composite[i])
+				continue;
+			primes.add(i);
+			for (int j = i * i; j < limit; j += 2 * i)
+				composite[j] = true;
+		}
+		int[] out = new int[primes.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = primes.get(i);
+		return out;
+	}
+}
@@ -0,0 +1,133 @@
+package cipher;
+
+import java.security.MessageDigest;
+
+/**
+ * Resumption secret kept by both users after key agreement. Conversation can be opened
+ * again with one message without any modPow: initiator sends session identifier and random
+ * nonce, both users extract new pseudorandom key from secret and nonce with HKDF and
+ * derive from it traffic key, proofs that they know the secret and next resumption secret.
+ * Every resumption replaces secret with next one (ratchet), so one secret is used only once
+ * and keys of earlier conversations cannot be derived from later secrets.
+ */
+public class Resumption
+{
+	/** Length of secret and traffic key in bytes */
+	public static final int SECRET_LENGTH = 32;
+	/** Length of session identifier in bytes */
+	public static final int ID_LENGTH = 16;
+	/** Length of nonce in bytes */
+	public static final int NONCE_LENGTH = 16;
+
+
+	/** Resumption secret */
+	private final byte[] secret;
+	/** Identifier of session derived from secret, sent in clear */
+	private final byte[] sessionId;
+	/** Authorization of key agreement that session comes from */
+	private final boolean authorized;
+
+	/**
+	 * Constructor
+	 * @param secret resumption secret
+	 * @param authorized true if other user was authorized in key agreement
+	 */
+	public Resumption(byte[] secret, boolean authorized)
+	{
+		this.secret = secret.clone();
+		this.sessionId = HKDF.expand(HKDF.extract(null, secret), "session id", ID_LENGTH);
+		this.authorized = authorized;
+	}
+
+	/**
+	 * @param agreement finished key agreement
+	 * @return resumption secret of agreement
+	 */
+	public static Resumption fromAgreement(DiffieHellman agreement)
+	{
+		return new Resumption(agreement.exportSecret("resumption", SECRET_LENGTH), agreement.isAuthorized());
+	}
+
+	/** @return new random nonce of initiator */
+	public static byte[] randomNonce()
+	{
+		byte[] nonce = new byte[NONCE_LENGTH];
+		CTRDRBG.current().nextBytes(nonce);
+		return nonce;
+	}
+
+	/**
+	 * Deriving keys of resumed conversation
+	 * @param nonce nonce chosen by initiator
+	 * @return traffic key, proofs and next secret
+	 */
+	public Step ratchet(byte[] nonce)
+	{
+		byte[] prk = HKDF.extract(nonce, secret);
+		return new Step(HKDF.expand(prk, "traffic key", SECRET_LENGTH), HKDF.expand(prk, "initiator binder", HKDF.HASH_LENGTH),
+				HKDF.expand(prk, "receiver binder", HKDF.HASH_LENGTH),
+				new Resumption(HKDF.expand(prk, "resumption", SECRET_LENGTH), authorized));
+	}
+
+	/**
+	 * Comparing proofs in constant time
+	 * @param expected proof derived locally
+	 * @param received proof received from other user
+	 * @return true if they are equal
+	 */
+	public static boolean binderEquals(byte[] expected, byte[] received)
+	{
+		return received != null && MessageDigest.isEqual(expected, received);
+	}
+
+	public byte[] getSessionId()
+	{
+		return sessionId.clone();
+	}
+
+	public boolean isAuthorized()
+	{
+		return authorized;
+	}
+
+	/** Keys derived by one resumption */
+	public static class Step
+	{
+		/** AES key of resumed conversation */
+		private final byte[] trafficKey;
+		/** Proof of initiator sent in RESUME */
+		private final byte[] initiatorBinder;
+		/** Proof of receiver sent in BACKWARD_RESUME */
+		private final byte[] receiverBinder;
+		/** Secret of next resumption */
+		private final Resumption next;
+
+		private Step(byte[] trafficKey, byte[] initiatorBinder, byte[] receiverBinder, Resumption next)
+		{
+			this.trafficKey = trafficKey;
+			this.initiatorBinder = initiatorBinder;
+			this.receiverBinder = receiverBinder;
+			this.next = next;
+		}
+
+		public byte[] getTrafficKey()
+		{
+			return trafficKey.clone();
+		}
+
+		public byte[] getInitiatorBinder()
+		{
+			return initiatorBinder.clone();
+		}
+
+		public byte[] getReceiverBinder()
+		{
+			return receiverBinder.clone();
+		}
+
+		public Resumption getNext()
+		{
+			return next;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package cipher;
+
+/**
+ * Digital signature algorithm used to authenticate Diffie-Hellman values during
+ * key agreement. Both users negotiate one scheme by its name in INIT / BACKWARD_INIT.
+ */
+public interface SignatureScheme
+{
+	/** @return name of scheme sent in handshake negotiation */
+	String getName();
+
+	/** Generating new private key and counting public key */
+	void generateKeys();
+
+	/** @return encoded public key that second user needs to verify signatures */
+	byte[] getPublicKey();
+
+	/**
+	 * Signing given message with own private key
+	 * @param message message that need to be signed
+	 * @return encoded signature
+	 */
+	byte[] sign(byte[] message);
+
+	/**
+	 * Checking signature of given message with other user public key
+	 * @param publicKey encoded public key of signer
+	 * @param message signed message
+	 * @param signature encoded signature
+	 * @return true if signature is correct
+	 */
+	boolean verify(byte[] publicKey, byte[] message, byte[] signature);
+
+	/**
+	 * Preparing public key of other user for many verifications - decoding it and counting
+	 * tables once, so handshakes with known users are cheaper
+	 * @param publicKey encoded public key of signer
+	 * @return verifier of signatures made with this key
+	 */
+	default PreparedKey prepare(byte[] publicKey)
+	{
+		byte[] key = publicKey.clone();
+		return (message, signature) -> verify(key, message, signature);
+	}
+
+	/** Public key of other user with precomputed verification data, safe to use from many threads */
+	interface PreparedKey
+	{
+		/**
+		 * Checking signature of given message
+		 * @param message signed message
+		 * @param signature encoded signature
+		 * @return true if signature is correct
+		 */
+		boolean verify(byte[] message, byte[] signature);
+	}
+}
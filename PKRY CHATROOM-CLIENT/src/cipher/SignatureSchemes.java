@@ -0,0 +1,58 @@
+package cipher;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Negotiation of signature scheme between two users. Initiator offers list of supported
+ * schemes ({@link #SUPPORTED}) in INIT, receiver chooses first one it knows and sends it back. In binary
+ * handshake messages schemes are written as one byte identifiers.
+ */
+public final class SignatureSchemes
+{
+	/** Supported schemes ordered by preference */
+	public static final List<String> SUPPORTED = Arrays.asList(EdDSASignature.NAME, ElGamalSignature.NAME);
+
+	/** Identifiers of schemes in handshake messages, index in list is identifier - 1 */
+	private static final List<String> IDS = Arrays.asList(EdDSASignature.NAME, ElGamalSignature.NAME);
+
+	private SignatureSchemes()
+	{
+	}
+
+	/**
+	 * @param name name of scheme
+	 * @return identifier written in handshake messages
+	 */
+	public static int idOf(String name)
+	{
+		int index = IDS.indexOf(name);
+		if (index < 0)
+			throw new IllegalArgumentException("Unknown signature scheme: " + name);
+		return index + 1;
+	}
+
+	/**
+	 * @param id identifier read from handshake message
+	 * @return name of scheme or null if identifier is not known
+	 */
+	public static String nameOf(int id)
+	{
+		return id > 0 && id <= IDS.size() ? IDS.get(id - 1) : null;
+	}
+
+	/**
+	 * Choosing first known scheme from other user offer
+	 * @param offered names of schemes in order of other user preference, unknown ones are null
+	 * @return name of chosen scheme, ElGamal for users that do not negotiate
+	 */
+	public static String negotiate(List<String> offered)
+	{
+		if (offered == null || offered.isEmpty())
+			return ElGamalSignature.NAME;
+		for (String name : offered)
+			if (name != null && SUPPORTED.contains(name.trim()))
+				return name.trim();
+		throw new IllegalArgumentException("No common signature scheme in offer: " + offered);
+	}
+}
@@ -0,0 +1,117 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Download of attachment from store of server. Every download has its own connection to
+ * attachment port: client sends ATTACHMENT_GET and server answers with length of file and
+ * its encrypted bytes. Chunks are checked against hash the file is stored under, decrypted
+ * and written by {@link FileReceiver} like chunks of direct transfer, so file is never whole
+ * in memory.
+ */
+public class AttachmentDownload
+{
+	/** Attachment port of server */
+	public static final int PORT = 6665;
+	/** Time of waiting for connection and for bytes of file in milliseconds */
+	private static final int TIMEOUT = 10_000;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private AttachmentDownload()
+	{
+	}
+
+	/**
+	 * Downloading and decrypting attachment
+	 * @param server address of server
+	 * @param user nickname of this user, server gives file only to its receivers
+	 * @param from nickname of sender
+	 * @param hash hash of encrypted file in store
+	 * @param length length of file
+	 * @param name name of file given by sender
+	 * @param contentKey key of file
+	 * @param directory directory of received files
+	 * @return received file
+	 * @throws IOException when server does not have file, file is damaged or connection breaks
+	 */
+	public static File fetch(InetAddress server, String user, String from, String hash, long length, String name,
+			byte[] contentKey, File directory) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+		try (Socket socket = new Socket())
+		{
+			socket.connect(new InetSocketAddress(server, PORT), TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			DataPackage request = new DataPackage();
+			request.setFromUserName(user);
+			request.setHeader(Header.ATTACHMENT_GET);
+			request.setAdministrationMsg("<" + hash + ">");
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.writeObject(request);
+			out.flush();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), FileSender.CHUNK_LENGTH));
+			long stored = in.readLong();
+			if (stored < 0)
+				throw new IOException("Server does not have file " + name);
+			if (stored != length)
+				throw new IOException("Server has " + stored + " bytes of file " + name + ", not " + length);
+			FileReceiver receiver = new FileReceiver(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, from, name,
+					length, contentKey, 1, directory);
+			try
+			{
+				byte[] buffer = new byte[FileSender.CHUNK_LENGTH];
+				for (long position = 0; position < length; position += buffer.length)
+				{
+					int n = (int) Math.min(buffer.length, length - position);
+					byte[] chunk = n == buffer.length ? buffer : new byte[n];
+					in.readFully(chunk);
+					digest.update(chunk);
+					/** The last chunk completes file, so it is written only when hash is right */
+					if (position + n == length && !hash.equals(hex(digest.digest())))
+						throw new IOException("File " + name + " is damaged");
+					receiver.take(position, n);
+					receiver.write(position, chunk);
+				}
+			}
+			catch (IOException e)
+			{
+				receiver.cancel();
+				throw e;
+			}
+			return receiver.getTarget();
+		}
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,56 @@
+package client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays between attempts of connection to server. Limit of delay doubles after every failed
+ * attempt up to max, and delay is random between 0 and that limit (full jitter), so clients
+ * disconnected by the same server restart do not come back at the same moments.
+ * Used only by one thread.
+ */
+public class Backoff
+{
+	/** Default delay limit after first failure in milliseconds */
+	public static final long DEFAULT_BASE_MILLIS = 250;
+	/** Default max delay in milliseconds */
+	public static final long DEFAULT_MAX_MILLIS = 30_000;
+
+	private final long baseMillis;
+	private final long maxMillis;
+	private final boolean jitter;
+	/** Failed attempts since last success */
+	private int attempts;
+
+	/**
+	 * Constructor
+	 * @param baseMillis delay limit after first failure in milliseconds
+	 * @param maxMillis max delay in milliseconds
+	 * @param jitter true for random delay up to limit, false for delay equal to limit
+	 */
+	public Backoff(long baseMillis, long maxMillis, boolean jitter)
+	{
+		this.baseMillis = baseMillis;
+		this.maxMillis = maxMillis;
+		this.jitter = jitter;
+	}
+
+	/** @return delay before next attempt in milliseconds, counts failed attempt */
+	public long nextDelay()
+	{
+		long limit = Math.min(maxMillis, baseMillis << Math.min(attempts, 30));
+		attempts++;
+		return jitter ? ThreadLocalRandom.current().nextLong(limit + 1) : limit;
+	}
+
+	/** @return failed attempts since last success */
+	public int getAttempts()
+	{
+		return attempts;
+	}
+
+	/** Starting again from base delay after successful attempt */
+	public void reset()
+	{
+		attempts = 0;
+	}
+}
@@ -13,16 +13,18 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JList;
-import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
@@ -182,26 +184,74 @@ public class ChatClient extends JFrame
 		JTextField outputTextField = new JTextField();
 		outputPanel.add(outputTextField, BorderLayout.CENTER);
 		JButton sendBtn = new JButton("SEND");
-		outputPanel.add(sendBtn, BorderLayout.EAST);
+		JButton sendToAllBtn = new JButton("SEND TO ALL");
+		JButton sendFileBtn = new JButton("FILE");
+		JButton sendFileToAllBtn = new JButton("FILE TO ALL");
+		JPanel filesPanel = new JPanel(new BorderLayout());
+		filesPanel.add(sendFileBtn, BorderLayout.WEST);
+		filesPanel.add(sendFileToAllBtn, BorderLayout.EAST);
+		JPanel buttonsPanel = new JPanel(new BorderLayout());
+		buttonsPanel.add(sendBtn, BorderLayout.WEST);
+		buttonsPanel.add(filesPanel, BorderLayout.CENTER);
+		buttonsPanel.add(sendToAllBtn, BorderLayout.EAST);
+		outputPanel.add(buttonsPanel, BorderLayout.EAST);
 		panel.add(outputPanel, BorderLayout.SOUTH);
 
 		sendBtn.addActionListener(new ActionListener()
 		{
 			public void actionPerformed(ActionEvent arg0)
 			{
-				try
-				{
-					networkingThread.encryptAndSendMessage(tabbedPane.getTitleAt(tabbedPane.getSelectedIndex()),
-							outputTextField.getText());
+				networkingThread.encryptAndSendMessage(tabbedPane.getTitleAt(tabbedPane.getSelectedIndex()),
+						outputTextField.getText());
 
-					chatArea.append("[" + clientName + "]" + " : " + outputTextField.getText() + "\n");
-					outputTextField.setText("");
-				}
-				catch (IOException e)
-				{
-					JOptionPane.showMessageDialog(ChatClient.this, "Sending Failed", "ERROR",
-							JOptionPane.ERROR_MESSAGE);
-				}
+				chatArea.append("[" + clientName + "]" + " : " + outputTextField.getText() + "\n");
+				outputTextField.setText("");
+			}
+		});
+		sendToAllBtn.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent arg0)
+			{
+				/** Message is encrypted once for users of all open tabs */
+				List<String> users = new ArrayList<>();
+				for (int i = 0; i < tabbedPane.getTabCount(); i++)
+					users.add(tabbedPane.getTitleAt(i));
+				networkingThread.encryptAndSendMessage(users, outputTextField.getText());
+
+				for (int i = 0; i < tabbedPane.getTabCount(); i++)
+					handlers.get(i).append("[" + clientName + "]" + " : " + outputTextField.getText() + "\n");
+				outputTextField.setText("");
+			}
+		});
+		sendFileBtn.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent arg0)
+			{
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showOpenDialog(ChatClient.this) != JFileChooser.APPROVE_OPTION)
+					return;
+				File file = chooser.getSelectedFile();
+				networkingThread.sendFile(tabbedPane.getTitleAt(tabbedPane.getSelectedIndex()), file);
+
+				chatArea.append("[" + clientName + "]" + " : sending file " + file.getName() + "\n");
+			}
+		});
+		sendFileToAllBtn.addActionListener(new ActionListener()
+		{
+			public void actionPerformed(ActionEvent arg0)
+			{
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showOpenDialog(ChatClient.this) != JFileChooser.APPROVE_OPTION)
+					return;
+				File file = chooser.getSelectedFile();
+				/** File is uploaded once to server and downloaded by users of all open tabs */
+				List<String> users = new ArrayList<>();
+				for (int i = 0; i < tabbedPane.getTabCount(); i++)
+					users.add(tabbedPane.getTitleAt(i));
+				networkingThread.sendAttachment(users, file);
+
+				for (int i = 0; i < tabbedPane.getTabCount(); i++)
+					handlers.get(i).append("[" + clientName + "]" + " : sending file " + file.getName() + "\n");
 			}
 		});
 		outputTextField.addKeyListener(new KeyAdapter()
@@ -240,6 +290,15 @@ public class ChatClient extends JFrame
 		tabbedPane.setSelectedIndex(tabbedPane.indexOfTab(userFrom));
 	}
 
+	/**
+	 * Showing in title whether client is connected to server
+	 * @param connected false while client is connecting again
+	 */
+	public void showConnectionState(boolean connected)
+	{
+		setTitle("CHAT CLIENT - " + clientName + (connected ? "" : " (reconnecting...)"));
+	}
+
 	// GETTERS 
 	public JTabbedPane getTabbedPane()
 	{
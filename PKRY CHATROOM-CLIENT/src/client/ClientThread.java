@@ -1,31 +1,77 @@
 package client;
 
-import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.math.BigInteger;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Base64;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import cipher.AES;
+import cipher.ContentKey;
+import cipher.CounterMode;
+import cipher.DHGroup;
 import cipher.DiffieHellman;
+import cipher.Resumption;
 import protocol.DataPackage;
+import protocol.HandshakeMessage;
 import protocol.Header;
+import protocol.KeyWrap;
+import protocol.ResumeMessage;
+import metrics.ClientMetrics;
 
 /**
- * Chat room client - thread handling TCP connection with server
+ * Chat room client - thread handling TCP connection with server. This thread only reads
+ * and dispatches messages, handshake and AES work is done by {@link CryptoExecutor} in order
+ * per user and all GUI changes are passed to the event dispatch thread.
  */
 public class ClientThread extends Thread 
 {
+	/** Suffix of crypto queue key of background rekey work of user */
+	private static final String REKEY_QUEUE = "\u0000rekey";
+	/** Number of users in page of directory shown in users list */
+	private static final int DIRECTORY_PAGE = 200;
+	/** Suffix of queue key of requests about room, sent in order per room */
+	private static final String ROOM_QUEUE = "\u0000room";
+	/** Max number of packages written while connection to server is broken */
+	private static final int OUTBOUND_LIMIT = 1024;
+	/** Time of waiting for connection to server in milliseconds */
+	private static final int CONNECT_TIMEOUT = 5000;
+	/** Time without packages from server after which heartbeat is sent, in milliseconds */
+	private static final int HEARTBEAT_INTERVAL = 15_000;
+	/** Number of heartbeat intervals without answer after which connection is made again */
+	private static final int MISSED_HEARTBEATS = 3;
+	/** Suffix of crypto queue keys of file chunks of user, followed by number of lane */
+	private static final String FILE_QUEUE = "\u0000file";
+	/** Number of crypto queues of file chunks of one user */
+	private static final int FILE_LANES = Math.max(1, Runtime.getRuntime().availableProcessors());
+	/** Directory of received files */
+	private static final String RECEIVED_DIRECTORY = "received";
+
 	/** Handler to GUI */
 	private ChatClient frameThread;
 
@@ -39,12 +85,77 @@ public class ClientThread extends Thread
 	private ObjectOutputStream oOutputStream;
 	/** Object stream to read */
 	private ObjectInputStream oInputStream;
+	/** Lock of writing to server, connection and output stream are replaced under it */
+	private final Object sendLock = new Object();
+	/** True if packages can be written to server, set after nickname and queued packages */
+	private volatile boolean connected;
+	/** Packages written while connection is broken, sent after reconnection, guarded by sendLock */
+	private Deque<DataPackage> outbound;
+	/** Delays between attempts of connection */
+	private Backoff backoff;
 
 	/** Map that reflects user nickname with Diffie-Hellman key agreement */
 	private Map<String, DiffieHellman> keyAgreement;
+	/** Messages written before key agreement with user has finished */
+	private Map<String, Deque<String>> pendingMessages;
+	/** Resumption secrets of earlier conversations, they are kept when conversation is closed */
+	private Map<String, Resumption> resumptions;
+	/** Resumptions started by this user that wait for BACKWARD_RESUME */
+	private Map<String, Resumption.Step> resuming;
+	/** Messages sent with key of resumed session before other user has confirmed it */
+	private Map<String, Deque<String>> unconfirmedMessages;
+	/** Epochs and usage of keys of conversations */
+	private Map<String, KeyRotation> rotations;
+	/** Sequence numbers, acknowledgments and send windows of conversations */
+	private Map<String, MessageWindow> windows;
+	/** Max number of sent messages of conversation without acknowledgment */
+	private int windowSize;
+	/** Map room name - its members last sent by server, for joined and subscribed rooms */
+	private Map<String, List<String>> roomMembers;
+	/** Subscribed users that are connected */
+	private Set<String> onlineUsers;
+	/** Users, rooms and joined rooms this client has subscribed to, given again after reconnection */
+	private Set<String> subscribedUsers;
+	private Set<String> subscribedRooms;
+	private Set<String> joinedRooms;
+	/** Offset of page of users list shown in GUI */
+	private volatile int directoryOffset = -1;
+	/** Version of server roster the shown page comes from, -1 before first page */
+	private volatile long directoryVersion = -1;
+	/** Generation of ring of recent packages kept for this user by server, -1 before first RESYNC */
+	private volatile long relayGeneration = -1;
+	/** Number of the last package of other users got from server, counted the same way by server */
+	private volatile long relayedSequence;
+	/** Long packages written by server in fragments, used only by reading thread */
+	private FragmentReassembler fragments;
+	/** Files sent and received now, by transfer key of user and number of transfer */
+	private Map<String, FileSender> outgoingFiles;
+	private Map<String, FileReceiver> incomingFiles;
+	/** Transfer keys of received files, offer sent again after reconnection gets answer at once */
+	private Set<String> receivedFiles;
+	/** ATTACHMENT packages of files being uploaded by number of upload, sent when server has stored file */
+	private Map<String, DataPackage> attachmentUploads;
+	/** Hashes of downloaded attachments, package given again after reconnection is ignored */
+	private Set<String> receivedAttachments;
+	/** Limits of use of one key */
+	private RekeyPolicy rekeyPolicy;
+	/** Compression of conversation messages, offered in handshakes only if user has turned it on */
+	private MessageCompression compression;
+	/** Users whose conversations are compressed, both sides have offered it in the last key agreement */
+	private Set<String> compressingPeers;
+	/** Diffie-Hellman values counted before they are needed */
+	private KeyMaterialPool keyMaterial;
+	/** Batches of handshake signatures checked at the same time */
+	private SignatureBatcher signatureBatcher;
+	/** Workers doing handshakes and encryption, ordered per user */
+	private CryptoExecutor cryptoExecutor;
+	/** Own long-term signature keys, null when they could not be read or saved */
+	private IdentityKeys identityKeys;
+	/** Remembered identity keys of other users, null when they could not be read */
+	private PeerCache peerCache;
 
 	/** True if something goes wrong */
-	private boolean errorOccured;
+	private volatile boolean errorOccured;
 
 	public ClientThread(String clientName, InetAddress serverAdress) 
 	{
@@ -53,69 +164,225 @@ public class ClientThread extends Thread
 		frameThread = new ChatClient(clientName, this);
 		frameThread.setVisible(true);
 		errorOccured = false;
-		keyAgreement = new HashMap<>();
+		keyAgreement = new ConcurrentHashMap<>();
+		pendingMessages = new ConcurrentHashMap<>();
+		resumptions = new ConcurrentHashMap<>();
+		resuming = new ConcurrentHashMap<>();
+		unconfirmedMessages = new ConcurrentHashMap<>();
+		rotations = new ConcurrentHashMap<>();
+		windows = new ConcurrentHashMap<>();
+		roomMembers = new ConcurrentHashMap<>();
+		onlineUsers = ConcurrentHashMap.newKeySet();
+		subscribedUsers = ConcurrentHashMap.newKeySet();
+		subscribedRooms = ConcurrentHashMap.newKeySet();
+		joinedRooms = ConcurrentHashMap.newKeySet();
+		outbound = new ArrayDeque<>();
+		fragments = new FragmentReassembler();
+		outgoingFiles = new ConcurrentHashMap<>();
+		incomingFiles = new ConcurrentHashMap<>();
+		receivedFiles = ConcurrentHashMap.newKeySet();
+		attachmentUploads = new ConcurrentHashMap<>();
+		receivedAttachments = ConcurrentHashMap.newKeySet();
+		compressingPeers = ConcurrentHashMap.newKeySet();
+		backoff = new Backoff(Backoff.DEFAULT_BASE_MILLIS, Backoff.DEFAULT_MAX_MILLIS, true);
+		rekeyPolicy = RekeyPolicy.load(new File("connection.properties"));
+		windowSize = MessageWindow.loadSize(new File("connection.properties"));
+		compression = MessageCompression.load(new File("connection.properties"));
+		keyMaterial = new KeyMaterialPool(DHGroup.RFC5114_2048_256, 4);
+		signatureBatcher = new SignatureBatcher(2, 32);
+		cryptoExecutor = new CryptoExecutor(Runtime.getRuntime().availableProcessors(), 
+				e -> showError("Encryption task Failed: " + e.getMessage()));
+		try 
+		{
+			identityKeys = IdentityKeys.forUser(clientName);
+			peerCache = PeerCache.forUser(clientName);
+			peerCache.setBatcher(signatureBatcher);
+		} 
+		catch (IOException | IllegalArgumentException e) 
+		{
+			showError("Identity keys reading/writing failed - keys will not be remembered.");
+		}
 	}
 
-	/** Starts this thread from outside via start() method */
+	/**
+	 * Starts this thread from outside via start() method. Broken connection is made again
+	 * after random growing delay, conversations keep their keys and go on without handshake.
+	 */
 	public void run() 
 	{
-		connectToServer();
-		sendClientId();
+		long lost = System.nanoTime();
 		while (!errorOccured) 
 		{
-			try 
+			if (!connectToServer())
 			{
-				DataPackage receivedMessage = getMessageFromServer();
-				doActionWithMessage(receivedMessage);
-			} 
-			catch (EOFException ex) 
+				try 
+				{
+					Thread.sleep(backoff.nextDelay());
+				} 
+				catch (InterruptedException e) 
+				{
+					break;
+				}
+				continue;
+			}
+			backoff.reset();
+			ClientMetrics.latency("connection.outage").record(System.nanoTime() - lost);
+			try 
 			{
-				JOptionPane.showMessageDialog(frameThread, "Connection Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-				errorOccured = true;
+				sendClientId();
+				restoreInterests();
+				SwingUtilities.invokeLater(() -> frameThread.showConnectionState(true));
+				int missed = 0;
+				while (!errorOccured) 
+				{
+					DataPackage receivedMessage;
+					try 
+					{
+						receivedMessage = getMessageFromServer();
+					} 
+					catch (SocketTimeoutException ex) 
+					{
+						/** Server answers heartbeat, so silence after a few of them means dead connection */
+						if (++missed >= MISSED_HEARTBEATS)
+							throw ex;
+						sendHeartbeat();
+						continue;
+					}
+					missed = 0;
+					if (receivedMessage != null)
+						dispatchMessage(receivedMessage);
+				}
 			} 
 			catch (IOException ex) 
 			{
-				JOptionPane.showMessageDialog(frameThread, "Connection Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-				errorOccured = true;
+				/** EOFException too - server has closed connection */
+				disconnect();
+				lost = System.nanoTime();
+				ClientMetrics.increment("connection.lost");
+				SwingUtilities.invokeLater(() -> frameThread.showConnectionState(false));
 			}
 		}
+		cryptoExecutor.shutdown();
+		keyMaterial.shutdown();
+		signatureBatcher.shutdown();
 	}
 
 	/**
 	 * Creates connection with server on 6664 port and creates streams
+	 * @return false if server can not be reached
 	 */
-	public void connectToServer() 
+	private boolean connectToServer() 
 	{
+		Socket socket = new Socket();
 		try 
 		{
-			connection = new Socket(serverAdress, 6664);
-			oOutputStream = new ObjectOutputStream(connection.getOutputStream());
-			oOutputStream.flush();
-			oInputStream = new ObjectInputStream(connection.getInputStream());
+			socket.connect(new InetSocketAddress(serverAdress, 6664), CONNECT_TIMEOUT);
+			socket.setSoTimeout(HEARTBEAT_INTERVAL);
+			ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+			out.flush();
+			ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+			synchronized (sendLock)
+			{
+				connection = socket;
+				oOutputStream = out;
+				oInputStream = in;
+			}
+			return true;
 		} 
 		catch (IOException e) 
 		{
-			JOptionPane.showMessageDialog(frameThread, "Connection Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-			errorOccured = true;
+			ClientMetrics.increment("connection.failedAttempts");
+			closeQuietly(socket);
+			return false;
 		}
 	}
 
 	/**
-	 * Sends own nickname to server which will allow him to refresh all connected user lists
+	 * Sends own nickname to server which will allow him to refresh all connected user lists,
+	 * with "<generation><number>" of the last package got in earlier connection, so server
+	 * can send again packages lost with it. Packages written while client was not connected
+	 * are sent right after it.
+	 * @throws IOException when connection is broken again
 	 */
-	private void sendClientId() 
+	private void sendClientId() throws IOException
 	{
 		DataPackage dp = new DataPackage();
 		dp.setHeader(Header.ID_SENDING);
 		dp.setFromUserName(clientName);
+		dp.setAdministrationMsg("<" + relayGeneration + "><" + relayedSequence + ">");
+		fragments.clear();
+		synchronized (sendLock)
+		{
+			write(dp);
+			while (!outbound.isEmpty())
+			{
+				write(outbound.peek());
+				outbound.poll();
+			}
+			connected = true;
+		}
+	}
+
+	/**
+	 * Subscribing again to users, rooms and page of users list and joining rooms again - server
+	 * forgets them when connection is closed - and resuming file transfers
+	 */
+	private void restoreInterests()
+	{
+		showDirectoryPage(Math.max(0, directoryOffset));
+		for (String user : subscribedUsers)
+			sendSubscription(Header.SUBSCRIBE, "<user><" + user + ">");
+		for (String room : subscribedRooms)
+			sendSubscription(Header.SUBSCRIBE, "<room><" + room + ">");
+		/** Room is removed with its last member, so it is created again when it does not exist */
+		for (String room : joinedRooms)
+		{
+			sendRoomRequest(Header.ROOM_CREATE, room);
+			sendRoomRequest(Header.ROOM_JOIN, room);
+		}
+		/** Chunks lost with connection are sent again from position written by receiver */
+		for (FileSender sender : outgoingFiles.values())
+			sendOrReport(sender.getOffer(), "Sending file offer Failed");
+		for (FileReceiver receiver : incomingFiles.values())
+			sendFileAcknowledgment(receiver.getPeer(), receiver.getId(), receiver.getWritten(), true);
+		/** Server deletes unfinished uploads of closed connection */
+		for (String upload : attachmentUploads.keySet())
+			if (attachmentUploads.remove(upload) != null)
+				showError("Upload of file was broken by lost connection, send it again");
+	}
+
+	/**
+	 * Telling server that idle client is alive, server closes connections that have sent
+	 * nothing for its read timeout
+	 */
+	private void sendHeartbeat()
+	{
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setHeader(Header.HEARTBEAT);
+		sendOrReport(dp, "Sending heartbeat Failed");
+	}
+
+	/** Closing broken connection, next packages wait in outbound queue */
+	private void disconnect()
+	{
+		synchronized (sendLock)
+		{
+			connected = false;
+			closeQuietly(connection);
+		}
+	}
+
+	private static void closeQuietly(Socket socket)
+	{
 		try 
 		{
-			oOutputStream.writeObject(dp);
+			if (socket != null)
+				socket.close();
 		} 
 		catch (IOException e) 
 		{
-			JOptionPane.showMessageDialog(frameThread, "Sending Id Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-			errorOccured = true;
+			/** Connection is not used any more */
 		}
 	}
 
@@ -133,7 +400,7 @@ public class ClientThread extends Thread
 		} 
 		catch (ClassNotFoundException e) 
 		{
-			JOptionPane.showMessageDialog(frameThread, "Receiving Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
+			showError("Receiving Failed");
 			errorOccured = true;
 		}
 
@@ -141,8 +408,84 @@ public class ClientThread extends Thread
 	}
 
 	/**
-	 * Parse given DataPackage and do some actions like : refreshing user list,
-	 * initializing key agreement with client, showing data in GUI
+	 * Passes received message further without doing any cryptography on reading thread:
+	 * page of users list goes straight to GUI, presence of subscribed users is remembered,
+	 * everything else goes to worker of the sending user. Packages of other users are counted
+	 * like server counts them in ring of recent packages, fragmented package is counted when
+	 * it is joined and file chunks are not counted. Chunks and acknowledgments of files are
+	 * handled here, chunks are decrypted and written by crypto workers.
+	 * @param receivedMessage message received from server
+	 * @throws IOException when fragments can not be joined
+	 */
+	private void dispatchMessage(DataPackage receivedMessage) throws IOException
+	{
+		if (receivedMessage.getHeader() == Header.FRAGMENT)
+		{
+			DataPackage joined = fragments.add(receivedMessage);
+			if (joined != null)
+				dispatchMessage(joined);
+			return;
+		}
+		if (!"SERVER".equals(receivedMessage.getFromUserName()) && receivedMessage.getHeader() != Header.FILE_CHUNK)
+			relayedSequence++;
+		if (receivedMessage.getHeader() == Header.RESYNC)
+		{
+			/** "<generation><number>" - packages sent again before it are counted already */
+			String[] splitted = receivedMessage.getAdministrationMsg().split("[<>]+");
+			if (splitted.length == 3)
+			{
+				relayGeneration = Long.parseLong(splitted[1]);
+				relayedSequence = Long.parseLong(splitted[2]);
+			}
+			retransmit();
+		}
+		else if (receivedMessage.getHeader() == Header.CLIENTS_LIST)
+		{
+			/** "<clients><version><offset><user><user>" */
+			List<String> splitted = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
+			List<String> users = splitted.subList(Math.min(4, splitted.size()), splitted.size()).stream()
+					.filter(i -> !i.equals(clientName)).collect(Collectors.toList());
+			if (splitted.size() >= 4)
+			{
+				directoryVersion = Long.parseLong(splitted.get(2));
+				directoryOffset = Integer.parseInt(splitted.get(3));
+			}
+			SwingUtilities.invokeLater(() -> refreshUsersList(users));
+		}
+		else if (receivedMessage.getHeader() == Header.PRESENCE)
+		{
+			/** "<online><user>" or "<offline><user>" */
+			String[] splitted = receivedMessage.getAdministrationMsg().split("[<>]+");
+			if (splitted.length == 3 && splitted[1].equals("online"))
+				onlineUsers.add(splitted[2]);
+			else if (splitted.length == 3)
+				onlineUsers.remove(splitted[2]);
+		}
+		else if (receivedMessage.getHeader() == Header.FILE_CHUNK)
+			receiveChunk(receivedMessage);
+		else if (receivedMessage.getHeader() == Header.FILE_ACK)
+			fileAcknowledged(receivedMessage);
+		else if (receivedMessage.getHeader() != Header.HEARTBEAT)
+			cryptoExecutor.execute(receivedMessage.getFromUserName(), () -> doActionWithMessage(receivedMessage));
+	}
+
+	/**
+	 * Refreshing users list in GUI, have to be called on event dispatch thread. Server sends
+	 * page only when it has changed.
+	 * @param users nicknames of connected users without own nickname
+	 */
+	private void refreshUsersList(List<String> users)
+	{
+		frameThread.getListModel().removeAllElements();
+		for (int i = 0; i < users.size(); i++) 
+		{
+			frameThread.getListModel().addElement(users.get(i));
+		}
+	}
+
+	/**
+	 * Parse given DataPackage and do some actions like : 
+	 * initializing key agreement with client, showing data in GUI. Runs on crypto worker.
 	 * @param receivedMessage message that need to be parsed
 	 */
 	private void doActionWithMessage(DataPackage receivedMessage) 
@@ -151,160 +494,247 @@ public class ClientThread extends Thread
 
 		switch (receivedMessage.getHeader()) 
 		{
-			case CLIENTS_LIST:
-				List<String> splitted = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
-				splitted = splitted.subList(2, splitted.size());
-				splitted = splitted.stream().filter(i -> !i.equals(clientName)).collect(Collectors.toList());
-				if (splitted.size() != frameThread.getListModel().size()) 
-				{
-					frameThread.getListModel().removeAllElements();
-					for (int i = 0; i < splitted.size(); i++) 
-					{
-						frameThread.getListModel().addElement(splitted.get(i));
-					}
-				}
-	
-				break;
 			case INIT:
-				List<String> keys = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
-				keys = keys.subList(1, keys.size());
-				DiffieHellman someoneKeyAgreement = new DiffieHellman();
-				someoneKeyAgreement.setPublicVars(new BigInteger(keys.get(keys.indexOf("p") + 1)),
-						new BigInteger(keys.get(keys.indexOf("g") + 1)));
-				someoneKeyAgreement.randomizePrivateValue();
-				BigInteger tmpSendingValue = someoneKeyAgreement.getSendingValue();
-				someoneKeyAgreement.setA(new BigInteger(keys.get(keys.indexOf("B") + 1)));
-				someoneKeyAgreement.makeSignature();
-				someoneKeyAgreement.setReceivedValue(new BigInteger(keys.get(keys.indexOf("B") + 1)));
-				someoneKeyAgreement.setA(tmpSendingValue);
-				someoneKeyAgreement.generateKey();
-				if (frameThread.getTabbedPane().indexOfTab(from) == -1) 
-				{
-					JPanel panel = frameThread.generatePanelForTab();
-					frameThread.getTabbedPane().addTab(from, panel);
-					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION received p,g,A", "");
-					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION making signature of received A", "");
+				HandshakeMessage init = HandshakeMessage.decode(receivedMessage.getHandshakeMsg());
+				DiffieHellman someoneKeyAgreement = Handshake.respond(init, from, identityKeys, peerCache, keyMaterial);
+				String initTrust = checkIdentity(from);
+				resumptions.put(from, Resumption.fromAgreement(someoneKeyAgreement));
+				negotiateCompression(from, init);
+				HandshakeMessage response = Handshake.responseMessage(someoneKeyAgreement);
+				response.setFeatures(offeredFeatures());
+				DataPackage backward = new DataPackage();
+				backward.setFromUserName(clientName);
+				backward.setToUserName(from);
+				backward.setHeader(Header.BACKWARD_INIT);
+				backward.setHandshakeMsg(response.encode());
+
+				acceptConversation(from, someoneKeyAgreement, backward, "Sending init backward Failed", () -> {
+					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION received group,A,signature", 
+							someoneKeyAgreement.getGroup().name());
+					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION checkedSignature", "authorized="
+							+ someoneKeyAgreement.isAuthorized());
+					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION checkedIdentity", initTrust);
 					frameThread.showEncryptionInfo(from, "RECEIVED_INIT_COMMUNICATION generated key", 
-							someoneKeyAgreement.getKey().toString());
-	
-					try 
-					{
-						DataPackage dp = new DataPackage();
-						dp.setFromUserName(clientName);
-						dp.setToUserName(from);
-						dp.setHeader(Header.BACKWARD_INIT);
-						dp.setAdministrationMsg(//"<p><" + someoneKeyAgreement.getP() + ">" + 
-								//"<g><" + someoneKeyAgreement.getG() + ">" + 
-								"<B><" + someoneKeyAgreement.getA() + ">" +
-								"<y1><" + someoneKeyAgreement.getElgamal().getSendingFirstValue() + ">" +
-								"<y2><" + someoneKeyAgreement.getElgamal().getSendingSecondValue() + ">" + 
-								"<b><" + someoneKeyAgreement.getElgamal().getPublicComputedNumber() + ">");
-						oOutputStream.writeObject(dp);
-						oOutputStream.flush();
-						keyAgreement.put(from, someoneKeyAgreement);
-					//	frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending p", someoneKeyAgreement.getP());
-					//	frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending g", someoneKeyAgreement.getG());
-						frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending B", someoneKeyAgreement.getA());
-						frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending y1", 
-								someoneKeyAgreement.getElgamal().getSendingFirstValue().toString());
-						frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending y2", 
-								someoneKeyAgreement.getElgamal().getSendingSecondValue().toString());
-						frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending b", 
-								someoneKeyAgreement.getElgamal().getPublicComputedNumber().toString());
-					} 
-					catch (IOException e) 
-					{
-						JOptionPane.showMessageDialog(frameThread, "Sending init backward Failed", "ERROR",
-								JOptionPane.ERROR_MESSAGE);
-					}
-				}
-	
+							encode(someoneKeyAgreement.getKeyBytes()));
+					frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending scheme,B,signature of B|A", 
+							someoneKeyAgreement.getSignatureScheme().getName());
+					frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending B", encode(response.getShare()));
+					frameThread.showEncryptionInfo(from, "BACKWARDINIT_COMMUNICATION sending signature", 
+							encode(response.getSignature()));
+				});
 				break;
 			case BACKWARD_INIT:
-				List<String> key = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
-				key = key.subList(1, key.size());
-				keyAgreement.get(from).setReceivedValue(new BigInteger(key.get(key.indexOf("B") + 1)));
-				keyAgreement.get(from).setReceivedSignature1(new BigInteger(key.get(key.indexOf("y1") + 1)));
-				keyAgreement.get(from).setReceivedSignature2(new BigInteger(key.get(key.indexOf("y2") + 1)));
-				BigInteger tmpComputedNumber = keyAgreement.get(from).getElgamal().getPublicComputedNumber();
-				keyAgreement.get(from).getElgamal().setPublicComputedNumber(new BigInteger(key.get(key.indexOf("b") + 1)));
-				frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION received  B,y1,y2,b", "");
-				BigInteger tmpReceivedValue = new BigInteger(key.get(key.indexOf("B") + 1));
-				keyAgreement.get(from).setReceivedValue(keyAgreement.get(from).getSendingValue());
-				keyAgreement.get(from).checkSignature();				
-				frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION checkedSignature",  "authorized=" 
-						+ keyAgreement.get(from).isAuthorized());
-				keyAgreement.get(from).setReceivedValue(tmpReceivedValue);
-				keyAgreement.get(from).generateKey();
-				frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION generated key", 
-						keyAgreement.get(from).getKey().toString());
-				BigInteger tmpSendedValue = keyAgreement.get(from).getSendingValue();
-				frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION making signature of received B", keyAgreement.get(from).getReceivedValue().toString());
-				keyAgreement.get(from).setA(tmpReceivedValue);
-				keyAgreement.get(from).getElgamal().setPublicComputedNumber(tmpComputedNumber);
-				keyAgreement.get(from).makeSignature();
-				keyAgreement.get(from).setA(tmpSendedValue);
-				try 
+				HandshakeMessage backwardInit = HandshakeMessage.decode(receivedMessage.getHandshakeMsg());
+				DiffieHellman myKeyAgreement = keyAgreement.get(from);
+				try
 				{
-					DataPackage dp = new DataPackage();
-					dp.setFromUserName(clientName);
-					dp.setToUserName(from);
-					dp.setHeader(Header.SIGNATURE_ENDING);
-					dp.setAdministrationMsg(
-							"<y1><" + keyAgreement.get(from).getElgamal().getSendingFirstValue() + ">" +
-							"<y2><" + keyAgreement.get(from).getElgamal().getSendingSecondValue() + ">" + 
-							"<b><" + keyAgreement.get(from).getElgamal().getPublicComputedNumber() + ">");
-					oOutputStream.writeObject(dp);
-					oOutputStream.flush();
-					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION sending y1", 
-							keyAgreement.get(from).getElgamal().getSendingFirstValue().toString());
-					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION sending y2", 
-							keyAgreement.get(from).getElgamal().getSendingSecondValue().toString());
-					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION sending b", 
-							keyAgreement.get(from).getElgamal().getPublicComputedNumber().toString());
-				} 
-				catch (IOException e) 
+					Handshake.finish(myKeyAgreement, backwardInit, from, peerCache);
+				}
+				catch (IllegalArgumentException e)
 				{
-					JOptionPane.showMessageDialog(frameThread, "Sending SIGNATURE_ENDING Failed", "ERROR",
-							JOptionPane.ERROR_MESSAGE);
+					keyAgreement.remove(from, myKeyAgreement);
+					showError("Key agreement with " + from + " aborted: " + e.getMessage());
+					break;
 				}
+				String backwardTrust = checkIdentity(from);
+				resumptions.put(from, Resumption.fromAgreement(myKeyAgreement));
+				negotiateCompression(from, backwardInit);
+
+				String usedScheme = myKeyAgreement.getSignatureScheme().getName();
+				boolean authorized = myKeyAgreement.isAuthorized();
+				String generatedKey = encode(myKeyAgreement.getKeyBytes());
+				SwingUtilities.invokeLater(() -> {
+					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION received scheme,B,signature of B|A", 
+							usedScheme);
+					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION checkedSignature",  "authorized=" 
+							+ authorized);
+					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION checkedIdentity", backwardTrust);
+					frameThread.showEncryptionInfo(from, "RECEIVED_BACKWARDINIT_COMMUNICATION generated key", generatedKey);
+				});
+				if (receivedMessage.getEncryptedMsg() != null)
+					showDecrypted(from, receivedMessage, myKeyAgreement);
+				Deque<String> waiting = pendingMessages.remove(from);
+				if (waiting != null)
+					for (String msg : waiting)
+						sendEncrypted(from, msg, myKeyAgreement);
 				break;
-			case SIGNATURE_ENDING:
-				List<String> msgs = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
-				msgs = msgs.subList(1, msgs.size());
-				keyAgreement.get(from).setReceivedSignature1(new BigInteger(msgs.get(msgs.indexOf("y1") + 1)));
-				keyAgreement.get(from).setReceivedSignature2(new BigInteger(msgs.get(msgs.indexOf("y2") + 1)));
-				keyAgreement.get(from).getElgamal().setPublicComputedNumber(new BigInteger(msgs.get(msgs.indexOf("b") + 1)));
-				frameThread.showEncryptionInfo(from, "SIGNATURE_ENDING received y1,y2,b", "");
-				BigInteger receivedValue = keyAgreement.get(from).getReceivedValue();
-				keyAgreement.get(from).setReceivedValue(keyAgreement.get(from).getSendingValue());
-				frameThread.showEncryptionInfo(from, "SIGNATURE_ENDING checking signature of sended A", keyAgreement.get(from).getSendingValue().toString());
-				keyAgreement.get(from).checkSignature();
-				keyAgreement.get(from).setReceivedValue(receivedValue);
-				frameThread.showEncryptionInfo(from, "SIGNATURE_ENDING checkedSignature",  "authorized=" 
-						+ keyAgreement.get(from).isAuthorized());
-				frameThread.showMessage(from, from + " has started conversation.",! keyAgreement.get(from).isAuthorized());
+			case RESUME:
+				ResumeMessage resume = ResumeMessage.decode(receivedMessage.getHandshakeMsg());
+				ResumeMessage resumeAnswer = new ResumeMessage();
+				resumeAnswer.setSessionId(resume.getSessionId());
+				DataPackage backwardResume = new DataPackage();
+				backwardResume.setFromUserName(clientName);
+				backwardResume.setToUserName(from);
+				backwardResume.setHeader(Header.BACKWARD_RESUME);
+
+				Resumption known = resumptions.get(from);
+				Resumption.Step step = null;
+				if (known != null && !keyAgreement.containsKey(from) && Arrays.equals(known.getSessionId(), resume.getSessionId()))
+				{
+					step = known.ratchet(resume.getNonce());
+					if (!Resumption.binderEquals(step.getInitiatorBinder(), resume.getBinder()))
+						step = null;
+				}
+				if (step == null)
+				{
+					/** Session is not known - answer without binder, initiator falls back to key agreement */
+					backwardResume.setHandshakeMsg(resumeAnswer.encode());
+					sendOrReport(backwardResume, "Sending resume backward Failed");
+					break;
+				}
+				resumptions.put(from, step.getNext());
+				resumeAnswer.setBinder(step.getReceiverBinder());
+				backwardResume.setHandshakeMsg(resumeAnswer.encode());
+				DiffieHellman resumedAgreement = resumedAgreement(step, known.isAuthorized());
+				/** Initiator sends messages right after RESUME, key has to be there before they are read */
+				keyAgreement.put(from, resumedAgreement);
+				rotations.remove(from);
+				windows.remove(from);
+				acceptConversation(from, resumedAgreement, backwardResume, "Sending resume backward Failed", () -> {
+					frameThread.showEncryptionInfo(from, "RECEIVED_RESUME_COMMUNICATION received session id", 
+							encode(resume.getSessionId()));
+					frameThread.showEncryptionInfo(from, "RECEIVED_RESUME_COMMUNICATION derived key", 
+							encode(resumedAgreement.getKeyBytes()));
+				});
 				break;
-			case DESTROY:
-				if (frameThread.getTabbedPane().indexOfTab(from) != -1) 
+			case BACKWARD_RESUME:
+				ResumeMessage answer = ResumeMessage.decode(receivedMessage.getHandshakeMsg());
+				Resumption.Step sentStep = resuming.remove(from);
+				Deque<String> unconfirmed = unconfirmedMessages.remove(from);
+				if (sentStep == null)
+					break;
+				if (answer.isAccepted() && Resumption.binderEquals(sentStep.getReceiverBinder(), answer.getBinder()))
 				{
-					frameThread.removeTabAndReferences(from);
-					keyAgreement.remove(from);
+					boolean resumedAuthorized = keyAgreement.get(from).isAuthorized();
+					SwingUtilities.invokeLater(() -> frameThread.showEncryptionInfo(from, 
+							"RECEIVED_BACKWARDRESUME_COMMUNICATION session resumed", "authorized=" + resumedAuthorized));
+					if (receivedMessage.getEncryptedMsg() != null)
+						showDecrypted(from, receivedMessage, keyAgreement.get(from));
+					break;
 				}
-	
+				/** Other user does not know session - messages sent with resumed key wait for key of new agreement */
+				resumptions.remove(from);
+				keyAgreement.remove(from);
+				rotations.remove(from);
+				windows.remove(from);
+				if (unconfirmed != null && !unconfirmed.isEmpty())
+					pendingMessages.merge(from, unconfirmed, (later, sent) -> {
+						sent.addAll(later);
+						return sent;
+					});
+				SwingUtilities.invokeLater(() -> frameThread.showEncryptionInfo(from, 
+						"RECEIVED_BACKWARDRESUME_COMMUNICATION session not known", "starting key agreement"));
+				startKeyAgreement(from);
+				break;
+			case DESTROY:
+				/** State of conversation is removed here on crypto queue of user, before its later handshake */
+				keyAgreement.remove(from);
+				rotations.remove(from);
+				windows.remove(from);
+				SwingUtilities.invokeLater(() -> {
+					if (frameThread.getTabbedPane().indexOfTab(from) != -1) 
+						frameThread.removeTabAndReferences(from);
+				});
+				cancelFiles(from);
+				releaseQueues(from);
+				break;
+			case FILE_OFFER:
+				receiveOffer(from, receivedMessage);
+				break;
+			case ATTACHMENT_PUT:
+				attachmentStored(receivedMessage);
+				break;
+			case ATTACHMENT:
+				receiveAttachment(from, receivedMessage);
 				break;
 			case MSG:
-				AES aes = new AES();
-				frameThread.showMessage(from,
-						new String(aes.decrypt(receivedMessage.getEncryptedMsg(), keyAgreement.get(from).getKeyBytes())),
-						!keyAgreement.get(from).isAuthorized());
-				frameThread.showMessage(from,
-						new String("Encrypted: " + Arrays.toString(receivedMessage.getEncryptedMsg())),
-						!keyAgreement.get(from).isAuthorized());
-				frameThread.showMessage(from,
-						new String("Decrypted: " + 
-				Arrays.toString(aes.decrypt(receivedMessage.getEncryptedMsg(), keyAgreement.get(from).getKeyBytes()))),
-						!keyAgreement.get(from).isAuthorized());
+				DiffieHellman agreement = keyAgreement.get(from);
+				/** Messages sent with key of session that was not resumed are sent again after key agreement */
+				if (agreement != null && agreement.getKeyBytes() != null)
+					receiveInOrder(from, receivedMessage, agreement);
+				break;
+			case ACK:
+				MessageWindow ackWindow = windows.get(from);
+				if (ackWindow == null)
+					break;
+				acknowledged(from, ackWindow, receivedMessage.getAcknowledged());
+				/** Other user has full window and waits for answer */
+				if (receivedMessage.getSequence() != 0)
+					sendAcknowledgment(from, ackWindow, 0);
+				break;
+			case MULTICAST:
+				DiffieHellman multicastAgreement = keyAgreement.get(from);
+				if (multicastAgreement != null && multicastAgreement.getKeyBytes() != null)
+					showMulticast(from, receivedMessage, multicastAgreement, "");
+				break;
+			case ROOM_MSG:
+				DiffieHellman roomAgreement = keyAgreement.get(from);
+				if (roomAgreement != null && roomAgreement.getKeyBytes() != null)
+					showMulticast(from, receivedMessage, roomAgreement, "(" + receivedMessage.getToUserName() + ") ");
+				break;
+			case ROOM_MEMBERS:
+				List<String> splitted = Arrays.asList(receivedMessage.getAdministrationMsg().split("[<>]+"));
+				List<String> members = splitted.subList(Math.min(2, splitted.size()), splitted.size());
+				if (!members.isEmpty())
+					roomMembers.put(receivedMessage.getToUserName(), members);
+				else
+					roomMembers.remove(receivedMessage.getToUserName());
+				break;
+			case REKEY:
+				DiffieHellman rekeyed = keyAgreement.get(from);
+				if (rekeyed == null || rekeyed.getKeyBytes() == null)
+					break;
+				KeyRotation answering = rotation(from);
+				/** Both users have started rekey - rekey of user with smaller nickname is used */
+				if (answering.isOwnRekey() && clientName.compareTo(from) < 0)
+					break;
+				long answerToken = answering.beginRekey(false);
+				HandshakeMessage rekeyInit = HandshakeMessage.decode(receivedMessage.getHandshakeMsg());
+				rekeyInBackground(from, answering, answerToken, 
+						() -> Handshake.respond(rekeyInit, from, identityKeys, peerCache, keyMaterial), rekey -> {
+					if (!isAcceptable(rekey, rekeyed))
+					{
+						answering.abandonRekey();
+						ClientMetrics.increment("rekey.rejected");
+						return;
+					}
+					answering.setAnswered(rekey);
+					sendOrReport(rekeyPackage(from, Header.BACKWARD_REKEY, Handshake.responseMessage(rekey).encode()), 
+							"Sending rekey backward Failed");
+				});
+				break;
+			case BACKWARD_REKEY:
+				KeyRotation starting = rotations.get(from);
+				DiffieHellman startedRekey = starting != null ? starting.getStarted() : null;
+				if (startedRekey == null)
+					break;
+				HandshakeMessage rekeyAnswer = HandshakeMessage.decode(receivedMessage.getHandshakeMsg());
+				rekeyInBackground(from, starting, starting.getToken(), () -> {
+					Handshake.finish(startedRekey, rekeyAnswer, from, peerCache);
+					return startedRekey;
+				}, rekey -> {
+					DiffieHellman current = keyAgreement.get(from);
+					if (current == null || !isAcceptable(rekey, current))
+					{
+						starting.abandonRekey();
+						ClientMetrics.increment("rekey.rejected");
+						return;
+					}
+					long latency = starting.switchKey(current, rekey);
+					DataPackage confirm = rekeyPackage(from, Header.REKEY_CONFIRM, null);
+					confirm.setKeyEpoch(starting.getEpoch());
+					sendOrReport(confirm, "Sending rekey confirm Failed");
+					rekeyDone(from, rekey, starting, latency);
+				});
+				break;
+			case REKEY_CONFIRM:
+				KeyRotation confirmed = rotations.get(from);
+				DiffieHellman answeredRekey = confirmed != null ? confirmed.getAnswered() : null;
+				DiffieHellman confirmedAgreement = keyAgreement.get(from);
+				if (answeredRekey == null || confirmedAgreement == null 
+						|| receivedMessage.getKeyEpoch() != confirmed.getEpoch() + 1)
+					break;
+				rekeyDone(from, answeredRekey, confirmed, confirmed.switchKey(confirmedAgreement, answeredRekey));
 				break;
 			default:
 				break;
@@ -312,87 +742,1292 @@ public class ClientThread extends Thread
 	}
 
 	/**
-	 * Initializing Diffie-Hellman key agreement with given user
-	 * @param userNameTo nickname of user name with whom need to be initialized key
+	 * Opening tab of conversation started by other user and sending answer from worker of
+	 * that user, first waiting message goes inside the answer and rest right after it.
+	 * Conversation that already has tab is not opened again.
+	 * @param from nickname of user that started conversation
+	 * @param agreement agreed or resumed key
+	 * @param answer BACKWARD_INIT or BACKWARD_RESUME message
+	 * @param errorMessage text of dialog shown when answer cannot be sent
+	 * @param showInfo shows encryption info, run on event dispatch thread
 	 */
-	public void initializeCommunication(String userNameTo) 
+	private void acceptConversation(String from, DiffieHellman agreement, DataPackage answer, String errorMessage,
+			Runnable showInfo)
+	{
+		SwingUtilities.invokeLater(() -> {
+			if (frameThread.getTabbedPane().indexOfTab(from) == -1) 
+			{
+				JPanel panel = frameThread.generatePanelForTab();
+				frameThread.getTabbedPane().addTab(from, panel);
+				/** Resumed agreement is put before, its window may already have received messages */
+				if (keyAgreement.put(from, agreement) != agreement)
+				{
+					rotations.remove(from);
+					windows.remove(from);
+				}
+				cryptoExecutor.execute(from, () -> {
+					Deque<String> waiting = pendingMessages.remove(from);
+					if (waiting != null && !waiting.isEmpty())
+						answer.setEncryptedMsg(new AES().encrypt(plainBytes(from, waiting.poll(), answer), agreement.getKeyBytes()));
+					if (sendOrReport(answer, errorMessage) && waiting != null)
+						for (String msg : waiting)
+							sendEncrypted(from, msg, agreement);
+				});
+				showInfo.run();
+				frameThread.showMessage(from, from + " has started conversation.", !agreement.isAuthorized());
+			}
+		});
+	}
+
+	/**
+	 * Starting rekey of conversation in background, current key is used until new one is confirmed
+	 * @param userNameTo nickname of other user
+	 * @param rotation key epochs of conversation
+	 */
+	private void startRekey(String userNameTo, KeyRotation rotation)
+	{
+		long token = rotation.beginRekey(true);
+		ClientMetrics.increment("rekey.started");
+		rekeyInBackground(userNameTo, rotation, token, () -> Handshake.initiate(identityKeys, keyMaterial), rekey -> {
+			rotation.setStarted(rekey);
+			if (!sendOrReport(rekeyPackage(userNameTo, Header.REKEY, Handshake.initMessage(rekey).encode()), 
+					"Sending rekey Failed"))
+				rotation.abandonRekey();
+		});
+	}
+
+	/**
+	 * Doing signatures and modPow of rekey on separate queue, so messages of conversation do not
+	 * wait for them, and passing result back to worker of conversation
+	 * @param peer nickname of other user
+	 * @param rotation key epochs of conversation
+	 * @param token token of rekey
+	 * @param work counting part, run in background
+	 * @param result finishing part, run by worker of conversation only if rekey is still running
+	 */
+	private <T> void rekeyInBackground(String peer, KeyRotation rotation, long token, Supplier<T> work, 
+			Consumer<T> result)
+	{
+		cryptoExecutor.execute(peer + REKEY_QUEUE, () -> {
+			T value;
+			try
+			{
+				value = work.get();
+			}
+			catch (RuntimeException e)
+			{
+				ClientMetrics.increment("rekey.failed");
+				value = null;
+			}
+			T counted = value;
+			cryptoExecutor.execute(peer, () -> {
+				if (rotations.get(peer) != rotation || !rotation.isCurrent(token))
+					return;
+				if (counted == null)
+					rotation.abandonRekey();
+				else
+					result.accept(counted);
+			});
+		});
+	}
+
+	/**
+	 * @param rekey agreement of rekey
+	 * @param current agreement of conversation
+	 * @return true if new key may replace current one - authorized conversation needs authorized rekey
+	 */
+	private boolean isAcceptable(DiffieHellman rekey, DiffieHellman current)
+	{
+		return rekey.getKeyBytes() != null && (rekey.isAuthorized() || !current.isAuthorized());
+	}
+
+	/**
+	 * Recording finished rekey - new resumption secret, metrics and encryption info
+	 * @param peer nickname of other user
+	 * @param rekey agreement of rekey
+	 * @param rotation key epochs of conversation
+	 * @param latency time from start of rekey in nanoseconds
+	 */
+	private void rekeyDone(String peer, DiffieHellman rekey, KeyRotation rotation, long latency)
 	{
-		DiffieHellman myKeyAgreement = new DiffieHellman();
-		myKeyAgreement.generatePublicVars();
-		myKeyAgreement.randomizePrivateValue();
+		resumptions.put(peer, Resumption.fromAgreement(rekey));
+		ClientMetrics.increment("rekey.completed");
+		ClientMetrics.latency("rekey.latency").record(latency);
+		int epoch = rotation.getEpoch();
+		String newKey = encode(rekey.getKeyBytes());
+		String metrics = ClientMetrics.report("rekey.").trim().replace('\n', ',');
+		SwingUtilities.invokeLater(() -> {
+			frameThread.showEncryptionInfo(peer, "REKEY_COMMUNICATION new key epoch " + epoch, newKey);
+			frameThread.showEncryptionInfo(peer, "REKEY_COMMUNICATION metrics", metrics);
+		});
+	}
 
+	private DataPackage rekeyPackage(String userNameTo, Header header, byte[] handshake)
+	{
 		DataPackage dp = new DataPackage();
 		dp.setFromUserName(clientName);
 		dp.setToUserName(userNameTo);
-		dp.setHeader(Header.INIT);
-		dp.setAdministrationMsg("<p><" + myKeyAgreement.getP() + ">" + 
-								"<g><" + myKeyAgreement.getG() + ">" + 
-								"<B><"+ myKeyAgreement.getA() + ">" );
-		try 
+		dp.setHeader(header);
+		dp.setHandshakeMsg(handshake);
+		return dp;
+	}
+
+	/**
+	 * @param peer nickname of other user
+	 * @return key epochs of conversation, new ones start with epoch 0
+	 */
+	private KeyRotation rotation(String peer)
+	{
+		return rotations.computeIfAbsent(peer, k -> new KeyRotation());
+	}
+
+	/**
+	 * @param step keys of resumed session
+	 * @param authorized authorization of key agreement that session comes from
+	 * @return agreement holding key of resumed session
+	 */
+	private DiffieHellman resumedAgreement(Resumption.Step step, boolean authorized)
+	{
+		DiffieHellman agreement = new DiffieHellman();
+		agreement.setKeyBytes(step.getTrafficKey());
+		agreement.setAuthorized(authorized);
+		return agreement;
+	}
+
+	/**
+	 * Decrypting message and showing it with its encrypted and decrypted bytes
+	 * @param from nickname of user that sent message
+	 * @param received package with encrypted message, its key epoch and compression
+	 * @param agreement key agreement with that user
+	 */
+	private void showDecrypted(String from, DataPackage received, DiffieHellman agreement)
+	{
+		byte[] key = rotation(from).keyFor(received.getKeyEpoch(), agreement);
+		if (key == null)
 		{
-			oOutputStream.writeObject(dp);
-			oOutputStream.flush();
+			ClientMetrics.increment("msg.unknownEpoch");
+			showError("Message from " + from + " was encrypted with key that is not kept any more, it cannot be shown");
+			return;
+		}
+		decryptAndShow(from, received.getEncryptedMsg(), key, agreement, "", received.isCompressed());
+	}
 
-			keyAgreement.put(userNameTo, myKeyAgreement);
-			
-			/** Sending info */
-			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending p", myKeyAgreement.getP());
-			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending g", myKeyAgreement.getG());
-			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending A", myKeyAgreement.getA());
-	} 
-		catch (IOException e) 
+	/**
+	 * Showing received message once and in order of sending, message without number is shown
+	 * at once. Acknowledgment written in message frees window of sent messages.
+	 * @param from nickname of user that sent message
+	 * @param received received message
+	 * @param agreement key agreement with that user
+	 */
+	private void receiveInOrder(String from, DataPackage received, DiffieHellman agreement)
+	{
+		MessageWindow window = window(from);
+		acknowledged(from, window, received.getAcknowledged());
+		if (received.getSequence() == 0)
 		{
-			JOptionPane.showMessageDialog(frameThread, "Sending init Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-			errorOccured = true;
+			showDecrypted(from, received, agreement);
+			return;
 		}
+		if (received.getSequence() <= window.getDelivered())
+			ClientMetrics.increment("msg.duplicate");
+		for (DataPackage ready : window.receive(received))
+		{
+			showDecrypted(from, ready, agreement);
+			rotation(from).delivered(ready.getKeyEpoch());
+		}
+		if (window.needsAcknowledgment())
+			sendAcknowledgment(from, window, 0);
 	}
 
 	/**
-	 * Makes encryption of given message from user via AES with Diffie-Hellman symetric key
-	 * @param userNameTo Nickname of user that sends that message
-	 * @param msg Message
-	 * @throws IOException thrown when error occur in object stream
+	 * Removing acknowledged messages from window and sending messages that waited for place
+	 * @param peer nickname of other user
+	 * @param window window of conversation
+	 * @param acknowledged number of the last message got by other user
 	 */
-	public void encryptAndSendMessage(String userNameTo, String msg) throws IOException 
+	private void acknowledged(String peer, MessageWindow window, long acknowledged)
+	{
+		if (!window.acknowledge(acknowledged))
+			return;
+		DiffieHellman agreement = keyAgreement.get(peer);
+		if (agreement == null || agreement.getKeyBytes() == null)
+			return;
+		while (window.isOpen() && !window.getWaiting().isEmpty())
+			sendNumbered(peer, window.getWaiting().poll(), agreement, window);
+	}
+
+	/**
+	 * Sending acknowledgment of received messages without own message
+	 * @param peer nickname of other user
+	 * @param window window of conversation
+	 * @param lastSent number of the last sent message when answer is needed, 0 otherwise
+	 */
+	private void sendAcknowledgment(String peer, MessageWindow window, long lastSent)
 	{
-		AES aes = new AES();
 		DataPackage dp = new DataPackage();
 		dp.setFromUserName(clientName);
-		dp.setToUserName(userNameTo);
-		dp.setHeader(Header.MSG);
-		dp.setEncryptedMsg(aes.encrypt(msg.getBytes(), keyAgreement.get(userNameTo).getKeyBytes()));
-		try 
+		dp.setToUserName(peer);
+		dp.setHeader(Header.ACK);
+		dp.setSequence(lastSent);
+		window.stampAcknowledgment(dp);
+		sendOrReport(dp, "Sending acknowledgment Failed");
+	}
+
+	/**
+	 * Sending again messages without acknowledgment after connection to server, other user
+	 * drops the ones he has got already
+	 */
+	private void retransmit()
+	{
+		for (String peer : windows.keySet())
+			cryptoExecutor.execute(peer, () -> {
+				MessageWindow window = windows.get(peer);
+				if (window == null)
+					return;
+				for (DataPackage dp : window.getInFlight())
+				{
+					window.stampAcknowledgment(dp);
+					if (!sendOrReport(dp, "Sending msg Failed"))
+						return;
+					ClientMetrics.increment("msg.retransmitted");
+				}
+			});
+	}
+
+	/**
+	 * @param peer nickname of other user
+	 * @return window of conversation, new ones start with number 1
+	 */
+	private MessageWindow window(String peer)
+	{
+		return windows.computeIfAbsent(peer, k -> new MessageWindow(windowSize));
+	}
+
+	/**
+	 * Unwrapping content key of multicast message with key of conversation, then decrypting
+	 * and showing message like any other
+	 * @param from nickname of user that sent message
+	 * @param multicast received message with wrapped key of this user
+	 * @param agreement key agreement with that user
+	 * @param prefix text shown before message, name of room for room messages
+	 */
+	private void showMulticast(String from, DataPackage multicast, DiffieHellman agreement, String prefix)
+	{
+		KeyWrap wrap = multicast.getRecipientKeys() == null ? null : multicast.getRecipientKeys().stream()
+				.filter(i -> clientName.equals(i.getRecipient())).findFirst().orElse(null);
+		if (wrap == null)
+			return;
+		byte[] key = rotation(from).keyFor(wrap.getKeyEpoch(), agreement);
+		if (key == null)
 		{
-			oOutputStream.writeObject(dp);
-			oOutputStream.flush();
-		} 
-		catch (IOException e) 
+			ClientMetrics.increment("msg.unknownEpoch");
+			return;
+		}
+		byte[] contentKey = ContentKey.unwrap(wrap.getWrappedKey(), key);
+		if (contentKey == null)
 		{
-			JOptionPane.showMessageDialog(frameThread, "Sending msg Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-			errorOccured = true;
+			ClientMetrics.increment("multicast.badKey");
+			return;
 		}
+		decryptAndShow(from, multicast.getEncryptedMsg(), contentKey, agreement, prefix, false);
 	}
 
 	/**
-	 * Initializing communication to close conversation between users
-	 * @param userNameTo nickname of user which whom conversation is ending
+	 * Decrypting message with given key and showing it with its encrypted and decrypted bytes
+	 * @param from nickname of user that sent message
+	 * @param encrypted received encrypted message
+	 * @param key key of message
+	 * @param agreement key agreement with that user
+	 * @param prefix text shown before message
+	 * @param compressed true if sender has compressed message before encryption
+	 * @throws IllegalArgumentException when compressed message is damaged
 	 */
-	public void destroyingCommunication(String userNameTo) 
+	private void decryptAndShow(String from, byte[] encrypted, byte[] key, DiffieHellman agreement, String prefix,
+			boolean compressed)
+	{
+		AES aes = new AES();
+		byte[] decrypted = compressed ? MessageCompression.decompress(aes.decrypt(encrypted, key)) : aes.decrypt(encrypted, key);
+		boolean manInTheMiddle = !agreement.isAuthorized();
+		String encryptedInfo = "Encrypted: " + Arrays.toString(encrypted);
+		String decryptedInfo = "Decrypted: " + Arrays.toString(decrypted);
+		SwingUtilities.invokeLater(() -> {
+			frameThread.showMessage(from, prefix + new String(decrypted), manInTheMiddle);
+			frameThread.showMessage(from, encryptedInfo, manInTheMiddle);
+			frameThread.showMessage(from, decryptedInfo, manInTheMiddle);
+		});
+	}
+
+	/**
+	 * Describing identity key of user after its signature was checked, warning when
+	 * user has signed with other key than remembered one
+	 * @param from nickname of other user
+	 * @return trust of identity key shown in encryption info
+	 */
+	private String checkIdentity(String from)
+	{
+		PeerCache.Trust trust = peerCache != null ? peerCache.getTrust(from) : null;
+		if (trust == PeerCache.Trust.CHANGED)
+			showError("Identity key of " + from + " has changed - conversation is not authorized.");
+		return "identity=" + (trust != null ? trust : "NOT_REMEMBERED");
+	}
+
+	/** @return features this user offers in key agreement */
+	private int offeredFeatures()
+	{
+		return compression.isEnabled() ? HandshakeMessage.FEATURE_COMPRESSION : 0;
+	}
+
+	/**
+	 * Turning compression of sent messages on when both users offer it, it stays for resumed
+	 * sessions and rekeys until next key agreement. Received messages are decompressed by
+	 * mark of sender, so messages sent before change are read right.
+	 * @param peer nickname of other user
+	 * @param received INIT or BACKWARD_INIT of other user
+	 */
+	private void negotiateCompression(String peer, HandshakeMessage received)
+	{
+		if (compression.isEnabled() && (received.getFeatures() & HandshakeMessage.FEATURE_COMPRESSION) != 0)
+			compressingPeers.add(peer);
+		else
+			compressingPeers.remove(peer);
+	}
+
+	/**
+	 * Bytes of message to encrypt, compressed if conversation is compressed and message gets
+	 * shorter - package is marked then
+	 * @param peer nickname of receiver
+	 * @param msg message
+	 * @param dp package of message
+	 * @return bytes to encrypt
+	 */
+	private byte[] plainBytes(String peer, String msg, DataPackage dp)
+	{
+		byte[] plain = msg.getBytes();
+		byte[] compressed = compressingPeers.contains(peer) ? compression.compress(plain) : null;
+		dp.setCompressed(compressed != null);
+		return compressed != null ? compressed : plain;
+	}
+
+	private String encode(byte[] bytes)
+	{
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+
+	/**
+	 * Initializing conversation with given user - resuming earlier session if there is one,
+	 * otherwise Diffie-Hellman key agreement. Work is done by crypto worker of that user.
+	 * @param userNameTo nickname of user name with whom need to be initialized key
+	 */
+	public void initializeCommunication(String userNameTo) 
+	{
+		cryptoExecutor.execute(userNameTo, () -> {
+			Resumption resumption = resumptions.get(userNameTo);
+			if (resumption != null)
+				resumeCommunication(userNameTo, resumption);
+			else
+				startKeyAgreement(userNameTo);
+		});
+	}
+
+	/**
+	 * Starting Diffie-Hellman key agreement with given user, runs on crypto worker
+	 * @param userNameTo nickname of user name with whom need to be initialized key
+	 */
+	private void startKeyAgreement(String userNameTo)
 	{
+		DiffieHellman myKeyAgreement = Handshake.initiate(identityKeys, keyMaterial);
+		HandshakeMessage init = Handshake.initMessage(myKeyAgreement);
+		init.setFeatures(offeredFeatures());
+
 		DataPackage dp = new DataPackage();
 		dp.setFromUserName(clientName);
 		dp.setToUserName(userNameTo);
-		dp.setHeader(Header.DESTROY);
-		try 
-		{
-			oOutputStream.writeObject(dp);
-			oOutputStream.flush();
-		} 
-		catch (IOException e) 
-		{
-			JOptionPane.showMessageDialog(frameThread, "Sending destroy Failed", "ERROR", JOptionPane.ERROR_MESSAGE);
-			errorOccured = true;
+		dp.setHeader(Header.INIT);
+		dp.setHandshakeMsg(init.encode());
+		keyAgreement.put(userNameTo, myKeyAgreement);
+		rotations.remove(userNameTo);
+		windows.remove(userNameTo);
+		if (!sendOrReport(dp, "Sending init Failed"))
+			return;
+
+		/** Sending info */
+		SwingUtilities.invokeLater(() -> {
+			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending group", 
+					myKeyAgreement.getGroup().name());
+			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending A", encode(init.getShare()));
+			frameThread.showEncryptionInfo(userNameTo, "INIT_COMMUNICATION sending signature of A", 
+					encode(init.getSignature()));
+		});
+	}
+
+	/**
+	 * Opening conversation again with secret of earlier one - one RESUME message without modPow.
+	 * Messages are sent right after it and kept until other user confirms session, if it does
+	 * not know session they are sent again after full key agreement. Runs on crypto worker.
+	 * @param userNameTo nickname of user
+	 * @param resumption secret of earlier conversation with that user
+	 */
+	private void resumeCommunication(String userNameTo, Resumption resumption)
+	{
+		byte[] nonce = Resumption.randomNonce();
+		Resumption.Step step = resumption.ratchet(nonce);
+		resumptions.put(userNameTo, step.getNext());
+		resuming.put(userNameTo, step);
+		unconfirmedMessages.put(userNameTo, new ArrayDeque<>());
+		DiffieHellman resumedAgreement = resumedAgreement(step, resumption.isAuthorized());
+		keyAgreement.put(userNameTo, resumedAgreement);
+		rotations.remove(userNameTo);
+		windows.remove(userNameTo);
+
+		ResumeMessage resume = new ResumeMessage();
+		resume.setSessionId(resumption.getSessionId());
+		resume.setNonce(nonce);
+		resume.setBinder(step.getInitiatorBinder());
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setToUserName(userNameTo);
+		dp.setHeader(Header.RESUME);
+		dp.setHandshakeMsg(resume.encode());
+		if (!sendOrReport(dp, "Sending resume Failed"))
+			return;
+
+		SwingUtilities.invokeLater(() -> {
+			frameThread.showEncryptionInfo(userNameTo, "RESUME_COMMUNICATION sending session id", 
+					encode(resume.getSessionId()));
+			frameThread.showEncryptionInfo(userNameTo, "RESUME_COMMUNICATION derived key", 
+					encode(resumedAgreement.getKeyBytes()));
+		});
+	}
+
+	/**
+	 * Makes encryption of given message from user via AES with Diffie-Hellman symetric key,
+	 * encryption and sending is done by crypto worker of that user after its earlier work.
+	 * Message written before key agreement has finished waits and is sent with its end.
+	 * @param userNameTo Nickname of user that sends that message
+	 * @param msg Message
+	 */
+	public void encryptAndSendMessage(String userNameTo, String msg) 
+	{
+		cryptoExecutor.execute(userNameTo, () -> {
+			DiffieHellman agreement = keyAgreement.get(userNameTo);
+			if (agreement == null || agreement.getKeyBytes() == null)
+				pendingMessages.computeIfAbsent(userNameTo, k -> new ArrayDeque<>()).add(msg);
+			else
+			{
+				Deque<String> unconfirmed = unconfirmedMessages.get(userNameTo);
+				if (unconfirmed != null)
+					unconfirmed.add(msg);
+				sendEncrypted(userNameTo, msg, agreement);
+			}
+		});
+	}
+
+	/**
+	 * Sends one message to many users: message is encrypted once with random content key and
+	 * only that key is wrapped with key of every conversation, by crypto worker of its user.
+	 * Server passes the same payload to every receiver with its own wrapped key. Message to
+	 * user without finished key agreement waits like in {@link #encryptAndSendMessage(String, String)}.
+	 * @param usersTo nicknames of receivers
+	 * @param msg message
+	 */
+	public void encryptAndSendMessage(List<String> usersTo, String msg)
+	{
+		multicast(Header.MULTICAST, null, usersTo, msg);
+	}
+
+	/**
+	 * Sends message to all other members of room known from last members list, encrypted
+	 * the same way as {@link #encryptAndSendMessage(List, String)}. Server writes it to the
+	 * members once serialized.
+	 * @param room name of room
+	 * @param msg message
+	 */
+	public void sendToRoom(String room, String msg)
+	{
+		List<String> members = roomMembers.get(room);
+		if (members == null || !members.contains(clientName))
+			return;
+		multicast(Header.ROOM_MSG, room, members.stream().filter(i -> !i.equals(clientName))
+				.collect(Collectors.toList()), msg);
+	}
+
+	/**
+	 * @param room name of new room, this user becomes its first member
+	 */
+	public void createRoom(String room)
+	{
+		joinedRooms.add(room);
+		sendRoomRequest(Header.ROOM_CREATE, room);
+	}
+
+	/** @param room name of existing room to join */
+	public void joinRoom(String room)
+	{
+		joinedRooms.add(room);
+		sendRoomRequest(Header.ROOM_JOIN, room);
+	}
+
+	/** @param room name of room to leave */
+	public void leaveRoom(String room)
+	{
+		joinedRooms.remove(room);
+		sendRoomRequest(Header.ROOM_LEAVE, room);
+		roomMembers.remove(room);
+	}
+
+	/** @param room name of room which members server should send */
+	public void requestRoomMembers(String room)
+	{
+		sendRoomRequest(Header.ROOM_MEMBERS, room);
+	}
+
+	/**
+	 * @param room name of room
+	 * @return members of joined or subscribed room from last list sent by server, null if
+	 *         room is not known
+	 */
+	public List<String> getRoomMembers(String room)
+	{
+		return roomMembers.get(room);
+	}
+
+	/**
+	 * Subscribing to presence of user, server tells about every connection and disconnection
+	 * of that user
+	 * @param user nickname of watched user
+	 */
+	public void subscribeUser(String user)
+	{
+		subscribedUsers.add(user);
+		sendSubscription(Header.SUBSCRIBE, "<user><" + user + ">");
+	}
+
+	/** @param user nickname of user which presence is not needed any more */
+	public void unsubscribeUser(String user)
+	{
+		subscribedUsers.remove(user);
+		sendSubscription(Header.UNSUBSCRIBE, "<user><" + user + ">");
+		onlineUsers.remove(user);
+	}
+
+	/**
+	 * Subscribing to members of room without joining it
+	 * @param room name of watched room
+	 */
+	public void subscribeRoom(String room)
+	{
+		subscribedRooms.add(room);
+		sendSubscription(Header.SUBSCRIBE, "<room><" + room + ">");
+	}
+
+	/** @param room name of room which members are not needed any more */
+	public void unsubscribeRoom(String room)
+	{
+		subscribedRooms.remove(room);
+		sendSubscription(Header.UNSUBSCRIBE, "<room><" + room + ">");
+	}
+
+	/**
+	 * Choosing page of users list, server sends it again only when it changes. Version of
+	 * shown page is given, so the same page is not sent again when roster has not changed.
+	 * @param offset position of first user of page among users sorted by nickname
+	 */
+	public void showDirectoryPage(int offset)
+	{
+		long known = offset == directoryOffset ? directoryVersion : -1;
+		sendSubscription(Header.SUBSCRIBE, "<clients><" + offset + "><" + DIRECTORY_PAGE + "><" + known + ">");
+	}
+
+	/**
+	 * @param user nickname of subscribed user
+	 * @return true if user is connected, false also for users that are not subscribed
+	 */
+	public boolean isOnline(String user)
+	{
+		return onlineUsers.contains(user);
+	}
+
+	private void sendSubscription(Header header, String interest)
+	{
+		if (errorOccured)
+			return;
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setHeader(header);
+		dp.setAdministrationMsg(interest);
+		sendOrReport(dp, "Sending subscription Failed");
+	}
+
+	/**
+	 * Sending request about room, server answers with members of room
+	 * @param header kind of request
+	 * @param room name of room
+	 */
+	private void sendRoomRequest(Header header, String room)
+	{
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setToUserName(room);
+		dp.setHeader(header);
+		cryptoExecutor.execute(room + ROOM_QUEUE, () -> sendOrReport(dp, "Sending room request Failed"));
+		cryptoExecutor.release(room + ROOM_QUEUE);
+	}
+
+	/**
+	 * Encrypting message once with random content key, wrapping that key for every receiver
+	 * by crypto worker of its user and sending one package with all wrapped keys
+	 * @param header MULTICAST or ROOM_MSG
+	 * @param to name of room or null
+	 * @param usersTo nicknames of receivers
+	 * @param msg message
+	 */
+	private void multicast(Header header, String to, List<String> usersTo, String msg)
+	{
+		byte[] contentKey = ContentKey.generate();
+		List<CompletableFuture<KeyWrap>> wraps = new ArrayList<>();
+		for (String userNameTo : usersTo)
+		{
+			CompletableFuture<KeyWrap> wrap = new CompletableFuture<>();
+			wraps.add(wrap);
+			cryptoExecutor.execute(userNameTo, () -> {
+				try
+				{
+					wrap.complete(wrapContentKey(userNameTo, msg, contentKey));
+				}
+				finally
+				{
+					/** Failed wrapping does not stop sending to other users */
+					wrap.complete(null);
+				}
+			});
+		}
+		/** Payload is encrypted and sent by worker that has wrapped the last key */
+		CompletableFuture.allOf(wraps.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+			List<KeyWrap> recipientKeys = wraps.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+					.collect(Collectors.toList());
+			if (recipientKeys.isEmpty())
+				return;
+			DataPackage dp = new DataPackage();
+			dp.setFromUserName(clientName);
+			dp.setToUserName(to);
+			dp.setHeader(header);
+			dp.setEncryptedMsg(new AES().encrypt(msg.getBytes(), contentKey));
+			dp.setRecipientKeys(recipientKeys);
+			if (sendOrReport(dp, "Sending msg Failed"))
+			{
+				ClientMetrics.increment("multicast.sent");
+				ClientMetrics.add("multicast.recipients", recipientKeys.size());
+			}
+		});
+	}
+
+	/**
+	 * Wrapping content key of multicast message with key of conversation, runs on crypto
+	 * worker of receiver
+	 * @param userNameTo nickname of receiver
+	 * @param msg message, kept to be sent later when there is no key yet
+	 * @param contentKey key of message
+	 * @return wrapped key or null if message waits for key agreement
+	 */
+	private KeyWrap wrapContentKey(String userNameTo, String msg, byte[] contentKey)
+	{
+		DiffieHellman agreement = keyAgreement.get(userNameTo);
+		if (agreement == null || agreement.getKeyBytes() == null)
+		{
+			pendingMessages.computeIfAbsent(userNameTo, k -> new ArrayDeque<>()).add(msg);
+			return null;
+		}
+		Deque<String> unconfirmed = unconfirmedMessages.get(userNameTo);
+		if (unconfirmed != null)
+			unconfirmed.add(msg);
+		KeyRotation rotation = rotation(userNameTo);
+		KeyWrap wrap = new KeyWrap(userNameTo, rotation.getEpoch(), ContentKey.wrap(contentKey, agreement.getKeyBytes()));
+		rotation.countSent(wrap.getWrappedKey().length);
+		if (rotation.needsRekey(rekeyPolicy))
+			startRekey(userNameTo, rotation);
+		return wrap;
+	}
+
+	/**
+	 * Encrypting message with key of given agreement and sending it, message waits when window
+	 * of conversation is full
+	 * @param userNameTo nickname of receiver
+	 * @param msg message
+	 * @param agreement key agreement with receiver
+	 */
+	private void sendEncrypted(String userNameTo, String msg, DiffieHellman agreement)
+	{
+		MessageWindow window = window(userNameTo);
+		if (!window.isOpen() || !window.getWaiting().isEmpty())
+		{
+			window.getWaiting().add(msg);
+			ClientMetrics.increment("msg.windowFull");
+			return;
+		}
+		sendNumbered(userNameTo, msg, agreement, window);
+	}
+
+	/**
+	 * Encrypting message and sending it with next number of conversation, message stays in
+	 * window until acknowledgment also when sending fails
+	 * @param userNameTo nickname of receiver
+	 * @param msg message
+	 * @param agreement key agreement with receiver
+	 * @param window window of conversation with free place
+	 */
+	private void sendNumbered(String userNameTo, String msg, DiffieHellman agreement, MessageWindow window)
+	{
+		AES aes = new AES();
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setToUserName(userNameTo);
+		dp.setHeader(Header.MSG);
+		byte[] encrypted = aes.encrypt(plainBytes(userNameTo, msg, dp), agreement.getKeyBytes());
+		KeyRotation rotation = rotation(userNameTo);
+		dp.setKeyEpoch(rotation.getEpoch());
+		dp.setEncryptedMsg(encrypted);
+		window.send(dp);
+		if (!sendOrReport(dp, "Sending msg Failed"))
+			return;
+		/** Other user answers with acknowledgment at once, so waiting messages do not stay for long */
+		if (!window.isOpen())
+			sendAcknowledgment(userNameTo, window, dp.getSequence());
+		rotation.countSent(encrypted.length);
+		if (rotation.needsRekey(rekeyPolicy))
+			startRekey(userNameTo, rotation);
+	}
+
+	/**
+	 * Sending file to user of open conversation. File gets random content key wrapped with key
+	 * of conversation like multicast message, chunks are encrypted by crypto workers and sent
+	 * by pump thread of transfer after receiver has answered offer.
+	 * @param userNameTo nickname of receiver
+	 * @param file file to send
+	 */
+	public void sendFile(String userNameTo, File file)
+	{
+		cryptoExecutor.execute(userNameTo, () -> {
+			DiffieHellman agreement = keyAgreement.get(userNameTo);
+			if (agreement == null || agreement.getKeyBytes() == null)
+			{
+				showError("Conversation with " + userNameTo + " is not ready, file " + file.getName() + " not sent");
+				return;
+			}
+			byte[] contentKey = ContentKey.generate();
+			FileSender sender;
+			try
+			{
+				sender = new FileSender(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, clientName, userNameTo, 
+						file, contentKey, FileSender.DEFAULT_WINDOW, cryptoExecutor, userNameTo + FILE_QUEUE, 
+						this::sendChunk, this::fileSent);
+			}
+			catch (IOException e)
+			{
+				showError("File " + file.getName() + " can not be read");
+				return;
+			}
+			KeyRotation rotation = rotation(userNameTo);
+			DataPackage offer = sender.offer(new KeyWrap(userNameTo, rotation.getEpoch(), 
+					ContentKey.wrap(contentKey, agreement.getKeyBytes())));
+			outgoingFiles.put(transferKey(userNameTo, sender.getId()), sender);
+			sender.start();
+			if (!sendOrReport(offer, "Sending file offer Failed"))
+				sender.cancel();
+		});
+	}
+
+	/**
+	 * Answering offer of file, runs on crypto worker of sender. Offer of transfer that is
+	 * known already comes again after reconnection of sender and is answered with position
+	 * to resume from.
+	 * @param from nickname of sender
+	 * @param offer FILE_OFFER "<transfer><length><name>"
+	 */
+	private void receiveOffer(String from, DataPackage offer)
+	{
+		String[] splitted = offer.getAdministrationMsg().split("[<>]+");
+		if (splitted.length != 4)
+			return;
+		long id = Long.parseLong(splitted[1]);
+		long length = Long.parseLong(splitted[2]);
+		String key = transferKey(from, id);
+		FileReceiver known = incomingFiles.get(key);
+		if (known != null || receivedFiles.contains(key))
+		{
+			sendFileAcknowledgment(from, id, known != null ? known.getWritten() : length, true);
+			return;
+		}
+		byte[] contentKey = unwrapFileKey(from, offer);
+		if (length < 0 || contentKey == null)
+		{
+			ClientMetrics.increment("file.badOffer");
+			sendFileAcknowledgment(from, id, -1, false);
+			return;
+		}
+		FileReceiver receiver;
+		try
+		{
+			receiver = new FileReceiver(id, from, splitted[3], length, contentKey, FileSender.DEFAULT_WINDOW, 
+					new File(RECEIVED_DIRECTORY));
+		}
+		catch (IOException e)
+		{
+			showError("File " + splitted[3] + " from " + from + " can not be saved");
+			sendFileAcknowledgment(from, id, -1, false);
+			return;
+		}
+		showFileInfo(from, "Receiving file " + receiver.getTarget().getName() + " (" + length + " bytes)");
+		if (receiver.getWritten() == length)
+			fileReceived(key, receiver);
+		else
+			incomingFiles.put(key, receiver);
+		sendFileAcknowledgment(from, id, 0, true);
+	}
+
+	/**
+	 * @param from nickname of sender of file
+	 * @param offer FILE_OFFER or ATTACHMENT with content key wrapped for this user
+	 * @return content key of file, null when it can not be unwrapped
+	 */
+	private byte[] unwrapFileKey(String from, DataPackage offer)
+	{
+		DiffieHellman agreement = keyAgreement.get(from);
+		KeyWrap wrap = offer.getRecipientKeys() == null ? null : offer.getRecipientKeys().stream()
+				.filter(i -> clientName.equals(i.getRecipient())).findFirst().orElse(null);
+		byte[] sessionKey = agreement == null || agreement.getKeyBytes() == null || wrap == null ? null 
+				: rotation(from).keyFor(wrap.getKeyEpoch(), agreement);
+		return sessionKey == null ? null : ContentKey.unwrap(wrap.getWrappedKey(), sessionKey);
+	}
+
+	/**
+	 * Passing chunk of file to crypto worker that decrypts it and writes it to disk, runs on
+	 * reading thread. Chunk that receiver has got already is answered with written position,
+	 * so sender that has gone back to older position moves its window forward again.
+	 * @param chunk FILE_CHUNK "<transfer><position>"
+	 */
+	private void receiveChunk(DataPackage chunk)
+	{
+		String from = chunk.getFromUserName();
+		String[] splitted = chunk.getAdministrationMsg().split("[<>]+");
+		long id;
+		long position;
+		try
+		{
+			id = Long.parseLong(splitted[1]);
+			position = Long.parseLong(splitted[2]);
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			/** Reading thread is not stopped by wrong package of other user */
+			ClientMetrics.increment("file.ignoredChunks");
+			return;
+		}
+		if (chunk.getEncryptedMsg() == null)
+			return;
+		String key = transferKey(from, id);
+		FileReceiver receiver = incomingFiles.get(key);
+		byte[] encrypted = chunk.getEncryptedMsg();
+		if (receiver == null || !receiver.take(position, encrypted.length))
+		{
+			ClientMetrics.increment("file.ignoredChunks");
+			if (receiver != null && position < receiver.getWritten())
+				sendFileAcknowledgment(from, id, receiver.getWritten(), false);
+			return;
+		}
+		cryptoExecutor.execute(from + FILE_QUEUE + (position / FileSender.CHUNK_LENGTH % FILE_LANES), () -> {
+			try
+			{
+				long written = receiver.write(position, encrypted);
+				if (written < 0)
+					return;
+				sendFileAcknowledgment(from, id, written, false);
+				if (written == receiver.getLength())
+				{
+					incomingFiles.remove(key);
+					fileReceived(key, receiver);
+				}
+			}
+			catch (IOException e)
+			{
+				receiver.cancel();
+				releaseFileLanes(from);
+				if (incomingFiles.remove(key) != null)
+				{
+					sendFileAcknowledgment(from, id, -1, false);
+					showError("Writing file " + receiver.getTarget().getName() + " failed");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Passing acknowledgment of receiver to sending transfer, runs on reading thread
+	 * @param ack FILE_ACK "<transfer><position>" or "<transfer><position><resume>"
+	 */
+	private void fileAcknowledged(DataPackage ack)
+	{
+		String[] splitted = ack.getAdministrationMsg().split("[<>]+");
+		try
+		{
+			FileSender sender = outgoingFiles.get(transferKey(ack.getFromUserName(), Long.parseLong(splitted[1])));
+			if (sender != null)
+				sender.acknowledge(Long.parseLong(splitted[2]), splitted.length == 4 && splitted[3].equals("resume"));
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			ClientMetrics.increment("file.badAcknowledgment");
+		}
+	}
+
+	/**
+	 * @param peer nickname of sender of file
+	 * @param id number of transfer
+	 * @param position bytes written without gap, -1 cancels transfer
+	 * @param resume true if sender has to go on from position
+	 */
+	private void sendFileAcknowledgment(String peer, long id, long position, boolean resume)
+	{
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setToUserName(peer);
+		dp.setHeader(Header.FILE_ACK);
+		dp.setAdministrationMsg("<" + id + "><" + position + ">" + (resume ? "<resume>" : ""));
+		sendOrReport(dp, "Sending file acknowledgment Failed");
+	}
+
+	/** Sending chunk from pump thread of transfer, chunk lost with connection is sent again after resume */
+	private void sendChunk(DataPackage chunk)
+	{
+		try
+		{
+			sendPackage(chunk);
+		}
+		catch (IOException e)
+		{
+			/** Chunks are not queued */
+		}
+	}
+
+	/** Called by pump thread when transfer ends */
+	private void fileSent(FileSender sender, IOException failure)
+	{
+		outgoingFiles.remove(transferKey(sender.getPeer(), sender.getId()), sender);
+		releaseFileLanes(sender.getPeer());
+		if (failure == null)
+			showFileInfo(sender.getPeer(), "File " + sender.getFile().getName() + " sent (" + sender.getLength() + " bytes)");
+		else
+			showFileInfo(sender.getPeer(), "Sending file " + sender.getFile().getName() + " failed: " + failure.getMessage());
+	}
+
+	private void fileReceived(String key, FileReceiver receiver)
+	{
+		releaseFileLanes(receiver.getPeer());
+		receivedFiles.add(key);
+		ClientMetrics.add("file.receivedBytes", receiver.getLength());
+		showFileInfo(receiver.getPeer(), "File received: " + receiver.getTarget().getPath());
+	}
+
+	/**
+	 * Sending file to many users through attachment store of server, receivers that are not
+	 * connected now get it later. File is encrypted once in counter mode with random content
+	 * key and uploaded once, only content key is wrapped with key of every conversation like
+	 * in multicast. Upload thread sends chunks after all keys are wrapped, and receivers get
+	 * ATTACHMENT with hash of stored file when server has stored the last chunk.
+	 * @param usersTo nicknames of receivers with open conversation
+	 * @param file file to send
+	 */
+	public void sendAttachment(List<String> usersTo, File file)
+	{
+		byte[] contentKey = ContentKey.generate();
+		List<CompletableFuture<KeyWrap>> wraps = new ArrayList<>();
+		for (String userNameTo : usersTo)
+		{
+			CompletableFuture<KeyWrap> wrap = new CompletableFuture<>();
+			wraps.add(wrap);
+			cryptoExecutor.execute(userNameTo, () -> {
+				DiffieHellman agreement = keyAgreement.get(userNameTo);
+				wrap.complete(agreement == null || agreement.getKeyBytes() == null ? null 
+						: new KeyWrap(userNameTo, rotation(userNameTo).getEpoch(), 
+								ContentKey.wrap(contentKey, agreement.getKeyBytes())));
+			});
+		}
+		CompletableFuture.allOf(wraps.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+			List<KeyWrap> recipientKeys = wraps.stream().map(CompletableFuture::join).filter(Objects::nonNull)
+					.collect(Collectors.toList());
+			if (recipientKeys.isEmpty())
+			{
+				showError("No conversation is ready, file " + file.getName() + " not sent");
+				return;
+			}
+			DataPackage attachment = new DataPackage();
+			attachment.setFromUserName(clientName);
+			attachment.setHeader(Header.ATTACHMENT);
+			attachment.setRecipientKeys(recipientKeys);
+			Thread upload = new Thread(() -> uploadAttachment(file, contentKey, attachment), "attachment-upload");
+			upload.setDaemon(true);
+			upload.start();
+		});
+	}
+
+	/**
+	 * Reading, encrypting and sending chunks of attachment "<upload><position><length>", runs
+	 * on upload thread. Socket slows thread down when server writes chunks slower than it reads
+	 * file, and one buffer is used for all chunks. Upload stops when server has rejected it or
+	 * connection was lost.
+	 * @param file file to send
+	 * @param contentKey key of file
+	 * @param attachment package for receivers without hash of file
+	 */
+	private void uploadAttachment(File file, byte[] contentKey, DataPackage attachment)
+	{
+		String id = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+		CounterMode cipher = new CounterMode(contentKey);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long length = channel.size();
+			attachment.setAdministrationMsg("<" + length + "><" + file.getName().replaceAll("[<>]", "_") + ">");
+			attachmentUploads.put(id, attachment);
+			byte[] buffer = new byte[FileSender.CHUNK_LENGTH];
+			long position = 0;
+			do
+			{
+				int n = (int) Math.min(buffer.length, length - position);
+				ByteBuffer target = ByteBuffer.wrap(buffer, 0, n);
+				while (target.hasRemaining())
+					if (channel.read(target, position + target.position()) < 0)
+						throw new IOException("File " + file.getName() + " is shorter than its length");
+				cipher.apply(position, buffer, 0, n);
+				DataPackage chunk = new DataPackage();
+				chunk.setFromUserName(clientName);
+				chunk.setHeader(Header.ATTACHMENT_PUT);
+				chunk.setAdministrationMsg("<" + id + "><" + position + "><" + length + ">");
+				chunk.setEncryptedMsg(n == buffer.length ? buffer : Arrays.copyOf(buffer, n));
+				sendPackage(chunk);
+				position += n;
+			}
+			while (position < length && attachmentUploads.containsKey(id));
+			ClientMetrics.add("attachment.uploadedBytes", position);
+		}
+		catch (IOException e)
+		{
+			attachmentUploads.remove(id);
+			showError("File " + file.getName() + " can not be read");
+		}
+	}
+
+	/**
+	 * Answer of server to upload, runs on crypto worker of server. Stored file is given to
+	 * receivers by one package with their wrapped keys.
+	 * @param answer ATTACHMENT_PUT "<upload><hash>", or "<upload>" when upload has failed
+	 */
+	private void attachmentStored(DataPackage answer)
+	{
+		String[] splitted = answer.getAdministrationMsg().split("[<>]+");
+		DataPackage attachment = splitted.length > 1 ? attachmentUploads.remove(splitted[1]) : null;
+		if (attachment == null)
+			return;
+		String name = attachment.getAdministrationMsg().split("[<>]+")[2];
+		if (splitted.length != 3)
+		{
+			ClientMetrics.increment("attachment.failed");
+			showError("Server has not stored file " + name);
+			return;
 		}
-		keyAgreement.remove(userNameTo);
+		attachment.setAdministrationMsg("<" + splitted[2] + ">" + attachment.getAdministrationMsg());
+		if (sendOrReport(attachment, "Sending attachment Failed"))
+			for (KeyWrap wrap : attachment.getRecipientKeys())
+				showFileInfo(wrap.getRecipient(), "File " + name + " stored on server for " + wrap.getRecipient());
+	}
+
+	/**
+	 * Downloading attachment "<hash><length><name>" on its own thread, runs on crypto worker of
+	 * sender. Package given again after reconnection does not download file again.
+	 * @param from nickname of sender
+	 * @param attachment ATTACHMENT with content key wrapped for this user
+	 */
+	private void receiveAttachment(String from, DataPackage attachment)
+	{
+		String[] splitted = attachment.getAdministrationMsg().split("[<>]+");
+		long length;
+		try
+		{
+			length = Long.parseLong(splitted[2]);
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			ClientMetrics.increment("attachment.badOffer");
+			return;
+		}
+		String hash = splitted[1];
+		String name = splitted.length > 3 ? splitted[3] : "file";
+		byte[] contentKey = unwrapFileKey(from, attachment);
+		if (contentKey == null)
+		{
+			ClientMetrics.increment("attachment.badOffer");
+			return;
+		}
+		if (!receivedAttachments.add(hash))
+			return;
+		showFileInfo(from, "Downloading file " + name + " (" + length + " bytes)");
+		Thread download = new Thread(() -> {
+			try
+			{
+				File received = AttachmentDownload.fetch(serverAdress, clientName, from, hash, length, name, contentKey, 
+						new File(RECEIVED_DIRECTORY));
+				ClientMetrics.add("attachment.receivedBytes", length);
+				showFileInfo(from, "File received: " + received.getPath());
+			}
+			catch (IOException e)
+			{
+				receivedAttachments.remove(hash);
+				ClientMetrics.increment("attachment.failed");
+				showFileInfo(from, "Downloading file " + name + " failed: " + e.getMessage());
+			}
+		}, "attachment-download");
+		download.setDaemon(true);
+		download.start();
+	}
+
+	/** Stopping all transfers with user whose conversation is closed */
+	private void cancelFiles(String peer)
+	{
+		for (FileSender sender : outgoingFiles.values())
+			if (sender.getPeer().equals(peer))
+				sender.cancel();
+		incomingFiles.values().removeIf(receiver -> {
+			if (!receiver.getPeer().equals(peer))
+				return false;
+			receiver.cancel();
+			return true;
+		});
+		releaseFileLanes(peer);
+	}
+
+	/** @return key of transfer in maps of files, number is given by sender */
+	private static String transferKey(String peer, long id)
+	{
+		return peer + FILE_QUEUE + id;
+	}
+
+	/** Showing state of transfer in tab of user, when tab is still open */
+	private void showFileInfo(String peer, String info)
+	{
+		SwingUtilities.invokeLater(() -> {
+			if (frameThread.getTabbedPane().indexOfTab(peer) != -1)
+				frameThread.showMessage(peer, info, false);
+		});
+	}
+
+	/**
+	 * Initializing communication to close conversation between users
+	 * @param userNameTo nickname of user which whom conversation is ending
+	 */
+	public void destroyingCommunication(String userNameTo) 
+	{
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName(clientName);
+		dp.setToUserName(userNameTo);
+		dp.setHeader(Header.DESTROY);
+		cryptoExecutor.execute(userNameTo, () -> {
+			sendOrReport(dp, "Sending destroy Failed");
+			keyAgreement.remove(userNameTo);
+			rotations.remove(userNameTo);
+			windows.remove(userNameTo);
+			pendingMessages.remove(userNameTo);
+			resuming.remove(userNameTo);
+			unconfirmedMessages.remove(userNameTo);
+			cancelFiles(userNameTo);
+		});
+		releaseQueues(userNameTo);
+	}
+
+	/** Forgetting crypto queues of user whose conversation is closed, after their last tasks */
+	private void releaseQueues(String peer)
+	{
+		cryptoExecutor.release(peer);
+		cryptoExecutor.release(peer + REKEY_QUEUE);
+		releaseFileLanes(peer);
+	}
+
+	/** Forgetting crypto queues of file chunks of user, they are made again by next transfer */
+	private void releaseFileLanes(String peer)
+	{
+		for (int lane = 0; lane < FILE_LANES; lane++)
+			cryptoExecutor.release(peer + FILE_QUEUE + lane);
+	}
+
+	/**
+	 * Writes message to server, stream is shared by reading thread, workers and GUI. While
+	 * connection is broken message waits in bounded outbound queue. Numbered MSG is not
+	 * queued, it stays in window of conversation and is sent again after RESYNC, file chunk
+	 * is sent again when transfer is resumed and heartbeat is not needed after reconnection.
+	 * @param dp message to send
+	 * @throws IOException thrown when outbound queue is full
+	 */
+	private void sendPackage(DataPackage dp) throws IOException
+	{
+		synchronized (sendLock)
+		{
+			if (connected)
+				try 
+				{
+					write(dp);
+					return;
+				} 
+				catch (IOException e) 
+				{
+					/** Reading thread gets error of closed socket and connects again */
+					disconnect();
+				}
+			if ((dp.getHeader() == Header.MSG && dp.getSequence() != 0) || dp.getHeader() == Header.HEARTBEAT
+					|| dp.getHeader() == Header.FILE_CHUNK || dp.getHeader() == Header.ATTACHMENT_PUT)
+				return;
+			if (outbound.size() >= OUTBOUND_LIMIT)
+				throw new IOException("Outbound queue is full");
+			outbound.add(dp);
+		}
+	}
+
+	/**
+	 * Writing to current connection, called under sendLock. Stream forgets chunk of file or
+	 * attachment after writing it - buffer of chunk is used again for next chunks and must not
+	 * be written as reference to the old one, and stream would keep every chunk of file.
+	 */
+	private void write(DataPackage dp) throws IOException
+	{
+		oOutputStream.writeObject(dp);
+		if (dp.getHeader() == Header.FILE_CHUNK || dp.getHeader() == Header.ATTACHMENT_PUT)
+			oOutputStream.reset();
+		oOutputStream.flush();
+	}
+
+	/**
+	 * Sends message and shows error dialog when it fails
+	 * @param dp message to send
+	 * @param errorMessage text of dialog
+	 * @return true if message was sent or waits for connection
+	 */
+	private boolean sendOrReport(DataPackage dp, String errorMessage)
+	{
+		try 
+		{
+			sendPackage(dp);
+			return true;
+		} 
+		catch (IOException e) 
+		{
+			showError(errorMessage);
+			return false;
+		}
+	}
+
+	/**
+	 * Shows error dialog on event dispatch thread
+	 * @param message text of dialog
+	 */
+	private void showError(String message)
+	{
+		SwingUtilities.invokeLater(() -> 
+				JOptionPane.showMessageDialog(frameThread, message, "ERROR", JOptionPane.ERROR_MESSAGE));
 	}
 }
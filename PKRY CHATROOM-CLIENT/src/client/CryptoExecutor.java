@@ -0,0 +1,179 @@
+package client;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import metrics.ClientMetrics;
+
+/**
+ * Bounded pool of worker threads running handshake and AES work outside of the network
+ * reading thread. Tasks given with the same key (user nickname) are run one after another
+ * in order of submission, so messages of one conversation are never reordered, while
+ * tasks of different users run in parallel. Failed tasks are counted in "crypto.failed" and
+ * given to failure handler, next tasks of that user still run.
+ */
+public class CryptoExecutor
+{
+	/** Max number of tasks of one user run before giving thread to other users */
+	private static final int BATCH_SIZE = 16;
+
+	/** Worker threads */
+	private final ExecutorService pool;
+	/** Queues of waiting tasks - one per user */
+	private final Map<String, SerialQueue> queues;
+	/** Handler of exceptions thrown by tasks */
+	private final Consumer<RuntimeException> failures;
+
+	/**
+	 * Constructor, failed tasks are only counted
+	 * @param threads number of worker threads
+	 */
+	public CryptoExecutor(int threads)
+	{
+		this(threads, e -> {});
+	}
+
+	/**
+	 * Constructor
+	 * @param threads number of worker threads
+	 * @param failures handler of exceptions thrown by tasks, called on worker thread
+	 */
+	public CryptoExecutor(int threads, Consumer<RuntimeException> failures)
+	{
+		this.failures = failures;
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = task -> {
+			Thread thread = new Thread(task, "crypto-worker-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		pool = Executors.newFixedThreadPool(threads, factory);
+		queues = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Queues task after all earlier tasks with the same key
+	 * @param key nickname of user that task is reflected with
+	 * @param task work to do
+	 */
+	public void execute(String key, Runnable task)
+	{
+		queues.compute(key, (k, queue) -> {
+			if (queue == null)
+				queue = new SerialQueue(k);
+			queue.enqueue(task);
+			return queue;
+		});
+	}
+
+	/**
+	 * Forgets queue of given user now if there is no waiting task, otherwise as soon as its
+	 * last task has run. Task queued with the same key later keeps the queue.
+	 * @param key nickname of user
+	 */
+	public void release(String key)
+	{
+		queues.computeIfPresent(key, (k, queue) -> queue.release() ? null : queue);
+	}
+
+	/** Stops worker threads, waiting tasks are dropped */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+	}
+
+	/** Tasks of one user, at most one worker thread runs them at a time */
+	private class SerialQueue implements Runnable
+	{
+		private final String key;
+		private final Deque<Runnable> tasks = new ArrayDeque<>();
+		private boolean active;
+		/** True when queue is forgotten after its last task */
+		private boolean released;
+
+		SerialQueue(String key)
+		{
+			this.key = key;
+		}
+
+		synchronized void enqueue(Runnable task)
+		{
+			released = false;
+			tasks.add(task);
+			if (!active)
+			{
+				active = true;
+				pool.execute(this);
+			}
+		}
+
+		synchronized boolean isIdle()
+		{
+			return !active && tasks.isEmpty();
+		}
+
+		/** @return true if queue is idle and can be forgotten now, otherwise it is forgotten later */
+		synchronized boolean release()
+		{
+			released = true;
+			return isIdle();
+		}
+
+		/** Forgetting released queue after its last task, unless new task was queued meanwhile */
+		private void forgetIfReleased()
+		{
+			queues.computeIfPresent(key, (k, queue) -> queue == this && isReleasedAndIdle() ? null : queue);
+		}
+
+		private synchronized boolean isReleasedAndIdle()
+		{
+			return released && isIdle();
+		}
+
+		@Override
+		public void run()
+		{
+			for (int i = 0; i < BATCH_SIZE; i++)
+			{
+				Runnable task;
+				synchronized (this)
+				{
+					task = tasks.poll();
+					if (task == null)
+						active = false;
+				}
+				if (task == null)
+				{
+					forgetIfReleased();
+					return;
+				}
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					ClientMetrics.increment("crypto.failed");
+					failures.accept(e);
+				}
+			}
+			synchronized (this)
+			{
+				if (!tasks.isEmpty())
+				{
+					pool.execute(this);
+					return;
+				}
+				active = false;
+			}
+			forgetIfReleased();
+		}
+	}
+}
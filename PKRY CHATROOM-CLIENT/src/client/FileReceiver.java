@@ -0,0 +1,190 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import cipher.CounterMode;
+
+/**
+ * One file received from other user. Chunks are decrypted by crypto workers in parallel and
+ * written straight to their positions in part file through FileChannel, nothing is kept in
+ * memory. Receiver counts bytes written without gap from start of file - that position is
+ * acknowledged to sender and is where transfer goes on after reconnection. Chunks sent
+ * again after resume or out of window of sender are ignored. Complete file is renamed from
+ * part file to its name.
+ */
+public class FileReceiver
+{
+	/** Suffix of file while it is received */
+	public static final String PART_SUFFIX = ".part";
+
+	private final long id;
+	private final String peer;
+	private final long length;
+	private final CounterMode cipher;
+	/** Max distance of accepted chunk from written position */
+	private final long windowBytes;
+	private final File part;
+	private final File target;
+	private final FileChannel channel;
+
+	/** Bytes written without gap from start of file */
+	private long written;
+	/** Positions of chunks after written position taken by workers */
+	private final Set<Long> taken = new HashSet<>();
+	/** Positions of chunks after written position already on disk */
+	private final Set<Long> stored = new HashSet<>();
+	private boolean closed;
+
+	/**
+	 * Constructor, creates part file in directory
+	 * @param id number of transfer given by sender
+	 * @param peer nickname of sender
+	 * @param name name of file given by sender
+	 * @param length length of file, not negative
+	 * @param contentKey key of file
+	 * @param window max number of chunks sent without acknowledgment
+	 * @param directory directory of received files
+	 * @throws IOException when part file can not be created
+	 */
+	public FileReceiver(long id, String peer, String name, long length, byte[] contentKey, int window, File directory)
+			throws IOException
+	{
+		this.id = id;
+		this.peer = peer;
+		/** Name from other user never leaves directory */
+		String safeName = new File(name).getName().replaceAll("[\\\\/:*?\"|]", "_");
+		this.length = length;
+		this.cipher = new CounterMode(contentKey);
+		this.windowBytes = (long) window * FileSender.CHUNK_LENGTH;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Directory " + directory + " can not be created");
+		this.target = freeName(directory, safeName.isEmpty() ? "file" : safeName);
+		this.part = new File(directory, target.getName() + "." + id + PART_SUFFIX);
+		this.channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		/** Empty file has no chunks */
+		if (length == 0)
+			complete();
+	}
+
+	/** @return file in directory with given name or with number added, that does not exist */
+	private static File freeName(File directory, String name)
+	{
+		File file = new File(directory, name);
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		for (int i = 1; file.exists(); i++)
+			file = new File(directory, base + " (" + i + ")" + extension);
+		return file;
+	}
+
+	/**
+	 * Taking chunk for decryption and writing, called by reading thread
+	 * @param position position of chunk in file
+	 * @param chunkLength length of chunk
+	 * @return false if chunk is already taken or written, or lies out of window
+	 */
+	public synchronized boolean take(long position, int chunkLength)
+	{
+		if (closed || position < written || position - written >= windowBytes || position % FileSender.CHUNK_LENGTH != 0
+				|| chunkLength != Math.min(FileSender.CHUNK_LENGTH, length - position))
+			return false;
+		return taken.add(position);
+	}
+
+	/**
+	 * Decrypting taken chunk and writing it to its position, run by crypto worker
+	 * @param position position of chunk in file
+	 * @param encrypted encrypted chunk, decrypted in place
+	 * @return written position after this chunk, or -1 if it has not moved
+	 * @throws IOException when chunk can not be written
+	 */
+	public long write(long position, byte[] encrypted) throws IOException
+	{
+		cipher.apply(position, encrypted, 0, encrypted.length);
+		ByteBuffer source = ByteBuffer.wrap(encrypted);
+		while (source.hasRemaining())
+			channel.write(source, position + source.position());
+		synchronized (this)
+		{
+			if (closed)
+				return -1;
+			stored.add(position);
+			long before = written;
+			while (stored.remove(written))
+			{
+				taken.remove(written);
+				written = Math.min(length, written + FileSender.CHUNK_LENGTH);
+			}
+			if (written == length)
+				complete();
+			return written != before ? written : -1;
+		}
+	}
+
+	/** Making file durable and giving it its name, called under lock */
+	private void complete() throws IOException
+	{
+		closed = true;
+		channel.force(false);
+		channel.close();
+		Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/** Stopping transfer and deleting part file */
+	public synchronized void cancel()
+	{
+		if (closed)
+			return;
+		closed = true;
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			/** Part file is deleted anyway */
+		}
+		part.delete();
+	}
+
+	public synchronized long getWritten()
+	{
+		return written;
+	}
+
+	public synchronized boolean isComplete()
+	{
+		return written == length;
+	}
+
+	public long getId()
+	{
+		return id;
+	}
+
+	public String getPeer()
+	{
+		return peer;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	/** @return file the transfer is saved to */
+	public File getTarget()
+	{
+		return target;
+	}
+}
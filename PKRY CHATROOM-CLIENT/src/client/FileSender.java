@@ -0,0 +1,358 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import cipher.CounterMode;
+import metrics.ClientMetrics;
+import protocol.DataPackage;
+import protocol.Header;
+import protocol.KeyWrap;
+
+/**
+ * One file sent to other user. File is read through FileChannel - longer files are
+ * memory-mapped in regions - and cut into chunks, which are encrypted in counter mode with
+ * random content key of file by crypto workers in parallel, while pump thread of transfer
+ * sends them in order. At most window chunks are sent and not acknowledged by receiver, and
+ * the same window of buffers is used again for all chunks, so memory does not depend on
+ * length of file. Receiver asks to resume from position it has written after offer and after
+ * reconnection, pump then drops chunks encrypted ahead and goes on from that position.
+ */
+public class FileSender implements Runnable
+{
+	/** Length of one chunk in bytes, multiple of AES block */
+	public static final int CHUNK_LENGTH = 64 << 10;
+	/** Default max number of sent chunks without acknowledgment */
+	public static final int DEFAULT_WINDOW = 32;
+	/** Files longer than it are memory-mapped */
+	private static final long MAP_THRESHOLD = 1 << 20;
+	/** Length of one mapped region of file, multiple of chunk length */
+	private static final long MAP_REGION = 64L << 20;
+
+	private final long id;
+	private final String from;
+	private final String peer;
+	private final File file;
+	private final FileChannel channel;
+	private final long length;
+	private final CounterMode cipher;
+	private final int window;
+	private final CryptoExecutor workers;
+	/** Prefix of crypto queues of chunks, chunks go to queues in turn */
+	private final String queue;
+	private final int lanes;
+	/** Sends package to server */
+	private final Consumer<DataPackage> out;
+	/** Called once on pump thread when transfer ends, exception is null after success */
+	private final BiConsumer<FileSender, IOException> finished;
+	/** Buffers of chunks not encrypted or sent yet */
+	private final BlockingQueue<byte[]> buffers;
+	private final long startTime = System.nanoTime();
+	private DataPackage offer;
+
+	/** Mapped region of file and its position, used only under lock */
+	private MappedByteBuffer region;
+	private long regionStart;
+
+	/** Bytes written by receiver */
+	private long acknowledged;
+	/** True after receiver has answered offer */
+	private boolean accepted;
+	/** Number of resumes, chunks encrypted before the last one are dropped */
+	private int resumes;
+	private boolean cancelled;
+
+	/**
+	 * Constructor, opens file
+	 * @param id number of transfer, random
+	 * @param from nickname of this user
+	 * @param peer nickname of receiver
+	 * @param file file to send
+	 * @param contentKey random key of file
+	 * @param window max number of sent chunks without acknowledgment
+	 * @param workers crypto workers encrypting chunks
+	 * @param queue prefix of crypto queue keys of chunks
+	 * @param out sends package to server
+	 * @param finished called when transfer ends, with null after success
+	 * @throws IOException when file can not be opened
+	 */
+	public FileSender(long id, String from, String peer, File file, byte[] contentKey, int window,
+			CryptoExecutor workers, String queue, Consumer<DataPackage> out, BiConsumer<FileSender, IOException> finished)
+			throws IOException
+	{
+		this.id = id;
+		this.from = from;
+		this.peer = peer;
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.length = channel.size();
+		this.cipher = new CounterMode(contentKey);
+		this.window = window;
+		this.workers = workers;
+		this.queue = queue;
+		this.lanes = Math.max(1, Runtime.getRuntime().availableProcessors());
+		this.out = out;
+		this.finished = finished;
+		this.buffers = new ArrayBlockingQueue<>(window);
+		for (int i = 0; i < window; i++)
+			buffers.add(new byte[CHUNK_LENGTH]);
+	}
+
+	/**
+	 * Building offer of file, it is remembered and sent again after reconnection
+	 * @param wrap content key wrapped with key of conversation
+	 * @return FILE_OFFER "<transfer><length><name>"
+	 */
+	public synchronized DataPackage offer(KeyWrap wrap)
+	{
+		offer = new DataPackage();
+		offer.setFromUserName(from);
+		offer.setToUserName(peer);
+		offer.setHeader(Header.FILE_OFFER);
+		offer.setAdministrationMsg("<" + id + "><" + length + "><" + file.getName().replaceAll("[<>]", "_") + ">");
+		offer.setKeyEpoch(wrap.getKeyEpoch());
+		offer.setRecipientKeys(Collections.singletonList(wrap));
+		return offer;
+	}
+
+	public synchronized DataPackage getOffer()
+	{
+		return offer;
+	}
+
+	/** Starting pump thread, chunks are sent after receiver answers offer */
+	public void start()
+	{
+		Thread pump = new Thread(this, "file-sender-" + peer);
+		pump.setDaemon(true);
+		pump.start();
+	}
+
+	/**
+	 * Answer of receiver
+	 * @param position bytes written by receiver, -1 if receiver has cancelled transfer
+	 * @param resume true if receiver asks to go on from position
+	 */
+	public synchronized void acknowledge(long position, boolean resume)
+	{
+		if (position < 0)
+			cancelled = true;
+		else if (resume)
+		{
+			acknowledged = Math.min(position, length);
+			accepted = true;
+			resumes++;
+		}
+		else if (position > acknowledged)
+			acknowledged = Math.min(position, length);
+		notifyAll();
+	}
+
+	/** Stopping transfer, pump ends after current chunk */
+	public synchronized void cancel()
+	{
+		cancelled = true;
+		notifyAll();
+	}
+
+	@Override
+	public void run()
+	{
+		Deque<Chunk> encrypting = new ArrayDeque<>();
+		int resumed = 0;
+		long next = 0;
+		IOException failure = null;
+		try
+		{
+			while (true)
+			{
+				List<Chunk> dropped = null;
+				Chunk head = null;
+				synchronized (this)
+				{
+					while (!cancelled && acknowledged < length)
+					{
+						if (resumed != resumes)
+						{
+							/** Buffers of dropped chunks are given back before new chunks take them */
+							dropped = new ArrayList<>(encrypting);
+							encrypting.clear();
+							resumed = resumes;
+							next = acknowledged;
+							break;
+						}
+						while (accepted && next < length && next - acknowledged < (long) window * CHUNK_LENGTH
+								&& !buffers.isEmpty())
+						{
+							encrypting.add(encrypt(next, buffers.poll()));
+							next += CHUNK_LENGTH;
+						}
+						if (!encrypting.isEmpty())
+						{
+							head = encrypting.poll();
+							break;
+						}
+						wait();
+					}
+					if (dropped == null && head == null)
+					{
+						if (cancelled)
+							failure = new IOException("Transfer of " + file.getName() + " cancelled");
+						break;
+					}
+				}
+				if (dropped != null)
+					for (Chunk chunk : dropped)
+						release(chunk);
+				if (head != null)
+				{
+					out.accept(head.done.join());
+					release(head);
+				}
+			}
+		}
+		catch (CompletionException e)
+		{
+			failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		catch (IOException e)
+		{
+			failure = e;
+		}
+		catch (InterruptedException e)
+		{
+			failure = new IOException("Transfer of " + file.getName() + " interrupted");
+		}
+		for (Chunk chunk : encrypting)
+			chunk.done.exceptionally(e -> null).join();
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			/** File was only read */
+		}
+		if (failure == null)
+		{
+			ClientMetrics.add("file.sentBytes", length);
+			ClientMetrics.latency("file.send").record(System.nanoTime() - startTime);
+		}
+		else
+			ClientMetrics.increment("file.failed");
+		finished.accept(this, failure);
+	}
+
+	/** Giving buffer of chunk back after it is encrypted, chunk that failed ends transfer */
+	private void release(Chunk chunk)
+	{
+		chunk.done.join();
+		buffers.add(chunk.buffer);
+	}
+
+	/**
+	 * Reading and encrypting chunk on crypto worker, called under lock
+	 * @param position position of chunk in file
+	 * @param buffer free buffer
+	 * @return chunk that is done when its package is ready
+	 */
+	private Chunk encrypt(long position, byte[] buffer) throws IOException
+	{
+		int n = (int) Math.min(CHUNK_LENGTH, length - position);
+		Chunk chunk = new Chunk(buffer);
+		ByteBuffer mapped = length > MAP_THRESHOLD ? mapped(position, n) : null;
+		workers.execute(queue + (position / CHUNK_LENGTH % lanes), () -> {
+			try
+			{
+				if (mapped != null)
+					mapped.get(buffer, 0, n);
+				else
+					read(buffer, n, position);
+				cipher.apply(position, buffer, 0, n);
+				DataPackage dp = new DataPackage();
+				dp.setFromUserName(from);
+				dp.setToUserName(peer);
+				dp.setHeader(Header.FILE_CHUNK);
+				dp.setAdministrationMsg("<" + id + "><" + position + ">");
+				/** Buffer is written before it is used again, only the last shorter chunk is copied */
+				dp.setEncryptedMsg(n == buffer.length ? buffer : Arrays.copyOf(buffer, n));
+				chunk.done.complete(dp);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				chunk.done.completeExceptionally(e);
+			}
+		});
+		return chunk;
+	}
+
+	/** @return view of mapped file from position, region is mapped again when position is out of it */
+	private ByteBuffer mapped(long position, int n) throws IOException
+	{
+		if (region == null || position < regionStart || position + n > regionStart + region.capacity())
+		{
+			regionStart = position - position % MAP_REGION;
+			region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(MAP_REGION, length - regionStart));
+		}
+		ByteBuffer view = region.duplicate();
+		view.position((int) (position - regionStart));
+		view.limit(view.position() + n);
+		return view;
+	}
+
+	private void read(byte[] buffer, int n, long position) throws IOException
+	{
+		ByteBuffer target = ByteBuffer.wrap(buffer, 0, n);
+		while (target.hasRemaining())
+			if (channel.read(target, position + target.position()) < 0)
+				throw new IOException("File " + file.getName() + " is shorter than offered");
+	}
+
+	public long getId()
+	{
+		return id;
+	}
+
+	public String getPeer()
+	{
+		return peer;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public long getLength()
+	{
+		return length;
+	}
+
+	/** Chunk encrypted by worker */
+	private static final class Chunk
+	{
+		private final byte[] buffer;
+		private final CompletableFuture<DataPackage> done = new CompletableFuture<>();
+
+		Chunk(byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamConstants;
+import java.io.SequenceInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Joins FRAGMENT packages of server into packages they were cut from. Server writes long
+ * package in chunks between packages of other users and control packages, so fragments of
+ * a few packages can come interleaved; every one has number of its package and length of
+ * whole package in "<number><length>". Bytes of whole package are one serialized object
+ * without stream header. Used only by reading thread.
+ */
+public class FragmentReassembler
+{
+	/** Max length of joined package - 64 MiB */
+	public static final int MAX_LENGTH = 64 << 20;
+
+	/** Header of object stream put before joined bytes */
+	private static final byte[] STREAM_HEADER = {
+			(byte) (ObjectStreamConstants.STREAM_MAGIC >> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+			(byte) (ObjectStreamConstants.STREAM_VERSION >> 8), (byte) ObjectStreamConstants.STREAM_VERSION };
+
+	/** Number of package - its bytes received so far */
+	private final Map<Long, Partial> partials = new HashMap<>();
+
+	/**
+	 * Adding fragment
+	 * @param fragment FRAGMENT package from server
+	 * @return whole package when it was the last fragment, null otherwise
+	 * @throws IOException when fragment is malformed or joined bytes are not a package
+	 */
+	public DataPackage add(DataPackage fragment) throws IOException
+	{
+		if (fragment.getHeader() != Header.FRAGMENT || fragment.getEncryptedMsg() == null)
+			throw new IOException("Not a fragment");
+		String[] splitted = fragment.getAdministrationMsg() == null ? new String[0]
+				: fragment.getAdministrationMsg().split("[<>]+");
+		if (splitted.length != 3)
+			throw new IOException("Malformed fragment " + fragment.getAdministrationMsg());
+		long number;
+		int length;
+		try
+		{
+			number = Long.parseLong(splitted[1]);
+			length = Integer.parseInt(splitted[2]);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("Malformed fragment " + fragment.getAdministrationMsg(), e);
+		}
+		if (length <= 0 || length > MAX_LENGTH)
+			throw new IOException("Fragmented package of " + length + " bytes");
+
+		Partial partial = partials.get(number);
+		if (partial == null)
+		{
+			partial = new Partial(length);
+			partials.put(number, partial);
+		}
+		byte[] chunk = fragment.getEncryptedMsg();
+		if (partial.bytes.length != length || partial.filled + chunk.length > length)
+		{
+			partials.remove(number);
+			throw new IOException("Fragment of package " + number + " does not fit it");
+		}
+		System.arraycopy(chunk, 0, partial.bytes, partial.filled, chunk.length);
+		partial.filled += chunk.length;
+		if (partial.filled < length)
+			return null;
+		partials.remove(number);
+		return decode(partial.bytes);
+	}
+
+	/** Forgetting all unfinished packages, server starts numbering again with new connection */
+	public void clear()
+	{
+		partials.clear();
+	}
+
+	/** @return number of packages with missing fragments */
+	public int pending()
+	{
+		return partials.size();
+	}
+
+	private static DataPackage decode(byte[] bytes) throws IOException
+	{
+		InputStream in = new SequenceInputStream(new ByteArrayInputStream(STREAM_HEADER), new ByteArrayInputStream(bytes));
+		try (ObjectInputStream oin = new ObjectInputStream(in))
+		{
+			return (DataPackage) oin.readObject();
+		}
+		catch (ClassNotFoundException | ClassCastException e)
+		{
+			throw new IOException("Joined fragments are not a package", e);
+		}
+	}
+
+	/** Bytes of one package received so far */
+	private static final class Partial
+	{
+		private final byte[] bytes;
+		private int filled;
+
+		Partial(int length)
+		{
+			bytes = new byte[length];
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cipher.DHGroup;
+import cipher.DiffieHellman;
+import cipher.SignatureScheme;
+import cipher.SignatureSchemes;
+import protocol.HandshakeMessage;
+
+/**
+ * Two message authenticated key agreement. Initiator signs its A value and sends it in INIT,
+ * receiver checks that signature, signs B|A and sends it in BACKWARD_INIT together with B.
+ * After BACKWARD_INIT both users have the key and have checked each other, so receiver can
+ * put first encrypted message in the answer and initiator can send right after it.
+ * With {@link IdentityKeys} users sign with long-term keys and with {@link PeerCache} they
+ * check that other user signs with the same key as before.
+ */
+public final class Handshake
+{
+	private Handshake()
+	{
+	}
+
+	/**
+	 * Starting key agreement with new signature keys
+	 * @return key agreement of initiator
+	 */
+	public static DiffieHellman initiate()
+	{
+		return initiate(null);
+	}
+
+	/**
+	 * Starting key agreement - generating values and signing A with most preferred scheme
+	 * @param identity own long-term keys or null to generate new keys
+	 * @return key agreement of initiator
+	 */
+	public static DiffieHellman initiate(IdentityKeys identity)
+	{
+		return initiate(identity, null);
+	}
+
+	/**
+	 * Starting key agreement - taking values and signing A with most preferred scheme
+	 * @param identity own long-term keys or null to generate new keys
+	 * @param pool prepared key material or null to count values now
+	 * @return key agreement of initiator
+	 */
+	public static DiffieHellman initiate(IdentityKeys identity, KeyMaterialPool pool)
+	{
+		DiffieHellman agreement = freshAgreement(DHGroup.RFC5114_2048_256, pool);
+		agreement.setInitiator(true);
+		setScheme(agreement, SignatureSchemes.SUPPORTED.get(0), identity);
+		agreement.makeSignature();
+		return agreement;
+	}
+
+	/**
+	 * @param agreement key agreement of initiator
+	 * @return INIT fields: group, offered schemes (signing one first), A, public key and signature of A
+	 */
+	public static HandshakeMessage initMessage(DiffieHellman agreement)
+	{
+		HandshakeMessage init = signedMessage(agreement);
+		init.setSchemeIds(SignatureSchemes.SUPPORTED.stream().mapToInt(SignatureSchemes::idOf).toArray());
+		return init;
+	}
+
+	/**
+	 * Answering INIT with new signature keys and without remembering initiator key
+	 * @param init received INIT fields
+	 * @return key agreement of receiver with generated key
+	 * @throws IllegalArgumentException when group, schemes or A are not valid
+	 */
+	public static DiffieHellman respond(HandshakeMessage init)
+	{
+		return respond(init, null, null, null);
+	}
+
+	/**
+	 * Answering INIT - checking signature of initiator, generating own values and key, signing B|A
+	 * @param init received INIT fields
+	 * @param from nickname of initiator
+	 * @param identity own long-term keys or null to generate new keys
+	 * @param peers remembered keys of other users or null
+	 * @return key agreement of receiver with generated key
+	 * @throws IllegalArgumentException when group, schemes or A are not valid
+	 */
+	public static DiffieHellman respond(HandshakeMessage init, String from, IdentityKeys identity, PeerCache peers)
+	{
+		return respond(init, from, identity, peers, null);
+	}
+
+	/**
+	 * Answering INIT like {@link #respond(HandshakeMessage, String, IdentityKeys, PeerCache)}
+	 * with prepared own values
+	 * @param pool prepared key material or null to count values now
+	 */
+	public static DiffieHellman respond(HandshakeMessage init, String from, IdentityKeys identity, PeerCache peers,
+			KeyMaterialPool pool)
+	{
+		DHGroup group = DHGroup.byId(init.getGroupId());
+		if (group == null)
+			throw new IllegalArgumentException("Unknown key agreement group " + init.getGroupId());
+		List<String> offered = new ArrayList<>();
+		for (int id : init.getSchemeIds())
+			offered.add(SignatureSchemes.nameOf(id));
+		String scheme = SignatureSchemes.negotiate(offered);
+
+		DiffieHellman agreement = freshAgreement(group, pool);
+		agreement.setReceivedBytes(init.getShare());
+		setScheme(agreement, scheme, identity);
+		/** Initiator signs with first offered scheme, other choice means its signature cannot be checked */
+		if (!offered.isEmpty() && scheme.equals(offered.get(0)))
+			checkSignature(agreement, from, peers, init);
+		agreement.makeSignature();
+		agreement.generateKey();
+		return agreement;
+	}
+
+	/**
+	 * @param agreement key agreement of receiver
+	 * @return BACKWARD_INIT fields: chosen scheme, B, public key and signature of B|A
+	 */
+	public static HandshakeMessage responseMessage(DiffieHellman agreement)
+	{
+		HandshakeMessage response = signedMessage(agreement);
+		response.setSchemeIds(SignatureSchemes.idOf(agreement.getSignatureScheme().getName()));
+		return response;
+	}
+
+	/**
+	 * Finishing key agreement on initiator side without remembering receiver key
+	 * @param agreement key agreement of initiator
+	 * @param response received BACKWARD_INIT fields
+	 * @throws IllegalArgumentException when B is not valid
+	 */
+	public static void finish(DiffieHellman agreement, HandshakeMessage response)
+	{
+		finish(agreement, response, null, null);
+	}
+
+	/**
+	 * Finishing key agreement on initiator side - checking signature of receiver and generating key.
+	 * Receiver has to answer with scheme that initiator signed with, otherwise its signature
+	 * cannot be checked and key agreement is aborted.
+	 * @param agreement key agreement of initiator
+	 * @param response received BACKWARD_INIT fields
+	 * @param from nickname of receiver
+	 * @param peers remembered keys of other users or null
+	 * @throws IllegalArgumentException when B is not valid or chosen scheme is missing or other than signing one
+	 */
+	public static void finish(DiffieHellman agreement, HandshakeMessage response, String from, PeerCache peers)
+	{
+		agreement.setReceivedBytes(response.getShare());
+		int[] schemeIds = response.getSchemeIds();
+		if (schemeIds == null || schemeIds.length == 0)
+			throw new IllegalArgumentException("Answer of key agreement has no signature scheme");
+		String scheme = SignatureSchemes.nameOf(schemeIds[0]);
+		if (!agreement.getSignatureScheme().getName().equals(scheme))
+			throw new IllegalArgumentException("Answer of key agreement is signed with scheme " + scheme + " other than "
+					+ agreement.getSignatureScheme().getName());
+		checkSignature(agreement, from, peers, response);
+		agreement.generateKey();
+	}
+
+	/** @return agreement with group, private value and A - prepared one if pool is given */
+	private static DiffieHellman freshAgreement(DHGroup group, KeyMaterialPool pool)
+	{
+		if (pool != null)
+			return pool.take(group);
+		DiffieHellman agreement = new DiffieHellman();
+		agreement.setGroup(group);
+		agreement.randomizePrivateValue();
+		return agreement;
+	}
+
+	/** Setting scheme with identity keys if they are given, otherwise with new keys */
+	private static void setScheme(DiffieHellman agreement, String scheme, IdentityKeys identity)
+	{
+		if (identity != null)
+			agreement.setSignatureScheme(identity.scheme(scheme, agreement.getGroup()));
+		else
+			agreement.setSignatureScheme(scheme);
+	}
+
+	/**
+	 * Checking signature of other user with its prepared key, correct signature with other key
+	 * than remembered one does not authorize user
+	 */
+	private static void checkSignature(DiffieHellman agreement, String from, PeerCache peers, HandshakeMessage message)
+	{
+		if (peers == null)
+		{
+			agreement.checkSignature(message.getPublicKey(), message.getSignature());
+			return;
+		}
+		SignatureScheme scheme = agreement.getSignatureScheme();
+		agreement.checkSignature(peers.prepared(from, scheme, message.getPublicKey()), message.getSignature());
+		if (agreement.isAuthorized() && peers.check(from, scheme.getName(), message.getPublicKey()) == PeerCache.Trust.CHANGED)
+			agreement.setAuthorized(false);
+	}
+
+	private static HandshakeMessage signedMessage(DiffieHellman agreement)
+	{
+		HandshakeMessage message = new HandshakeMessage();
+		message.setGroupId(agreement.getGroup().getId());
+		message.setShare(agreement.getSendingBytes());
+		message.setSignature(agreement.getSignature());
+		message.setPublicKey(agreement.getSignatureScheme().getPublicKey());
+		return message;
+	}
+}
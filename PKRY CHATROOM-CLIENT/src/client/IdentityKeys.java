@@ -0,0 +1,178 @@
+package client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import cipher.CTRDRBG;
+import cipher.DHGroup;
+import cipher.EdDSASignature;
+import cipher.ElGamalSignature;
+import cipher.GeneratorTables;
+import cipher.SignatureScheme;
+
+/**
+ * Long-term identity keys of user kept on disk between runs. The same keys sign every key
+ * agreement of this user, so other users can remember them in their {@link PeerCache} and
+ * no signature keys are generated during handshakes. Private keys are written to file
+ * unencrypted - file is created readable only by its owner, but anyone who can read it can
+ * sign as this user.
+ */
+public class IdentityKeys
+{
+	/** File with private keys */
+	private final File file;
+	/** EdDSA keys, signing does not change state so one instance is shared by all agreements */
+	private EdDSASignature eddsa;
+	/** ElGamal t and b values of every group */
+	private final Map<DHGroup, BigInteger[]> elgamal = new EnumMap<>(DHGroup.class);
+
+	/**
+	 * Constructor - keys are read by {@link #loadOrGenerate()}
+	 * @param file file with private keys
+	 */
+	public IdentityKeys(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reading keys of given user from working directory, missing keys are generated and saved
+	 * @param nickname nickname of user
+	 * @return keys of user
+	 * @throws IOException thrown when keys file cannot be read or written
+	 */
+	public static IdentityKeys forUser(String nickname) throws IOException
+	{
+		IdentityKeys keys = new IdentityKeys(new File("identity-" + fileName(nickname) + ".properties"));
+		keys.loadOrGenerate();
+		return keys;
+	}
+
+	/**
+	 * @param nickname nickname of user
+	 * @return nickname with characters that are not safe in file names replaced
+	 */
+	static String fileName(String nickname)
+	{
+		return nickname.replaceAll("[^A-Za-z0-9_-]", "_");
+	}
+
+	/**
+	 * Reading keys from file and generating keys that are not there yet
+	 * @throws IOException thrown when keys file cannot be read or written
+	 */
+	public synchronized void loadOrGenerate() throws IOException
+	{
+		Properties prop = new Properties();
+		if (file.exists())
+			try (Reader reader = new FileReader(file))
+			{
+				prop.load(reader);
+			}
+
+		boolean generated = false;
+		eddsa = new EdDSASignature();
+		String seed = prop.getProperty(EdDSASignature.NAME);
+		if (seed != null)
+			eddsa.setPrivateKey(Base64.getDecoder().decode(seed));
+		else
+		{
+			eddsa.generateKeys();
+			prop.setProperty(EdDSASignature.NAME, Base64.getEncoder().encodeToString(eddsa.getPrivateKey()));
+			generated = true;
+		}
+
+		for (DHGroup group : DHGroup.values())
+		{
+			String name = ElGamalSignature.NAME + "." + group.name();
+			String value = prop.getProperty(name);
+			BigInteger t;
+			if (value != null)
+				t = new BigInteger(value, 16);
+			else
+			{
+				t = randomPrivateValue(group);
+				prop.setProperty(name, t.toString(16));
+				generated = true;
+			}
+			elgamal.put(group, new BigInteger[] { t, GeneratorTables.generatorPower(group, t) });
+		}
+
+		if (generated)
+			save(prop);
+	}
+
+	/**
+	 * Giving own keys of negotiated scheme
+	 * @param name name of scheme
+	 * @param group group of key agreement, ElGamal keys depend on it
+	 * @return scheme with identity keys, new ElGamal instance for every call as its signing changes its state
+	 */
+	public synchronized SignatureScheme scheme(String name, DHGroup group)
+	{
+		if (EdDSASignature.NAME.equals(name))
+			return eddsa;
+		if (!ElGamalSignature.NAME.equals(name))
+			throw new IllegalArgumentException("Unknown signature scheme: " + name);
+		BigInteger[] keys = elgamal.get(group);
+		ElGamalSignature scheme = new ElGamalSignature();
+		scheme.setPublicBigPrime(group.getPrime());
+		scheme.setPublicGenerator(group.getGenerator());
+		scheme.setSubgroupOrder(group.getOrder());
+		scheme.setPrivateRandomNumber(keys[0]);
+		scheme.setPublicComputedNumber(keys[1]);
+		return scheme;
+	}
+
+	/** @return random t in range 1..q-1 of group */
+	private static BigInteger randomPrivateValue(DHGroup group)
+	{
+		Random random = CTRDRBG.current();
+		BigInteger t;
+		do
+		{
+			t = new BigInteger(group.getOrder().bitLength(), random);
+		} while (t.signum() == 0 || t.compareTo(group.getOrder()) >= 0);
+		return t;
+	}
+
+	/** Writing keys readable only by owner, new file gets owner-only permissions when it is created */
+	private void save(Properties prop) throws IOException
+	{
+		if (!file.exists())
+		{
+			try
+			{
+				Files.createFile(file.toPath(), PosixFilePermissions.asFileAttribute(
+						EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+			}
+			catch (UnsupportedOperationException e)
+			{
+				/** No POSIX permissions (Windows) - permissions are narrowed right after creating */
+				Files.createFile(file.toPath());
+				file.setReadable(false, false);
+				file.setWritable(false, false);
+				file.setReadable(true, true);
+				file.setWritable(true, true);
+			}
+		}
+		try (Writer writer = new FileWriter(file))
+		{
+			prop.store(writer, "PRIVATE IDENTITY KEYS - DO NOT SHARE");
+		}
+	}
+}
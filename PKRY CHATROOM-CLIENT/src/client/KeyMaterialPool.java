@@ -0,0 +1,103 @@
+package client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cipher.DHGroup;
+import cipher.DiffieHellman;
+import metrics.ClientMetrics;
+
+/**
+ * Diffie-Hellman private values with counted A = g^a prepared by background thread before
+ * they are needed, so key agreements and rekeys take ready key material instead of doing
+ * modPow when they start. Pool is refilled after every taken value.
+ */
+public class KeyMaterialPool
+{
+	/** Group of prepared values */
+	private final DHGroup group;
+	/** Prepared agreements */
+	private final BlockingQueue<DiffieHellman> ready;
+	/** Thread counting values */
+	private final ExecutorService filler;
+	/** True while refilling is queued or running */
+	private final AtomicBoolean filling = new AtomicBoolean();
+
+	/**
+	 * Constructor - filling starts at once
+	 * @param group group of prepared values
+	 * @param size number of kept values
+	 */
+	public KeyMaterialPool(DHGroup group, int size)
+	{
+		this.group = group;
+		this.ready = new ArrayBlockingQueue<>(size);
+		this.filler = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "key-material");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		refill();
+	}
+
+	/**
+	 * Taking prepared agreement, when pool is empty or group is other one values are counted now
+	 * @param group group of key agreement
+	 * @return agreement with set group, private value and A
+	 */
+	public DiffieHellman take(DHGroup group)
+	{
+		DiffieHellman agreement = group == this.group ? ready.poll() : null;
+		refill();
+		if (agreement != null)
+		{
+			ClientMetrics.increment("keymaterial.hit");
+			return agreement;
+		}
+		ClientMetrics.increment("keymaterial.miss");
+		return fresh(group);
+	}
+
+	/** Stops background thread */
+	public void shutdown()
+	{
+		filler.shutdownNow();
+	}
+
+	private void refill()
+	{
+		if (!filling.compareAndSet(false, true))
+			return;
+		try
+		{
+			filler.execute(() -> {
+				try
+				{
+					while (ready.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted())
+						ready.offer(fresh(group));
+				}
+				finally
+				{
+					filling.set(false);
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			/** Pool was shut down */
+			filling.set(false);
+		}
+	}
+
+	private static DiffieHellman fresh(DHGroup group)
+	{
+		DiffieHellman agreement = new DiffieHellman();
+		agreement.setGroup(group);
+		agreement.randomizePrivateValue();
+		return agreement;
+	}
+}
@@ -0,0 +1,184 @@
+package client;
+
+import java.util.TreeMap;
+
+import cipher.DiffieHellman;
+
+/**
+ * Key epochs of one conversation. Current key stays in DiffieHellman of conversation, this
+ * class keeps its epoch and usage, keys of previous epochs for messages sent before other user
+ * switched and state of running rekey. Keys of previous epochs are kept until message of later
+ * epoch is shown in order, as other user numbers messages in order of encryption, so message
+ * sent just before several quick rekeys can still be read when it comes again. Every started or answered rekey gets new token, so
+ * results of abandoned rekeys that come later from background are ignored.
+ * Used only by crypto worker of conversation.
+ */
+public class KeyRotation
+{
+	/** Time after which rekey without answer can be started again, in nanoseconds */
+	private static final long STALE_REKEY_NANOS = 60_000_000_000L;
+	/** Max number of kept keys of previous epochs, the oldest one is forgotten first */
+	private static final int PREVIOUS_KEYS_LIMIT = 16;
+
+	/** Epoch of current key, 0 for key of key agreement or resumption */
+	private int epoch;
+	/** Keys of previous epochs that messages of other user may still need, epoch is key */
+	private final TreeMap<Integer, byte[]> previousKeys = new TreeMap<>();
+	/** Messages sent with current key */
+	private long messages;
+	/** Encrypted bytes sent with current key */
+	private long bytes;
+	/** Time of switching to current key in milliseconds */
+	private long keyTime = System.currentTimeMillis();
+
+	/** Token of running rekey, 0 when there is none */
+	private long token;
+	/** Last given token */
+	private long lastToken;
+	/** True if running rekey was started by this user */
+	private boolean own;
+	/** Start of running rekey in nanoseconds */
+	private long rekeyStart;
+	/** Agreement of rekey started by this user, waiting for BACKWARD_REKEY */
+	private DiffieHellman started;
+	/** Agreement of rekey answered by this user, waiting for REKEY_CONFIRM */
+	private DiffieHellman answered;
+
+	/**
+	 * Counting sent message
+	 * @param length length of encrypted message
+	 */
+	public void countSent(int length)
+	{
+		messages++;
+		bytes += length;
+	}
+
+	/**
+	 * @param policy limits of key use
+	 * @return true if limit is reached and no rekey is running, rekey left without answer is not counted
+	 */
+	public boolean needsRekey(RekeyPolicy policy)
+	{
+		return (token == 0 || System.nanoTime() - rekeyStart > STALE_REKEY_NANOS)
+				&& policy.isExceeded(messages, bytes, System.currentTimeMillis() - keyTime);
+	}
+
+	/**
+	 * Marking start of rekey
+	 * @param ownRekey true if this user starts rekey, false if it answers REKEY
+	 * @return token of rekey
+	 */
+	public long beginRekey(boolean ownRekey)
+	{
+		token = ++lastToken;
+		own = ownRekey;
+		rekeyStart = System.nanoTime();
+		started = null;
+		answered = null;
+		return token;
+	}
+
+	/**
+	 * @param rekeyToken token given by {@link #beginRekey(boolean)}
+	 * @return true if that rekey is still running
+	 */
+	public boolean isCurrent(long rekeyToken)
+	{
+		return token != 0 && token == rekeyToken;
+	}
+
+	/** @return true if any rekey is running */
+	public boolean isRekeying()
+	{
+		return token != 0;
+	}
+
+	/** @return true if running rekey was started by this user */
+	public boolean isOwnRekey()
+	{
+		return token != 0 && own;
+	}
+
+	/** Forgetting running rekey, old key stays in use */
+	public void abandonRekey()
+	{
+		token = 0;
+		started = null;
+		answered = null;
+	}
+
+	/**
+	 * Switching to new key, current key becomes previous one
+	 * @param agreement agreement of conversation holding current key
+	 * @param rekey agreement of rekey with new key
+	 * @return time of rekey in nanoseconds
+	 */
+	public long switchKey(DiffieHellman agreement, DiffieHellman rekey)
+	{
+		previousKeys.put(epoch, agreement.getKeyBytes());
+		while (previousKeys.size() > PREVIOUS_KEYS_LIMIT)
+			previousKeys.pollFirstEntry();
+		agreement.setKeyBytes(rekey.getKeyBytes());
+		epoch++;
+		messages = 0;
+		bytes = 0;
+		keyTime = System.currentTimeMillis();
+		abandonRekey();
+		return System.nanoTime() - rekeyStart;
+	}
+
+	/**
+	 * @param messageEpoch epoch written in received message
+	 * @param agreement agreement of conversation holding current key
+	 * @return key of that epoch or null if it is not known
+	 */
+	public byte[] keyFor(int messageEpoch, DiffieHellman agreement)
+	{
+		if (messageEpoch == epoch)
+			return agreement.getKeyBytes();
+		return previousKeys.get(messageEpoch);
+	}
+
+	/**
+	 * Forgetting keys that no message still missing can need - other user encrypts numbered
+	 * messages in order, so missing ones are not older than message shown in order. Key of
+	 * previous epoch is kept for messages without number.
+	 * @param messageEpoch epoch of numbered message shown in order
+	 */
+	public void delivered(int messageEpoch)
+	{
+		previousKeys.headMap(Math.min(messageEpoch, epoch - 1)).clear();
+	}
+
+	public int getEpoch()
+	{
+		return epoch;
+	}
+
+	/** @return token of running rekey, 0 when there is none */
+	public long getToken()
+	{
+		return token;
+	}
+
+	public DiffieHellman getStarted()
+	{
+		return started;
+	}
+
+	public void setStarted(DiffieHellman started)
+	{
+		this.started = started;
+	}
+
+	public DiffieHellman getAnswered()
+	{
+		return answered;
+	}
+
+	public void setAnswered(DiffieHellman answered)
+	{
+		this.answered = answered;
+	}
+}
@@ -0,0 +1,169 @@
+package client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import metrics.ClientMetrics;
+
+/**
+ * Optional compression of conversation messages before encryption - raw Deflate with preset
+ * dictionary of common chat words, so also short messages get shorter. Length of compressed
+ * message tells something about its content (see CRIME attack on TLS), so compression is off
+ * by default: user turns it on in connection.properties (compression=true, compressionThreshold)
+ * and it is used in conversation only when both users have offered it in handshake. Messages
+ * shorter than threshold and messages that do not get shorter are sent raw. Sender marks every
+ * compressed message in its package, so receiver decompresses by choice of sender also when
+ * setting of conversation has changed since. Ratio and time of compression are counted in
+ * metrics "compression.*".
+ */
+public class MessageCompression
+{
+	/** Default min length of compressed message in bytes */
+	public static final int DEFAULT_THRESHOLD = 32;
+
+	/** Max length of decompressed message, longer one is damaged or hostile */
+	private static final int MAX_LENGTH = 1 << 20;
+	/** Words and phrases of chat, the most common ones at the end, which Deflate reaches with shortest distance */
+	private static final byte[] DICTIONARY = ("http://www. https:// .com .org .pl :) :( :D ;) xD haha lol ok okay "
+			+ "tomorrow today tonight morning evening weekend meeting message file sent send call "
+			+ "please thanks thank you sorry no problem of course maybe I think I don't know "
+			+ "what are you doing how are you where are you when will you see you later "
+			+ "could you would you can you do you have you are I'm I am it's that's "
+			+ "there their they this with from have will would should about just like "
+			+ "and the that for not but you what yes no hi hello hey bye ").getBytes(StandardCharsets.UTF_8);
+
+	/** Deflater and inflater of every crypto worker, used again for all its messages */
+	private static final ThreadLocal<Deflater> DEFLATERS =
+			ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	private final boolean enabled;
+	private final int threshold;
+
+	/**
+	 * Constructor
+	 * @param enabled true if this user offers compression in handshakes
+	 * @param threshold min length of compressed message in bytes
+	 */
+	public MessageCompression(boolean enabled, int threshold)
+	{
+		this.enabled = enabled;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Reading settings from properties file, missing or wrong values are default ones
+	 * @param file properties file
+	 * @return compression, turned off unless file says compression=true
+	 */
+	public static MessageCompression load(File file)
+	{
+		Properties prop = new Properties();
+		if (file.exists())
+			try (FileReader reader = new FileReader(file))
+			{
+				prop.load(reader);
+			}
+			catch (IOException e)
+			{
+				ClientMetrics.increment("config.unreadable");
+			}
+		int threshold;
+		try
+		{
+			threshold = Integer.parseInt(prop.getProperty("compressionThreshold",
+					Integer.toString(DEFAULT_THRESHOLD)).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			threshold = DEFAULT_THRESHOLD;
+		}
+		return new MessageCompression(Boolean.parseBoolean(prop.getProperty("compression", "false").trim()), threshold);
+	}
+
+	/** @return true if this user offers compression in handshakes */
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Compressing message of conversation that uses compression
+	 * @param message bytes of message
+	 * @return compressed message, null when message is short or does not get shorter and it
+	 * is sent raw
+	 */
+	public byte[] compress(byte[] message)
+	{
+		if (message.length >= threshold)
+		{
+			long start = System.nanoTime();
+			Deflater deflater = DEFLATERS.get();
+			deflater.reset();
+			deflater.setDictionary(DICTIONARY);
+			deflater.setInput(message);
+			deflater.finish();
+			/** Compressed message has to be shorter than raw one */
+			byte[] compressed = new byte[message.length - 1];
+			int length = deflater.deflate(compressed);
+			ClientMetrics.latency("compression.deflate").record(System.nanoTime() - start);
+			if (deflater.finished())
+			{
+				ClientMetrics.add("compression.plainBytes", message.length);
+				ClientMetrics.add("compression.compressedBytes", length);
+				return Arrays.copyOf(compressed, length);
+			}
+		}
+		ClientMetrics.increment("compression.raw");
+		return null;
+	}
+
+	/**
+	 * Decompressing message marked as compressed by sender
+	 * @param compressed raw Deflate bytes of message
+	 * @return bytes of message
+	 * @throws IllegalArgumentException when message is damaged
+	 */
+	public static byte[] decompress(byte[] compressed)
+	{
+		long start = System.nanoTime();
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setDictionary(DICTIONARY);
+		/** No dummy byte after raw Deflate - zero byte would end cut message like its last block */
+		inflater.setInput(compressed);
+		byte[] message = new byte[Math.min(MAX_LENGTH, Math.max(64, 4 * compressed.length))];
+		int length = 0;
+		try
+		{
+			while (!inflater.finished())
+			{
+				if (length == message.length)
+				{
+					if (message.length == MAX_LENGTH)
+						throw new IllegalArgumentException("Decompressed message is longer than " + MAX_LENGTH);
+					message = Arrays.copyOf(message, Math.min(MAX_LENGTH, 2 * message.length));
+				}
+				int n = inflater.inflate(message, length, message.length - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IllegalArgumentException("Truncated compressed message");
+				length += n;
+			}
+			if (inflater.getRemaining() != 0)
+				throw new IllegalArgumentException("Bytes after compressed message");
+		}
+		catch (DataFormatException e)
+		{
+			throw new IllegalArgumentException("Damaged compressed message", e);
+		}
+		ClientMetrics.latency("compression.inflate").record(System.nanoTime() - start);
+		return Arrays.copyOf(message, length);
+	}
+}
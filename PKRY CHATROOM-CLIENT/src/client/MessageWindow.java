@@ -0,0 +1,177 @@
+package client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import metrics.ClientMetrics;
+import protocol.DataPackage;
+
+/**
+ * Sequence numbers of messages of one conversation. Every sent MSG gets next number and
+ * waits in window until other user acknowledges it, at most window size of them are not
+ * acknowledged and next messages wait for free place. Acknowledgment is cumulative - number
+ * of the last message shown in order - and goes with every sent message, or alone when half
+ * of window has been received without answer or when other user with full window asks for it.
+ * Received messages are shown once and in order:
+ * repeated ones are dropped, early ones wait for missing ones. Messages in window are sent
+ * again only after reconnection to server.
+ * Used only by crypto worker of conversation.
+ */
+public class MessageWindow
+{
+	/** Default max number of sent messages without acknowledgment */
+	public static final int DEFAULT_SIZE = 256;
+
+	private final int size;
+	/** Number of next sent message, numbers start with 1, 0 is message without number */
+	private long nextSequence = 1;
+	/** Sent messages without acknowledgment, in order of numbers */
+	private final Deque<DataPackage> inFlight = new ArrayDeque<>();
+	/** Messages waiting for place in window */
+	private final Deque<String> waiting = new ArrayDeque<>();
+
+	/** Number of the last received message shown in order */
+	private long delivered;
+	/** Received messages after missing ones */
+	private final TreeMap<Long, DataPackage> early = new TreeMap<>();
+	/** Received messages since last sent acknowledgment */
+	private int unacknowledged;
+	/** True if repeated message was received, sender has not got acknowledgment */
+	private boolean repeated;
+
+	/**
+	 * Constructor
+	 * @param size max number of sent messages without acknowledgment
+	 */
+	public MessageWindow(int size)
+	{
+		this.size = Math.max(1, size);
+	}
+
+	/**
+	 * Reading window size from properties file (sendWindow), missing or wrong value is default one
+	 * @param file properties file
+	 * @return window size
+	 */
+	public static int loadSize(File file)
+	{
+		Properties prop = new Properties();
+		if (file.exists())
+			try (FileReader reader = new FileReader(file))
+			{
+				prop.load(reader);
+			}
+			catch (IOException e)
+			{
+				ClientMetrics.increment("config.unreadable");
+			}
+		try
+		{
+			return Integer.parseInt(prop.getProperty("sendWindow", Integer.toString(DEFAULT_SIZE)).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return DEFAULT_SIZE;
+		}
+	}
+
+	/** @return true if next message can be sent now */
+	public boolean isOpen()
+	{
+		return inFlight.size() < size;
+	}
+
+	/**
+	 * Giving number to message and keeping it until acknowledgment, acknowledgment of received
+	 * messages is written in it too
+	 * @param dp message to send
+	 */
+	public void send(DataPackage dp)
+	{
+		dp.setSequence(nextSequence++);
+		stampAcknowledgment(dp);
+		inFlight.add(dp);
+	}
+
+	/**
+	 * Writing acknowledgment of received messages in sent package
+	 * @param dp package to send
+	 */
+	public void stampAcknowledgment(DataPackage dp)
+	{
+		dp.setAcknowledged(delivered);
+		unacknowledged = 0;
+		repeated = false;
+	}
+
+	/**
+	 * Removing acknowledged messages from window
+	 * @param acknowledged number of the last message got by other user
+	 * @return true if some place has been freed
+	 */
+	public boolean acknowledge(long acknowledged)
+	{
+		boolean freed = false;
+		while (!inFlight.isEmpty() && inFlight.peek().getSequence() <= acknowledged)
+		{
+			inFlight.poll();
+			freed = true;
+		}
+		return freed;
+	}
+
+	/** @return sent messages without acknowledgment, to send again after reconnection */
+	public List<DataPackage> getInFlight()
+	{
+		return new ArrayList<>(inFlight);
+	}
+
+	/** @return messages waiting for place in window */
+	public Deque<String> getWaiting()
+	{
+		return waiting;
+	}
+
+	/**
+	 * Taking received message
+	 * @param dp received message with number
+	 * @return messages to show in order, empty when message is repeated or early
+	 */
+	public List<DataPackage> receive(DataPackage dp)
+	{
+		List<DataPackage> ready = new ArrayList<>();
+		long sequence = dp.getSequence();
+		if (sequence <= delivered || early.containsKey(sequence))
+		{
+			repeated = true;
+			return ready;
+		}
+		early.put(sequence, dp);
+		while (!early.isEmpty() && early.firstKey() == delivered + 1)
+		{
+			ready.add(early.pollFirstEntry().getValue());
+			delivered++;
+			unacknowledged++;
+		}
+		return ready;
+	}
+
+	/** @return true if acknowledgment has to be sent without waiting for own message */
+	public boolean needsAcknowledgment()
+	{
+		return repeated || unacknowledged * 2 >= size;
+	}
+
+	/** @return number of the last received message shown in order */
+	public long getDelivered()
+	{
+		return delivered;
+	}
+}
@@ -0,0 +1,213 @@
+package client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cipher.SignatureScheme;
+import cipher.SignatureSchemes;
+import metrics.ClientMetrics;
+
+/**
+ * Trust-on-first-use store of identity keys of other users. First public key seen from user
+ * with correct signature is remembered on disk and later handshakes have to be signed with the
+ * same key. Identity is remembered per user, not per scheme: known user signing with scheme
+ * that has no remembered key is treated as changed, so nobody can take name of known user by
+ * offering only other scheme. Public keys of recently met users are kept prepared for verification, so repeated
+ * handshakes with them skip decoding keys and counting tables.
+ */
+public class PeerCache
+{
+	/** Result of comparing received identity key with remembered one */
+	public enum Trust
+	{
+		/** User was not known, key is remembered now */
+		NEW,
+		/** Key is the same as remembered */
+		KNOWN,
+		/** User has signed with other key than remembered */
+		CHANGED
+	}
+
+	/** Max number of prepared keys kept in memory */
+	private static final int PREPARED_LIMIT = 64;
+
+	/** File with remembered keys */
+	private final File file;
+	/** Remembered keys, user nickname and scheme name is key */
+	private final Properties pinned = new Properties();
+	/** Result of last check of every user */
+	private final Map<String, Trust> lastTrust = new ConcurrentHashMap<>();
+	/** Batcher of signatures checked at the same time, null if signatures are checked alone */
+	private volatile SignatureBatcher batcher;
+	/** Recently used prepared keys, least recently used is dropped first */
+	private final Map<String, Prepared> prepared = new LinkedHashMap<String, Prepared>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Prepared> eldest)
+		{
+			return size() > PREPARED_LIMIT;
+		}
+	};
+
+	/**
+	 * Constructor - remembered keys are read by {@link #load()}
+	 * @param file file with remembered keys
+	 */
+	public PeerCache(File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Reading remembered keys of given user from working directory
+	 * @param nickname nickname of own user
+	 * @return cache of keys of other users
+	 * @throws IOException thrown when file cannot be read
+	 */
+	public static PeerCache forUser(String nickname) throws IOException
+	{
+		PeerCache cache = new PeerCache(new File("peers-" + IdentityKeys.fileName(nickname) + ".properties"));
+		cache.load();
+		return cache;
+	}
+
+	/**
+	 * Reading remembered keys from file if it exists
+	 * @throws IOException thrown when file cannot be read
+	 */
+	public void load() throws IOException
+	{
+		if (!file.exists())
+			return;
+		synchronized (pinned)
+		{
+			try (Reader reader = new FileReader(file))
+			{
+				pinned.load(reader);
+			}
+		}
+	}
+
+	/**
+	 * Comparing identity key with remembered one, key of new user is remembered. Key of known
+	 * user in scheme without remembered key is changed one and it is not remembered.
+	 * Should be called only after signature made with this key was checked.
+	 * @param peer nickname of other user
+	 * @param scheme name of scheme of key
+	 * @param publicKey received public key
+	 * @return trust of key
+	 */
+	public Trust check(String peer, String scheme, byte[] publicKey)
+	{
+		String encoded = Base64.getEncoder().encodeToString(publicKey);
+		Trust trust;
+		synchronized (pinned)
+		{
+			String remembered = pinned.getProperty(peer + "." + scheme);
+			if (remembered == null && isKnown(peer))
+				trust = Trust.CHANGED;
+			else if (remembered == null)
+			{
+				pinned.setProperty(peer + "." + scheme, encoded);
+				trust = Trust.NEW;
+				try (Writer writer = new FileWriter(file))
+				{
+					pinned.store(writer, "IDENTITY KEYS OF OTHER USERS");
+				}
+				catch (IOException e)
+				{
+					/** Key stays remembered until end of this run */
+					ClientMetrics.increment("peers.saveFailed");
+				}
+			}
+			else
+				trust = remembered.equals(encoded) ? Trust.KNOWN : Trust.CHANGED;
+		}
+		lastTrust.put(peer, trust);
+		return trust;
+	}
+
+	/** @return true if any key of user is remembered, lock of pinned keys has to be held */
+	private boolean isKnown(String peer)
+	{
+		for (String scheme : SignatureSchemes.SUPPORTED)
+			if (pinned.getProperty(peer + "." + scheme) != null)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Giving prepared public key, it is prepared again only when user has sent other key
+	 * @param peer nickname of other user
+	 * @param scheme negotiated scheme
+	 * @param publicKey received public key
+	 * @return prepared public key
+	 */
+	public SignatureScheme.PreparedKey prepared(String peer, SignatureScheme scheme, byte[] publicKey)
+	{
+		String name = peer + "." + scheme.getName();
+		/** Trust is known again only after signature is checked */
+		lastTrust.remove(peer);
+		synchronized (prepared)
+		{
+			Prepared cached = prepared.get(name);
+			if (cached != null && Arrays.equals(cached.publicKey, publicKey))
+				return batched(cached.key);
+		}
+		/** Counting tables outside of lock, other users handshakes do not wait */
+		Prepared fresh = new Prepared(publicKey.clone(), scheme.prepare(publicKey));
+		synchronized (prepared)
+		{
+			prepared.put(name, fresh);
+		}
+		return batched(fresh.key);
+	}
+
+	/**
+	 * Setting batcher used by keys given by {@link #prepared(String, SignatureScheme, byte[])}
+	 * @param batcher batcher of signatures or null to check every signature alone
+	 */
+	public void setBatcher(SignatureBatcher batcher)
+	{
+		this.batcher = batcher;
+	}
+
+	private SignatureScheme.PreparedKey batched(SignatureScheme.PreparedKey key)
+	{
+		SignatureBatcher current = batcher;
+		return current == null ? key : current.wrap(key);
+	}
+
+	/**
+	 * @param peer nickname of other user
+	 * @return trust of last checked key of user or null if it was not checked
+	 */
+	public Trust getTrust(String peer)
+	{
+		return lastTrust.get(peer);
+	}
+
+	/** Prepared key with bytes it was prepared from */
+	private static class Prepared
+	{
+		private final byte[] publicKey;
+		private final SignatureScheme.PreparedKey key;
+
+		Prepared(byte[] publicKey, SignatureScheme.PreparedKey key)
+		{
+			this.publicKey = publicKey;
+			this.key = key;
+		}
+	}
+}
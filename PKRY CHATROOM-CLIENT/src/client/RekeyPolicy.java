@@ -0,0 +1,85 @@
+package client;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Properties;
+
+import metrics.ClientMetrics;
+
+/**
+ * Limits of use of one conversation key - number of sent messages, number of sent encrypted
+ * bytes and age. When any of them is reached new key is agreed in background. Limits are read
+ * from connection.properties (rekeyMessages, rekeyBytes, rekeySeconds), 0 turns limit off.
+ */
+public class RekeyPolicy
+{
+	/** Default max number of messages sent with one key */
+	public static final long DEFAULT_MESSAGES = 1000;
+	/** Default max number of encrypted bytes sent with one key */
+	public static final long DEFAULT_BYTES = 1 << 20;
+	/** Default max age of key in seconds */
+	public static final long DEFAULT_SECONDS = 600;
+
+	private final long maxMessages;
+	private final long maxBytes;
+	private final long maxAgeMillis;
+
+	/**
+	 * Constructor
+	 * @param maxMessages max number of messages sent with one key, 0 for no limit
+	 * @param maxBytes max number of encrypted bytes sent with one key, 0 for no limit
+	 * @param maxAgeMillis max age of key in milliseconds, 0 for no limit
+	 */
+	public RekeyPolicy(long maxMessages, long maxBytes, long maxAgeMillis)
+	{
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Reading limits from properties file, missing or wrong values are default ones
+	 * @param file properties file
+	 * @return read policy
+	 */
+	public static RekeyPolicy load(File file)
+	{
+		Properties prop = new Properties();
+		if (file.exists())
+			try (FileReader reader = new FileReader(file))
+			{
+				prop.load(reader);
+			}
+			catch (IOException e)
+			{
+				ClientMetrics.increment("config.unreadable");
+			}
+		return new RekeyPolicy(read(prop, "rekeyMessages", DEFAULT_MESSAGES), read(prop, "rekeyBytes", DEFAULT_BYTES),
+				read(prop, "rekeySeconds", DEFAULT_SECONDS) * 1000);
+	}
+
+	private static long read(Properties prop, String name, long defaultValue)
+	{
+		try
+		{
+			return Long.parseLong(prop.getProperty(name, Long.toString(defaultValue)).trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @param messages messages sent with key
+	 * @param bytes encrypted bytes sent with key
+	 * @param ageMillis age of key in milliseconds
+	 * @return true if any limit is reached
+	 */
+	public boolean isExceeded(long messages, long bytes, long ageMillis)
+	{
+		return (maxMessages > 0 && messages >= maxMessages) || (maxBytes > 0 && bytes >= maxBytes)
+				|| (maxAgeMillis > 0 && ageMillis >= maxAgeMillis);
+	}
+}
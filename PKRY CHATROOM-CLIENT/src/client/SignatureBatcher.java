@@ -0,0 +1,158 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import cipher.ElGamalBatch;
+import cipher.ElGamalSignature;
+import cipher.SignatureScheme;
+import metrics.ClientMetrics;
+
+/**
+ * Collecting ElGamal handshake signatures checked by crypto workers at the same time and
+ * checking them together by {@link ElGamalBatch}. First signature opens short window, all
+ * signatures that come in this window (up to max batch size) are checked in one batch and
+ * waiting workers get their own results. Signatures of other schemes are checked at once.
+ */
+public class SignatureBatcher
+{
+	/** Time of collecting one batch in nanoseconds */
+	private final long windowNanos;
+	/** Max number of signatures in one batch */
+	private final int maxBatch;
+	/** Signatures waiting for batch */
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	/** Thread collecting and checking batches */
+	private final Thread checker;
+	/** True after checking thread has stopped taking signatures */
+	private volatile boolean stopped;
+
+	/**
+	 * Constructor - starts checking thread
+	 * @param windowMillis time of collecting one batch in milliseconds
+	 * @param maxBatch max number of signatures in one batch
+	 */
+	public SignatureBatcher(long windowMillis, int maxBatch)
+	{
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxBatch = maxBatch;
+		this.checker = new Thread(this::run, "signature-batch");
+		checker.setDaemon(true);
+		checker.start();
+	}
+
+	/**
+	 * @param key prepared public key of other user
+	 * @return key which checks signatures in batches, or given key if its scheme can not be batched
+	 */
+	public SignatureScheme.PreparedKey wrap(SignatureScheme.PreparedKey key)
+	{
+		if (!(key instanceof ElGamalSignature.SubgroupKey))
+			return key;
+		ElGamalSignature.SubgroupKey subgroupKey = (ElGamalSignature.SubgroupKey) key;
+		return (message, signature) -> verify(subgroupKey, message, signature);
+	}
+
+	/**
+	 * Checking signature in next batch, caller waits for end of batch
+	 * @return true if signature is correct
+	 */
+	public boolean verify(ElGamalSignature.SubgroupKey key, byte[] message, byte[] signature)
+	{
+		Pending pending = new Pending(key, message, signature);
+		queue.add(pending);
+		if (stopped && queue.remove(pending))
+			return key.verify(message, signature);
+		return pending.result.join();
+	}
+
+	/** Stops checking thread, waiting signatures are checked alone */
+	public void shutdown()
+	{
+		checker.interrupt();
+	}
+
+	private void run()
+	{
+		List<Pending> batch = new ArrayList<>();
+		try
+		{
+			while (true)
+			{
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + windowNanos;
+				while (batch.size() < maxBatch)
+				{
+					Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+				check(batch);
+				batch.clear();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			stopped = true;
+			queue.drainTo(batch);
+			for (Pending pending : batch)
+				pending.result.complete(pending.key.verify(pending.message, pending.signature));
+		}
+	}
+
+	private static void check(List<Pending> batch)
+	{
+		int size = batch.size();
+		ElGamalSignature.SubgroupKey[] keys = new ElGamalSignature.SubgroupKey[size];
+		byte[][] messages = new byte[size][];
+		byte[][] signatures = new byte[size][];
+		for (int i = 0; i < size; i++)
+		{
+			keys[i] = batch.get(i).key;
+			messages[i] = batch.get(i).message;
+			signatures[i] = batch.get(i).signature;
+		}
+		boolean[] results;
+		try
+		{
+			results = ElGamalBatch.verify(keys, messages, signatures);
+		}
+		catch (RuntimeException e)
+		{
+			/** Batch could not be checked together - every signature is checked alone */
+			ClientMetrics.increment("signature.batchFailed");
+			results = new boolean[size];
+			for (int i = 0; i < size; i++)
+				results[i] = keys[i].verify(messages[i], signatures[i]);
+		}
+		ClientMetrics.increment("signature.batches");
+		ClientMetrics.add("signature.batched", size);
+		for (int i = 0; i < size; i++)
+		{
+			if (!results[i])
+				ClientMetrics.increment("signature.rejected");
+			batch.get(i).result.complete(results[i]);
+		}
+	}
+
+	/** Signature waiting for batch with future of its result */
+	private static class Pending
+	{
+		private final ElGamalSignature.SubgroupKey key;
+		private final byte[] message;
+		private final byte[] signature;
+		private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+		Pending(ElGamalSignature.SubgroupKey key, byte[] message, byte[] signature)
+		{
+			this.key = key;
+			this.message = message;
+			this.signature = signature;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package junit;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.math.BigInteger;
@@ -10,12 +11,25 @@ import java.util.List;
 import org.junit.Test;
 
 import cipher.AES;
+import cipher.ContentKey;
+import cipher.CTRDRBG;
+import cipher.CounterMode;
+import cipher.DHGroup;
 import cipher.DiffieHellman;
+import cipher.EdDSASignature;
+import cipher.ElGamalBatch;
 import cipher.ElGamalSignature;
+import cipher.FixedBaseTable;
+import cipher.GeneratorTables;
+import cipher.HKDF;
+import cipher.PrimeSearch;
+import cipher.Resumption;
+import cipher.SignatureScheme;
+import cipher.SignatureSchemes;
 
 /**
  * JUnitTests , Unit test for Algorithms: Diffie-Hellman key agreement,
- * Elgamal digital signature, AES encryption and decryption     
+ * Elgamal and EdDSA digital signatures, AES encryption and decryption     
  */
 public class AlgorithmsTests {
 	/**
@@ -478,7 +492,426 @@ public class AlgorithmsTests {
 		System.out.println("Diffie-Hellman test num 5 succeed.");
 	}
 
+	/**
+	 * EdDSA (Ed25519) tests via Input Vectors (secret key, message)
+	 * and needed output (public key, signature)
+	 * @see <a href="https://tools.ietf.org/html/rfc8032#section-7.1">RFC 8032 TEST 1, TEST 2, TEST 3</a>
+	 */
+	@Test
+	public void EdDSATest1() {
+		checkEdDSAVector("9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60", "",
+				"d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a",
+				"e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e065224901555fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b", 1);
+		System.out.println("EdDSA test num 1 succeed.");
+	}
+
+	@Test
+	public void EdDSATest2() {
+		checkEdDSAVector("4ccd089b28ff96da9db6c346ec114e0f5b8a319f35aba624da8cf6ed4fb8a6fb", "72",
+				"3d4017c3e843895a92b70aa74d1b7ebc9c982ccf2ec4968cc0cd55f12af4660c",
+				"92a009a9f0d4cab8720e820b5f642540a2b27b5416503f8fb3762223ebdb69da085ac1e43e15996e458f3613d0f11d8c387b2eaeb4302aeeb00d291612bb0c00", 2);
+		System.out.println("EdDSA test num 2 succeed.");
+	}
+
+	@Test
+	public void EdDSATest3() {
+		checkEdDSAVector("c5aa8df43f9f837bedb7442f31dcb7b166d38535076f094b85ce3a2e0b4458f7", "af82",
+				"fc51cd8e6218a1a38da47ed00230f0580816ed13ba3303ac5deb911548908025",
+				"6291d657deec24024827e69c3abe01a30ce548a284743a445e3680d7db5ac3ac18ff9b538d16f290ae67f760984dc6594a7c15e9716ed28dc027beceea1ec40a", 3);
+		System.out.println("EdDSA test num 3 succeed.");
+	}
+
+	/**
+	 * Signed key agreement - both negotiated schemes on RFC 5114 group, initiator signs A,
+	 * receiver checks it and signs B|A, initiator checks B|A
+	 */
+	@Test
+	public void SignedKeyAgreementTest() {
+		assertTrue("Negotiation should prefer EdDSA",
+				SignatureSchemes.negotiate(SignatureSchemes.SUPPORTED).equals(EdDSASignature.NAME));
+		assertTrue("Users without negotiation should use Elgamal",
+				SignatureSchemes.negotiate(null).equals(ElGamalSignature.NAME));
+		for (String scheme : SignatureSchemes.SUPPORTED) {
+			DiffieHellman initiator = new DiffieHellman();
+			initiator.generatePublicVars();
+			initiator.randomizePrivateValue();
+			initiator.setInitiator(true);
+			initiator.setSignatureScheme(scheme);
+			initiator.makeSignature();
+
+			DiffieHellman receiver = new DiffieHellman();
+			receiver.generatePublicVars();
+			receiver.randomizePrivateValue();
+			receiver.setReceivedBytes(initiator.getSendingBytes());
+			receiver.setSignatureScheme(scheme);
+			receiver.checkSignature(initiator.getSignatureScheme().getPublicKey(), initiator.getSignature());
+			assertTrue(scheme + ": signature of A rejected", receiver.isAuthorized());
+			receiver.makeSignature();
+
+			initiator.setReceivedBytes(receiver.getSendingBytes());
+			initiator.checkSignature(receiver.getSignatureScheme().getPublicKey(), receiver.getSignature());
+			assertTrue(scheme + ": signature of B|A rejected", initiator.isAuthorized());
+
+			initiator.checkSignature(initiator.getSignatureScheme().getPublicKey(), receiver.getSignature());
+			assertFalse(scheme + ": signature checked with wrong public key accepted", initiator.isAuthorized());
+			receiver.checkSignature(initiator.getSignatureScheme().getPublicKey(), receiver.getSignature());
+			assertFalse(scheme + ": signature of other value accepted", receiver.isAuthorized());
+
+			initiator.generateKey();
+			receiver.generateKey();
+			assertArrayEquals(scheme + ": keys differ", initiator.getKeyBytes(), receiver.getKeyBytes());
+			System.out.println("Signed key agreement with " + scheme + " succeed.");
+		}
+	}
 	
+	/*
+	 * FIXED BASE TABLE UNIT TEST
+	 * Powers counted from table have to be the same as counted by modPow
+	 */
+	@Test
+	public void FixedBaseTableTest() {
+		DHGroup group = DHGroup.RFC5114_2048_256;
+		FixedBaseTable table = new FixedBaseTable(group.getGenerator(), group.getPrime(), group.getOrder().bitLength());
+		List<BigInteger> exponents = Arrays.asList(BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(15),
+				BigInteger.valueOf(16), group.getOrder().subtract(BigInteger.ONE), group.getPrime());
+		for (BigInteger exponent : exponents)
+			assertTrue("Fixed base table: wrong power for exponent " + exponent,
+					table.pow(exponent).equals(group.getGenerator().modPow(exponent, group.getPrime())));
+		System.out.println("Fixed base table test succeed.");
+	}
+
+	/*
+	 * PREPARED KEY UNIT TEST
+	 * Prepared public key has to accept and reject the same signatures as plain verification
+	 */
+	@Test
+	public void PreparedKeyTest() {
+		for (String scheme : SignatureSchemes.SUPPORTED) {
+			DiffieHellman signer = new DiffieHellman();
+			signer.generatePublicVars();
+			signer.setSignatureScheme(scheme);
+			SignatureScheme signing = signer.getSignatureScheme();
+			byte[] message = "prepared key".getBytes();
+			byte[] signature = signing.sign(message);
+
+			DiffieHellman checker = new DiffieHellman();
+			checker.generatePublicVars();
+			checker.setSignatureScheme(scheme);
+			SignatureScheme.PreparedKey prepared = checker.getSignatureScheme().prepare(signing.getPublicKey());
+			assertTrue(scheme + ": prepared key rejected signature", prepared.verify(message, signature));
+			assertFalse(scheme + ": prepared key accepted other message", prepared.verify("other".getBytes(), signature));
+			SignatureScheme.PreparedKey other = checker.getSignatureScheme().prepare(checker.getSignatureScheme().getPublicKey());
+			assertFalse(scheme + ": prepared key of other user accepted signature", other.verify(message, signature));
+			System.out.println("Prepared key with " + scheme + " succeed.");
+		}
+	}
+
+	/*
+	 * HKDF UNIT TEST
+	 * Input: IKM, salt, info, L
+	 * Output: OKM
+	 * @see <a href="https://tools.ietf.org/html/rfc5869#appendix-A.1">RFC 5869 test case 1</a>
+	 */
+	@Test
+	public void HKDFTest() {
+		byte[] prk = HKDF.extract(hexStringToByteArray("000102030405060708090a0b0c"),
+				hexStringToByteArray("0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b0b"));
+		assertArrayEquals("HKDF: wrong PRK",
+				hexStringToByteArray("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5"), prk);
+		assertArrayEquals("HKDF: wrong OKM",
+				hexStringToByteArray("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865"),
+				HKDF.expand(prk, hexStringToByteArray("f0f1f2f3f4f5f6f7f8f9"), 42));
+		System.out.println("HKDF test succeed.");
+	}
+
+	/*
+	 * SESSION RESUMPTION UNIT TEST
+	 * Both users derive the same key and proofs, ratchet gives new session, other secret gives other proofs
+	 */
+	@Test
+	public void ResumptionTest() {
+		DiffieHellman initiator = new DiffieHellman();
+		initiator.generatePublicVars();
+		initiator.randomizePrivateValue();
+		DiffieHellman receiver = new DiffieHellman();
+		receiver.generatePublicVars();
+		receiver.randomizePrivateValue();
+		initiator.setReceivedBytes(receiver.getSendingBytes());
+		receiver.setReceivedBytes(initiator.getSendingBytes());
+		initiator.generateKey();
+		receiver.generateKey();
+
+		Resumption initiatorSession = Resumption.fromAgreement(initiator);
+		Resumption receiverSession = Resumption.fromAgreement(receiver);
+		assertArrayEquals("Resumption: session ids differ", initiatorSession.getSessionId(), receiverSession.getSessionId());
+		byte[] nonce = Resumption.randomNonce();
+		Resumption.Step sent = initiatorSession.ratchet(nonce);
+		Resumption.Step received = receiverSession.ratchet(nonce);
+		assertArrayEquals("Resumption: traffic keys differ", sent.getTrafficKey(), received.getTrafficKey());
+		assertTrue("Resumption: initiator binder rejected",
+				Resumption.binderEquals(received.getInitiatorBinder(), sent.getInitiatorBinder()));
+		assertTrue("Resumption: receiver binder rejected",
+				Resumption.binderEquals(sent.getReceiverBinder(), received.getReceiverBinder()));
+		assertFalse("Resumption: ratchet kept session id",
+				Arrays.equals(initiatorSession.getSessionId(), sent.getNext().getSessionId()));
+		assertFalse("Resumption: traffic key equal to agreed key", Arrays.equals(sent.getTrafficKey(), initiator.getKeyBytes()));
+
+		Resumption.Step other = new Resumption(new byte[Resumption.SECRET_LENGTH], true).ratchet(nonce);
+		assertFalse("Resumption: binder of other secret accepted",
+				Resumption.binderEquals(received.getInitiatorBinder(), other.getInitiatorBinder()));
+		System.out.println("Session resumption test succeed.");
+	}
+
+	/*
+	 * AES BLOCK UNIT TEST
+	 * FIPS-197 appendix C vectors for AES-128 and AES-256 with round keys counted once
+	 */
+	@Test
+	public void AESBlockTest() {
+		AES aes = new AES();
+		byte[] plain = hexStringToByteArray("00112233445566778899aabbccddeeff");
+		assertArrayEquals("AES-128 block", hexStringToByteArray("69c4e0d86a7b0430d8cdb78070b4c55a"),
+				aes.encryptBlock(plain, aes.roundKeys(hexStringToByteArray("000102030405060708090a0b0c0d0e0f"))));
+		assertArrayEquals("AES-256 block", hexStringToByteArray("8ea2b7ca516745bfeafc49904b496089"),
+				aes.encryptBlock(plain, aes.roundKeys(hexStringToByteArray(
+						"000102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f"))));
+		System.out.println("AES block test succeed.");
+	}
+
+	/*
+	 * COUNTER MODE UNIT TEST
+	 * Key stream of every key length has to be the same as of JCE AES/CTR with zero counter,
+	 * chunk decrypted alone from its position has to give plain bytes back
+	 */
+	@Test
+	public void CounterModeTest() throws Exception {
+		byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte) (i * 7);
+		for (int keyLength : new int[] { 16, 24, 32 }) {
+			byte[] key = new byte[keyLength];
+			for (int i = 0; i < key.length; i++)
+				key[i] = (byte) (i + keyLength);
+			javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/CTR/NoPadding");
+			cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, new javax.crypto.spec.SecretKeySpec(key, "AES"),
+					new javax.crypto.spec.IvParameterSpec(new byte[16]));
+			byte[] expected = cipher.doFinal(data);
+
+			byte[] encrypted = data.clone();
+			CounterMode counterMode = new CounterMode(key);
+			counterMode.apply(0, encrypted, 0, encrypted.length);
+			assertArrayEquals("Counter mode: key stream differs from JCE for key of " + keyLength + " bytes", expected,
+					encrypted);
+
+			byte[] chunk = Arrays.copyOfRange(encrypted, 480, 1000);
+			counterMode.apply(480, chunk, 0, chunk.length);
+			assertArrayEquals("Counter mode: chunk is not decrypted", Arrays.copyOfRange(data, 480, 1000), chunk);
+		}
+		System.out.println("Counter mode test succeed.");
+	}
+
+	/*
+	 * CTR_DRBG UNIT TEST
+	 * Output for given seed has to be the same as of SP 800-90A steps done with JCE AES,
+	 * buffered output has to continue generated stream
+	 */
+	@Test
+	public void CTRDRBGTest() throws Exception {
+		byte[] entropy = new byte[CTRDRBG.SEED_LENGTH];
+		for (int i = 0; i < entropy.length; i++)
+			entropy[i] = (byte) i;
+		byte[] personalization = "chatroom".getBytes();
+
+		byte[][] state = { new byte[32], new byte[16] };
+		referenceUpdate(state, seedMaterial(entropy, personalization));
+		byte[] expected = new byte[64];
+		for (int i = 0; i < expected.length; i += 16) {
+			increment(state[1]);
+			System.arraycopy(referenceBlock(state[0], state[1]), 0, expected, i, 16);
+		}
+
+		byte[] generated = new byte[64];
+		new CTRDRBG(entropy, personalization).generate(generated, null);
+		assertArrayEquals("CTR_DRBG: output differs from reference", expected, generated);
+
+		CTRDRBG buffered = new CTRDRBG(entropy, personalization);
+		byte[] first = new byte[10];
+		byte[] second = new byte[54];
+		buffered.nextBytes(first);
+		buffered.nextBytes(second);
+		assertArrayEquals("CTR_DRBG: buffered output differs", Arrays.copyOf(expected, 10), first);
+		assertArrayEquals("CTR_DRBG: buffered output differs", Arrays.copyOfRange(expected, 10, 64), second);
+
+		byte[] reseeded = new byte[64];
+		CTRDRBG other = new CTRDRBG(entropy, personalization);
+		other.reseed(entropy, null);
+		other.generate(reseeded, null);
+		assertFalse("CTR_DRBG: output not changed by reseed", Arrays.equals(expected, reseeded));
+		assertFalse("CTR_DRBG: threads share seed", Arrays.equals(randomOf(CTRDRBG.current()), randomOf(new CTRDRBG())));
+		System.out.println("CTR_DRBG test succeed.");
+	}
+
+	/*
+	 * ELGAMAL BATCH VERIFICATION UNIT TEST
+	 * Correct batch is accepted, in batch with wrong signatures only wrong ones are rejected
+	 */
+	@Test
+	public void ElGamalBatchTest() {
+		int size = 6;
+		ElGamalSignature.SubgroupKey[] keys = new ElGamalSignature.SubgroupKey[size];
+		byte[][] messages = new byte[size][];
+		byte[][] signatures = new byte[size][];
+		DiffieHellman checker = new DiffieHellman();
+		checker.generatePublicVars();
+		checker.setSignatureScheme(ElGamalSignature.NAME);
+		for (int i = 0; i < size; i++) {
+			DiffieHellman signer = new DiffieHellman();
+			signer.generatePublicVars();
+			signer.setSignatureScheme(ElGamalSignature.NAME);
+			keys[i] = (ElGamalSignature.SubgroupKey) checker.getSignatureScheme().prepare(signer.getSignatureScheme().getPublicKey());
+			messages[i] = ("batch " + i).getBytes();
+			signatures[i] = signer.getSignatureScheme().sign(messages[i]);
+		}
+		boolean[] results = ElGamalBatch.verify(keys, messages, signatures);
+		for (int i = 0; i < size; i++)
+			assertTrue("ElGamal batch: correct signature " + i + " rejected", results[i]);
+
+		messages[1] = "changed".getBytes();
+		signatures[4] = signatures[3];
+		results = ElGamalBatch.verify(keys, messages, signatures);
+		for (int i = 0; i < size; i++)
+			assertTrue("ElGamal batch: wrong result of signature " + i, results[i] == (i != 1 && i != 4));
+		System.out.println("ElGamal batch verification test succeed.");
+	}
+
+	/*
+	 * GENERATOR TABLES UNIT TEST
+	 * Table written to file and mapped again gives the same powers as modPow,
+	 * damaged file is not used
+	 */
+	@Test
+	public void GeneratorTablesTest() throws java.io.IOException {
+		java.io.File directory = java.nio.file.Files.createTempDirectory("tables").toFile();
+		GeneratorTables tables = new GeneratorTables(directory);
+		DHGroup group = DHGroup.RFC5114_2048_256;
+		try {
+			assertTrue("Generator tables: missing file loaded", tables.load(group) == null);
+			tables.build(group);
+			FixedBaseTable mapped = tables.load(group);
+			assertTrue("Generator tables: written file not loaded", mapped != null);
+			java.util.Random random = new java.util.Random(5);
+			for (int i = 0; i < 10; i++) {
+				BigInteger exponent = new BigInteger(group.getOrder().bitLength() - 1, random);
+				assertTrue("Generator tables: wrong power", mapped.pow(exponent)
+						.equals(group.getGenerator().modPow(exponent, group.getPrime())));
+			}
+
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(tables.fileOf(group), "rw")) {
+				file.seek(file.length() - 1);
+				int last = file.read();
+				file.seek(file.length() - 1);
+				file.write(last ^ 1);
+			}
+			assertTrue("Generator tables: damaged file loaded", tables.load(group) == null);
+			System.out.println("Generator tables test succeed.");
+		} finally {
+			for (java.io.File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	/*
+	 * PRIME SEARCH UNIT TEST
+	 * Found k has given length, is prime and relatively prime to p-1 for short and long lengths,
+	 * search without such prime ends, cancelled search stops
+	 */
+	@Test
+	public void PrimeSearchTest() {
+		BigInteger pMinusOne = DHGroup.RFC5114_2048_256.getPrime().subtract(BigInteger.ONE);
+		PrimeSearch search = new PrimeSearch(new java.util.concurrent.ForkJoinPool(2), 64);
+		for (int bits : new int[] { 3, 5, 16, 31, 32, 64, 256, 512 }) {
+			BigInteger k = search.find(bits, pMinusOne);
+			assertTrue("Prime search: wrong length " + bits, k.bitLength() == bits);
+			assertTrue("Prime search: not prime " + bits, k.isProbablePrime(100));
+			assertTrue("Prime search: not relatively prime " + bits, k.gcd(pMinusOne).equals(BigInteger.ONE));
+		}
+
+		boolean exhausted = false;
+		try {
+			new PrimeSearch(java.util.concurrent.ForkJoinPool.commonPool(), 3).find(2, BigInteger.valueOf(6));
+		} catch (IllegalStateException e) {
+			exhausted = true;
+		}
+		assertTrue("Prime search: search without prime did not end", exhausted);
+
+		java.util.concurrent.ForkJoinTask<BigInteger> running = search.submit(4096, pMinusOne);
+		running.cancel(true);
+		assertTrue("Prime search: not cancelled", running.isCancelled());
+		System.out.println("Prime search test succeed.");
+	}
+
+	/*
+	 * CONTENT KEY UNIT TEST
+	 * Content key wrapped with session key of every receiver is unwrapped by each of them,
+	 * also keys ending with byte that looks like padding, and decrypts the one payload
+	 */
+	@Test
+	public void ContentKeyTest() {
+		byte[] message = "Announcement for everyone".getBytes();
+		for (int i = 0; i < 64; i++) {
+			byte[] contentKey = ContentKey.generate();
+			contentKey[ContentKey.KEY_LENGTH - 1] = (byte) (i % 17);
+			byte[] payload = new AES().encrypt(message, contentKey);
+			for (int receiver = 0; receiver < 3; receiver++) {
+				byte[] sessionKey = ContentKey.generate();
+				byte[] wrapped = ContentKey.wrap(contentKey, sessionKey);
+				assertArrayEquals("Content key: wrong unwrapped key", contentKey, ContentKey.unwrap(wrapped, sessionKey));
+				byte[] decrypted = new AES().decrypt(payload, ContentKey.unwrap(wrapped, sessionKey));
+				assertArrayEquals("Content key: wrong payload", message, Arrays.copyOf(decrypted, message.length));
+			}
+		}
+		assertTrue("Content key: short wrapped key accepted", ContentKey.unwrap(new byte[16], new byte[32]) == null);
+		System.out.println("Content key test succeed.");
+	}
+
+	private static byte[] randomOf(CTRDRBG random) {
+		byte[] bytes = new byte[32];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] seedMaterial(byte[] entropy, byte[] data) {
+		byte[] out = entropy.clone();
+		for (int i = 0; i < data.length; i++)
+			out[i] ^= data[i];
+		return out;
+	}
+
+	private static void referenceUpdate(byte[][] state, byte[] data) throws Exception {
+		byte[] temp = new byte[48];
+		for (int i = 0; i < 48; i += 16) {
+			increment(state[1]);
+			System.arraycopy(referenceBlock(state[0], state[1]), 0, temp, i, 16);
+		}
+		for (int i = 0; i < 48; i++)
+			temp[i] ^= data[i];
+		state[0] = Arrays.copyOf(temp, 32);
+		state[1] = Arrays.copyOfRange(temp, 32, 48);
+	}
+
+	private static byte[] referenceBlock(byte[] key, byte[] block) throws Exception {
+		javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, new javax.crypto.spec.SecretKeySpec(key, "AES"));
+		return cipher.doFinal(block);
+	}
+
+	private static void increment(byte[] counter) {
+		for (int i = counter.length - 1; i >= 0; i--)
+			if (++counter[i] != 0)
+				break;
+	}
+
 	/**
 	 * Parse method needed to encrypt property
 	 * @param key String to encrypt needed to be cast to byte[]
@@ -549,6 +982,26 @@ public class AlgorithmsTests {
 				left.equals(right));
 	}
 	
+	private void checkEdDSAVector(String secret, String message, String publicShouldBe, String signatureShouldBe,
+			int testNum)
+	{
+		EdDSASignature eddsa = new EdDSASignature();
+		eddsa.setPrivateKey(hexStringToByteArray(secret));
+		assertArrayEquals("EdDSA:Wrong public key test num:" + testNum,
+				hexStringToByteArray(publicShouldBe), eddsa.getPublicKey());
+
+		byte[] signature = eddsa.sign(hexStringToByteArray(message));
+		assertArrayEquals("EdDSA:Wrong signature test num:" + testNum,
+				hexStringToByteArray(signatureShouldBe), signature);
+
+		EdDSASignature eddsaCheck = new EdDSASignature();
+		assertTrue("EdDSA:Checking signature failed test num:" + testNum,
+				eddsaCheck.verify(eddsa.getPublicKey(), hexStringToByteArray(message), signature));
+		signature[0] ^= 1;
+		assertFalse("EdDSA:Changed signature accepted test num:" + testNum,
+				eddsaCheck.verify(eddsa.getPublicKey(), hexStringToByteArray(message), signature));
+	}
+
 	private void checkDiffieHellmanVector(BigInteger p, BigInteger g,BigInteger a,  BigInteger b,BigInteger AShouldBe,
 			BigInteger BShouldBe, BigInteger KShouldBe, int testNum)
 	{
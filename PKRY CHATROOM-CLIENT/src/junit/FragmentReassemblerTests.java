@@ -0,0 +1,77 @@
+package junit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import client.FragmentReassembler;
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * JUnitTests , Unit test for joining of packages written by server in fragments
+ */
+public class FragmentReassemblerTests {
+
+	/*
+	 * FRAGMENT REASSEMBLER UNIT TEST
+	 * Interleaved fragments of two packages give both packages back after their last fragments
+	 */
+	@Test
+	public void FragmentReassemblerTest() throws IOException {
+		byte[] payload = new byte[50_000];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = (byte) i;
+		DataPackage first = new DataPackage();
+		first.setFromUserName("alice");
+		first.setHeader(Header.MSG);
+		first.setEncryptedMsg(payload);
+		DataPackage second = new DataPackage();
+		second.setFromUserName("bob");
+		second.setHeader(Header.MSG);
+		second.setEncryptedMsg(Arrays.copyOf(payload, 20_000));
+		byte[] firstBytes = encode(first);
+		byte[] secondBytes = encode(second);
+
+		FragmentReassembler reassembler = new FragmentReassembler();
+		int chunk = 16 << 10;
+		assertNull(reassembler.add(fragment(1, firstBytes, 0, chunk)));
+		assertNull(reassembler.add(fragment(2, secondBytes, 0, chunk)));
+		assertNull(reassembler.add(fragment(1, firstBytes, chunk, 2 * chunk)));
+		DataPackage joinedSecond = reassembler.add(fragment(2, secondBytes, chunk, secondBytes.length));
+		assertEquals("bob", joinedSecond.getFromUserName());
+		assertArrayEquals(second.getEncryptedMsg(), joinedSecond.getEncryptedMsg());
+		assertNull(reassembler.add(fragment(1, firstBytes, 2 * chunk, 3 * chunk)));
+		DataPackage joinedFirst = reassembler.add(fragment(1, firstBytes, 3 * chunk, firstBytes.length));
+		assertEquals("alice", joinedFirst.getFromUserName());
+		assertArrayEquals(payload, joinedFirst.getEncryptedMsg());
+		assertEquals(0, reassembler.pending());
+		System.out.println("Fragment reassembler test succeed.");
+	}
+
+	/** @return package serialized like server encodes it, without header of object stream */
+	private static byte[] encode(DataPackage dp) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+			oos.writeObject(dp);
+		}
+		byte[] serialized = out.toByteArray();
+		return Arrays.copyOfRange(serialized, 4, serialized.length);
+	}
+
+	private static DataPackage fragment(long number, byte[] whole, int from, int to) {
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("SERVER");
+		dp.setHeader(Header.FRAGMENT);
+		dp.setAdministrationMsg("<" + number + "><" + whole.length + ">");
+		dp.setEncryptedMsg(Arrays.copyOfRange(whole, from, to));
+		return dp;
+	}
+}
@@ -0,0 +1,189 @@
+package junit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import cipher.DHGroup;
+import cipher.DiffieHellman;
+import cipher.ElGamalSignature;
+import cipher.SignatureSchemes;
+import client.Handshake;
+import client.IdentityKeys;
+import client.PeerCache;
+import protocol.HandshakeMessage;
+
+/**
+ * JUnitTests , Unit test for long-term identity keys and remembered keys of other users
+ */
+public class IdentityTests {
+
+	/*
+	 * IDENTITY KEYS UNIT TEST
+	 * Keys read again from file have to be the same as generated ones
+	 */
+	@Test
+	public void IdentityKeysTest() throws IOException {
+		File file = File.createTempFile("identity", ".properties");
+		file.delete();
+		try {
+			IdentityKeys generated = new IdentityKeys(file);
+			generated.loadOrGenerate();
+			IdentityKeys loaded = new IdentityKeys(file);
+			loaded.loadOrGenerate();
+			for (String scheme : SignatureSchemes.SUPPORTED)
+				assertArrayEquals(scheme + ": identity key changed after reading",
+						generated.scheme(scheme, DHGroup.RFC5114_2048_256).getPublicKey(),
+						loaded.scheme(scheme, DHGroup.RFC5114_2048_256).getPublicKey());
+			if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+				assertTrue("Identity file readable by others", Files.getPosixFilePermissions(file.toPath())
+						.equals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+			System.out.println("Identity keys test succeed.");
+		} finally {
+			file.delete();
+		}
+	}
+
+	/*
+	 * ELGAMAL IDENTITY SIGNATURE UNIT TEST
+	 * Long-term ElGamal key signs in subgroup of order q - y2 is below q and signature is correct
+	 */
+	@Test
+	public void ElGamalIdentitySignatureTest() throws IOException {
+		File file = File.createTempFile("identity", ".properties");
+		file.delete();
+		try {
+			IdentityKeys keys = new IdentityKeys(file);
+			keys.loadOrGenerate();
+			DHGroup group = DHGroup.RFC5114_2048_256;
+			int length = (group.getPrime().bitLength() + 7) / 8;
+			for (int i = 0; i < 8; i++) {
+				ElGamalSignature scheme = (ElGamalSignature) keys.scheme(ElGamalSignature.NAME, group);
+				byte[] message = ("message " + i).getBytes();
+				byte[] signature = scheme.sign(message);
+				assertTrue("y2 not reduced mod q", new BigInteger(1, Arrays.copyOfRange(signature, length, 2 * length))
+						.compareTo(group.getOrder()) < 0);
+				assertTrue("Signature " + i + " rejected", scheme.verify(scheme.getPublicKey(), message, signature));
+				assertTrue("Prepared key rejected signature " + i,
+						scheme.prepare(scheme.getPublicKey()).verify(message, signature));
+			}
+			System.out.println("ElGamal identity signature test succeed.");
+		} finally {
+			file.delete();
+		}
+	}
+
+	/*
+	 * PEER CACHE UNIT TEST
+	 * First key is remembered, the same key is known, other key is changed, also after reading file
+	 */
+	@Test
+	public void PeerCacheTest() throws IOException {
+		File file = File.createTempFile("peers", ".properties");
+		file.delete();
+		try {
+			PeerCache cache = new PeerCache(file);
+			cache.load();
+			assertTrue("First key not new", cache.check("bob", "EdDSA", new byte[] { 1 }) == PeerCache.Trust.NEW);
+			assertTrue("Same key not known", cache.check("bob", "EdDSA", new byte[] { 1 }) == PeerCache.Trust.KNOWN);
+			assertTrue("Other key not changed", cache.check("bob", "EdDSA", new byte[] { 2 }) == PeerCache.Trust.CHANGED);
+
+			PeerCache loaded = new PeerCache(file);
+			loaded.load();
+			assertTrue("Remembered key not known", loaded.check("bob", "EdDSA", new byte[] { 1 }) == PeerCache.Trust.KNOWN);
+			assertTrue("Key of other user not new", loaded.check("alice", "EdDSA", new byte[] { 1 }) == PeerCache.Trust.NEW);
+			assertTrue("Key in other scheme not changed", loaded.check("bob", "ElGamal", new byte[] { 1 }) == PeerCache.Trust.CHANGED);
+			assertTrue("Key in other scheme remembered", loaded.check("bob", "ElGamal", new byte[] { 1 }) == PeerCache.Trust.CHANGED);
+			System.out.println("Peer cache test succeed.");
+		} finally {
+			file.delete();
+		}
+	}
+
+	/*
+	 * HANDSHAKE ANSWER SCHEME UNIT TEST
+	 * Answer without scheme or with other scheme than signing one aborts key agreement
+	 */
+	@Test
+	public void HandshakeAnswerSchemeTest() {
+		for (int[] schemeIds : new int[][] { {}, { SignatureSchemes.idOf(ElGamalSignature.NAME) } }) {
+			DiffieHellman initiator = Handshake.initiate();
+			HandshakeMessage response = Handshake.responseMessage(Handshake.respond(Handshake.initMessage(initiator)));
+			response.setSchemeIds(schemeIds);
+			try {
+				Handshake.finish(initiator, response);
+				assertTrue("Answer with schemes " + Arrays.toString(schemeIds) + " accepted", false);
+			} catch (IllegalArgumentException e) {
+				/** Expected */
+			}
+			assertFalse("Aborted key agreement authorized", initiator.isAuthorized());
+		}
+		System.out.println("Handshake answer scheme test succeed.");
+	}
+
+	/*
+	 * HANDSHAKE WITH IDENTITY KEYS UNIT TEST
+	 * Repeated handshakes with the same identity are authorized, handshake with other identity is not
+	 */
+	@Test
+	public void RememberedIdentityHandshakeTest() throws IOException {
+		File aliceFile = File.createTempFile("identity", ".properties");
+		File bobFile = File.createTempFile("identity", ".properties");
+		File otherFile = File.createTempFile("identity", ".properties");
+		File peersFile = File.createTempFile("peers", ".properties");
+		for (File file : new File[] { aliceFile, bobFile, otherFile, peersFile })
+			file.delete();
+		try {
+			IdentityKeys alice = new IdentityKeys(aliceFile);
+			alice.loadOrGenerate();
+			IdentityKeys bob = new IdentityKeys(bobFile);
+			bob.loadOrGenerate();
+			IdentityKeys other = new IdentityKeys(otherFile);
+			other.loadOrGenerate();
+			PeerCache bobPeers = new PeerCache(peersFile);
+
+			for (int i = 0; i < 2; i++) {
+				DiffieHellman initiator = Handshake.initiate(alice);
+				DiffieHellman receiver = Handshake.respond(HandshakeMessage.decode(Handshake.initMessage(initiator).encode()),
+						"alice", bob, bobPeers);
+				assertTrue("Handshake " + i + " not authorized", receiver.isAuthorized());
+				assertTrue("Wrong trust in handshake " + i,
+						bobPeers.getTrust("alice") == (i == 0 ? PeerCache.Trust.NEW : PeerCache.Trust.KNOWN));
+				Handshake.finish(initiator, HandshakeMessage.decode(Handshake.responseMessage(receiver).encode()));
+				assertTrue("Answer of handshake " + i + " not authorized", initiator.isAuthorized());
+				assertArrayEquals("Keys differ in handshake " + i, initiator.getKeyBytes(), receiver.getKeyBytes());
+			}
+
+			DiffieHellman impostor = Handshake.initiate(other);
+			DiffieHellman receiver = Handshake.respond(HandshakeMessage.decode(Handshake.initMessage(impostor).encode()),
+					"alice", bob, bobPeers);
+			assertFalse("Handshake with changed identity authorized", receiver.isAuthorized());
+			assertTrue("Changed identity not detected", bobPeers.getTrust("alice") == PeerCache.Trust.CHANGED);
+
+			/** Impostor signing with its own ElGamal key, for which alice has no remembered key */
+			DiffieHellman downgrade = Handshake.initiate(other);
+			downgrade.setSignatureScheme(other.scheme(ElGamalSignature.NAME, downgrade.getGroup()));
+			downgrade.makeSignature();
+			HandshakeMessage init = Handshake.initMessage(downgrade);
+			init.setSchemeIds(SignatureSchemes.idOf(ElGamalSignature.NAME));
+			receiver = Handshake.respond(HandshakeMessage.decode(init.encode()), "alice", bob, bobPeers);
+			assertFalse("Handshake with identity in other scheme authorized", receiver.isAuthorized());
+			assertTrue("Identity in other scheme not detected", bobPeers.getTrust("alice") == PeerCache.Trust.CHANGED);
+			System.out.println("Remembered identity handshake test succeed.");
+		} finally {
+			for (File file : new File[] { aliceFile, bobFile, otherFile, peersFile })
+				file.delete();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package junit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import client.MessageCompression;
+import protocol.HandshakeMessage;
+
+/**
+ * JUnitTests , Unit test for compression of conversation messages and its offer in handshake
+ */
+public class MessageCompressionTests {
+
+	/*
+	 * MESSAGE COMPRESSION UNIT TEST
+	 * Chat message gets shorter and comes back the same, short and random messages are sent raw
+	 */
+	@Test
+	public void MessageCompressionTest() {
+		MessageCompression compression = new MessageCompression(true, 32);
+		byte[] chat = "hi, how are you doing? I think we could see you tomorrow evening, thanks :)".getBytes();
+		byte[] compressed = compression.compress(chat);
+		assertTrue("Chat message not shorter: " + compressed.length, compressed.length < chat.length * 3 / 4);
+		assertArrayEquals(chat, MessageCompression.decompress(compressed));
+
+		assertNull("Short message compressed", compression.compress("ok".getBytes()));
+		byte[] random = new byte[256];
+		new Random(7).nextBytes(random);
+		assertNull("Random message compressed", compression.compress(random));
+
+		for (int length = 0; length < compressed.length; length++) {
+			try {
+				MessageCompression.decompress(Arrays.copyOf(compressed, length));
+				assertTrue("Cut message of " + length + " bytes decompressed", false);
+			} catch (IllegalArgumentException e) {
+				/** Expected */
+			}
+		}
+		System.out.println("Message compression test succeed.");
+	}
+
+	/*
+	 * HANDSHAKE FEATURES UNIT TEST
+	 * Features byte is read back, message of older client without it offers no feature
+	 */
+	@Test
+	public void HandshakeFeaturesTest() {
+		HandshakeMessage message = new HandshakeMessage();
+		message.setShare(new byte[] { 1, 2, 3 });
+		message.setFeatures(HandshakeMessage.FEATURE_COMPRESSION);
+		byte[] encoded = message.encode();
+		assertEquals(HandshakeMessage.FEATURE_COMPRESSION, HandshakeMessage.decode(encoded).getFeatures());
+
+		HandshakeMessage old = HandshakeMessage.decode(Arrays.copyOf(encoded, encoded.length - 1));
+		assertEquals(0, old.getFeatures());
+		assertArrayEquals(message.getShare(), old.getShare());
+		System.out.println("Handshake features test succeed.");
+	}
+}
@@ -0,0 +1,48 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import client.MessageWindow;
+import protocol.DataPackage;
+
+/**
+ * JUnitTests , Unit test for sequence numbers, acknowledgments and send window of conversation
+ */
+public class MessageWindowTests {
+
+	/*
+	 * MESSAGE WINDOW UNIT TEST
+	 * Full window frees place after acknowledgment, received messages are shown once and in order
+	 */
+	@Test
+	public void MessageWindowTest() {
+		MessageWindow sender = new MessageWindow(2);
+		MessageWindow receiver = new MessageWindow(2);
+		DataPackage first = new DataPackage();
+		DataPackage second = new DataPackage();
+		DataPackage third = new DataPackage();
+		sender.send(first);
+		sender.send(second);
+		assertFalse("Window open after size of messages", sender.isOpen());
+		assertEquals(2, sender.getInFlight().size());
+
+		assertTrue("Early message shown", receiver.receive(second).isEmpty());
+		assertEquals("Wrong order", 2, receiver.receive(first).size());
+		assertTrue("Repeated message shown", receiver.receive(first).isEmpty());
+		assertTrue("Repeated message not acknowledged", receiver.needsAcknowledgment());
+		receiver.stampAcknowledgment(third);
+		assertEquals(2, third.getAcknowledged());
+		assertFalse("Acknowledgment needed after sending it", receiver.needsAcknowledgment());
+
+		assertTrue("Acknowledgment has not freed window", sender.acknowledge(third.getAcknowledged()));
+		assertTrue("Window closed after acknowledgment", sender.isOpen());
+		sender.send(third);
+		assertEquals(3, third.getSequence());
+		assertEquals(1, sender.getInFlight().size());
+		System.out.println("Message window test succeed.");
+	}
+}
@@ -0,0 +1,97 @@
+package junit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import cipher.DiffieHellman;
+import client.KeyRotation;
+import client.RekeyPolicy;
+import metrics.LatencyHistogram;
+
+/**
+ * JUnitTests , Unit test for key epochs of conversation and latency histogram
+ */
+public class RekeyTests {
+
+	/*
+	 * KEY ROTATION UNIT TEST
+	 * Rekey is needed after message limit, after switch previous key still decrypts old epoch
+	 */
+	@Test
+	public void KeyRotationTest() {
+		DiffieHellman agreement = new DiffieHellman();
+		agreement.setKeyBytes(new byte[] { 1 });
+		DiffieHellman rekey = new DiffieHellman();
+		rekey.setKeyBytes(new byte[] { 2 });
+		KeyRotation rotation = new KeyRotation();
+		RekeyPolicy policy = new RekeyPolicy(2, 0, 0);
+
+		rotation.countSent(16);
+		assertFalse("Rekey needed before limit", rotation.needsRekey(policy));
+		rotation.countSent(16);
+		assertTrue("Rekey not needed after limit", rotation.needsRekey(policy));
+		long token = rotation.beginRekey(true);
+		assertFalse("Second rekey needed while first is running", rotation.needsRekey(policy));
+		assertTrue("Own rekey not current", rotation.isCurrent(token) && rotation.isOwnRekey());
+
+		rotation.switchKey(agreement, rekey);
+		assertEquals("Epoch not changed", 1, rotation.getEpoch());
+		assertFalse("Finished rekey still current", rotation.isCurrent(token));
+		assertArrayEquals("Wrong current key", new byte[] { 2 }, rotation.keyFor(1, agreement));
+		assertArrayEquals("Wrong previous key", new byte[] { 1 }, rotation.keyFor(0, agreement));
+		assertNull("Unknown epoch has key", rotation.keyFor(2, agreement));
+		assertFalse("Rekey needed after switch", rotation.needsRekey(policy));
+		System.out.println("Key rotation test succeed.");
+	}
+
+	/*
+	 * KEY EPOCHS AFTER QUICK REKEYS UNIT TEST
+	 * Message sent before two quick rekeys is still decrypted, keys are forgotten after later message is shown
+	 */
+	@Test
+	public void QuickRekeysTest() {
+		DiffieHellman agreement = new DiffieHellman();
+		agreement.setKeyBytes(new byte[] { 1 });
+		KeyRotation rotation = new KeyRotation();
+		for (byte key = 2; key <= 3; key++) {
+			DiffieHellman rekey = new DiffieHellman();
+			rekey.setKeyBytes(new byte[] { key });
+			rotation.beginRekey(true);
+			rotation.switchKey(agreement, rekey);
+		}
+		assertEquals("Epoch not changed twice", 2, rotation.getEpoch());
+		assertArrayEquals("Key of message sent before two rekeys forgotten", new byte[] { 1 }, rotation.keyFor(0, agreement));
+		assertArrayEquals("Wrong previous key", new byte[] { 2 }, rotation.keyFor(1, agreement));
+
+		rotation.delivered(0);
+		assertArrayEquals("Key forgotten while message of its epoch is shown", new byte[] { 1 }, rotation.keyFor(0, agreement));
+		rotation.delivered(2);
+		assertNull("Key kept after message of later epoch is shown", rotation.keyFor(0, agreement));
+		assertArrayEquals("Previous key forgotten", new byte[] { 2 }, rotation.keyFor(1, agreement));
+		assertArrayEquals("Wrong current key", new byte[] { 3 }, rotation.keyFor(2, agreement));
+		System.out.println("Quick rekeys test succeed.");
+	}
+
+	/*
+	 * LATENCY HISTOGRAM UNIT TEST
+	 * Percentiles of 1..1000 microseconds have to be within bucket error
+	 */
+	@Test
+	public void LatencyHistogramTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000L);
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1_000_000L, histogram.getMax());
+		long p50 = histogram.percentile(50);
+		long p99 = histogram.percentile(99);
+		assertTrue("Wrong p50 " + p50, p50 >= 500_000L && p50 <= 500_000L * 9 / 8);
+		assertTrue("Wrong p99 " + p99, p99 >= 990_000L && p99 <= 1_000_000L);
+		System.out.println("Latency histogram test succeed.");
+	}
+}
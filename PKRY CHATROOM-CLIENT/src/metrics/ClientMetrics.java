@@ -0,0 +1,79 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and latency histograms of client, shared by all its threads. Names are
+ * dotted, e.g. "rekey.started" or "rekey.latency".
+ */
+public final class ClientMetrics
+{
+	private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, LatencyHistogram> LATENCIES = new ConcurrentHashMap<>();
+
+	private ClientMetrics()
+	{
+	}
+
+	/**
+	 * Adding one to counter
+	 * @param name name of counter
+	 */
+	public static void increment(String name)
+	{
+		add(name, 1);
+	}
+
+	/**
+	 * Adding value to counter
+	 * @param name name of counter
+	 * @param value added value
+	 */
+	public static void add(String name, long value)
+	{
+		COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(value);
+	}
+
+	/**
+	 * @param name name of counter
+	 * @return value of counter, 0 if it was not used
+	 */
+	public static long count(String name)
+	{
+		LongAdder counter = COUNTERS.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @param name name of histogram
+	 * @return histogram, created when it is used first time
+	 */
+	public static LatencyHistogram latency(String name)
+	{
+		return LATENCIES.computeIfAbsent(name, k -> new LatencyHistogram());
+	}
+
+	/**
+	 * @param prefix beginning of names of reported metrics, empty for all
+	 * @return counters and histograms in order of names, one per line
+	 */
+	public static String report(String prefix)
+	{
+		Map<String, String> lines = new TreeMap<>();
+		COUNTERS.forEach((name, counter) -> {
+			if (name.startsWith(prefix))
+				lines.put(name, Long.toString(counter.sum()));
+		});
+		LATENCIES.forEach((name, histogram) -> {
+			if (name.startsWith(prefix))
+				lines.put(name, histogram.toString());
+		});
+		StringBuilder out = new StringBuilder();
+		lines.forEach((name, value) -> out.append(name).append(' ').append(value).append('\n'));
+		return out.toString();
+	}
+}
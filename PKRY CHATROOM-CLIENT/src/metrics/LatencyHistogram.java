@@ -0,0 +1,101 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Every power of two is split into
+ * 8 linear buckets, so percentiles are known with error below 12.5% and recording is
+ * one atomic increment.
+ */
+public class LatencyHistogram
+{
+	/** Linear buckets in one power of two */
+	private static final int SUB_BUCKETS = 8;
+	/** log2 of SUB_BUCKETS */
+	private static final int SUB_BITS = 3;
+
+	/** Number of values in every bucket */
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Recording one latency
+	 * @param nanos latency in nanoseconds, negative is counted as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.max(0, nanos);
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long currentMax;
+		while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value))
+			;
+	}
+
+	/**
+	 * @param percentile percentile in range 0..100
+	 * @return upper bound of bucket with given percentile in nanoseconds, 0 when nothing was recorded
+	 */
+	public long percentile(double percentile)
+	{
+		long total = count.get();
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++)
+		{
+			seen += buckets.get(i);
+			if (seen >= Math.max(1, rank))
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/** @return mean latency in nanoseconds */
+	public double getMean()
+	{
+		long total = count.get();
+		return total == 0 ? 0 : (double) sum.get() / total;
+	}
+
+	/** @return count, p50, p99 and max in milliseconds */
+	@Override
+	public String toString()
+	{
+		return String.format("count=%d p50=%.2fms p99=%.2fms max=%.2fms", getCount(), percentile(50) / 1e6,
+				percentile(99) / 1e6, getMax() / 1e6);
+	}
+
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int power = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (power - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int power = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (power - SUB_BITS)) - 1;
+	}
+}
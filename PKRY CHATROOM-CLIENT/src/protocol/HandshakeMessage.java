@@ -0,0 +1,131 @@
+package protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary fields of key agreement messages (INIT, BACKWARD_INIT) sent
+ * in DataPackage handshakeMsg instead of text administrationMsg. Big-endian layout:
+ * version(1) | group id(1) | schemes count(1) | scheme ids(1 each) | share length(2) | share |
+ * signature length(2) | signature | public key length(2) | public key | features(1).
+ * Diffie-Hellman share has fixed length of group prime, fields that are not used have length 0.
+ * Features byte is not sent by older clients, then no feature is offered.
+ */
+public class HandshakeMessage {
+
+	/** Version of layout */
+	public static final int VERSION = 1;
+	/** Feature bit - sender compresses messages of conversation if the other user offers it too */
+	public static final int FEATURE_COMPRESSION = 1;
+
+	private int groupId;
+	private int[] schemeIds = new int[0];
+	private byte[] share = new byte[0];
+	private byte[] signature = new byte[0];
+	private byte[] publicKey = new byte[0];
+	private int features;
+
+	/** @return bytes that are put in DataPackage */
+	public byte[] encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(3 + schemeIds.length + 6 + share.length + signature.length
+				+ publicKey.length + 1);
+		buffer.put((byte) VERSION);
+		buffer.put((byte) groupId);
+		buffer.put((byte) schemeIds.length);
+		for (int id : schemeIds)
+			buffer.put((byte) id);
+		putField(buffer, share);
+		putField(buffer, signature);
+		putField(buffer, publicKey);
+		buffer.put((byte) features);
+		return buffer.array();
+	}
+
+	/**
+	 * Reading fields from received bytes
+	 * @param bytes handshakeMsg of received DataPackage
+	 * @return read message
+	 * @throws IllegalArgumentException when bytes are not valid handshake message
+	 */
+	public static HandshakeMessage decode(byte[] bytes) {
+		if (bytes == null)
+			throw new IllegalArgumentException("Missing handshake message");
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int version = buffer.get() & 0xff;
+			if (version != VERSION)
+				throw new IllegalArgumentException("Unknown handshake version " + version);
+			HandshakeMessage message = new HandshakeMessage();
+			message.groupId = buffer.get() & 0xff;
+			message.schemeIds = new int[buffer.get() & 0xff];
+			for (int i = 0; i < message.schemeIds.length; i++)
+				message.schemeIds[i] = buffer.get() & 0xff;
+			message.share = getField(buffer);
+			message.signature = getField(buffer);
+			message.publicKey = getField(buffer);
+			message.features = buffer.hasRemaining() ? buffer.get() & 0xff : 0;
+			return message;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated handshake message", e);
+		}
+	}
+
+	private static void putField(ByteBuffer buffer, byte[] field) {
+		buffer.putShort((short) field.length);
+		buffer.put(field);
+	}
+
+	private static byte[] getField(ByteBuffer buffer) {
+		byte[] field = new byte[buffer.getShort() & 0xffff];
+		buffer.get(field);
+		return field;
+	}
+
+	public int getGroupId() {
+		return groupId;
+	}
+
+	public void setGroupId(int groupId) {
+		this.groupId = groupId;
+	}
+
+	public int[] getSchemeIds() {
+		return schemeIds;
+	}
+
+	public void setSchemeIds(int... schemeIds) {
+		this.schemeIds = schemeIds;
+	}
+
+	public byte[] getShare() {
+		return share;
+	}
+
+	public void setShare(byte[] share) {
+		this.share = share;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	public void setSignature(byte[] signature) {
+		this.signature = signature;
+	}
+
+	public byte[] getPublicKey() {
+		return publicKey;
+	}
+
+	public void setPublicKey(byte[] publicKey) {
+		this.publicKey = publicKey;
+	}
+
+	public int getFeatures() {
+		return features;
+	}
+
+	public void setFeatures(int features) {
+		this.features = features;
+	}
+}
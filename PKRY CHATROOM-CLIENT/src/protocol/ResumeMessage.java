@@ -0,0 +1,94 @@
+package protocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary fields of session resumption messages (RESUME, BACKWARD_RESUME) sent in DataPackage
+ * handshakeMsg. Big-endian layout:
+ * version(1) | session id length(2) | session id | nonce length(2) | nonce | binder length(2) | binder.
+ * BACKWARD_RESUME has empty nonce, empty binder means that session was not resumed.
+ */
+public class ResumeMessage {
+
+	/** Version of layout */
+	public static final int VERSION = 1;
+
+	private byte[] sessionId = new byte[0];
+	private byte[] nonce = new byte[0];
+	private byte[] binder = new byte[0];
+
+	/** @return bytes that are put in DataPackage */
+	public byte[] encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(7 + sessionId.length + nonce.length + binder.length);
+		buffer.put((byte) VERSION);
+		putField(buffer, sessionId);
+		putField(buffer, nonce);
+		putField(buffer, binder);
+		return buffer.array();
+	}
+
+	/**
+	 * Reading fields from received bytes
+	 * @param bytes handshakeMsg of received DataPackage
+	 * @return read message
+	 * @throws IllegalArgumentException when bytes are not valid resumption message
+	 */
+	public static ResumeMessage decode(byte[] bytes) {
+		if (bytes == null)
+			throw new IllegalArgumentException("Missing resumption message");
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int version = buffer.get() & 0xff;
+			if (version != VERSION)
+				throw new IllegalArgumentException("Unknown resumption version " + version);
+			ResumeMessage message = new ResumeMessage();
+			message.sessionId = getField(buffer);
+			message.nonce = getField(buffer);
+			message.binder = getField(buffer);
+			return message;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated resumption message", e);
+		}
+	}
+
+	private static void putField(ByteBuffer buffer, byte[] field) {
+		buffer.putShort((short) field.length);
+		buffer.put(field);
+	}
+
+	private static byte[] getField(ByteBuffer buffer) {
+		byte[] field = new byte[buffer.getShort() & 0xffff];
+		buffer.get(field);
+		return field;
+	}
+
+	/** @return true if BACKWARD_RESUME accepts session */
+	public boolean isAccepted() {
+		return binder.length > 0;
+	}
+
+	public byte[] getSessionId() {
+		return sessionId;
+	}
+
+	public void setSessionId(byte[] sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public byte[] getNonce() {
+		return nonce;
+	}
+
+	public void setNonce(byte[] nonce) {
+		this.nonce = nonce;
+	}
+
+	public byte[] getBinder() {
+		return binder;
+	}
+
+	public void setBinder(byte[] binder) {
+		this.binder = binder;
+	}
+}
@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import protocol.DataPackage;
+import protocol.Header;
+import server.EncodedPackage;
+import server.OfflineStore;
+
+/**
+ * Throughput of offline store - appending encrypted messages for many recipients, reading
+ * index again after restart and replaying with acknowledgment of every backlog.
+ * Run with optional arguments - number of messages (default 200000), message length in bytes
+ * (default 256) and number of recipients (default 1000).
+ */
+public class OfflineStoreBenchmark {
+	public static void main(String[] args) throws IOException {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int length = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		int recipients = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("sender");
+		dp.setHeader(Header.MSG);
+		dp.setEncryptedMsg(new byte[length]);
+		EncodedPackage encoded = EncodedPackage.encode(dp);
+		File directory = Files.createTempDirectory("offline").toFile();
+		try {
+			OfflineStore store = new OfflineStore(directory, OfflineStore.DEFAULT_SEGMENT_SIZE);
+			long start = System.nanoTime();
+			for (int i = 0; i < messages; i++)
+				store.append("user" + (i % recipients), encoded);
+			long append = System.nanoTime() - start;
+			store.close();
+
+			start = System.nanoTime();
+			store = new OfflineStore(directory, OfflineStore.DEFAULT_SEGMENT_SIZE);
+			long recover = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			long replayed = 0;
+			for (int user = 0; user < recipients; user++) {
+				List<OfflineStore.Stored> backlog = store.backlog("user" + user);
+				for (OfflineStore.Stored stored : backlog)
+					replayed += stored.getEncoded().length();
+				store.acknowledge("user" + user, backlog.get(backlog.size() - 1).getSequence());
+			}
+			long replay = System.nanoTime() - start;
+
+			double megabytes = (double) messages * encoded.length() / (1 << 20);
+			System.out.printf("%d messages of %d B to %d recipients%n", messages, encoded.length(), recipients);
+			System.out.printf("append: %8.1f ms %8.1f MB/s %10.0f msg/s%n", append / 1e6, megabytes / (append / 1e9),
+					messages / (append / 1e9));
+			System.out.printf("recover index: %8.1f ms%n", recover / 1e6);
+			System.out.printf("replay + ack: %8.1f ms %8.1f MB/s, left %d messages in %d segments%n", replay / 1e6,
+					replayed / (double) (1 << 20) / (replay / 1e9), store.size(), store.segments());
+			store.close();
+		} finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import server.AttachmentStore;
+import server.StoreMaintenance;
+import server.TimerWheel;
+
+/**
+ * JUnitTests , Unit test for store of attachments and its maintenance
+ */
+public class AttachmentStoreTests {
+
+	/*
+	 * ATTACHMENT STORE SHARING UNIT TEST
+	 * Only uploaders and receivers of file may give it to others, download releases reference
+	 * and file is deleted with the last one
+	 */
+	@Test
+	public void SharingTest() throws IOException {
+		File directory = Files.createTempDirectory("attachments").toFile();
+		try {
+			AttachmentStore store = new AttachmentStore(directory, 60000, 1 << 20);
+			String hash = upload(store, "alice", "secret bytes");
+			assertFalse("Unknown hash shared", store.reference("0" + hash.substring(1), "bob", "alice"));
+			assertFalse("Stranger shared file by its hash", store.reference(hash, "mallory", "mallory"));
+			assertNull("File given to stranger", store.open(hash, "mallory"));
+
+			assertTrue("Uploader can not share file", store.reference(hash, "bob", "alice"));
+			assertTrue("Receiver can not share file", store.reference(hash, "carol", "bob"));
+			assertEquals("Deduplicated upload has other hash", hash, upload(store, "dave", "secret bytes"));
+			assertTrue("Second uploader can not share file", store.reference(hash, "erin", "dave"));
+			assertEquals("Same bytes stored twice", 1, store.size());
+
+			for (String user : new String[] { "bob", "carol", "erin" }) {
+				try (FileChannel channel = store.open(hash, user)) {
+					assertNotNull("File not given to " + user, channel);
+				}
+				store.release(hash, user);
+			}
+			assertEquals("File kept after last download", 0, store.size());
+			assertFalse("File left in directory", new File(directory, hash).exists());
+			System.out.println("Attachment store sharing test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * ATTACHMENT STORE EXPIRY UNIT TEST
+	 * File not downloaded is deleted after time to live also when it has references, file
+	 * found after restart expires by time of its last change and is not shared by hash
+	 */
+	@Test
+	public void ExpiryTest() throws Exception {
+		File directory = Files.createTempDirectory("attachments").toFile();
+		try {
+			AttachmentStore store = new AttachmentStore(directory, 200, 1 << 20);
+			String old = upload(store, "alice", "old file");
+			store.reference(old, "bob", "alice");
+			Thread.sleep(300);
+			String fresh = upload(store, "alice", "fresh file");
+			assertEquals("Wrong number of expired files", 1, store.evictExpired());
+			assertFalse("Expired file left in directory", new File(directory, old).exists());
+			assertNull("Expired file given to receiver", store.open(old, "bob"));
+			assertEquals("Fresh file deleted", 1, store.size());
+
+			/** Restart, file is recovered */
+			store = new AttachmentStore(directory, 200, 1 << 20);
+			assertEquals("File not recovered", 1, store.size());
+			try (FileChannel channel = store.open(fresh, "anyone")) {
+				assertNotNull("Recovered file not given by hash", channel);
+			}
+			assertFalse("Recovered file shared by hash", store.reference(fresh, "bob", "mallory"));
+			assertTrue("Recovered file lost its time to live",
+					new File(directory, fresh).setLastModified(System.currentTimeMillis() - 1000));
+			store = new AttachmentStore(directory, 200, 1 << 20);
+			assertEquals("Expired recovered file not deleted", 1, store.evictExpired());
+			assertEquals("Wrong files in directory", 0, directory.list().length);
+			System.out.println("Attachment store expiry test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * STORE MAINTENANCE UNIT TEST
+	 * Maintenance deletes expired files again and again on its own thread, failing run does
+	 * not stop next ones
+	 */
+	@Test
+	public void MaintenanceTest() throws Exception {
+		File directory = Files.createTempDirectory("attachments").toFile();
+		TimerWheel wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 8);
+		StoreMaintenance maintenance = new StoreMaintenance(wheel);
+		try {
+			AttachmentStore store = new AttachmentStore(directory, 50, 1 << 20);
+			AtomicInteger evicted = new AtomicInteger();
+			CountDownLatch runs = new CountDownLatch(5);
+			String[] thread = new String[1];
+			maintenance.every(() -> {
+				thread[0] = Thread.currentThread().getName();
+				evicted.addAndGet(store.evictExpired());
+				runs.countDown();
+				if (runs.getCount() == 3)
+					throw new IllegalStateException("Failing run");
+			}, 20, TimeUnit.MILLISECONDS);
+			String first = upload(store, "alice", "first file");
+			Thread.sleep(150);
+			assertFalse("Expired file not deleted by maintenance", new File(directory, first).exists());
+			upload(store, "alice", "second file");
+			assertTrue("Maintenance stopped", runs.await(2, TimeUnit.SECONDS));
+			Thread.sleep(150);
+			assertEquals("Wrong number of deleted files", 2, evicted.get());
+			assertEquals("Wrong thread of maintenance", "store-maintenance", thread[0]);
+			assertEquals("Files left in directory", 0, directory.list().length);
+			System.out.println("Store maintenance test succeed.");
+		} finally {
+			maintenance.stop();
+			wheel.stop();
+			delete(directory);
+		}
+	}
+
+	private static String upload(AttachmentStore store, String uploader, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		AttachmentStore.Upload upload = store.begin(bytes.length, uploader);
+		upload.write(0, bytes);
+		assertTrue("Upload not complete", upload.isComplete());
+		return upload.finish();
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+}
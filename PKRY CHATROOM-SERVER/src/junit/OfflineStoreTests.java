@@ -0,0 +1,204 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.EncodedPackage;
+import server.OfflineStore;
+
+/**
+ * JUnitTests , Unit test for store of messages of users that are not connected
+ */
+public class OfflineStoreTests {
+
+	/*
+	 * OFFLINE STORE RECOVERY UNIT TEST
+	 * Record with wrong CRC and record cut by end of file are dropped with everything after them,
+	 * records before them are read and next record is written in place of broken one
+	 */
+	@Test
+	public void RecoveryTest() throws IOException {
+		File directory = Files.createTempDirectory("offline").toFile();
+		try {
+			OfflineStore store = new OfflineStore(directory, 4096);
+			long[] ends = new long[3];
+			long end = 0;
+			for (int i = 0; i < 3; i++) {
+				EncodedPackage encoded = TestPackages.encode("message " + i);
+				store.append("bob", encoded);
+				end += 12 + 2 + "bob".length() + 16 + encoded.length();
+				ends[i] = end;
+			}
+			store.close();
+			File segment = directory.listFiles()[0];
+
+			/** Last byte of third record changed - its CRC is wrong */
+			try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+				file.seek(ends[2] - 1);
+				int last = file.read();
+				file.seek(ends[2] - 1);
+				file.write(last ^ 1);
+			}
+			store = new OfflineStore(directory, 4096);
+			assertEquals("Wrong messages after damaged record", Arrays.asList("message 0", "message 1"), texts(store, "bob"));
+			store.append("bob", TestPackages.encode("message 3"));
+			store.close();
+			store = new OfflineStore(directory, 4096);
+			assertEquals("Record written after damaged one not read", Arrays.asList("message 0", "message 1", "message 3"),
+					texts(store, "bob"));
+			store.close();
+
+			/** File cut in the middle of second record */
+			try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+				file.setLength(ends[1] - 5);
+			}
+			store = new OfflineStore(directory, 4096);
+			assertEquals("Wrong messages after cut record", Arrays.asList("message 0"), texts(store, "bob"));
+			store.append("bob", TestPackages.encode("message 4"));
+			store.close();
+			store = new OfflineStore(directory, 4096);
+			assertEquals("Record written after cut one not read", Arrays.asList("message 0", "message 4"), texts(store, "bob"));
+			store.close();
+			System.out.println("Offline store recovery test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * OFFLINE STORE COMPACTION UNIT TEST
+	 * Messages copied forward from compacted segments are replayed in order of sending, also after restart
+	 */
+	@Test
+	public void CompactionTest() throws IOException {
+		File directory = Files.createTempDirectory("offline").toFile();
+		try {
+			/** Segment of 8 records, one of 10 messages waits after messages of bob are delivered */
+			int segmentSize = 8 * (12 + 2 + 5 + 16 + TestPackages.encode("bob 10").length()) + 4;
+			OfflineStore store = new OfflineStore(directory, segmentSize);
+			List<String> expected = new ArrayList<>();
+			for (int i = 0; i < 80; i++) {
+				if (i % 10 == 0) {
+					store.append("alice", TestPackages.encode("alice " + i));
+					expected.add("alice " + i);
+				} else {
+					store.append("bobby", TestPackages.encode("bob " + i));
+				}
+			}
+			int segments = store.segments();
+			List<OfflineStore.Stored> bob = store.backlog("bobby");
+			store.acknowledge("bobby", bob.get(bob.size() - 1).getSequence());
+			assertTrue("Segments not compacted: " + store.segments() + " of " + segments, store.segments() < segments / 2);
+			assertEquals("Delivered messages left", 0, store.backlog("bobby").size());
+			assertEquals("Wrong order after compaction", expected, texts(store, "alice"));
+			assertTrue("Sequence numbers not in order", ordered(store.backlog("alice")));
+			store.close();
+			assertEquals("Deleted segment files left", segments(directory), store.segments());
+
+			store = new OfflineStore(directory, segmentSize);
+			assertEquals("Delivered messages replayed after restart", 0, store.backlog("bobby").size());
+			assertEquals("Wrong order after restart", expected, texts(store, "alice"));
+			assertTrue("Sequence numbers not in order after restart", ordered(store.backlog("alice")));
+			store.close();
+			System.out.println("Offline store compaction test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * OFFLINE STORE ACKNOWLEDGMENT AND EXPIRY UNIT TEST
+	 * Acknowledged and expired messages are not replayed, also after restart
+	 */
+	@Test
+	public void AcknowledgmentAndExpiryTest() throws Exception {
+		File directory = Files.createTempDirectory("offline").toFile();
+		try {
+			OfflineStore store = new OfflineStore(directory, 4096, 100, 1 << 20, 60_000);
+			for (int i = 0; i < 4; i++)
+				store.append("bob", TestPackages.encode("message " + i));
+			store.acknowledge("bob", store.backlog("bob").get(1).getSequence());
+			assertEquals("Acknowledged messages replayed", Arrays.asList("message 2", "message 3"), texts(store, "bob"));
+			store.close();
+			store = new OfflineStore(directory, 4096, 100, 1 << 20, 60_000);
+			assertEquals("Acknowledged messages replayed after restart", Arrays.asList("message 2", "message 3"),
+					texts(store, "bob"));
+			store.close();
+
+			/** Reopened with short time to live, the same messages are expired after it */
+			store = new OfflineStore(directory, 4096, 100, 1 << 20, 50);
+			Thread.sleep(100);
+			store.append("alice", TestPackages.encode("fresh"));
+			assertEquals("Wrong number of expired messages", 2, store.evictExpired());
+			assertEquals("Expired messages replayed", 0, store.backlog("bob").size());
+			assertEquals("Fresh message expired", Arrays.asList("fresh"), texts(store, "alice"));
+			store.close();
+			Thread.sleep(100);
+			store = new OfflineStore(directory, 4096, 100, 1 << 20, 50);
+			assertEquals("Expired messages replayed after restart", 0, store.size());
+			store.close();
+			System.out.println("Offline store acknowledgment and expiry test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	/*
+	 * OFFLINE STORE LIMITS UNIT TEST
+	 * Messages over limit of recipient or of store are rejected
+	 */
+	@Test
+	public void LimitsTest() throws IOException {
+		File directory = Files.createTempDirectory("offline").toFile();
+		try {
+			EncodedPackage encoded = TestPackages.encode("message");
+			OfflineStore store = new OfflineStore(directory, 4096, 2, 4 * (12 + 2 + 5 + 16 + encoded.length()), 60_000);
+			assertTrue("Message under limit rejected", store.append("alice", encoded) >= 0);
+			assertTrue("Message under limit rejected", store.append("alice", encoded) >= 0);
+			assertEquals("Message over limit of recipient stored", -1, store.append("alice", encoded));
+			for (String user : new String[] { "bobby", "carol" })
+				assertTrue("Message of other recipient rejected", store.append(user, encoded) >= 0);
+			assertEquals("Message over limit of store stored", -1, store.append("danny", encoded));
+			store.close();
+			System.out.println("Offline store limits test succeed.");
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static List<String> texts(OfflineStore store, String user) throws IOException {
+		List<EncodedPackage> packages = new ArrayList<>();
+		for (OfflineStore.Stored stored : store.backlog(user))
+			packages.add(stored.getEncoded());
+		return TestPackages.texts(packages);
+	}
+
+	private static boolean ordered(List<OfflineStore.Stored> backlog) {
+		for (int i = 1; i < backlog.size(); i++)
+			if (backlog.get(i - 1).getSequence() >= backlog.get(i).getSequence())
+				return false;
+		return true;
+	}
+
+	private static int segments(File directory) {
+		return directory.listFiles((dir, name) -> name.endsWith(".log")).length;
+	}
+
+	private static void delete(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+}
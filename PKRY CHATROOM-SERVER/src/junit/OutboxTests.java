@@ -0,0 +1,197 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import protocol.DataPackage;
+import protocol.Header;
+import server.ClientChannel;
+import server.Outbox;
+
+/**
+ * JUnitTests , Unit test for outbound queue of client connection with control and bulk lanes
+ */
+public class OutboxTests {
+
+	/*
+	 * OUTBOX LANES UNIT TEST
+	 * Control package waiting together with bulk packages is written first, bulk packages of
+	 * senders are written in turns
+	 */
+	@Test
+	public void LanesTest() throws Exception {
+		GatedStream stream = new GatedStream();
+		ClientChannel channel = new ClientChannel(stream);
+		CountDownLatch written = new CountDownLatch(5);
+		Outbox outbox = new Outbox(channel, encoded -> written.countDown(), 16, 1 << 16);
+		stream.armed = true;
+		outbox.offer("alice", TestPackages.encode("alice 1"), false, true, () -> {});
+		assertTrue("Writer not started", stream.blocked.await(5, TimeUnit.SECONDS));
+		outbox.offer("alice", TestPackages.encode("alice 2"), false, true, () -> {});
+		outbox.offer("alice", TestPackages.encode("alice 3"), false, true, () -> {});
+		outbox.offer("bob", TestPackages.encode("bob 1"), false, true, () -> {});
+		outbox.offer("carol", TestPackages.encode("control"), true, true, () -> {});
+		stream.open.countDown();
+		assertTrue("Packages not written", written.await(5, TimeUnit.SECONDS));
+		assertEquals("Wrong order of lanes", Arrays.asList("alice 1", "control", "alice 2", "bob 1", "alice 3"),
+				texts(TestPackages.read(stream.written())));
+		System.out.println("Outbox lanes test succeed.");
+	}
+
+	/*
+	 * OUTBOX FRAGMENT UNIT TEST
+	 * Bulk package longer than chunk is written as FRAGMENT packages that give it back joined,
+	 * control package waits for one chunk only
+	 */
+	@Test
+	public void FragmentTest() throws Exception {
+		GatedStream stream = new GatedStream();
+		ClientChannel channel = new ClientChannel(stream);
+		CountDownLatch written = new CountDownLatch(2);
+		Outbox outbox = new Outbox(channel, encoded -> written.countDown(), 16, 64);
+		String text = new String(new char[300]).replace('\0', 'x');
+		int length = TestPackages.encode(text).length();
+		stream.armed = true;
+		outbox.offer("alice", TestPackages.encode(text), false, true, () -> {});
+		assertTrue("Writer not started", stream.blocked.await(5, TimeUnit.SECONDS));
+		outbox.offer("carol", TestPackages.encode("control"), true, true, () -> {});
+		stream.open.countDown();
+		assertTrue("Packages not written", written.await(5, TimeUnit.SECONDS));
+
+		List<DataPackage> packages = TestPackages.read(stream.written());
+		assertEquals("Wrong number of packages", (length + 63) / 64 + 1, packages.size());
+		assertEquals("Control package waited for more than one chunk", "control", packages.get(1).getAdministrationMsg());
+		ByteArrayOutputStream joined = new ByteArrayOutputStream();
+		/** Stream header written by every ObjectOutputStream, encoded package has none */
+		joined.write(new byte[] { (byte) 0xac, (byte) 0xed, 0, 5 });
+		for (DataPackage dp : packages) {
+			if (dp.getHeader() != Header.FRAGMENT)
+				continue;
+			assertEquals("Wrong fragment header", "<1><" + length + ">", dp.getAdministrationMsg());
+			assertTrue("Fragment longer than chunk", dp.getEncryptedMsg().length <= 64);
+			joined.write(dp.getEncryptedMsg());
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(joined.toByteArray()))) {
+			assertEquals("Joined fragments differ", text, ((DataPackage) in.readObject()).getAdministrationMsg());
+		}
+		System.out.println("Outbox fragment test succeed.");
+	}
+
+	/*
+	 * OUTBOX FAILURE UNIT TEST
+	 * Broken connection gives back every waiting package to its sender exactly once, sender
+	 * waiting for place is woken up and later packages are refused
+	 */
+	@Test
+	public void FailureTest() throws Exception {
+		GatedStream stream = new GatedStream();
+		ClientChannel channel = new ClientChannel(stream);
+		Outbox outbox = new Outbox(channel, encoded -> {}, 2, 1 << 16);
+		stream.armed = true;
+		stream.fail = true;
+		List<AtomicInteger> failures = new ArrayList<>();
+		CountDownLatch allFailed = new CountDownLatch(5);
+		for (String sender : new String[] { "alice", "alice", "alice", "bob" }) {
+			AtomicInteger count = new AtomicInteger();
+			failures.add(count);
+			outbox.offer(sender, TestPackages.encode(sender), false, true, () -> {
+				count.incrementAndGet();
+				allFailed.countDown();
+			});
+			if (failures.size() == 1)
+				assertTrue("Writer not started", stream.blocked.await(5, TimeUnit.SECONDS));
+		}
+		AtomicInteger control = new AtomicInteger();
+		failures.add(control);
+		outbox.offer("carol", TestPackages.encode("control"), true, true, () -> {
+			control.incrementAndGet();
+			allFailed.countDown();
+		});
+
+		/** Queue of alice is full, her next package waits */
+		AtomicBoolean accepted = new AtomicBoolean(true);
+		Thread waiting = new Thread(() -> {
+			try {
+				accepted.set(outbox.offer("alice", TestPackages.encode("alice"), false, true, () -> {
+					throw new AssertionError("Refused package given back");
+				}));
+			} catch (InterruptedException | IOException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiting.start();
+		stream.open.countDown();
+		assertTrue("Packages not given back", allFailed.await(5, TimeUnit.SECONDS));
+		waiting.join(5000);
+		assertFalse("Sender waiting for place not woken up", waiting.isAlive());
+		assertFalse("Package accepted after failure", accepted.get());
+		assertFalse("Control package accepted after failure", outbox.offerControl(TestPackages.encode("late")));
+		Thread.sleep(100);
+		for (int i = 0; i < failures.size(); i++)
+			assertEquals("Package " + i + " given back wrong number of times", 1, failures.get(i).get());
+		System.out.println("Outbox failure test succeed.");
+	}
+
+	private static List<String> texts(List<DataPackage> packages) {
+		List<String> texts = new ArrayList<>();
+		for (DataPackage dp : packages)
+			texts.add(dp.getAdministrationMsg());
+		return texts;
+	}
+
+	/**
+	 * Socket stream of client that stops first write after it is armed until it is opened,
+	 * then writes to memory or fails
+	 */
+	private static final class GatedStream extends OutputStream {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch open = new CountDownLatch(1);
+		private volatile boolean armed;
+		private volatile boolean fail;
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (armed) {
+				blocked.countDown();
+				try {
+					open.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				if (fail)
+					throw new IOException("Connection broken");
+			}
+			synchronized (bytes) {
+				bytes.write(b, off, len);
+			}
+		}
+
+		byte[] written() {
+			synchronized (bytes) {
+				return bytes.toByteArray();
+			}
+		}
+	}
+}
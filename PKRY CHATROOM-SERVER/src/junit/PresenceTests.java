@@ -0,0 +1,119 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import server.Presence;
+import server.Roster;
+
+/**
+ * JUnitTests , Unit test for presence of connected users and roster snapshots
+ */
+public class PresenceTests {
+
+	/*
+	 * ROSTER UNIT TEST
+	 * Adding and removing user gives sorted copy with next version, old snapshot stays the same,
+	 * no change gives the same roster
+	 */
+	@Test
+	public void RosterTest() throws Exception {
+		Roster roster = Roster.EMPTY.with("carol").with("alice").with("erin");
+		assertEquals("Wrong version", 3L, roster.getVersion());
+		assertEquals("Users not sorted", Arrays.asList("alice", "carol", "erin"), roster.users(new Presence.Page(0, 10)));
+		assertTrue("Adding present user changed roster", roster.with("carol") == roster);
+		assertTrue("Removing absent user changed roster", roster.without("bob") == roster);
+		assertEquals("Wrong position of absent user", 1, roster.position("bob"));
+
+		Roster added = roster.with("bob");
+		assertEquals("Wrong version", 4L, added.getVersion());
+		assertEquals("Wrong position", 1, added.position("bob"));
+		assertEquals("Snapshot changed", Arrays.asList("alice", "carol", "erin"), roster.users(new Presence.Page(0, 10)));
+
+		Roster removed = added.without("alice").without("erin");
+		assertEquals("Wrong version", 6L, removed.getVersion());
+		assertEquals("Wrong users", Arrays.asList("bob", "carol"), removed.users(new Presence.Page(0, 10)));
+		assertFalse("Removed user present", removed.contains("alice"));
+		assertEquals("Page after last user not empty", Collections.emptyList(), removed.users(new Presence.Page(2, 5)));
+		assertEquals("Wrong page", Arrays.asList("carol"), removed.users(new Presence.Page(1, 5)));
+
+		assertTrue("Page encoded again", removed.encodedPage(new Presence.Page(0, 2)) == removed.encodedPage(new Presence.Page(0, 2)));
+		assertEquals("Wrong encoded page", "<clients><6><0><bob><carol>",
+				TestPackages.texts(Collections.singletonList(removed.encodedPage(new Presence.Page(0, 2)))).get(0));
+		System.out.println("Roster test succeed.");
+	}
+
+	/*
+	 * PRESENCE CHANGE UNIT TEST
+	 * Join or leave of user is told to his subscribers and to pages ending after his position,
+	 * pages before him are not changed
+	 */
+	@Test
+	public void ChangeTest() throws Exception {
+		Presence presence = new Presence();
+		for (String user : new String[] { "b", "d", "f", "h", "j" })
+			presence.online(user);
+		/** "e" joins at position 2, page [0,2) ends just before him and is not changed */
+		presence.subscribeDirectory("p0", new Presence.Page(0, 2));
+		presence.subscribeDirectory("p2", new Presence.Page(2, 2));
+		presence.subscribeDirectory("q2", new Presence.Page(2, 2));
+		presence.subscribeDirectory("p4", new Presence.Page(4, 2));
+		presence.subscribeDirectory("p1", new Presence.Page(1, 2));
+		presence.subscribeUser("w", "e");
+
+		Presence.Change change = presence.online("e");
+		assertEquals("Wrong roster", 6L, change.getRoster().getVersion());
+		assertEquals("Wrong subscribers", Collections.singleton("w"), change.getSubscribers());
+		Map<Presence.Page, Set<String>> expected = new HashMap<>();
+		expected.put(new Presence.Page(1, 2), Collections.singleton("p1"));
+		expected.put(new Presence.Page(2, 2), new HashSet<>(Arrays.asList("p2", "q2")));
+		expected.put(new Presence.Page(4, 2), Collections.singleton("p4"));
+		assertEquals("Wrong changed pages", expected, change.getPages());
+		assertTrue("Second join of user changed pages", presence.online("e").getPages().isEmpty());
+		assertEquals("Second join of user changed roster", 6L, presence.getRoster().getVersion());
+
+		/** Leave of first user changes every page, moving clients see their new page only */
+		presence.subscribeDirectory("p2", new Presence.Page(0, 2));
+		change = presence.offline("b");
+		expected.clear();
+		expected.put(new Presence.Page(0, 2), new HashSet<>(Arrays.asList("p0", "p2")));
+		expected.put(new Presence.Page(1, 2), Collections.singleton("p1"));
+		expected.put(new Presence.Page(2, 2), Collections.singleton("q2"));
+		expected.put(new Presence.Page(4, 2), Collections.singleton("p4"));
+		assertEquals("Wrong changed pages", expected, change.getPages());
+
+		/** Leaving client loses his subscriptions */
+		presence.offline("w");
+		assertEquals("Subscription of offline client kept", Collections.emptySet(), presence.offline("e").getSubscribers());
+		presence.offline("q2");
+		assertFalse("Page of offline client kept", presence.online("a").getPages().containsValue(Collections.singleton("q2")));
+		System.out.println("Presence change test succeed.");
+	}
+
+	/*
+	 * PRESENCE SENT VERSION UNIT TEST
+	 * Page is sent once per roster version, new page of client is sent again
+	 */
+	@Test
+	public void MarkSentTest() throws Exception {
+		Presence presence = new Presence();
+		presence.subscribeDirectory("c", new Presence.Page(0, 5));
+		assertTrue("First page not sent", presence.markSent("c", 3));
+		assertFalse("Same version sent again", presence.markSent("c", 3));
+		assertFalse("Older version sent", presence.markSent("c", 2));
+		assertTrue("Newer version not sent", presence.markSent("c", 4));
+		presence.subscribeDirectory("c", new Presence.Page(5, 5));
+		assertTrue("New page not sent", presence.markSent("c", 4));
+		System.out.println("Presence sent version test succeed.");
+	}
+}
@@ -0,0 +1,104 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import server.EncodedPackage;
+import server.RecentFrames;
+
+/**
+ * JUnitTests , Unit test for last packages relayed to users, given again after reconnection
+ */
+public class RecentFramesTests {
+
+	/*
+	 * RING WRAP-AROUND UNIT TEST
+	 * Packages written again from start of ring drop the oldest ones, kept ones are read back unchanged
+	 */
+	@Test
+	public void WrapAroundTest() throws IOException {
+		int length = TestPackages.encode("message 10").length();
+		RecentFrames frames = new RecentFrames(16, 3 * length + length / 2, 1 << 20);
+		for (int i = 10; i < 20; i++)
+			frames.append("bob", TestPackages.encode("message " + i));
+		long[] position = frames.position("bob");
+		assertEquals("Wrong number of the last package", 10, position[1]);
+		assertNull("Dropped package given", frames.after("bob", position[0], 6));
+		assertEquals("Wrong packages after wrap-around", Arrays.asList("message 17", "message 18", "message 19"),
+				texts(frames.after("bob", position[0], 7)));
+		assertEquals("Packages given to client that has all of them", 0, frames.after("bob", position[0], 10).size());
+		assertNull("Package not relayed yet given", frames.after("bob", position[0], 11));
+
+		/** Ring of the same size but fewer frames - number of frames limits kept packages */
+		frames = new RecentFrames(2, 1 << 16, 1 << 20);
+		for (int i = 10; i < 20; i++)
+			frames.append("bob", TestPackages.encode("message " + i));
+		position = frames.position("bob");
+		assertNull("Package over frame limit given", frames.after("bob", position[0], 7));
+		assertEquals("Wrong packages over frame limit", Arrays.asList("message 18", "message 19"),
+				texts(frames.after("bob", position[0], 8)));
+		System.out.println("Ring wrap-around test succeed.");
+	}
+
+	/*
+	 * OVERSIZED FRAME UNIT TEST
+	 * Package longer than ring is counted but not kept, client that has got it can go on after it
+	 */
+	@Test
+	public void OversizedFrameTest() throws IOException {
+		int length = TestPackages.encode("message 1").length();
+		RecentFrames frames = new RecentFrames(16, 2 * length + 8, 1 << 20);
+		frames.append("bob", TestPackages.encode("message 1"));
+		frames.append("bob", TestPackages.encode(new String(new char[4 * length]).replace('\0', 'x')));
+		frames.append("bob", TestPackages.encode("message 3"));
+		long[] position = frames.position("bob");
+		assertEquals("Oversized package not counted", 3, position[1]);
+		assertNull("Packages before oversized one given without it", frames.after("bob", position[0], 0));
+		assertNull("Oversized package given", frames.after("bob", position[0], 1));
+		assertEquals("Wrong packages after oversized one", Arrays.asList("message 3"),
+				texts(frames.after("bob", position[0], 2)));
+		System.out.println("Oversized frame test succeed.");
+	}
+
+	/*
+	 * RING EVICTION UNIT TEST
+	 * Ring of least recently used user is taken for new user, ring made again for him has new
+	 * generation and old numbers are not resynced
+	 */
+	@Test
+	public void EvictionTest() throws IOException {
+		RecentFrames frames = new RecentFrames(16, 1 << 12, 2 << 12);
+		frames.append("alice", TestPackages.encode("to alice 1"));
+		frames.append("bob", TestPackages.encode("to bob 1"));
+		long[] bob = frames.position("bob");
+		frames.append("alice", TestPackages.encode("to alice 2"));
+		long[] alice = frames.position("alice");
+		frames.append("carol", TestPackages.encode("to carol 1"));
+		assertEquals("Wrong number of rings", 2, frames.rings());
+		assertEquals("Ring of recently used user evicted", Arrays.asList("to alice 2"),
+				texts(frames.after("alice", alice[0], 1)));
+		assertNull("Evicted ring resynced", frames.after("bob", bob[0], 0));
+
+		long[] again = frames.position("bob");
+		assertTrue("Ring made again has old generation", again[0] > bob[0] && again[0] > alice[0]);
+		assertEquals("Ring made again has old numbers", 0, again[1]);
+		assertNull("Old generation resynced with new ring", frames.after("bob", bob[0], 0));
+		frames.append("bob", TestPackages.encode("to bob 2"));
+		assertEquals("Wrong packages of new generation", Arrays.asList("to bob 2"), texts(frames.after("bob", again[0], 0)));
+		assertEquals("Wrong number of rings after eviction", 2, frames.rings());
+		System.out.println("Ring eviction test succeed.");
+	}
+
+	private static List<String> texts(List<EncodedPackage> packages) throws IOException {
+		assertTrue("Packages not kept", packages != null);
+		return TestPackages.texts(new ArrayList<>(packages));
+	}
+}
@@ -0,0 +1,97 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import server.Rooms;
+
+/**
+ * JUnitTests , Unit test for chat rooms of server
+ */
+public class RoomsTests {
+
+	/*
+	 * ROOMS CREATE AND JOIN UNIT TEST
+	 * Room is created once with its creator, users join existing room once, members are kept
+	 * in order of joining and given set is a snapshot
+	 */
+	@Test
+	public void CreateAndJoinTest() {
+		Rooms rooms = new Rooms();
+		assertTrue("Room not created", rooms.create("java", "alice"));
+		assertFalse("Existing room created again", rooms.create("java", "bob"));
+		assertFalse("User joined missing room", rooms.join("rust", "bob"));
+		assertTrue("User not joined", rooms.join("java", "bob"));
+		assertFalse("Member joined again", rooms.join("java", "bob"));
+		assertFalse("Creator joined again", rooms.join("java", "alice"));
+
+		Set<String> snapshot = rooms.members("java");
+		assertTrue("User not joined", rooms.join("java", "carol"));
+		assertEquals("Wrong members", Arrays.asList("alice", "bob", "carol"), new ArrayList<>(rooms.members("java")));
+		assertEquals("Snapshot of members changed", Arrays.asList("alice", "bob"), new ArrayList<>(snapshot));
+		try {
+			snapshot.add("mallory");
+			assertTrue("Members changed from outside", false);
+		} catch (UnsupportedOperationException e) {
+			/** Expected */
+		}
+		assertEquals("Missing room has members", Collections.emptySet(), rooms.members("rust"));
+		System.out.println("Rooms create and join test succeed.");
+	}
+
+	/*
+	 * ROOMS LEAVE UNIT TEST
+	 * Leaving member is removed, room without members is removed and can be created again
+	 */
+	@Test
+	public void LeaveTest() {
+		Rooms rooms = new Rooms();
+		rooms.create("java", "alice");
+		rooms.join("java", "bob");
+		assertFalse("Stranger left room", rooms.leave("java", "carol"));
+		assertFalse("User left missing room", rooms.leave("rust", "alice"));
+		assertTrue("Member not left", rooms.leave("java", "alice"));
+		assertFalse("Member left twice", rooms.leave("java", "alice"));
+		assertEquals("Wrong members", Collections.singleton("bob"), rooms.members("java"));
+
+		assertTrue("Last member not left", rooms.leave("java", "bob"));
+		assertEquals("Empty room has members", Collections.emptySet(), rooms.members("java"));
+		assertFalse("User joined empty room", rooms.join("java", "carol"));
+		assertTrue("Empty room not removed", rooms.create("java", "carol"));
+		assertEquals("Wrong members of new room", Collections.singleton("carol"), rooms.members("java"));
+		System.out.println("Rooms leave test succeed.");
+	}
+
+	/*
+	 * ROOMS LEAVE ALL UNIT TEST
+	 * Disconnected user leaves every room he is member of, rooms left empty are removed,
+	 * other rooms keep their members
+	 */
+	@Test
+	public void LeaveAllTest() {
+		Rooms rooms = new Rooms();
+		rooms.create("java", "alice");
+		rooms.create("rust", "bob");
+		rooms.join("rust", "alice");
+		rooms.create("go", "bob");
+		rooms.create("c", "alice");
+		rooms.leave("c", "alice");
+
+		assertEquals("Wrong rooms left", Arrays.asList("java", "rust"), rooms.leaveAll("alice"));
+		assertEquals("Room left empty not removed", Collections.emptySet(), rooms.members("java"));
+		assertTrue("Room left empty not removed", rooms.create("java", "carol"));
+		assertEquals("Wrong members", Collections.singleton("bob"), rooms.members("rust"));
+		assertEquals("Room of other user changed", Collections.singleton("bob"), rooms.members("go"));
+		assertEquals("User without rooms left some", Collections.emptyList(), rooms.leaveAll("alice"));
+		assertEquals("Wrong rooms left", Arrays.asList("rust", "go"), rooms.leaveAll("bob"));
+		System.out.println("Rooms leave all test succeed.");
+	}
+}
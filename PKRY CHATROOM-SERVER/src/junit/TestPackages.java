@@ -0,0 +1,67 @@
+package junit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import protocol.DataPackage;
+import protocol.Header;
+import server.ClientChannel;
+import server.EncodedPackage;
+
+/**
+ * Packages of server tests - encoded with text as administration message and read back like
+ * client reads them
+ */
+final class TestPackages {
+
+	private TestPackages() {
+	}
+
+	/**
+	 * @param text administration message of package
+	 * @return encoded MSG package
+	 */
+	static EncodedPackage encode(String text) throws IOException {
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("alice");
+		dp.setHeader(Header.MSG);
+		dp.setAdministrationMsg(text);
+		return EncodedPackage.encode(dp);
+	}
+
+	/**
+	 * @param bytes bytes written to client channel
+	 * @return all packages in stream
+	 */
+	static List<DataPackage> read(byte[] bytes) throws IOException {
+		List<DataPackage> packages = new ArrayList<>();
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			while (true)
+				packages.add((DataPackage) in.readObject());
+		} catch (EOFException e) {
+			return packages;
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @param packages encoded packages
+	 * @return administration messages of packages in order
+	 */
+	static List<String> texts(List<EncodedPackage> packages) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ClientChannel channel = new ClientChannel(bytes);
+		for (EncodedPackage encoded : packages)
+			channel.write(encoded);
+		List<String> texts = new ArrayList<>();
+		for (DataPackage dp : read(bytes.toByteArray()))
+			texts.add(dp.getAdministrationMsg());
+		return texts;
+	}
+}
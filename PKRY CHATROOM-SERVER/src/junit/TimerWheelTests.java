@@ -0,0 +1,115 @@
+package junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import server.TimerWheel;
+
+/**
+ * JUnitTests , Unit test for timer wheel of connection timeouts
+ */
+public class TimerWheelTests {
+	/** Small wheel, one turn takes 80 ms */
+	private static final int TICK = 10;
+	private static final int SLOTS = 8;
+
+	/*
+	 * TIMER WHEEL WRAP-AROUND UNIT TEST
+	 * Timeouts scheduled after wheel has passed its last slot land in slots from its start
+	 * and are run in order, never before their delay
+	 */
+	@Test
+	public void WrapAroundTest() throws Exception {
+		TimerWheel wheel = new TimerWheel(TICK, TimeUnit.MILLISECONDS, SLOTS);
+		try {
+			/** Wheel is in its second turn */
+			Thread.sleep(TICK * SLOTS + 3 * TICK);
+			List<String> order = Collections.synchronizedList(new ArrayList<>());
+			CountDownLatch done = new CountDownLatch(3);
+			long scheduled = System.nanoTime();
+			for (int delay : new int[] { 7 * TICK, 3 * TICK, 5 * TICK }) {
+				wheel.schedule(() -> {
+					long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled);
+					order.add(elapsed >= delay ? "after " + delay : "early " + delay);
+					done.countDown();
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+			assertTrue("Timeouts not run", done.await(2, TimeUnit.SECONDS));
+			assertEquals("Wrong order or early timeouts",
+					Arrays.asList("after " + 3 * TICK, "after " + 5 * TICK, "after " + 7 * TICK), order);
+		} finally {
+			wheel.stop();
+		}
+		System.out.println("Timer wheel wrap-around test succeed.");
+	}
+
+	/*
+	 * TIMER WHEEL ROUNDS UNIT TEST
+	 * Timeout more than one turn away shares slot with nearer ones and waits for its rounds
+	 */
+	@Test
+	public void RoundsTest() throws Exception {
+		TimerWheel wheel = new TimerWheel(TICK, TimeUnit.MILLISECONDS, SLOTS);
+		try {
+			CountDownLatch near = new CountDownLatch(1);
+			CountDownLatch far = new CountDownLatch(1);
+			long scheduled = System.nanoTime();
+			long[] elapsed = new long[1];
+			/** Same slot, three turns apart */
+			wheel.schedule(near::countDown, 2 * TICK, TimeUnit.MILLISECONDS);
+			wheel.schedule(() -> {
+				elapsed[0] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scheduled);
+				far.countDown();
+			}, 2 * TICK + 3 * SLOTS * TICK, TimeUnit.MILLISECONDS);
+			assertTrue("Near timeout not run", near.await(2, TimeUnit.SECONDS));
+			assertFalse("Far timeout run in first turn", far.await(2 * SLOTS * TICK, TimeUnit.MILLISECONDS));
+			assertTrue("Far timeout not run", far.await(2, TimeUnit.SECONDS));
+			assertTrue("Far timeout run early: " + elapsed[0] + " ms", elapsed[0] >= 2 * TICK + 3 * SLOTS * TICK);
+		} finally {
+			wheel.stop();
+		}
+		System.out.println("Timer wheel rounds test succeed.");
+	}
+
+	/*
+	 * TIMER WHEEL CANCEL UNIT TEST
+	 * Cancelled timeout is not run, both while it waits for wheel thread and when it is
+	 * already in its slot, its neighbours in slot still are
+	 */
+	@Test
+	public void CancelTest() throws Exception {
+		TimerWheel wheel = new TimerWheel(TICK, TimeUnit.MILLISECONDS, SLOTS);
+		try {
+			AtomicBoolean cancelledRun = new AtomicBoolean();
+			CountDownLatch done = new CountDownLatch(2);
+			TimerWheel.Timeout waiting = wheel.schedule(() -> cancelledRun.set(true), 4 * TICK, TimeUnit.MILLISECONDS);
+			TimerWheel.Timeout inSlot = wheel.schedule(() -> cancelledRun.set(true), 4 * TICK, TimeUnit.MILLISECONDS);
+			wheel.schedule(done::countDown, 4 * TICK, TimeUnit.MILLISECONDS);
+			waiting.cancel();
+			/** Wheel thread has moved the rest to their slot */
+			Thread.sleep(2 * TICK);
+			inSlot.cancel();
+			wheel.schedule(() -> {
+				throw new IllegalStateException("Failing task");
+			}, 5 * TICK, TimeUnit.MILLISECONDS);
+			wheel.schedule(done::countDown, 5 * TICK, TimeUnit.MILLISECONDS);
+			assertTrue("Timeouts not run", done.await(2, TimeUnit.SECONDS));
+			assertTrue("Timeout not cancelled", waiting.isCancelled() && inSlot.isCancelled());
+			assertFalse("Cancelled timeout run", cancelledRun.get());
+		} finally {
+			wheel.stop();
+		}
+		System.out.println("Timer wheel cancel test succeed.");
+	}
+}
@@ -1,12 +1,36 @@
 package protocol;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Data package that is sending through TCP Sockets connection. Client fills 'fromUserName' and
  * 'toUserName' parameters to give a information to the server where it
  * should send it. Header contains information about what is current stage of connection.
- * AdministrationMsg is used to sending public keys and list of users from server. 
+ * AdministrationMsg is used to sending list of users and presence from server and
+ * subscriptions of clients, HandshakeMsg carries binary fields of key agreement and
+ * session resumption.
+ * KeyEpoch tells which key of conversation has encrypted message, it grows with every rekey. 
+ * RecipientKeys of MULTICAST message hold content key of payload wrapped for every receiver.
+ * Sequence is number of MSG in conversation (0 for package without number) and acknowledged
+ * is number of the last MSG of other user got in order. ACK carries only acknowledged, or
+ * number of the last sent MSG in sequence when sender with full window asks for answer.
+ * Compressed tells that message was compressed before encryption, receiver decompresses it
+ * after decryption.
+ * HEARTBEAT is sent by idle client and answered by server, it carries nothing.
+ * FRAGMENT is part of long package written by server, administrationMsg is "<number><length>"
+ * of whole package and encryptedMsg holds next bytes of its serialized form.
+ * FILE_OFFER starts file transfer, administrationMsg is "<transfer><length><name>" and
+ * recipientKeys hold wrapped content key of file. FILE_CHUNK carries "<transfer><position>"
+ * and encrypted bytes of file from that position. FILE_ACK answers with "<transfer><position>"
+ * of bytes written by receiver, "<transfer><position><resume>" asks sender to go on from that
+ * position and position -1 cancels transfer.
+ * ATTACHMENT_PUT uploads encrypted file to store of server in chunks "<upload><position><length>",
+ * server answers "<upload><hash>" when the whole file is stored and "<upload>" when upload has
+ * failed. ATTACHMENT gives "<hash><length><name>" of stored file to receivers, recipientKeys
+ * hold its wrapped content key. ATTACHMENT_GET "<hash>" is the only package of connection to
+ * attachment port of server, server answers with length and bytes of file, not with packages.
+ * Packages with ROOM_ headers have name of room in 'toUserName'.
  */
 public class DataPackage implements Serializable {
 
@@ -18,6 +42,12 @@ public class DataPackage implements Serializable {
 	private Header header;
 	private String administrationMsg;
 	private byte[] encryptedByteMsg;
+	private byte[] handshakeMsg;
+	private int keyEpoch;
+	private List<KeyWrap> recipientKeys;
+	private long sequence;
+	private long acknowledged;
+	private boolean compressed;
 
 	public String getFromUserName() {
 		return fromUserName;
@@ -51,6 +81,54 @@ public class DataPackage implements Serializable {
 		this.encryptedByteMsg = msg;
 	}
 
+	public byte[] getHandshakeMsg() {
+		return handshakeMsg;
+	}
+
+	public void setHandshakeMsg(byte[] handshakeMsg) {
+		this.handshakeMsg = handshakeMsg;
+	}
+
+	public int getKeyEpoch() {
+		return keyEpoch;
+	}
+
+	public void setKeyEpoch(int keyEpoch) {
+		this.keyEpoch = keyEpoch;
+	}
+
+	public List<KeyWrap> getRecipientKeys() {
+		return recipientKeys;
+	}
+
+	public void setRecipientKeys(List<KeyWrap> recipientKeys) {
+		this.recipientKeys = recipientKeys;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public long getAcknowledged() {
+		return acknowledged;
+	}
+
+	public void setAcknowledged(long acknowledged) {
+		this.acknowledged = acknowledged;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
 	public Header getHeader() {
 		return header;
 	}
@@ -6,5 +6,8 @@ package protocol;
  */
 public enum Header 
 {
-	ID_SENDING, CLIENTS_LIST, INIT, BACKWARD_INIT, DESTROY, MSG, SIGNATURE_ENDING
+	ID_SENDING, CLIENTS_LIST, INIT, BACKWARD_INIT, DESTROY, MSG, RESUME, BACKWARD_RESUME, REKEY, BACKWARD_REKEY, REKEY_CONFIRM, MULTICAST,
+	ROOM_CREATE, ROOM_JOIN, ROOM_LEAVE, ROOM_MEMBERS, ROOM_MSG,
+	SUBSCRIBE, UNSUBSCRIBE, PRESENCE, RESYNC, ACK, HEARTBEAT, FRAGMENT,
+	FILE_OFFER, FILE_CHUNK, FILE_ACK, ATTACHMENT_PUT, ATTACHMENT, ATTACHMENT_GET
 }
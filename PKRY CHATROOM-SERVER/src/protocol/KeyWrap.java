@@ -0,0 +1,36 @@
+package protocol;
+
+import java.io.Serializable;
+
+/**
+ * Content key of multicast message wrapped for one receiver. Sender puts one KeyWrap for
+ * every receiver into DataPackage with MULTICAST header, server passes payload to each
+ * receiver only with its own KeyWrap. KeyEpoch tells which key of conversation has
+ * wrapped the content key.
+ */
+public class KeyWrap implements Serializable {
+
+	private static final long serialVersionUID = -3189530474205537187L;
+
+	private final String recipient;
+	private final int keyEpoch;
+	private final byte[] wrappedKey;
+
+	public KeyWrap(String recipient, int keyEpoch, byte[] wrappedKey) {
+		this.recipient = recipient;
+		this.keyEpoch = keyEpoch;
+		this.wrappedKey = wrappedKey;
+	}
+
+	public String getRecipient() {
+		return recipient;
+	}
+
+	public int getKeyEpoch() {
+		return keyEpoch;
+	}
+
+	public byte[] getWrappedKey() {
+		return wrappedKey;
+	}
+}
@@ -0,0 +1,103 @@
+package server;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+import javax.swing.JTextArea;
+
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Listener of attachment port. Client opens connection for every download and sends one
+ * ATTACHMENT_GET "<hash>" package, server answers with length of file as 8 bytes, -1 when
+ * file is not stored or was not given to that user, and then bytes of file, written by
+ * FileChannel.transferTo from page cache straight to socket channel without buffers in heap.
+ * Connection is closed after file. Chat connections stay on socket streams, only this port
+ * uses channels.
+ */
+public class AttachmentServer implements Runnable {
+	/** Port of downloads */
+	public static final int PORT = 6665;
+	/** Time of waiting for request in milliseconds */
+	private static final int REQUEST_TIMEOUT = 10_000;
+
+	private final ServerSocketChannel server;
+	private final AttachmentStore store;
+	/** Handler to logs area in GUI */
+	private final JTextArea logTextArea;
+
+	/**
+	 * Constructor
+	 * @param server bound channel of attachment port
+	 * @param store stored attachments
+	 * @param logTextArea logs area in GUI
+	 */
+	public AttachmentServer(ServerSocketChannel server, AttachmentStore store, JTextArea logTextArea) {
+		this.server = server;
+		this.store = store;
+		this.logTextArea = logTextArea;
+	}
+
+	/** Accepting downloads, every one is served by its own thread */
+	public void run() {
+		while (server.isOpen()) {
+			SocketChannel connection;
+			try {
+				connection = server.accept();
+			} catch (IOException ex) {
+				addToLog(ex.getMessage() + "---> Accepting download failed");
+				continue;
+			}
+			new Thread(() -> serve(connection), "attachment-download").start();
+		}
+	}
+
+	private void serve(SocketChannel connection) {
+		String user = null;
+		String hash = null;
+		try (SocketChannel channel = connection) {
+			/** Only the request is read through stream, socket input stream keeps read timeout */
+			channel.socket().setSoTimeout(REQUEST_TIMEOUT);
+			DataPackage request = (DataPackage) new ObjectInputStream(channel.socket().getInputStream()).readObject();
+			String[] splitted = request.getAdministrationMsg() == null ? new String[0]
+					: request.getAdministrationMsg().split("[<>]+");
+			if (request.getHeader() != Header.ATTACHMENT_GET || splitted.length != 2)
+				throw new IOException("Wrong download request " + request.getHeader());
+			user = request.getFromUserName();
+			hash = splitted[1];
+			try (FileChannel file = store.open(hash, user)) {
+				long length = file != null ? file.size() : -1;
+				ByteBuffer header = ByteBuffer.allocate(8).putLong(length);
+				header.flip();
+				while (header.hasRemaining())
+					channel.write(header);
+				if (file == null) {
+					ServerMetrics.increment("attachment.unknown");
+					return;
+				}
+				for (long sent = 0; sent < length;)
+					sent += file.transferTo(sent, length - sent, channel);
+				ServerMetrics.increment("attachment.served");
+				ServerMetrics.add("attachment.servedBytes", length);
+			}
+			store.release(hash, user);
+		} catch (IOException | ClassNotFoundException | ClassCastException ex) {
+			addToLog(ex.getMessage() + "---> Download of " + hash + " by " + user + " failed");
+		}
+	}
+
+	private void addToLog(String msg) {
+		DateFormat dateFormat = new SimpleDateFormat("#yyyy/MM/dd HH:mm:ss#");
+		Calendar cal = Calendar.getInstance();
+
+		logTextArea.append(dateFormat.format(cal.getTime()) + ": " + msg + "\n");
+	}
+}
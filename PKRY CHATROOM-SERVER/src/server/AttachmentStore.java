@@ -0,0 +1,264 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed store of encrypted attachments. File uploaded once is kept under SHA-256
+ * of its bytes - the same bytes uploaded again are stored once - and receivers download it
+ * from {@link AttachmentServer}, which writes it to socket by FileChannel.transferTo, so bytes
+ * of file never come to heap of server. Every receiver the file is given to holds reference
+ * to it, his download releases it and file is deleted with its last reference. Only uploaders
+ * of file and users it was given to may give it to others, knowing hash is not enough. Files
+ * that are not downloaded are deleted after time to live. Files found in directory after
+ * restart have no known receivers, they are downloaded by anyone who knows their hash until
+ * time to live ends, and they are shared again only after one more upload.
+ */
+public class AttachmentStore {
+	/** Default time to live of stored file - 3 days */
+	public static final long DEFAULT_TTL_MILLIS = 3L * 24 * 60 * 60 * 1000;
+	/** Default max length of one file - 4 GiB */
+	public static final long DEFAULT_MAX_LENGTH = 4L << 30;
+
+	/** Suffix of files that are being uploaded, they are deleted on start */
+	private static final String UPLOAD_SUFFIX = ".upload";
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File directory;
+	private final long timeToLive;
+	private final long maxLength;
+	/** Hash - stored file */
+	private final Map<String, Stored> files = new HashMap<>();
+
+	/**
+	 * Opening store and taking files stored before restart
+	 * @param directory directory of files, created if missing
+	 * @param timeToLiveMillis time after which file is deleted also when it has references
+	 * @param maxLength max length of one file in bytes
+	 * @throws IOException when directory can not be created
+	 */
+	public AttachmentStore(File directory, long timeToLiveMillis, long maxLength) throws IOException {
+		this.directory = directory;
+		this.timeToLive = timeToLiveMillis;
+		this.maxLength = maxLength;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can not create " + directory);
+		File[] found = directory.listFiles();
+		for (File file : found != null ? found : new File[0]) {
+			if (file.getName().endsWith(UPLOAD_SUFFIX))
+				file.delete();
+			else if (file.getName().matches("[0-9a-f]{64}"))
+				files.put(file.getName(), new Stored(file, file.lastModified() + timeToLive, true));
+		}
+	}
+
+	/**
+	 * Starting upload of file
+	 * @param length length of whole file in bytes
+	 * @param uploader nickname of uploading user
+	 * @return upload that gets bytes of file in order
+	 * @throws IOException when length is over limit or file can not be created
+	 */
+	public Upload begin(long length, String uploader) throws IOException {
+		if (length < 0 || length > maxLength)
+			throw new IOException("Attachment of " + length + " bytes, limit is " + maxLength);
+		return new Upload(File.createTempFile("attachment", UPLOAD_SUFFIX, directory), length, uploader);
+	}
+
+	/**
+	 * Giving stored file to receiver
+	 * @param hash hash of file
+	 * @param receiver nickname of user that may download file
+	 * @param sharer nickname of user giving file, its uploader or one of its receivers
+	 * @return false if file is not stored or sharer may not give it
+	 */
+	public synchronized boolean reference(String hash, String receiver, String sharer) {
+		Stored stored = files.get(hash);
+		if (stored == null)
+			return false;
+		if (!stored.uploaders.contains(sharer) && !stored.holders.contains(sharer)) {
+			ServerMetrics.increment("attachment.refused");
+			return false;
+		}
+		stored.holders.add(receiver);
+		return true;
+	}
+
+	/**
+	 * Opening file for download
+	 * @param hash hash of file
+	 * @param user nickname of user asking for file
+	 * @return channel of file, null if file is not stored or it was not given to user
+	 * @throws IOException when file can not be opened
+	 */
+	public synchronized FileChannel open(String hash, String user) throws IOException {
+		Stored stored = files.get(hash);
+		if (stored == null || !stored.recovered && !stored.holders.contains(user))
+			return null;
+		return FileChannel.open(stored.file.toPath(), StandardOpenOption.READ);
+	}
+
+	/**
+	 * Releasing reference of user after his download, file without references is deleted.
+	 * Open channel still reads deleted file.
+	 * @param hash hash of file
+	 * @param user nickname of user that has downloaded file
+	 */
+	public synchronized void release(String hash, String user) {
+		Stored stored = files.get(hash);
+		if (stored != null && stored.holders.remove(user) && stored.holders.isEmpty() && !stored.recovered) {
+			files.remove(hash);
+			stored.file.delete();
+			ServerMetrics.increment("attachment.released");
+		}
+	}
+
+	/**
+	 * Deleting files whose time to live has ended
+	 * @return number of deleted files
+	 */
+	public synchronized int evictExpired() {
+		long now = System.currentTimeMillis();
+		int evicted = 0;
+		for (Iterator<Stored> it = files.values().iterator(); it.hasNext();) {
+			Stored stored = it.next();
+			if (stored.expires > now)
+				continue;
+			it.remove();
+			stored.file.delete();
+			evicted++;
+		}
+		ServerMetrics.add("attachment.evicted", evicted);
+		return evicted;
+	}
+
+	/** @return number of stored files */
+	public synchronized int size() {
+		return files.size();
+	}
+
+	/** Moving complete upload under its hash, upload of file stored already is deleted */
+	private synchronized void store(File upload, String hash, String uploader) throws IOException {
+		Stored known = files.get(hash);
+		if (known != null) {
+			upload.delete();
+			known.uploaders.add(uploader);
+			known.expires = Math.max(known.expires, System.currentTimeMillis() + timeToLive);
+			ServerMetrics.increment("attachment.deduplicated");
+			return;
+		}
+		File target = new File(directory, hash);
+		Files.move(upload.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		Stored stored = new Stored(target, System.currentTimeMillis() + timeToLive, false);
+		stored.uploaders.add(uploader);
+		files.put(hash, stored);
+		ServerMetrics.increment("attachment.stored");
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * File being uploaded, it gets chunks in order on reading thread of uploading client. Hash
+	 * is counted while chunks are written, so file is not read again.
+	 */
+	public class Upload {
+		private final File file;
+		private final FileChannel channel;
+		private final MessageDigest digest;
+		private final long length;
+		private final String uploader;
+		private long position;
+
+		private Upload(File file, long length, String uploader) throws IOException {
+			this.file = file;
+			this.length = length;
+			this.uploader = uploader;
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+			try {
+				this.digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				abort();
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Appending chunk
+		 * @param at position of chunk in file
+		 * @param chunk bytes of chunk
+		 * @throws IOException when chunk does not follow the last one or it can not be written
+		 */
+		public void write(long at, byte[] chunk) throws IOException {
+			if (at != position || length - position < chunk.length)
+				throw new IOException("Chunk of " + chunk.length + " bytes at " + at + " does not follow " + position
+						+ " of " + length);
+			digest.update(chunk);
+			ByteBuffer source = ByteBuffer.wrap(chunk);
+			while (source.hasRemaining())
+				channel.write(source);
+			position += chunk.length;
+		}
+
+		/** @return true if all bytes of file are written */
+		public boolean isComplete() {
+			return position == length;
+		}
+
+		/**
+		 * Storing complete file under its hash
+		 * @return hash of file
+		 * @throws IOException when file can not be moved
+		 */
+		public String finish() throws IOException {
+			channel.close();
+			String hash = hex(digest.digest());
+			store(file, hash, uploader);
+			return hash;
+		}
+
+		/** Deleting unfinished upload */
+		public void abort() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				/** File is deleted anyway */
+			}
+			file.delete();
+		}
+	}
+
+	/** Stored file, users that uploaded it and users it was given to */
+	private static final class Stored {
+		private final File file;
+		private final Set<String> uploaders = new HashSet<>();
+		private final Set<String> holders = new HashSet<>();
+		/** True for file found after restart, its receivers are not known */
+		private final boolean recovered;
+		private long expires;
+
+		Stored(File file, long expires, boolean recovered) {
+			this.file = file;
+			this.expires = expires;
+			this.recovered = recovered;
+		}
+	}
+}
@@ -5,15 +5,18 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListModel;
@@ -31,6 +34,11 @@ import javax.swing.text.DefaultCaret;
  */
 @SuppressWarnings("serial")
 public class ChatServer extends JFrame {
+	/** Default time without any package from client after which connection is closed */
+	private static final long DEFAULT_READ_TIMEOUT_SECONDS = 45;
+	/** Interval of deleting expired attachments and offline messages */
+	private static final long EVICTION_INTERVAL_MINUTES = 1;
+
 	/** Server socket with listener on 6664 port */
 	private ServerSocket server;
 
@@ -95,7 +103,39 @@ public class ChatServer extends JFrame {
 	/** Runs server listener and start new connection in new thread and listen other clients */
 	public void startServer() {
 		sysOut("---> Server start");
-		Map<String, ObjectOutputStream> clientsMap = new HashMap<>();
+		Map<String, ClientChannel> clientsMap = new ConcurrentHashMap<>();
+		Rooms rooms = new Rooms();
+		Presence presence = new Presence();
+		OfflineStore offlineStore = null;
+		try {
+			offlineStore = new OfflineStore(new File(System.getProperty("pkry.offline.dir", "offline-store")),
+					OfflineStore.DEFAULT_SEGMENT_SIZE,
+					Integer.getInteger("pkry.offline.maxPerRecipient", OfflineStore.DEFAULT_MAX_PER_RECIPIENT),
+					Long.getLong("pkry.offline.maxBytes", OfflineStore.DEFAULT_MAX_BYTES),
+					Long.getLong("pkry.offline.ttlMillis", OfflineStore.DEFAULT_TTL_MILLIS));
+		} catch (IOException ex) {
+			sysOut(ex.getMessage() + "---> Opening offline store failed, messages to disconnected clients are dropped");
+		}
+		OfflineStore store = offlineStore;
+		AttachmentStore attachmentStore = null;
+		try {
+			attachmentStore = new AttachmentStore(new File(System.getProperty("pkry.attachment.dir", "attachment-store")),
+					Long.getLong("pkry.attachment.ttlMillis", AttachmentStore.DEFAULT_TTL_MILLIS),
+					Long.getLong("pkry.attachment.maxLength", AttachmentStore.DEFAULT_MAX_LENGTH));
+		} catch (IOException ex) {
+			sysOut(ex.getMessage() + "---> Opening attachment store failed, attachments are not accepted");
+		}
+		AttachmentStore attachments = attachmentStore;
+		RecentFrames recentFrames = new RecentFrames(RecentFrames.DEFAULT_FRAMES, RecentFrames.DEFAULT_RING_BYTES,
+				RecentFrames.DEFAULT_MAX_BYTES);
+		/** Clients send heartbeat when they have nothing to send, read timeout has to be longer than its interval */
+		long readTimeout = TimeUnit.SECONDS.toMillis(Long.getLong("pkry.readTimeout", DEFAULT_READ_TIMEOUT_SECONDS));
+		TimerWheel timerWheel = new TimerWheel(500, TimeUnit.MILLISECONDS, 128);
+		StoreMaintenance maintenance = new StoreMaintenance(timerWheel);
+		if (attachments != null)
+			startAttachments(attachments, maintenance);
+		if (store != null)
+			maintenance.every(() -> evictOffline(store), EVICTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
 		boolean errorOcured = false;
 		try {
 			server = new ServerSocket(6664, 20);
@@ -116,12 +156,39 @@ public class ChatServer extends JFrame {
 							sysOut(ex.getMessage() + "---> Accepting clients failed");
 						}
 						sysOut("---> New Connection with: " + connection);
-						new Thread(new ServerThread(connection, logTextArea, listModel, clientsMap)).start();
+						new Thread(new ServerThread(connection, logTextArea, listModel, clientsMap, rooms, presence, store, attachments,
+								recentFrames, timerWheel, readTimeout)).start();
 					}
 				}
 			}).start();
 	}
 
+	/** Listening on attachment port and deleting expired attachments on maintenance thread */
+	private void startAttachments(AttachmentStore attachments, StoreMaintenance maintenance) {
+		try {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(AttachmentServer.PORT), 20);
+			new Thread(new AttachmentServer(channel, attachments, logTextArea), "attachment-server").start();
+		} catch (IOException ex) {
+			sysOut(ex.getMessage() + "---> Creating attachment socket failed, attachments can not be downloaded");
+		}
+		maintenance.every(() -> {
+			int evicted = attachments.evictExpired();
+			if (evicted > 0)
+				sysOut("---> " + evicted + " expired attachments deleted");
+		}, EVICTION_INTERVAL_MINUTES, TimeUnit.MINUTES);
+	}
+
+	private void evictOffline(OfflineStore store) {
+		try {
+			int evicted = store.evictExpired();
+			if (evicted > 0)
+				sysOut("---> " + evicted + " expired offline messages dropped");
+		} catch (IOException ex) {
+			sysOut(ex.getMessage() + "---> Dropping expired offline messages failed");
+		}
+	}
+
 	private void sysOut(String msg) {
 		DateFormat dateFormat = new SimpleDateFormat("#yyyy/MM/dd HH:mm:ss#");
 		Calendar cal = Calendar.getInstance();
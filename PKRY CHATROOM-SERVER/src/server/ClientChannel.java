@@ -0,0 +1,65 @@
+package server;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import protocol.DataPackage;
+
+/**
+ * Output of one client connection. It is written by thread of the client and by writer of its
+ * {@link Outbox}, which writes packages of other clients, so every write holds lock of the
+ * channel.
+ */
+public class ClientChannel {
+	/** Socket stream under object stream */
+	private final OutputStream rawStream;
+	/** Object stream to write */
+	private final ObjectOutputStream oOutputStream;
+	/** Fair queue of packages of other clients, set when client has given nickname */
+	private volatile Outbox outbox;
+
+	/**
+	 * Constructor, writes header of object stream
+	 * @param rawStream output stream of socket
+	 * @throws IOException when header can not be written
+	 */
+	public ClientChannel(OutputStream rawStream) throws IOException {
+		this.rawStream = rawStream;
+		this.oOutputStream = new ObjectOutputStream(rawStream);
+		oOutputStream.flush();
+	}
+
+	public Outbox getOutbox() {
+		return outbox;
+	}
+
+	public void setOutbox(Outbox outbox) {
+		this.outbox = outbox;
+	}
+
+	/**
+	 * Serializing package to client
+	 * @param dp package to write
+	 * @throws IOException when connection is broken
+	 */
+	public synchronized void write(DataPackage dp) throws IOException {
+		oOutputStream.writeObject(dp);
+		oOutputStream.flush();
+	}
+
+	/**
+	 * Writing package encoded earlier without serializing it again. Object stream is reset
+	 * before encoded bytes, so client forgets objects it could be referred to, and after them,
+	 * so objects written later do not refer to handles of the encoded package.
+	 * @param encoded encoded package
+	 * @throws IOException when connection is broken
+	 */
+	public synchronized void write(EncodedPackage encoded) throws IOException {
+		oOutputStream.reset();
+		oOutputStream.flush();
+		encoded.writeTo(rawStream);
+		oOutputStream.reset();
+		oOutputStream.flush();
+	}
+}
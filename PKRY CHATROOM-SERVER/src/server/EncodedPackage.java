@@ -0,0 +1,71 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import protocol.DataPackage;
+
+/**
+ * DataPackage serialized once and written as it is to streams of many clients. Bytes are
+ * one object of Java serialization without stream header, so they can be put between two
+ * resets of any ObjectOutputStream (see {@link ClientChannel#write(EncodedPackage)}) and are
+ * read by client with readObject like any other package. Bytes are never changed after
+ * encoding, so one package is shared by all threads writing it.
+ */
+public final class EncodedPackage {
+	/** Length of stream header written by every ObjectOutputStream */
+	private static final int STREAM_HEADER_LENGTH = 4;
+
+	private final byte[] bytes;
+
+	private EncodedPackage(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Serializing package
+	 * @param dp package to encode
+	 * @return encoded package
+	 * @throws IOException when package can not be serialized
+	 */
+	public static EncodedPackage encode(DataPackage dp) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+			oos.writeObject(dp);
+		}
+		byte[] serialized = out.toByteArray();
+		byte[] bytes = new byte[serialized.length - STREAM_HEADER_LENGTH];
+		System.arraycopy(serialized, STREAM_HEADER_LENGTH, bytes, 0, bytes.length);
+		return new EncodedPackage(bytes);
+	}
+
+	/**
+	 * @param bytes package encoded earlier, for example read from {@link OfflineStore}
+	 * @return package holding given bytes, array must not be changed later
+	 */
+	static EncodedPackage fromBytes(byte[] bytes) {
+		return new EncodedPackage(bytes);
+	}
+
+	/** @return length of encoded package in bytes */
+	public int length() {
+		return bytes.length;
+	}
+
+	/** @return copy of bytes from index from, inclusive, to index to, exclusive */
+	byte[] slice(int from, int to) {
+		return Arrays.copyOfRange(bytes, from, to);
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+
+	void writeTo(ByteBuffer out) {
+		out.put(bytes);
+	}
+}
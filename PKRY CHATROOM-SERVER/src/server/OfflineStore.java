@@ -0,0 +1,454 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Store of encoded packages for users that are not connected. Packages are appended to
+ * append-only log of segment files mapped by FileChannel.map, and index in memory keeps for
+ * every recipient sequence numbers and positions of his packages in order of sending. When
+ * recipient connects his backlog is replayed and acknowledged - acknowledgment is appended
+ * to log too - and oldest segments are deleted when nothing in them waits for delivery, or
+ * copied forward and deleted when only a small part of them waits. Segments are deleted only
+ * oldest first, so log read from start always gives right index after restart. Segment file
+ * that can not be deleted yet (on Windows mapped file stays until its mapping is collected)
+ * is deleted again by later compaction, and newer segments wait for it.
+ * Every recipient may have a limited number of waiting packages and all of them a limited
+ * number of bytes, packages over limits are rejected. Packages older than time to live are
+ * dropped without acknowledgment, log read after restart skips them by their time.
+ * Record: type | length of body | CRC32 of body | body, where body of DATA is recipient |
+ * sequence | time of storing | encoded package and body of ACK is recipient | last
+ * acknowledged sequence.
+ */
+public class OfflineStore {
+	/** Default size of segment file - 16 MiB */
+	public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+	/** Default max number of waiting packages of one recipient */
+	public static final int DEFAULT_MAX_PER_RECIPIENT = 1000;
+	/** Default max bytes of all waiting packages - 256 MiB */
+	public static final long DEFAULT_MAX_BYTES = 256L << 20;
+	/** Default time to live of waiting package - 7 days */
+	public static final long DEFAULT_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	private static final int END = 0;
+	private static final int DATA = 1;
+	private static final int ACK = 2;
+	/** Length of record header: type, length of body and CRC */
+	private static final int HEADER_LENGTH = 12;
+	/** Segment is copied forward when less than 1/COMPACT_RATIO of it waits for delivery */
+	private static final int COMPACT_RATIO = 4;
+
+	/** Directory of segment files */
+	private final File directory;
+	private final int segmentSize;
+	private final int maxPerRecipient;
+	private final long maxBytes;
+	private final long timeToLive;
+	/** Segments from oldest, the last one is written */
+	private final List<Segment> segments = new ArrayList<>();
+	/** Files of closed segments that could not be deleted yet, from oldest */
+	private final List<File> undeleted = new ArrayList<>();
+	/** Recipient - sequence - position of his package, position is segment id << 32 | offset */
+	private final Map<String, TreeMap<Long, Long>> index = new HashMap<>();
+	/** Next sequence number */
+	private long nextSequence;
+
+	/**
+	 * Opening store with default limits
+	 * @param directory directory of segment files, created if missing
+	 * @param segmentSize size of new segment files in bytes
+	 * @throws IOException when segments can not be read or created
+	 */
+	public OfflineStore(File directory, int segmentSize) throws IOException {
+		this(directory, segmentSize, DEFAULT_MAX_PER_RECIPIENT, DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * Opening store and reading index from segments written earlier
+	 * @param directory directory of segment files, created if missing
+	 * @param segmentSize size of new segment files in bytes
+	 * @param maxPerRecipient max number of waiting packages of one recipient
+	 * @param maxBytes max bytes of all waiting packages
+	 * @param timeToLiveMillis time after which waiting package is dropped
+	 * @throws IOException when segments can not be read or created
+	 */
+	public OfflineStore(File directory, int segmentSize, int maxPerRecipient, long maxBytes, long timeToLiveMillis)
+			throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxPerRecipient = maxPerRecipient;
+		this.maxBytes = maxBytes;
+		this.timeToLive = timeToLiveMillis;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can not create " + directory);
+		recover();
+	}
+
+	/**
+	 * Appending package for recipient
+	 * @param recipient nickname of user that is not connected
+	 * @param encoded package to deliver later
+	 * @return sequence number of package, -1 when recipient or store is full
+	 * @throws IOException when segment can not be created
+	 */
+	public synchronized long append(String recipient, EncodedPackage encoded) throws IOException {
+		byte[] name = recipient.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer body = ByteBuffer.allocate(2 + name.length + 16 + encoded.length());
+		TreeMap<Long, Long> positions = index.get(recipient);
+		if (positions != null && positions.size() >= maxPerRecipient
+				|| liveBytes() + HEADER_LENGTH + body.capacity() > maxBytes) {
+			ServerMetrics.increment("offline.rejected");
+			return -1;
+		}
+		long sequence = nextSequence++;
+		body.putShort((short) name.length).put(name).putLong(sequence).putLong(System.currentTimeMillis());
+		encoded.writeTo(body);
+		body.flip();
+		long position = write(DATA, body);
+		index.computeIfAbsent(recipient, k -> new TreeMap<>()).put(sequence, position);
+		segment(position).addLive(HEADER_LENGTH + body.limit());
+		return sequence;
+	}
+
+	/**
+	 * @param recipient nickname of user
+	 * @return waiting packages of user in order of sending, with their sequence numbers
+	 */
+	public synchronized List<Stored> backlog(String recipient) {
+		TreeMap<Long, Long> positions = index.get(recipient);
+		List<Stored> backlog = new ArrayList<>();
+		if (positions == null)
+			return backlog;
+		for (Map.Entry<Long, Long> entry : positions.entrySet())
+			backlog.add(new Stored(entry.getKey(), EncodedPackage.fromBytes(frame(entry.getValue()))));
+		return backlog;
+	}
+
+	/**
+	 * Marking packages of recipient as delivered and compacting oldest segments
+	 * @param recipient nickname of user
+	 * @param sequence last delivered sequence number
+	 * @throws IOException when acknowledgment can not be written
+	 */
+	public synchronized void acknowledge(String recipient, long sequence) throws IOException {
+		TreeMap<Long, Long> positions = index.get(recipient);
+		if (positions == null || positions.firstKey() > sequence)
+			return;
+		byte[] name = recipient.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer body = ByteBuffer.allocate(2 + name.length + 8);
+		body.putShort((short) name.length).put(name).putLong(sequence);
+		body.flip();
+		write(ACK, body);
+		release(positions, sequence);
+		if (positions.isEmpty())
+			index.remove(recipient);
+		compact();
+	}
+
+	/**
+	 * Dropping packages older than time to live and compacting oldest segments
+	 * @return number of dropped packages
+	 * @throws IOException when waiting packages can not be copied forward
+	 */
+	public synchronized int evictExpired() throws IOException {
+		long oldest = System.currentTimeMillis() - timeToLive;
+		int evicted = 0;
+		for (Iterator<TreeMap<Long, Long>> it = index.values().iterator(); it.hasNext();) {
+			TreeMap<Long, Long> positions = it.next();
+			/** Sequence numbers follow time of storing, expired packages are the first ones */
+			while (!positions.isEmpty() && time(positions.firstEntry().getValue()) < oldest) {
+				release(positions, positions.firstKey());
+				evicted++;
+			}
+			if (positions.isEmpty())
+				it.remove();
+		}
+		if (evicted > 0) {
+			ServerMetrics.add("offline.expired", evicted);
+			compact();
+		}
+		return evicted;
+	}
+
+	/** @return number of packages waiting for delivery */
+	public synchronized int size() {
+		int size = 0;
+		for (TreeMap<Long, Long> positions : index.values())
+			size += positions.size();
+		return size;
+	}
+
+	/** @return number of segment files */
+	public synchronized int segments() {
+		return segments.size();
+	}
+
+	/** @return bytes of records waiting for delivery */
+	private long liveBytes() {
+		long live = 0;
+		for (Segment segment : segments)
+			live += segment.liveBytes;
+		return live;
+	}
+
+	/** Writing mapped pages of segments to disk */
+	public synchronized void sync() {
+		for (Segment segment : segments)
+			segment.buffer.force();
+	}
+
+	/**
+	 * Closing segment files, store can not be used later. Segments that could not be deleted
+	 * are read again after restart, later segments with their acknowledgments are kept.
+	 * @throws IOException when file can not be closed
+	 */
+	public synchronized void close() throws IOException {
+		sync();
+		for (Segment segment : segments)
+			segment.close();
+		deleteUndeleted();
+	}
+
+	/** Deleting oldest segments without waiting packages, copying forward small rest of them */
+	private void compact() throws IOException {
+		while (segments.size() > 1 && deleteUndeleted()) {
+			Segment oldest = segments.get(0);
+			if (oldest.liveBytes > 0 && oldest.liveBytes * COMPACT_RATIO >= oldest.writePosition)
+				return;
+			if (oldest.liveBytes > 0)
+				moveForward(oldest);
+			segments.remove(0);
+			oldest.close();
+			undeleted.add(oldest.file);
+		}
+		deleteUndeleted();
+	}
+
+	/**
+	 * Deleting files of closed segments from oldest
+	 * @return true if all of them are deleted, newer segments can not be deleted before
+	 */
+	private boolean deleteUndeleted() {
+		while (!undeleted.isEmpty()) {
+			File file = undeleted.get(0);
+			if (file.exists() && !file.delete()) {
+				ServerMetrics.increment("offline.undeleted");
+				return false;
+			}
+			undeleted.remove(0);
+		}
+		return true;
+	}
+
+	/** Appending waiting packages of segment again, sequence numbers keep order of delivery */
+	private void moveForward(Segment segment) throws IOException {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position(0);
+		while (buffer.position() < segment.writePosition) {
+			int start = buffer.position();
+			int type = buffer.getInt();
+			int length = buffer.getInt();
+			buffer.getInt();
+			ByteBuffer body = buffer.slice();
+			body.limit(length);
+			buffer.position(buffer.position() + length);
+			if (type != DATA)
+				continue;
+			String recipient = readName(body);
+			long sequence = body.getLong();
+			TreeMap<Long, Long> positions = index.get(recipient);
+			Long position = positions != null ? positions.get(sequence) : null;
+			if (position == null || position != position(segment.id, start))
+				continue;
+			body.position(0);
+			long moved = write(DATA, body);
+			positions.put(sequence, moved);
+			segment(moved).addLive(HEADER_LENGTH + length);
+		}
+		segment.liveBytes = 0;
+	}
+
+	private void release(TreeMap<Long, Long> positions, long sequence) {
+		Map<Long, Long> delivered = positions.headMap(sequence, true);
+		for (long position : delivered.values()) {
+			Segment segment = segment(position);
+			segment.liveBytes -= HEADER_LENGTH + segment.buffer.getInt(offset(position) + 4);
+		}
+		delivered.clear();
+	}
+
+	/** @return position of written record */
+	private long write(int type, ByteBuffer body) throws IOException {
+		int length = HEADER_LENGTH + body.remaining();
+		Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (segment == null || segment.writePosition + length + 4 > segment.buffer.capacity())
+			segment = newSegment(length + 4);
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		int offset = segment.writePosition;
+		ByteBuffer out = segment.buffer.duplicate();
+		out.position(offset);
+		out.putInt(type).putInt(body.remaining()).putInt((int) crc.getValue()).put(body);
+		segment.writePosition = out.position();
+		return position(segment.id, offset);
+	}
+
+	private byte[] frame(long position) {
+		ByteBuffer buffer = segment(position).buffer.duplicate();
+		buffer.position(offset(position) + 4);
+		int length = buffer.getInt();
+		buffer.getInt();
+		int nameLength = buffer.getShort();
+		byte[] frame = new byte[length - 2 - nameLength - 16];
+		buffer.position(buffer.position() + nameLength + 16);
+		buffer.get(frame);
+		return frame;
+	}
+
+	/** @return time of storing of DATA record */
+	private long time(long position) {
+		ByteBuffer buffer = segment(position).buffer;
+		int start = offset(position) + HEADER_LENGTH;
+		return buffer.getLong(start + 2 + buffer.getShort(start) + 8);
+	}
+
+	private Segment newSegment(int minimum) throws IOException {
+		long id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id + 1;
+		Segment segment = new Segment(id, fileOf(id), Math.max(segmentSize, minimum));
+		segments.add(segment);
+		return segment;
+	}
+
+	/** Reading all segments from oldest - index of waiting packages and end of last segment */
+	private void recover() throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.matches("segment-\\d+\\.log"));
+		TreeMap<Long, File> ordered = new TreeMap<>();
+		for (File file : files)
+			ordered.put(Long.parseLong(file.getName().replaceAll("\\D", "")), file);
+		Map<String, Long> acknowledged = new HashMap<>();
+		long oldest = System.currentTimeMillis() - timeToLive;
+		for (Map.Entry<Long, File> entry : ordered.entrySet()) {
+			Segment segment = new Segment(entry.getKey(), entry.getValue(), (int) entry.getValue().length());
+			segments.add(segment);
+			ByteBuffer buffer = segment.buffer.duplicate();
+			while (buffer.remaining() >= HEADER_LENGTH) {
+				int start = buffer.position();
+				int type = buffer.getInt();
+				int length = buffer.getInt();
+				int crc = buffer.getInt();
+				if (type == END || length < 0 || length > buffer.remaining())
+					break;
+				ByteBuffer body = buffer.slice();
+				body.limit(length);
+				CRC32 check = new CRC32();
+				check.update(body.duplicate());
+				/** Record written only partly before crash */
+				if ((int) check.getValue() != crc)
+					break;
+				buffer.position(buffer.position() + length);
+				segment.writePosition = buffer.position();
+				String recipient = readName(body);
+				long sequence = body.getLong();
+				nextSequence = Math.max(nextSequence, sequence + 1);
+				if (type == ACK) {
+					acknowledged.merge(recipient, sequence, Math::max);
+					TreeMap<Long, Long> positions = index.get(recipient);
+					if (positions != null)
+						positions.headMap(sequence, true).clear();
+				} else if (type == DATA && sequence > acknowledged.getOrDefault(recipient, -1L)
+						&& body.getLong() >= oldest) {
+					index.computeIfAbsent(recipient, k -> new TreeMap<>()).put(sequence, position(segment.id, start));
+				}
+			}
+		}
+		index.values().removeIf(TreeMap::isEmpty);
+		for (TreeMap<Long, Long> positions : index.values())
+			for (long position : positions.values())
+				segment(position).addLive(HEADER_LENGTH + segment(position).buffer.getInt(offset(position) + 4));
+	}
+
+	private static String readName(ByteBuffer body) {
+		byte[] name = new byte[body.getShort()];
+		body.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	private Segment segment(long position) {
+		long id = position >>> 32;
+		for (Segment segment : segments)
+			if (segment.id == id)
+				return segment;
+		throw new IllegalStateException("No segment " + id);
+	}
+
+	private File fileOf(long id) {
+		return new File(directory, String.format("segment-%08d.log", id));
+	}
+
+	private static long position(long segment, int offset) {
+		return segment << 32 | offset;
+	}
+
+	private static int offset(long position) {
+		return (int) position;
+	}
+
+	/** Package waiting for delivery with its sequence number */
+	public static final class Stored {
+		private final long sequence;
+		private final EncodedPackage encoded;
+
+		Stored(long sequence, EncodedPackage encoded) {
+			this.sequence = sequence;
+			this.encoded = encoded;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public EncodedPackage getEncoded() {
+			return encoded;
+		}
+	}
+
+	/** One mapped segment file */
+	private static final class Segment {
+		private final long id;
+		private final File file;
+		private final RandomAccessFile raf;
+		private final MappedByteBuffer buffer;
+		/** End of written records */
+		private int writePosition;
+		/** Bytes of records waiting for delivery */
+		private long liveBytes;
+
+		Segment(long id, File file, int size) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		void addLive(long bytes) {
+			liveBytes += bytes;
+		}
+
+		/** Mapping stays until buffer is collected, only then file can be deleted on Windows */
+		void close() throws IOException {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Outbound queue of one client connection with two lanes. Control lane - handshakes,
+ * acknowledgments and packages of server - is written first, in order of putting. Bulk lane
+ * has separate queue for every sender and is written in round-robin order of senders, one
+ * chunk of at most chunk length of every sender with waiting packages in a turn, so chatty
+ * sender can not take whole stream of receiver and control package waits for at most one
+ * chunk. Longer package is written as FRAGMENT packages of server, client joins them again.
+ * Packages are written by writer task of outbox, started on shared pool of writer threads
+ * when package is put while nobody writes, so threads that put packages never write and slow
+ * receiver holds only its own writer. Sender whose bulk queue is full waits, other senders
+ * are not stopped by it. Writer blocked by slow socket keeps its thread, so pool is bounded
+ * (pkry.outbox.writers) - when all writers are busy, thread that puts package writes outbox
+ * itself, like before there were writer threads.
+ */
+public class Outbox {
+	/** Default max number of waiting bulk packages of one sender */
+	public static final int DEFAULT_LIMIT = 256;
+	/** Default max length of one written chunk of bulk package - 16 KiB */
+	public static final int DEFAULT_CHUNK = 16 << 10;
+	/** Default max number of writer threads */
+	public static final int DEFAULT_WRITERS = 256;
+
+	private static final Runnable NOTHING = () -> {
+	};
+	/**
+	 * Writer threads of all outboxes, thread is taken only while outbox has packages to write
+	 * and idle thread ends after a minute
+	 */
+	private static final ExecutorService WRITERS = new ThreadPoolExecutor(0,
+			Math.max(1, Integer.getInteger("pkry.outbox.writers", DEFAULT_WRITERS)), 60, TimeUnit.SECONDS,
+			new SynchronousQueue<>(), task -> {
+				Thread thread = new Thread(task, "outbox-writer");
+				thread.setDaemon(true);
+				return thread;
+			}, (task, pool) -> {
+				ServerMetrics.increment("outbox.writersBusy");
+				task.run();
+			});
+
+	private final ClientChannel channel;
+	/** Called under lock of channel after remembered package of other client is written */
+	private final Consumer<EncodedPackage> written;
+	private final int limit;
+	private final int chunkLength;
+	/** Control packages in order of putting */
+	private final ArrayDeque<Pending> control = new ArrayDeque<>();
+	/** Sender - his waiting bulk packages, the first one can be written partly */
+	private final Map<String, ArrayDeque<Pending>> queues = new HashMap<>();
+	/** Senders with waiting bulk packages in order of their turns */
+	private final ArrayDeque<String> turns = new ArrayDeque<>();
+	/** Number of the last fragmented package */
+	private long fragmented;
+	/** True if some thread is writing packages */
+	private boolean draining;
+	/** True if connection is broken, nothing is put any more */
+	private boolean broken;
+
+	/**
+	 * Constructor
+	 * @param channel output of connection
+	 * @param written called after every remembered package of other client, in order of writing
+	 * @param limit max number of waiting bulk packages of one sender
+	 * @param chunkLength max length of one chunk of bulk package in bytes
+	 */
+	public Outbox(ClientChannel channel, Consumer<EncodedPackage> written, int limit, int chunkLength) {
+		this.channel = channel;
+		this.written = written;
+		this.limit = limit;
+		this.chunkLength = chunkLength;
+	}
+
+	/**
+	 * Putting package of other client in its lane and starting writer when nobody writes
+	 * @param sender nickname of sender
+	 * @param encoded package to write
+	 * @param urgent true for control lane
+	 * @param remembered false for package not kept in recent frames and not counted by client
+	 * @param failed run when package can not be written because connection has broken
+	 * @return false if connection is broken already, failed is not run then
+	 * @throws InterruptedException when thread waiting for place in queue is interrupted
+	 */
+	public boolean offer(String sender, EncodedPackage encoded, boolean urgent, boolean remembered, Runnable failed)
+			throws InterruptedException {
+		Pending pending = new Pending(encoded, remembered, failed);
+		synchronized (this) {
+			if (urgent) {
+				if (broken)
+					return false;
+				control.add(pending);
+			} else {
+				ArrayDeque<Pending> queue = queues.get(sender);
+				while (!broken && queue != null && queue.size() >= limit) {
+					ServerMetrics.increment("outbox.full");
+					wait();
+					queue = queues.get(sender);
+				}
+				if (broken)
+					return false;
+				if (queue == null) {
+					queue = new ArrayDeque<>();
+					queues.put(sender, queue);
+					turns.add(sender);
+				}
+				queue.add(pending);
+			}
+			if (draining)
+				return true;
+			draining = true;
+		}
+		WRITERS.execute(this::drain);
+		return true;
+	}
+
+	/**
+	 * Putting package of server in control lane, it is not remembered in recent frames
+	 * @param encoded package to write
+	 * @return false if connection is broken
+	 */
+	public boolean offerControl(EncodedPackage encoded) {
+		synchronized (this) {
+			if (broken)
+				return false;
+			control.add(new Pending(encoded, false, NOTHING));
+			if (draining)
+				return true;
+			draining = true;
+		}
+		WRITERS.execute(this::drain);
+		return true;
+	}
+
+	/** Writing waiting packages until queues are empty, runs on writer thread */
+	private void drain() {
+		while (true) {
+			Pending next;
+			int start;
+			int end;
+			synchronized (this) {
+				next = control.poll();
+				if (next != null) {
+					start = 0;
+					end = next.encoded.length();
+				} else {
+					String sender = turns.poll();
+					if (sender == null) {
+						draining = false;
+						return;
+					}
+					ArrayDeque<Pending> queue = queues.get(sender);
+					next = queue.peek();
+					start = next.offset;
+					end = Math.min(next.encoded.length(), start + chunkLength);
+					if (start == 0 && end < next.encoded.length())
+						next.fragment = ++fragmented;
+					next.offset = end;
+					if (end == next.encoded.length()) {
+						queue.poll();
+						notifyAll();
+					}
+					if (queue.isEmpty())
+						queues.remove(sender);
+					else
+						turns.add(sender);
+				}
+			}
+			try {
+				synchronized (channel) {
+					if (next.fragment == 0)
+						channel.write(next.encoded);
+					else
+						channel.write(EncodedPackage.encode(fragment(next, start, end)));
+					if (end == next.encoded.length() && next.remembered)
+						written.accept(next.encoded);
+				}
+			} catch (IOException e) {
+				fail(next);
+				return;
+			}
+		}
+	}
+
+	/** @return FRAGMENT with bytes from start to end of encoded package, "<number><length>" */
+	private static DataPackage fragment(Pending pending, int start, int end) {
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("SERVER");
+		dp.setHeader(Header.FRAGMENT);
+		dp.setAdministrationMsg("<" + pending.fragment + "><" + pending.encoded.length() + ">");
+		dp.setEncryptedMsg(pending.encoded.slice(start, end));
+		return dp;
+	}
+
+	/** Giving back all waiting packages of broken connection to their senders */
+	private void fail(Pending current) {
+		List<Pending> lost = new ArrayList<>();
+		lost.add(current);
+		synchronized (this) {
+			broken = true;
+			draining = false;
+			lost.addAll(control);
+			control.clear();
+			for (String sender : turns)
+				for (Pending pending : queues.get(sender))
+					if (pending != current)
+						lost.add(pending);
+			turns.clear();
+			queues.clear();
+			notifyAll();
+		}
+		for (Pending pending : lost)
+			pending.failed.run();
+	}
+
+	/** Package waiting for writing */
+	private static final class Pending {
+		private final EncodedPackage encoded;
+		/** True for package of other client remembered in recent frames */
+		private final boolean remembered;
+		private final Runnable failed;
+		/** Length of written part */
+		private int offset;
+		/** Number of fragmented package, 0 when it is written whole */
+		private long fragment;
+
+		Pending(EncodedPackage encoded, boolean remembered, Runnable failed) {
+			this.encoded = encoded;
+			this.remembered = remembered;
+			this.failed = failed;
+		}
+	}
+}
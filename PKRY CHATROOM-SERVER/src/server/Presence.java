@@ -0,0 +1,249 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Presence of connected users and interests of clients in it. Client subscribes to chosen
+ * users, to rooms or to one page of directory (connected users sorted by nickname), and
+ * reverse indexes (user - subscribers, room - subscribers, end of page - pages) give who has
+ * to be told about join or leave of user without looking at clients not interested in it.
+ * Connected users are kept in {@link Roster} snapshot replaced on every change.
+ */
+public class Presence {
+	/** Connected users, current version */
+	private volatile Roster roster = Roster.EMPTY;
+	/** Watched user - clients subscribed to him */
+	private final Map<String, Set<String>> userSubscribers = new HashMap<>();
+	/** Watched room - clients subscribed to it */
+	private final Map<String, Set<String>> roomSubscribers = new HashMap<>();
+	/** End of page - page - clients that see it, change at position p changes pages ending after p */
+	private final TreeMap<Integer, Map<Page, Set<String>>> pagesByEnd = new TreeMap<>();
+
+	/** Client - users he has subscribed to */
+	private final Map<String, Set<String>> watchedUsers = new HashMap<>();
+	/** Client - rooms he has subscribed to */
+	private final Map<String, Set<String>> watchedRooms = new HashMap<>();
+	/** Client - page of directory he sees */
+	private final Map<String, Page> pages = new HashMap<>();
+	/** Client - version of roster of last page sent to him */
+	private final Map<String, Long> sentVersions = new HashMap<>();
+
+	/**
+	 * Registering connected user
+	 * @param user nickname
+	 * @return who has to be told about it
+	 */
+	public synchronized Change online(String user) {
+		Roster changed = roster.with(user);
+		if (changed == roster)
+			return new Change(user, roster, Collections.emptySet(), Collections.emptyMap());
+		roster = changed;
+		return change(user, roster.position(user));
+	}
+
+	/**
+	 * Removing disconnected user and all his subscriptions
+	 * @param user nickname
+	 * @return who has to be told about it
+	 */
+	public synchronized Change offline(String user) {
+		unsubscribeAll(user);
+		Roster changed = roster.without(user);
+		if (changed == roster)
+			return new Change(user, roster, Collections.emptySet(), Collections.emptyMap());
+		int position = roster.position(user);
+		roster = changed;
+		return change(user, position);
+	}
+
+	/** @return true if user is connected */
+	public boolean isOnline(String user) {
+		return roster.contains(user);
+	}
+
+	/** @return current snapshot of connected users */
+	public Roster getRoster() {
+		return roster;
+	}
+
+	/**
+	 * Remembering that client has got page of given roster version
+	 * @param client nickname of subscriber
+	 * @param version version of roster
+	 * @return false if client has got this or newer version already and page need not be sent
+	 */
+	public synchronized boolean markSent(String client, long version) {
+		Long sent = sentVersions.get(client);
+		if (sent != null && sent >= version)
+			return false;
+		sentVersions.put(client, version);
+		return true;
+	}
+
+	/**
+	 * @param client nickname of subscriber
+	 * @param user watched user
+	 */
+	public synchronized void subscribeUser(String client, String user) {
+		add(userSubscribers, user, client);
+		add(watchedUsers, client, user);
+	}
+
+	public synchronized void unsubscribeUser(String client, String user) {
+		remove(userSubscribers, user, client);
+		remove(watchedUsers, client, user);
+	}
+
+	/**
+	 * @param client nickname of subscriber
+	 * @param room watched room
+	 */
+	public synchronized void subscribeRoom(String client, String room) {
+		add(roomSubscribers, room, client);
+		add(watchedRooms, client, room);
+	}
+
+	public synchronized void unsubscribeRoom(String client, String room) {
+		remove(roomSubscribers, room, client);
+		remove(watchedRooms, client, room);
+	}
+
+	/**
+	 * @param room name of room
+	 * @return clients subscribed to room, copy
+	 */
+	public synchronized Set<String> roomSubscribers(String room) {
+		Set<String> subscribers = roomSubscribers.get(room);
+		return subscribers != null ? new HashSet<>(subscribers) : Collections.emptySet();
+	}
+
+	/**
+	 * Setting page of directory seen by client, replaces his earlier page
+	 * @param client nickname of subscriber
+	 * @param page page of directory
+	 */
+	public synchronized void subscribeDirectory(String client, Page page) {
+		unsubscribeDirectory(client);
+		pages.put(client, page);
+		/** Other page, client has not got it in any version */
+		sentVersions.remove(client);
+		pagesByEnd.computeIfAbsent(page.end(), k -> new HashMap<>())
+				.computeIfAbsent(page, k -> new HashSet<>()).add(client);
+	}
+
+	public synchronized void unsubscribeDirectory(String client) {
+		sentVersions.remove(client);
+		Page page = pages.remove(client);
+		if (page == null)
+			return;
+		Map<Page, Set<String>> atEnd = pagesByEnd.get(page.end());
+		remove(atEnd, page, client);
+		if (atEnd.isEmpty())
+			pagesByEnd.remove(page.end());
+	}
+
+	private void unsubscribeAll(String client) {
+		for (String user : new ArrayList<>(watchedUsers.getOrDefault(client, Collections.emptySet())))
+			unsubscribeUser(client, user);
+		for (String room : new ArrayList<>(watchedRooms.getOrDefault(client, Collections.emptySet())))
+			unsubscribeRoom(client, room);
+		unsubscribeDirectory(client);
+	}
+
+	/** Subscribers of user and pages ending after his position in directory */
+	private Change change(String user, int position) {
+		Set<String> subscribers = userSubscribers.get(user);
+		Map<Page, Set<String>> changedPages = new LinkedHashMap<>();
+		for (Map<Page, Set<String>> atEnd : pagesByEnd.tailMap(position, false).values())
+			for (Map.Entry<Page, Set<String>> entry : atEnd.entrySet())
+				changedPages.put(entry.getKey(), new HashSet<>(entry.getValue()));
+		return new Change(user, roster, subscribers != null ? new HashSet<>(subscribers) : Collections.emptySet(),
+				changedPages);
+	}
+
+	private static <K> void add(Map<K, Set<String>> index, K key, String value) {
+		index.computeIfAbsent(key, k -> new HashSet<>()).add(value);
+	}
+
+	private static <K> void remove(Map<K, Set<String>> index, K key, String value) {
+		Set<String> values = index.get(key);
+		if (values == null)
+			return;
+		values.remove(value);
+		if (values.isEmpty())
+			index.remove(key);
+	}
+
+	/** Page of directory - limit users from offset */
+	public static final class Page {
+		private final int offset;
+		private final int limit;
+
+		public Page(int offset, int limit) {
+			if (offset < 0 || limit <= 0)
+				throw new IllegalArgumentException("Wrong page " + offset + "/" + limit);
+			this.offset = offset;
+			this.limit = limit;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		int end() {
+			return offset + limit;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Page && ((Page) o).offset == offset && ((Page) o).limit == limit;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(offset, limit);
+		}
+	}
+
+	/**
+	 * Join or leave of user - roster after it, subscribers of user and subscribers of every
+	 * changed page
+	 */
+	public static final class Change {
+		private final String user;
+		private final Roster roster;
+		private final Set<String> subscribers;
+		private final Map<Page, Set<String>> pages;
+
+		Change(String user, Roster roster, Set<String> subscribers, Map<Page, Set<String>> pages) {
+			this.user = user;
+			this.roster = roster;
+			this.subscribers = subscribers;
+			this.pages = pages;
+		}
+
+		public String getUser() {
+			return user;
+		}
+
+		public Roster getRoster() {
+			return roster;
+		}
+
+		public Set<String> getSubscribers() {
+			return subscribers;
+		}
+
+		public Map<Page, Set<String>> getPages() {
+			return pages;
+		}
+	}
+}
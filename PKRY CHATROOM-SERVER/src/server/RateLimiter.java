@@ -0,0 +1,120 @@
+package server;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import protocol.DataPackage;
+import protocol.Header;
+import protocol.KeyWrap;
+
+/**
+ * Limits of one connection - packages per second and bytes per second, with separate budgets
+ * for handshakes, which cost CPU of receiver, and for messages. Package over limit is
+ * throttled: reading thread of sender waits, so only sender is slowed down by its socket.
+ * Package that would wait too long is dropped - handshake after one second, message after
+ * ten. Chunks of files and of uploaded attachments count as messages but have their own bytes
+ * budget, file transfer has its own flow control and should not take bytes of chat. Limits are read from system
+ * properties pkry.rate.msg, pkry.rate.msgBytes, pkry.rate.fileBytes, pkry.rate.handshake and
+ * pkry.rate.handshakeBytes (per second), bucket holds two seconds.
+ */
+public class RateLimiter {
+	/** Default max number of messages per second */
+	public static final long DEFAULT_MESSAGES = 5000;
+	/** Default max number of message bytes per second - 8 MiB */
+	public static final long DEFAULT_MESSAGE_BYTES = 8L << 20;
+	/** Default max number of file chunk bytes per second - 1 GiB */
+	public static final long DEFAULT_FILE_BYTES = 1L << 30;
+	/** Default max number of handshakes per second */
+	public static final long DEFAULT_HANDSHAKES = 20;
+	/** Default max number of handshake bytes per second - 64 KiB */
+	public static final long DEFAULT_HANDSHAKE_BYTES = 64L << 10;
+
+	/** Headers of key agreement, resumption and rekey */
+	private static final Set<Header> HANDSHAKES = EnumSet.of(Header.INIT, Header.BACKWARD_INIT, Header.RESUME,
+			Header.BACKWARD_RESUME, Header.REKEY, Header.BACKWARD_REKEY, Header.REKEY_CONFIRM);
+	/** Headers of chunks of files, their bytes go to file budget */
+	private static final Set<Header> FILES = EnumSet.of(Header.FILE_CHUNK, Header.ATTACHMENT_PUT);
+	/** Headers that keep connection, never limited */
+	private static final Set<Header> FREE = EnumSet.of(Header.ID_SENDING, Header.HEARTBEAT);
+	private static final long MAX_HANDSHAKE_WAIT = TimeUnit.SECONDS.toNanos(1);
+	private static final long MAX_MESSAGE_WAIT = TimeUnit.SECONDS.toNanos(10);
+
+	private final TokenBucket messages;
+	private final TokenBucket messageBytes;
+	private final TokenBucket fileBytes;
+	private final TokenBucket handshakes;
+	private final TokenBucket handshakeBytes;
+
+	/**
+	 * Constructor, buckets hold two seconds of limit
+	 * @param messagesPerSecond max number of messages per second
+	 * @param messageBytesPerSecond max number of message bytes per second
+	 * @param fileBytesPerSecond max number of file chunk bytes per second
+	 * @param handshakesPerSecond max number of handshakes per second
+	 * @param handshakeBytesPerSecond max number of handshake bytes per second
+	 */
+	public RateLimiter(long messagesPerSecond, long messageBytesPerSecond, long fileBytesPerSecond,
+			long handshakesPerSecond, long handshakeBytesPerSecond) {
+		messages = new TokenBucket(messagesPerSecond, 2 * messagesPerSecond);
+		messageBytes = new TokenBucket(messageBytesPerSecond, 2 * messageBytesPerSecond);
+		fileBytes = new TokenBucket(fileBytesPerSecond, 2 * fileBytesPerSecond);
+		handshakes = new TokenBucket(handshakesPerSecond, 2 * handshakesPerSecond);
+		handshakeBytes = new TokenBucket(handshakeBytesPerSecond, 2 * handshakeBytesPerSecond);
+	}
+
+	/** @return limiter with limits from system properties or default ones */
+	public static RateLimiter fromSystemProperties() {
+		return new RateLimiter(Long.getLong("pkry.rate.msg", DEFAULT_MESSAGES),
+				Long.getLong("pkry.rate.msgBytes", DEFAULT_MESSAGE_BYTES),
+				Long.getLong("pkry.rate.fileBytes", DEFAULT_FILE_BYTES),
+				Long.getLong("pkry.rate.handshake", DEFAULT_HANDSHAKES),
+				Long.getLong("pkry.rate.handshakeBytes", DEFAULT_HANDSHAKE_BYTES));
+	}
+
+	/**
+	 * Taking tokens of package, waiting when it is over limit
+	 * @param dp package received from client
+	 * @return false if package has to be dropped
+	 * @throws InterruptedException when waiting thread is interrupted
+	 */
+	public boolean admit(DataPackage dp) throws InterruptedException {
+		if (FREE.contains(dp.getHeader()))
+			return true;
+		boolean handshake = HANDSHAKES.contains(dp.getHeader());
+		String kind = handshake ? "rate.handshake." : "rate.msg.";
+		long maxWait = handshake ? MAX_HANDSHAKE_WAIT : MAX_MESSAGE_WAIT;
+		TokenBucket count = handshake ? handshakes : messages;
+		long wait = count.take(1, maxWait);
+		TokenBucket bytes = handshake ? handshakeBytes : FILES.contains(dp.getHeader()) ? fileBytes : messageBytes;
+		long bytesWait = wait < 0 ? -1 : bytes.take(payloadLength(dp), maxWait);
+		if (bytesWait < 0) {
+			/** Dropped package does not use budget of packages */
+			if (wait >= 0)
+				count.giveBack(1);
+			ServerMetrics.increment(kind + "dropped");
+			return false;
+		}
+		wait = Math.max(wait, bytesWait);
+		if (wait > 0) {
+			ServerMetrics.increment(kind + "throttled");
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		return true;
+	}
+
+	/** @return length of binary fields of package */
+	private static long payloadLength(DataPackage dp) {
+		long length = 0;
+		if (dp.getEncryptedMsg() != null)
+			length += dp.getEncryptedMsg().length;
+		if (dp.getHandshakeMsg() != null)
+			length += dp.getHandshakeMsg().length;
+		List<KeyWrap> wraps = dp.getRecipientKeys();
+		if (wraps != null)
+			for (KeyWrap wrap : wraps)
+				length += wrap.getWrappedKey() != null ? wrap.getWrappedKey().length : 0;
+		return length;
+	}
+}
@@ -0,0 +1,172 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Last packages relayed to every user kept in memory outside of heap, so client that
+ * reconnects after short break gets packages lost with broken connection without touching
+ * disk. Every user has ring of fixed size in direct ByteBuffer with numbered packages -
+ * number of package is counted by client too, client asks for everything after the last
+ * number it has got. Number of rings is limited by global memory cap, ring of user that has
+ * been idle for the longest time is taken for new user (LRU). Ring created again for user has
+ * new generation, so numbers from old ring are never mixed with new ones.
+ */
+public class RecentFrames {
+	/** Default max number of packages of one user */
+	public static final int DEFAULT_FRAMES = 256;
+	/** Default size of ring of one user - 256 KiB */
+	public static final int DEFAULT_RING_BYTES = 256 << 10;
+	/** Default memory of all rings - 64 MiB */
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	private final int frames;
+	private final int ringBytes;
+	private final int maxRings;
+	/** User - his ring, in order from the least recently used */
+	private final LinkedHashMap<String, Ring> rings = new LinkedHashMap<>(16, 0.75f, true);
+	/** Generation of the last created ring */
+	private long generation;
+
+	/**
+	 * Constructor
+	 * @param frames max number of packages of one user
+	 * @param ringBytes size of ring of one user in bytes
+	 * @param maxBytes memory of all rings in bytes
+	 */
+	public RecentFrames(int frames, int ringBytes, long maxBytes) {
+		this.frames = frames;
+		this.ringBytes = ringBytes;
+		this.maxRings = (int) Math.max(1, maxBytes / ringBytes);
+	}
+
+	/**
+	 * Remembering package relayed to user, has to be called in order of writing to user
+	 * @param user nickname of receiver
+	 * @param encoded relayed package
+	 */
+	public synchronized void append(String user, EncodedPackage encoded) {
+		Ring ring = rings.get(user);
+		if (ring == null)
+			ring = newRing(user);
+		ring.append(encoded);
+	}
+
+	/**
+	 * Packages relayed after given one
+	 * @param user nickname of receiver
+	 * @param generation generation of ring known by client
+	 * @param sequence number of the last package got by client
+	 * @return packages in order of relaying, null when ring of that generation does not exist
+	 *         or some of them are not kept any more
+	 */
+	public synchronized List<EncodedPackage> after(String user, long generation, long sequence) {
+		Ring ring = rings.get(user);
+		if (ring == null || ring.generation != generation || sequence + 1 < ring.first || sequence >= ring.next)
+			return null;
+		return ring.from(sequence + 1);
+	}
+
+	/**
+	 * @param user nickname of receiver
+	 * @return generation of ring of user and number of the last package relayed to him, ring
+	 *         is created if user has none
+	 */
+	public synchronized long[] position(String user) {
+		Ring ring = rings.get(user);
+		if (ring == null)
+			ring = newRing(user);
+		return new long[] { ring.generation, ring.next - 1 };
+	}
+
+	/** @return number of rings in memory */
+	public synchronized int rings() {
+		return rings.size();
+	}
+
+	private Ring newRing(String user) {
+		/** Direct memory of evicted ring is reused instead of allocated again */
+		ByteBuffer buffer = null;
+		if (rings.size() >= maxRings) {
+			Iterator<Ring> eldest = rings.values().iterator();
+			buffer = eldest.next().buffer;
+			eldest.remove();
+		}
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(ringBytes);
+		buffer.clear();
+		Ring ring = new Ring(++generation, buffer, frames);
+		rings.put(user, ring);
+		return ring;
+	}
+
+	/**
+	 * Packages of one user. Package is written at once after the previous one, or at start of
+	 * buffer when it does not fit before its end; the oldest packages in its way are dropped.
+	 */
+	private static final class Ring {
+		private final long generation;
+		private final ByteBuffer buffer;
+		private final int[] offsets;
+		private final int[] lengths;
+		/** Number of the oldest kept package */
+		private long first = 1;
+		/** Number of next package */
+		private long next = 1;
+		/** Position of next package in buffer */
+		private int head;
+
+		Ring(long generation, ByteBuffer buffer, int frames) {
+			this.generation = generation;
+			this.buffer = buffer;
+			this.offsets = new int[frames];
+			this.lengths = new int[frames];
+		}
+
+		void append(EncodedPackage encoded) {
+			int length = encoded.length();
+			if (length > buffer.capacity()) {
+				/** Too long to be kept, packages before it can not be given without it */
+				first = ++next;
+				head = 0;
+				return;
+			}
+			boolean wrap = head + length > buffer.capacity();
+			int start = wrap ? 0 : head;
+			while (first < next) {
+				int oldest = slot(first);
+				boolean skipped = wrap && offsets[oldest] >= head;
+				boolean overlaps = offsets[oldest] < start + length && offsets[oldest] + lengths[oldest] > start;
+				if (!skipped && !overlaps && next - first < offsets.length)
+					break;
+				first++;
+			}
+			ByteBuffer out = buffer.duplicate();
+			out.position(start);
+			encoded.writeTo(out);
+			offsets[slot(next)] = start;
+			lengths[slot(next)] = length;
+			next++;
+			head = start + length;
+		}
+
+		List<EncodedPackage> from(long sequence) {
+			List<EncodedPackage> packages = new ArrayList<>((int) (next - sequence));
+			for (long i = sequence; i < next; i++) {
+				byte[] bytes = new byte[lengths[slot(i)]];
+				ByteBuffer in = buffer.duplicate();
+				in.position(offsets[slot(i)]);
+				in.get(bytes);
+				packages.add(EncodedPackage.fromBytes(bytes));
+			}
+			return packages;
+		}
+
+		private int slot(long sequence) {
+			return (int) (sequence % offsets.length);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chat rooms of server - members of every room and rooms of every user. Member sets are
+ * immutable and replaced on every join or leave, so sending to room reads its members
+ * without lock and costs O(members) whatever number of connected users is. Empty rooms are
+ * removed.
+ */
+public class Rooms {
+	/** Room name - its members in order of joining */
+	private final Map<String, Set<String>> members = new ConcurrentHashMap<>();
+	/** User nickname - rooms the user is member of */
+	private final Map<String, Set<String>> roomsOfUser = new ConcurrentHashMap<>();
+
+	/**
+	 * Creating room with user as its first member
+	 * @param room name of room
+	 * @param user nickname of creator
+	 * @return true if room was created, false if it exists
+	 */
+	public synchronized boolean create(String room, String user) {
+		if (members.containsKey(room))
+			return false;
+		add(room, user);
+		return true;
+	}
+
+	/**
+	 * Adding user to existing room
+	 * @param room name of room
+	 * @param user nickname of user
+	 * @return true if user has joined, false if room does not exist or user is member already
+	 */
+	public synchronized boolean join(String room, String user) {
+		Set<String> current = members.get(room);
+		if (current == null || current.contains(user))
+			return false;
+		add(room, user);
+		return true;
+	}
+
+	/**
+	 * Removing user from room, room without members is removed
+	 * @param room name of room
+	 * @param user nickname of user
+	 * @return true if user was member of room
+	 */
+	public synchronized boolean leave(String room, String user) {
+		Set<String> current = members.get(room);
+		if (current == null || !current.contains(user))
+			return false;
+		Set<String> changed = new LinkedHashSet<>(current);
+		changed.remove(user);
+		if (changed.isEmpty())
+			members.remove(room);
+		else
+			members.put(room, Collections.unmodifiableSet(changed));
+		Set<String> rooms = roomsOfUser.get(user);
+		rooms.remove(room);
+		if (rooms.isEmpty())
+			roomsOfUser.remove(user);
+		return true;
+	}
+
+	/**
+	 * Removing user from all rooms, used when user disconnects
+	 * @param user nickname of user
+	 * @return rooms that user has left
+	 */
+	public synchronized List<String> leaveAll(String user) {
+		Set<String> rooms = roomsOfUser.get(user);
+		List<String> left = rooms == null ? new ArrayList<>() : new ArrayList<>(rooms);
+		for (String room : left)
+			leave(room, user);
+		return left;
+	}
+
+	/**
+	 * @param room name of room
+	 * @return members of room, empty set if room does not exist, set is never changed
+	 */
+	public Set<String> members(String room) {
+		Set<String> current = members.get(room);
+		return current != null ? current : Collections.emptySet();
+	}
+
+	private void add(String room, String user) {
+		Set<String> changed = new LinkedHashSet<>(members(room));
+		changed.add(user);
+		members.put(room, Collections.unmodifiableSet(changed));
+		roomsOfUser.computeIfAbsent(user, k -> new LinkedHashSet<>()).add(room);
+	}
+}
@@ -0,0 +1,115 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocol.DataPackage;
+import protocol.Header;
+
+/**
+ * Snapshot of connected users sorted by nickname with version. Snapshot is never changed -
+ * join or leave makes a copy with next version - so it is read by all connections without
+ * lock, and every page of users list is encoded once per version and the same bytes are
+ * sent to every client that sees that page.
+ */
+public final class Roster {
+	/** Roster of server without users */
+	public static final Roster EMPTY = new Roster(0, new String[0]);
+
+	private final long version;
+	/** Sorted nicknames */
+	private final String[] users;
+	/** Pages of this version encoded when they are sent for the first time */
+	private final Map<Presence.Page, EncodedPackage> encodedPages = new ConcurrentHashMap<>();
+
+	private Roster(long version, String[] users) {
+		this.version = version;
+		this.users = users;
+	}
+
+	/**
+	 * @param user nickname of connected user
+	 * @return next version with user, or this roster if user is in it
+	 */
+	public Roster with(String user) {
+		int position = Arrays.binarySearch(users, user);
+		if (position >= 0)
+			return this;
+		position = -position - 1;
+		String[] changed = new String[users.length + 1];
+		System.arraycopy(users, 0, changed, 0, position);
+		changed[position] = user;
+		System.arraycopy(users, position, changed, position + 1, users.length - position);
+		return new Roster(version + 1, changed);
+	}
+
+	/**
+	 * @param user nickname of disconnected user
+	 * @return next version without user, or this roster if user is not in it
+	 */
+	public Roster without(String user) {
+		int position = Arrays.binarySearch(users, user);
+		if (position < 0)
+			return this;
+		String[] changed = new String[users.length - 1];
+		System.arraycopy(users, 0, changed, 0, position);
+		System.arraycopy(users, position + 1, changed, position, changed.length - position);
+		return new Roster(version + 1, changed);
+	}
+
+	/** @return position of user in sorted users, or position he would have */
+	public int position(String user) {
+		int position = Arrays.binarySearch(users, user);
+		return position >= 0 ? position : -position - 1;
+	}
+
+	public boolean contains(String user) {
+		return Arrays.binarySearch(users, user) >= 0;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param page page of users list
+	 * @return nicknames on page
+	 */
+	public List<String> users(Presence.Page page) {
+		if (page.getOffset() >= users.length)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(
+				Arrays.asList(users).subList(page.getOffset(), Math.min(page.end(), users.length)));
+	}
+
+	/**
+	 * @param page page of users list
+	 * @return page in format "<clients><version><offset><user><user>" encoded once per version
+	 * @throws IOException when page can not be serialized
+	 */
+	public EncodedPackage encodedPage(Presence.Page page) throws IOException {
+		try {
+			return encodedPages.computeIfAbsent(page, k -> {
+				StringBuilder sb = new StringBuilder("<clients><" + version + "><" + page.getOffset() + ">");
+				for (String user : users(page))
+					sb.append("<" + user + ">");
+				DataPackage dp = new DataPackage();
+				dp.setFromUserName("SERVER");
+				dp.setHeader(Header.CLIENTS_LIST);
+				dp.setAdministrationMsg(sb.toString());
+				try {
+					return EncodedPackage.encode(dp);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+}
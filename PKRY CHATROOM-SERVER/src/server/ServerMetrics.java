@@ -0,0 +1,59 @@
+package server;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters of server, shared by all connections. Names are dotted, e.g.
+ * "rate.msg.throttled" or "outbox.dropped".
+ */
+public final class ServerMetrics {
+	private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+	private ServerMetrics() {
+	}
+
+	/**
+	 * Adding one to counter
+	 * @param name name of counter
+	 */
+	public static void increment(String name) {
+		COUNTERS.computeIfAbsent(name, k -> new LongAdder()).increment();
+	}
+
+	/**
+	 * Adding value to counter
+	 * @param name name of counter
+	 * @param value value to add, e.g. number of bytes
+	 */
+	public static void add(String name, long value) {
+		COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(value);
+	}
+
+	/**
+	 * @param name name of counter
+	 * @return value of counter, 0 if it was not used
+	 */
+	public static long count(String name) {
+		LongAdder counter = COUNTERS.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * @param prefix beginning of names of reported counters, empty for all
+	 * @return counters in order of names, one per line
+	 */
+	public static String report(String prefix) {
+		Map<String, Long> lines = new TreeMap<>();
+		COUNTERS.forEach((name, counter) -> {
+			if (name.startsWith(prefix))
+				lines.put(name, counter.sum());
+		});
+		StringBuilder out = new StringBuilder();
+		lines.forEach((name, value) -> out.append(name).append(' ').append(value).append('\n'));
+		return out.toString();
+	}
+}
@@ -3,29 +3,47 @@ package server;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JTextArea;
 
 import protocol.DataPackage;
 import protocol.Header;
+import protocol.KeyWrap;
 
 /**
  * Chat room server - thread reflected in one client connection 
  */
 public class ServerThread extends Thread {
+	/** Encrypted messages kept for users that are not connected, other packages are dropped */
+	private static final Set<Header> STORED = EnumSet.of(Header.MSG, Header.MULTICAST, Header.ROOM_MSG, Header.ATTACHMENT);
+	/** Short packages written before waiting messages, they do not wait behind bulk transfers */
+	private static final Set<Header> CONTROL = EnumSet.of(Header.INIT, Header.BACKWARD_INIT, Header.RESUME,
+			Header.BACKWARD_RESUME, Header.REKEY, Header.BACKWARD_REKEY, Header.REKEY_CONFIRM, Header.ACK, Header.FILE_ACK);
+	/** Chunks of files are not kept in recent frames, lost ones are sent again by resumed transfer */
+	private static final Set<Header> UNREMEMBERED = EnumSet.of(Header.FILE_CHUNK);
+	/** Max number of unfinished uploads of one connection */
+	private static final int MAX_UPLOADS = 4;
+
 	/** Socket to client*/
 	private Socket connection;
 	/** Object stream to write */
 	private ObjectInputStream oInputStream;
-	/** Object stream to read */
-	private ObjectOutputStream oOutputStream;
+	/** Channel to write */
+	private ClientChannel channel;
 
 	/** Client nickname reflected with that thread  */
 	private String clientName;
@@ -35,54 +53,123 @@ public class ServerThread extends Thread {
 	/** Handler to logs area in GUI */
 	private JTextArea logTextArea;
 
-	/** Map client nickname - his object output stream */
-	private Map<String, ObjectOutputStream> clientsMap;
+	/** Map client nickname - his output channel */
+	private Map<String, ClientChannel> clientsMap;
+	/** Chat rooms shared by all connections */
+	private Rooms rooms;
+	/** Connected users and subscriptions to them shared by all connections */
+	private Presence presence;
+	/** Messages waiting for users that are not connected, null when store can not be used */
+	private OfflineStore offlineStore;
+	/** Attachments uploaded once and downloaded by receivers, null when store can not be used */
+	private AttachmentStore attachments;
+	/** Uploads of this client by their number, used only by reading thread */
+	private Map<String, AttachmentStore.Upload> uploads = new HashMap<>();
+	/** Last packages relayed to every user, given again after reconnection */
+	private RecentFrames recentFrames;
 	/** List of users in GUI to refresh new client */
 	private DefaultListModel<String> listModel;
+	/** Timeouts of all connections */
+	private TimerWheel timerWheel;
+	/** Connection without any package from client for that time is closed, in nanoseconds */
+	private long readTimeout;
+	/** Time of last package read from client in nanoseconds */
+	private volatile long lastRead;
+	/** True while package of client is passed - it may wait for rate limit or full outbox */
+	private volatile boolean passing;
+	/** Check of read timeout waiting in wheel */
+	private volatile TimerWheel.Timeout idleCheck;
+	/** Limits of packages sent by client */
+	private RateLimiter rateLimiter;
 
 	public ServerThread(Socket connection, JTextArea logTextArea, DefaultListModel<String> listModel,
-			Map<String, ObjectOutputStream> clientsMap) {
+			Map<String, ClientChannel> clientsMap, Rooms rooms, Presence presence, OfflineStore offlineStore,
+			AttachmentStore attachments, RecentFrames recentFrames, TimerWheel timerWheel, long readTimeoutMillis) {
 		this.connection = connection;
 		this.logTextArea = logTextArea;
 		this.clientsMap = clientsMap;
+		this.rooms = rooms;
+		this.presence = presence;
+		this.offlineStore = offlineStore;
+		this.attachments = attachments;
+		this.recentFrames = recentFrames;
 		this.listModel = listModel;
+		this.timerWheel = timerWheel;
+		this.readTimeout = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+		this.rateLimiter = RateLimiter.fromSystemProperties();
 		clientConnected = true;
 	}
 
 	/** Start thread */
 	public void run() {
+		lastRead = System.nanoTime();
+		idleCheck = timerWheel.schedule(this::checkIdle, readTimeout, TimeUnit.NANOSECONDS);
 		try {
 			openStreams();
 			getClientId();
 		} catch (IOException e) {
 			addToLog("Starting new connection (streams and getting nickname) failed.");
+			clientConnected = false;
 		}
 
-		
-		startUsersListRefreshingDemon();
-
 		while (clientConnected) {
 			DataPackage receivedMessage;
 			try {
 				receivedMessage = getMessageFromClient();
-				if (receivedMessage != null)
-					passResponseToOtherClient(receivedMessage);
+				if (receivedMessage != null) {
+					passing = true;
+					try {
+						passResponseToOtherClient(receivedMessage);
+					} finally {
+						passing = false;
+						lastRead = System.nanoTime();
+					}
+				}
 			} catch (EOFException ex) {
 				addToLog(ex.getMessage() + "---> Client " + clientName + " disconnected." + "(" + connection + ")");
-				listModel.removeElement(clientName);
 				clientConnected = false;
 			} catch (IOException ex) {
 				addToLog(ex.getMessage() + "---> Client " + clientName + " disconnected." + "(" + connection + ")");
-				listModel.removeElement(clientName);
 				clientConnected = false;
 			}
 		}
+		idleCheck.cancel();
+		for (AttachmentStore.Upload upload : uploads.values())
+			upload.abort();
+		/** Client that has connected again before this connection was closed keeps its rooms and presence */
+		if (clientName != null && clientsMap.remove(clientName, channel)) {
+			listModel.removeElement(clientName);
+			leaveRooms();
+			announce(presence.offline(clientName), false);
+		}
+	}
+
+	/**
+	 * Closing connection of client that has sent nothing, not even heartbeat, for read timeout -
+	 * reading thread gets error of closed socket and removes client like disconnected one.
+	 * Runs on wheel thread, check of active connection is scheduled again for rest of timeout.
+	 */
+	private void checkIdle() {
+		if (!clientConnected)
+			return;
+		/** Client whose package waits is not idle, its stream is only not read */
+		long idle = passing ? 0 : System.nanoTime() - lastRead;
+		if (idle < readTimeout) {
+			idleCheck = timerWheel.schedule(this::checkIdle, readTimeout - idle, TimeUnit.NANOSECONDS);
+			return;
+		}
+		addToLog("Client " + clientName + " has not sent anything for " + TimeUnit.NANOSECONDS.toSeconds(idle)
+				+ " s, closing connection.");
+		try {
+			connection.close();
+		} catch (IOException e) {
+			addToLog("Closing connection of " + clientName + " failed.");
+		}
 	}
 
 	private void openStreams() throws IOException {
 		oInputStream = new ObjectInputStream(connection.getInputStream());
-		oOutputStream = new ObjectOutputStream(connection.getOutputStream());
-		oOutputStream.flush();
+		channel = new ClientChannel(connection.getOutputStream());
 	}
 
 	private void getClientId() throws IOException {
@@ -96,65 +183,472 @@ public class ServerThread extends Thread {
 		}
 
 		listModel.addElement(clientName);
-		clientsMap.put(clientName, oOutputStream);
+		/** Messages passed by other clients wait until backlog is written */
+		synchronized (channel) {
+			String user = clientName;
+			channel.setOutbox(new Outbox(channel, encoded -> recentFrames.append(user, encoded), Outbox.DEFAULT_LIMIT,
+					Outbox.DEFAULT_CHUNK));
+			register();
+			resync(dp != null ? dp.getAdministrationMsg() : null);
+			replayOfflineMessages();
+			long[] position = recentFrames.position(clientName);
+			DataPackage resync = new DataPackage();
+			resync.setFromUserName("SERVER");
+			resync.setHeader(Header.RESYNC);
+			resync.setAdministrationMsg("<" + position[0] + "><" + position[1] + ">");
+			channel.write(resync);
+		}
 		addToLog("New client nickname: " + clientName + " checking password.");
+		announce(presence.online(clientName), true);
 	}
 
-	/** Demon which sending regularly connected clients list */
-	private void startUsersListRefreshingDemon() {
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				while (clientConnected) {
-					try {
-						sendUsersList();
-					} catch (IOException ex) {
-						addToLog("Refreshing Demon : Sending users list failed.");
-						clientConnected = false;
-					}
+	private void passResponseToOtherClient(DataPackage receivedMessage) throws IOException {
+		if (receivedMessage.getHeader().equals(Header.ID_SENDING))
+			return;
+		try {
+			if (!rateLimiter.admit(receivedMessage))
+				return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
 
-					try {
-						Thread.sleep(3000);
-					} catch (InterruptedException e) {
-						addToLog("Refreshing Demon : Sending users demon interrupted.");
-					}
+		switch (receivedMessage.getHeader()) {
+		case MULTICAST:
+			fanOut(receivedMessage);
+			return;
+		case ROOM_CREATE:
+		case ROOM_JOIN:
+		case ROOM_LEAVE:
+		case ROOM_MEMBERS:
+			changeRoom(receivedMessage.getHeader(), receivedMessage.getToUserName());
+			return;
+		case ROOM_MSG:
+			passToRoom(receivedMessage);
+			return;
+		case SUBSCRIBE:
+		case UNSUBSCRIBE:
+			subscribe(receivedMessage);
+			return;
+		case ATTACHMENT_PUT:
+			upload(receivedMessage);
+			return;
+		case ATTACHMENT:
+			shareAttachment(receivedMessage);
+			return;
+		case HEARTBEAT:
+			/** Answer shows client that server is alive too */
+			DataPackage heartbeat = new DataPackage();
+			heartbeat.setFromUserName("SERVER");
+			heartbeat.setHeader(Header.HEARTBEAT);
+			sendMessage(heartbeat);
+			return;
+		default:
+			deliver(receivedMessage.getToUserName(), receivedMessage);
+		}
+	}
+
+	/**
+	 * Writing package to connected user, encrypted message to user that is not connected or
+	 * which connection is broken is kept in offline store
+	 */
+	private void deliver(String user, DataPackage dp) throws IOException {
+		EncodedPackage encoded = EncodedPackage.encode(dp);
+		Runnable failed = () -> undelivered(user, dp.getHeader(), encoded);
+		if (!relay(user, encoded, CONTROL.contains(dp.getHeader()), !UNREMEMBERED.contains(dp.getHeader()), failed))
+			failed.run();
+	}
+
+	private void undelivered(String user, Header header, EncodedPackage encoded) {
+		if (STORED.contains(header)) {
+			store(user, encoded);
+			return;
+		}
+		ServerMetrics.increment("outbox.dropped");
+		addToLog("Client " + user + " is not connected, " + header + " from " + clientName + " dropped.");
+	}
+
+	/**
+	 * Putting this client in clients map. With offline store it is done under lock of store,
+	 * so package stored for client is either in backlog replayed after this or relayed to new
+	 * connection by {@link #store(String, EncodedPackage)}.
+	 */
+	private void register() {
+		if (offlineStore == null) {
+			clientsMap.put(clientName, channel);
+			return;
+		}
+		synchronized (offlineStore) {
+			clientsMap.put(clientName, channel);
+		}
+	}
+
+	/**
+	 * Keeping package for user that is not connected. User that has connected since package
+	 * was not delivered gets it relayed, it is stored only when new connection breaks too.
+	 */
+	private void store(String user, EncodedPackage encoded) {
+		if (offlineStore == null)
+			return;
+		synchronized (offlineStore) {
+			if (clientsMap.get(user) == null) {
+				append(user, encoded);
+				return;
+			}
+		}
+		if (!relay(user, encoded, false, true, () -> append(user, encoded)))
+			append(user, encoded);
+	}
+
+	private void append(String user, EncodedPackage encoded) {
+		try {
+			if (offlineStore.append(user, encoded) < 0)
+				addToLog("Offline messages of " + user + " are full, message from " + clientName + " dropped.");
+		} catch (IOException e) {
+			addToLog("Storing message from " + clientName + " to " + user + " failed.");
+		}
+	}
+
+	/**
+	 * Putting package of this client in outbox of user. Outbox writes it in fair turn with
+	 * packages of other senders and remembers it in recent frames of user under lock of
+	 * channel, so numbers of packages follow order of writing and client counting received
+	 * packages has the same numbers.
+	 * @param control true for package of control lane, written before waiting messages
+	 * @param remembered false for package not kept in recent frames
+	 * @param failed run later when connection of user breaks before package is written
+	 * @return false if user is not connected, failed is not run then
+	 */
+	private boolean relay(String user, EncodedPackage encoded, boolean control, boolean remembered, Runnable failed) {
+		ClientChannel out = clientsMap.get(user);
+		if (out == null)
+			return false;
+		try {
+			return out.getOutbox().offer(clientName, encoded, control, remembered, failed);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Writing packages relayed after the last one client has got before its connection was
+	 * broken, client gives "<generation><number>" of it in ID_SENDING
+	 */
+	private void resync(String known) throws IOException {
+		List<String> position = fields(known);
+		if (position.size() != 2)
+			return;
+		List<EncodedPackage> lost;
+		try {
+			lost = recentFrames.after(clientName, Long.parseLong(position.get(0)), Long.parseLong(position.get(1)));
+		} catch (NumberFormatException e) {
+			return;
+		}
+		if (lost == null)
+			return;
+		for (EncodedPackage encoded : lost)
+			channel.write(encoded);
+		if (!lost.isEmpty())
+			addToLog("Client " + clientName + " got again " + lost.size() + " packages lost with connection.");
+	}
+
+	/** Writing messages kept while client was not connected and acknowledging them in store */
+	private void replayOfflineMessages() {
+		if (offlineStore == null)
+			return;
+		try {
+			/** Messages stored while backlog was written are taken by next round */
+			List<OfflineStore.Stored> backlog;
+			while (!(backlog = offlineStore.backlog(clientName)).isEmpty()) {
+				for (OfflineStore.Stored stored : backlog) {
+					channel.write(stored.getEncoded());
+					recentFrames.append(clientName, stored.getEncoded());
 				}
+				offlineStore.acknowledge(clientName, backlog.get(backlog.size() - 1).getSequence());
+				addToLog("Client " + clientName + " got " + backlog.size() + " offline messages.");
+			}
+		} catch (IOException e) {
+			addToLog("Replaying offline messages to " + clientName + " failed.");
+		}
+	}
+
+	/**
+	 * Creating, joining or leaving room, or only asking for its members. Members list is sent
+	 * back to client, and when membership has changed to all members and the one who left.
+	 */
+	private void changeRoom(Header header, String room) throws IOException {
+		boolean changed;
+		Set<String> before = rooms.members(room);
+		if (header == Header.ROOM_CREATE)
+			changed = rooms.create(room, clientName);
+		else if (header == Header.ROOM_JOIN)
+			changed = rooms.join(room, clientName);
+		else if (header == Header.ROOM_LEAVE)
+			changed = rooms.leave(room, clientName);
+		else
+			changed = false;
+
+		if (!changed) {
+			sendMessage(roomMembers(room));
+			return;
+		}
+		addToLog("Client " + clientName + " " + header + " " + room);
+		writeToAll(roomAudience(room, header == Header.ROOM_LEAVE ? before : rooms.members(room)), roomMembers(room));
+	}
+
+	/** Passing message to all other members of room, sender has to be member */
+	private void passToRoom(DataPackage message) throws IOException {
+		Set<String> members = rooms.members(message.getToUserName());
+		if (!members.contains(clientName)) {
+			addToLog("Client " + clientName + " is not member of room " + message.getToUserName());
+			return;
+		}
+		EncodedPackage encoded = EncodedPackage.encode(message);
+		for (String member : members)
+			if (!member.equals(clientName) && !relay(member, encoded, false, true, () -> store(member, encoded)))
+				store(member, encoded);
+	}
+
+	/** Removing disconnected client from its rooms and telling it to members left */
+	private void leaveRooms() {
+		for (String room : rooms.leaveAll(clientName))
+			try {
+				writeToAll(roomAudience(room, rooms.members(room)), roomMembers(room));
+			} catch (IOException e) {
+				addToLog("Encoding members of room " + room + " failed.");
+			}
+	}
+
+	/** @return members of room and clients subscribed to it */
+	private Set<String> roomAudience(String room, Set<String> members) {
+		Set<String> audience = new HashSet<>(members);
+		audience.addAll(presence.roomSubscribers(room));
+		return audience;
+	}
+
+	/**
+	 * Subscribing client to user "<user><nickname>", room "<room><name>" or page of directory
+	 * "<clients><offset><limit>" and sending their current state, or unsubscribing him. Page
+	 * is not sent when client gives version of roster it has, "<clients><offset><limit><version>",
+	 * and that version is current.
+	 */
+	private void subscribe(DataPackage request) throws IOException {
+		boolean subscribe = request.getHeader() == Header.SUBSCRIBE;
+		List<String> interest = fields(request.getAdministrationMsg());
+		try {
+			switch (interest.get(0)) {
+			case "user":
+				if (!subscribe) {
+					presence.unsubscribeUser(clientName, interest.get(1));
+					break;
+				}
+				presence.subscribeUser(clientName, interest.get(1));
+				sendMessage(userPresence(interest.get(1), presence.isOnline(interest.get(1))));
+				break;
+			case "room":
+				if (!subscribe) {
+					presence.unsubscribeRoom(clientName, interest.get(1));
+					break;
+				}
+				presence.subscribeRoom(clientName, interest.get(1));
+				sendMessage(roomMembers(interest.get(1)));
+				break;
+			case "clients":
+				if (!subscribe) {
+					presence.unsubscribeDirectory(clientName);
+					break;
+				}
+				Presence.Page page = new Presence.Page(Integer.parseInt(interest.get(1)), Integer.parseInt(interest.get(2)));
+				long known = interest.size() > 3 ? Long.parseLong(interest.get(3)) : -1;
+				presence.subscribeDirectory(clientName, page);
+				Roster roster = presence.getRoster();
+				/** Client has this page already, announce of older roster must not send it again */
+				if (known >= roster.getVersion())
+					presence.markSent(clientName, known);
+				else if (presence.markSent(clientName, roster.getVersion()))
+					channel.write(roster.encodedPage(page));
+				break;
+			default:
+				addToLog("Client " + clientName + " sent unknown subscription " + request.getAdministrationMsg());
+			}
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			addToLog("Client " + clientName + " sent wrong subscription " + request.getAdministrationMsg());
+		}
+	}
+
+	/**
+	 * Telling subscribers of user and of changed pages of directory about his join or leave.
+	 * Every page is encoded once by roster and is not sent to client that has got it from
+	 * this or newer roster already.
+	 */
+	private void announce(Presence.Change change, boolean online) {
+		try {
+			writeToAll(change.getSubscribers(), userPresence(change.getUser(), online));
+			Roster roster = change.getRoster();
+			for (Map.Entry<Presence.Page, Set<String>> page : change.getPages().entrySet()) {
+				EncodedPackage encoded = roster.encodedPage(page.getKey());
+				for (String subscriber : page.getValue())
+					if (presence.markSent(subscriber, roster.getVersion()))
+						writeTo(subscriber, encoded);
 			}
-		}).start();
+		} catch (IOException e) {
+			addToLog("Encoding presence of " + change.getUser() + " failed.");
+		}
+	}
+
+	/** @return presence of user in format "<online><nickname>" or "<offline><nickname>" */
+	private DataPackage userPresence(String user, boolean online) {
+		DataPackage dp = new DataPackage();
+		dp.setFromUserName("SERVER");
+		dp.setHeader(Header.PRESENCE);
+		dp.setAdministrationMsg("<" + (online ? "online" : "offline") + "><" + user + ">");
+		return dp;
+	}
+
+	/** @return fields of administration message "<a><b>" without brackets */
+	private static List<String> fields(String msg) {
+		if (msg == null)
+			return Collections.emptyList();
+		List<String> splitted = Arrays.asList(msg.split("[<>]+"));
+		return splitted.isEmpty() ? splitted : splitted.subList(1, splitted.size());
 	}
 
-	private void sendUsersList() throws IOException {
-		StringBuilder sb = new StringBuilder("<clients>");
-		for (int i = 0; i < listModel.size(); i++)
-			sb.append("<" + listModel.get(i) + ">");
+	/** @return members of room in format "<room><member><member>" */
+	private DataPackage roomMembers(String room) {
+		StringBuilder sb = new StringBuilder("<" + room + ">");
+		for (String member : rooms.members(room))
+			sb.append("<" + member + ">");
 		DataPackage dp = new DataPackage();
 		dp.setFromUserName("SERVER");
-		dp.setHeader(Header.CLIENTS_LIST);
+		dp.setToUserName(room);
+		dp.setHeader(Header.ROOM_MEMBERS);
 		dp.setAdministrationMsg(sb.toString());
-		sendMessage(dp);
+		return dp;
 	}
 
-	private void passResponseToOtherClient(DataPackage receivedMessage) throws IOException {
-		if (receivedMessage.getHeader().equals(Header.ID_SENDING))
+	/** Package is serialized once and the same bytes are written to every user */
+	private void writeToAll(Set<String> users, DataPackage dp) throws IOException {
+		EncodedPackage encoded = EncodedPackage.encode(dp);
+		for (String user : users)
+			writeTo(user, encoded);
+	}
+
+	/**
+	 * Putting package of server in control lane of user, broken connection of one user does
+	 * not stop writing to the others
+	 */
+	private void writeTo(String user, EncodedPackage encoded) {
+		ClientChannel out = clientsMap.get(user);
+		if (out != null && !out.getOutbox().offerControl(encoded))
+			addToLog("Passing " + encoded.length() + " bytes from " + clientName + " to " + user + " failed.");
+	}
+
+	/**
+	 * Passing encrypted payload of multicast to every receiver, payload array is shared by all
+	 * packages and each receiver gets only content key wrapped for it. Broken stream of one
+	 * receiver is logged and does not stop passing to the others, receivers that are not
+	 * connected get message from offline store.
+	 */
+	private void fanOut(DataPackage multicast) throws IOException {
+		if (multicast.getRecipientKeys() == null)
 			return;
+		for (KeyWrap wrap : multicast.getRecipientKeys()) {
+			DataPackage dp = new DataPackage();
+			dp.setFromUserName(multicast.getFromUserName());
+			dp.setToUserName(wrap.getRecipient());
+			dp.setHeader(Header.MULTICAST);
+			dp.setEncryptedMsg(multicast.getEncryptedMsg());
+			dp.setKeyEpoch(wrap.getKeyEpoch());
+			dp.setRecipientKeys(Collections.singletonList(wrap));
+			deliver(wrap.getRecipient(), dp);
+		}
+	}
 
-		clientsMap.get(receivedMessage.getToUserName()).writeObject(receivedMessage);
+	/**
+	 * Writing chunk of attachment "<upload><position><length>" to store. The first chunk
+	 * starts upload and the last one stores file under its hash, which is sent back to client
+	 * as "<upload><hash>". Wrong chunk ends upload and client gets "<upload>" without hash.
+	 */
+	private void upload(DataPackage chunk) throws IOException {
+		List<String> fields = fields(chunk.getAdministrationMsg());
+		if (fields.size() != 3 || chunk.getEncryptedMsg() == null) {
+			addToLog("Client " + clientName + " sent wrong attachment chunk " + chunk.getAdministrationMsg());
+			return;
+		}
+		String id = fields.get(0);
+		AttachmentStore.Upload upload = uploads.get(id);
+		String hash = null;
+		try {
+			if (upload == null) {
+				if (attachments == null || uploads.size() >= MAX_UPLOADS)
+					throw new IOException("Attachments are not accepted now");
+				upload = attachments.begin(Long.parseLong(fields.get(2)), clientName);
+				uploads.put(id, upload);
+			}
+			upload.write(Long.parseLong(fields.get(1)), chunk.getEncryptedMsg());
+			if (!upload.isComplete())
+				return;
+			uploads.remove(id);
+			hash = upload.finish();
+		} catch (IOException | NumberFormatException e) {
+			if (upload != null)
+				upload.abort();
+			uploads.remove(id);
+			addToLog("Upload " + id + " of " + clientName + " failed: " + e.getMessage());
+		}
+		DataPackage answer = new DataPackage();
+		answer.setFromUserName("SERVER");
+		answer.setHeader(Header.ATTACHMENT_PUT);
+		answer.setAdministrationMsg("<" + id + ">" + (hash != null ? "<" + hash + ">" : ""));
+		sendMessage(answer);
+	}
+
+	/**
+	 * Giving stored attachment "<hash><length><name>" to receivers, client has to be its
+	 * uploader or one of its receivers. Every receiver gets
+	 * reference to file in store and package with content key wrapped for him, receivers that
+	 * are not connected get package from offline store and download file later.
+	 */
+	private void shareAttachment(DataPackage attachment) throws IOException {
+		List<String> fields = fields(attachment.getAdministrationMsg());
+		if (attachments == null || fields.size() != 3 || attachment.getRecipientKeys() == null)
+			return;
+		for (KeyWrap wrap : attachment.getRecipientKeys()) {
+			if (!attachments.reference(fields.get(0), wrap.getRecipient(), clientName)) {
+				addToLog("Client " + clientName + " shared unknown or not his attachment " + fields.get(0));
+				return;
+			}
+			DataPackage dp = new DataPackage();
+			dp.setFromUserName(attachment.getFromUserName());
+			dp.setToUserName(wrap.getRecipient());
+			dp.setHeader(Header.ATTACHMENT);
+			dp.setAdministrationMsg(attachment.getAdministrationMsg());
+			dp.setKeyEpoch(wrap.getKeyEpoch());
+			dp.setRecipientKeys(Collections.singletonList(wrap));
+			deliver(wrap.getRecipient(), dp);
+		}
 	}
 
 	private DataPackage getMessageFromClient() throws IOException {
 		DataPackage message = null;
 		try {
 			message = (DataPackage) oInputStream.readObject();
+			lastRead = System.nanoTime();
 		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+			addToLog(e.getMessage() + "---> Unknown package from " + clientName);
 		}
 
 		return message;
 	}
 
+	/** Answer of server goes through control lane when client has outbox, so it does not wait behind messages */
 	private void sendMessage(DataPackage respondMsg) throws IOException {
-		oOutputStream.writeObject(respondMsg);
-		oOutputStream.flush();
+		Outbox outbox = channel.getOutbox();
+		if (outbox == null)
+			channel.write(respondMsg);
+		else if (!outbox.offerControl(EncodedPackage.encode(respondMsg)))
+			throw new IOException("Connection of " + clientName + " is broken");
 	}
 
 	private void addToLog(String msg) {
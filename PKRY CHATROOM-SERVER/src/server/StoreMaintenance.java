@@ -0,0 +1,55 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic work of stores, like deleting their expired files. Timer wheel only schedules it,
+ * work runs on one maintenance thread because deletes can be slow, and next run is scheduled
+ * when the last one ends, so runs never overlap. Task that throws is counted in server metrics
+ * as "maintenance.failed" and is run again next time.
+ */
+public class StoreMaintenance {
+	private final TimerWheel timerWheel;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "store-maintenance");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor
+	 * @param timerWheel wheel scheduling runs
+	 */
+	public StoreMaintenance(TimerWheel timerWheel) {
+		this.timerWheel = timerWheel;
+	}
+
+	/**
+	 * Running task on maintenance thread again and again
+	 * @param task work of store
+	 * @param interval time between end of one run and start of next one
+	 * @param unit unit of interval
+	 */
+	public void every(Runnable task, long interval, TimeUnit unit) {
+		timerWheel.schedule(() -> {
+			if (running)
+				worker.execute(() -> {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						ServerMetrics.increment("maintenance.failed");
+					}
+					every(task, interval, unit);
+				});
+		}, interval, unit);
+	}
+
+	/** Stopping maintenance thread, run in progress ends and no other starts */
+	public void stop() {
+		running = false;
+		worker.shutdown();
+	}
+}
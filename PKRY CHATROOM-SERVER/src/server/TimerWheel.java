@@ -0,0 +1,167 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel - one thread for timeouts of all connections instead of sleeping thread
+ * per connection. Wheel is array of slots, every tick thread moves to next slot and runs
+ * timeouts of that slot whose rounds are over. Scheduling and cancelling cost O(1): new
+ * timeouts are put in queue and moved to their slots by wheel thread, cancelled ones are
+ * unlinked when their slot is visited. Tasks run on wheel thread, so they have to be short.
+ * Task that throws is counted in server metrics as "timer.failed", next tasks still run.
+ */
+public class TimerWheel {
+	private final long tickNanos;
+	private final Slot[] slots;
+	private final int mask;
+	/** Timeouts scheduled since last tick */
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	/** Start of wheel, deadlines are counted from it */
+	private final long start = System.nanoTime();
+	private final Thread worker;
+	private volatile boolean running = true;
+	/** Number of next tick, used only by wheel thread */
+	private long tick;
+
+	/**
+	 * Constructor, starts wheel thread
+	 * @param tickDuration time of one tick
+	 * @param unit unit of tick duration
+	 * @param wheelSize number of slots, rounded up to power of two
+	 */
+	public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+		tickNanos = unit.toNanos(tickDuration);
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		slots = new Slot[size];
+		for (int i = 0; i < size; i++)
+			slots[i] = new Slot();
+		mask = size - 1;
+		worker = new Thread(this::run, "timer-wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * @param task task run on wheel thread
+	 * @param delay time after which task is run, rounded up to tick
+	 * @param unit unit of delay
+	 * @return timeout that can be cancelled
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		Timeout timeout = new Timeout(task, System.nanoTime() - start + unit.toNanos(delay));
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/** Stopping wheel thread, waiting timeouts are not run */
+	public void stop() {
+		running = false;
+		worker.interrupt();
+	}
+
+	private void run() {
+		while (running) {
+			long deadline = tickNanos * (tick + 1);
+			long sleep = deadline - (System.nanoTime() - start);
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					/** Stopped or woken up early, state is checked again */
+				}
+				continue;
+			}
+			transferScheduled();
+			slots[(int) (tick & mask)].expire();
+			tick++;
+		}
+	}
+
+	/** Putting new timeouts in their slots, the ones already late go to current slot */
+	private void transferScheduled() {
+		for (Timeout timeout = scheduled.poll(); timeout != null; timeout = scheduled.poll()) {
+			if (timeout.cancelled)
+				continue;
+			long ticks = Math.max(tick, (timeout.deadline + tickNanos - 1) / tickNanos - 1);
+			timeout.rounds = (ticks - tick) / slots.length;
+			slots[(int) (ticks & mask)].add(timeout);
+		}
+	}
+
+	/** Task waiting in wheel */
+	public static final class Timeout {
+		private final Runnable task;
+		/** Deadline in nanoseconds from start of wheel */
+		private final long deadline;
+		private volatile boolean cancelled;
+		/** Full turns of wheel left before task is run */
+		private long rounds;
+		private Timeout previous;
+		private Timeout next;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/** Task will not be run, timeout is removed from wheel at its slot */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/** Doubly linked list of timeouts of one slot */
+	private static final class Slot {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.previous = tail;
+			timeout.next = null;
+			if (tail == null)
+				head = timeout;
+			else
+				tail.next = timeout;
+			tail = timeout;
+		}
+
+		void expire() {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.cancelled) {
+					remove(timeout);
+				} else if (timeout.rounds <= 0) {
+					remove(timeout);
+					try {
+						timeout.task.run();
+					} catch (RuntimeException e) {
+						ServerMetrics.increment("timer.failed");
+					}
+				} else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		private void remove(Timeout timeout) {
+			if (timeout.previous != null)
+				timeout.previous.next = timeout.next;
+			else
+				head = timeout.next;
+			if (timeout.next != null)
+				timeout.next.previous = timeout.previous;
+			else
+				tail = timeout.previous;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+	}
+}
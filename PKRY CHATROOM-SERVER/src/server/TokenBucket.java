@@ -0,0 +1,58 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket in form of generic cell rate algorithm: instead of number of tokens
+ * it keeps theoretical time when bucket is full again, and taking tokens moves that time by
+ * their cost with one compareAndSet. Tokens can be reserved for later, caller then waits
+ * returned time before it uses them.
+ */
+public class TokenBucket {
+	/** Time of refilling one token in nanoseconds */
+	private final long nanosPerToken;
+	/** Time of refilling whole bucket in nanoseconds */
+	private final long burstNanos;
+	/** Time when all taken tokens are refilled */
+	private final AtomicLong refilled = new AtomicLong(System.nanoTime());
+
+	/**
+	 * Constructor, bucket is full
+	 * @param perSecond tokens refilled per second
+	 * @param capacity max number of tokens in bucket
+	 */
+	public TokenBucket(long perSecond, long capacity) {
+		nanosPerToken = Math.max(1, 1_000_000_000L / perSecond);
+		burstNanos = nanosPerToken * capacity;
+	}
+
+	/**
+	 * Taking tokens now or reserving them for later
+	 * @param tokens number of tokens
+	 * @param maxWaitNanos longest accepted wait in nanoseconds
+	 * @return 0 if tokens are taken, time to wait in nanoseconds if they are reserved, -1 if
+	 *         wait would be longer than max and nothing is taken
+	 */
+	public long take(long tokens, long maxWaitNanos) {
+		long cost = tokens * nanosPerToken;
+		while (true) {
+			long now = System.nanoTime();
+			long current = refilled.get();
+			long next = Math.max(current, now) + cost;
+			long wait = next - burstNanos - now;
+			if (wait > maxWaitNanos)
+				return -1;
+			if (refilled.compareAndSet(current, next))
+				return Math.max(0, wait);
+		}
+	}
+
+	/**
+	 * Giving back tokens taken or reserved by {@link #take(long, long)} that are not used,
+	 * bucket is never fuller than its capacity
+	 * @param tokens number of tokens
+	 */
+	public void giveBack(long tokens) {
+		refilled.addAndGet(-tokens * nanosPerToken);
+	}
+}